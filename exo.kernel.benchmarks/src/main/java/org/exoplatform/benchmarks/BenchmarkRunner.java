@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Launches the benchmarks of the kernel with one of the predefined {@link Profile} in order
+ * to get results that can be compared from one run to another, saves them as a baseline
+ * and/or compares them to a baseline previously saved.
+ * <p>
+ * Usage: <code>java -jar benchmarks.jar [-profile quick|default|stable] [-include regexp]*
+ * [-save file] [-baseline file] [-threshold percent] [-failOnRegression] [-result file]</code>
+ * <ul>
+ * <li><code>-profile</code>: the {@link Profile} to use, <code>default</code> if not set</li>
+ * <li><code>-include</code>: the regular expression of the benchmarks to launch, all if not set</li>
+ * <li><code>-save</code>: the file in which the results will be stored to be used later as baseline</li>
+ * <li><code>-baseline</code>: the file of a baseline to which the results will be compared</li>
+ * <li><code>-threshold</code>: the percentage of degradation from which a result is
+ * considered as a regression, 10 if not set</li>
+ * <li><code>-failOnRegression</code>: exits with the status 1 if at least one regression has
+ * been detected</li>
+ * <li><code>-result</code>: the file in which the JMH results will be written in JSON</li>
+ * </ul>
+ * 
+ * @version $Id$
+ *
+ */
+public class BenchmarkRunner
+{
+
+   /**
+    * The prefix of the keys of the baseline file used to describe the environment
+    */
+   private static final String ENV_PREFIX = "env.";
+
+   /**
+    * The JVM arguments used for all the forks, the heap is fixed and the collector is explicit
+    * to avoid results depending on the ergonomics of the machine
+    */
+   private static final String[] JVM_ARGS = {"-Xms1g", "-Xmx1g", "-XX:+UseParallelGC", "-XX:+AlwaysPreTouch"};
+
+   /**
+    * The predefined settings of JMH
+    */
+   public static enum Profile
+   {
+      /**
+       * Quick run to check that the benchmarks work, its results must not be used as baseline
+       */
+      QUICK(1, 2, 1, 3, 1),
+      /**
+       * Standard run
+       */
+      DEFAULT(2, 5, 1, 10, 1),
+      /**
+       * Long run to get stable results, to be used to build a baseline
+       */
+      STABLE(5, 10, 2, 20, 2);
+
+      private final int forks;
+
+      private final int warmupIterations;
+
+      private final int warmupTime;
+
+      private final int iterations;
+
+      private final int time;
+
+      private Profile(int forks, int warmupIterations, int warmupTime, int iterations, int time)
+      {
+         this.forks = forks;
+         this.warmupIterations = warmupIterations;
+         this.warmupTime = warmupTime;
+         this.iterations = iterations;
+         this.time = time;
+      }
+
+      /**
+       * Applies the settings of the profile to the given builder
+       */
+      ChainedOptionsBuilder apply(ChainedOptionsBuilder builder)
+      {
+         return builder.forks(forks).warmupIterations(warmupIterations)
+            .warmupTime(TimeValue.seconds(warmupTime)).measurementIterations(iterations)
+            .measurementTime(TimeValue.seconds(time)).jvmArgs(JVM_ARGS);
+      }
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      Profile profile = Profile.DEFAULT;
+      List<String> includes = new ArrayList<String>();
+      String save = null, baseline = null, result = null;
+      double threshold = 10;
+      boolean failOnRegression = false;
+      for (int i = 0; i < args.length; i++)
+      {
+         String arg = args[i];
+         if ("-failOnRegression".equals(arg))
+         {
+            failOnRegression = true;
+            continue;
+         }
+         if (i == args.length - 1)
+         {
+            usage("Missing value for " + arg);
+         }
+         String value = args[++i];
+         if ("-profile".equals(arg))
+         {
+            try
+            {
+               profile = Profile.valueOf(value.toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+               usage("Unknown profile " + value);
+            }
+         }
+         else if ("-include".equals(arg))
+         {
+            includes.add(value);
+         }
+         else if ("-save".equals(arg))
+         {
+            save = value;
+         }
+         else if ("-baseline".equals(arg))
+         {
+            baseline = value;
+         }
+         else if ("-threshold".equals(arg))
+         {
+            threshold = Double.parseDouble(value);
+         }
+         else if ("-result".equals(arg))
+         {
+            result = value;
+         }
+         else
+         {
+            usage("Unknown option " + arg);
+         }
+      }
+      ChainedOptionsBuilder builder = profile.apply(new OptionsBuilder()).shouldFailOnError(true);
+      if (includes.isEmpty())
+      {
+         builder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+      }
+      for (String include : includes)
+      {
+         builder.include(include);
+      }
+      if (result != null)
+      {
+         builder.resultFormat(ResultFormatType.JSON).result(result);
+      }
+      Collection<RunResult> results = new Runner(builder.build()).run();
+      Properties current = toProperties(results, profile);
+      if (save != null)
+      {
+         store(current, new File(save));
+         System.out.println("The results have been saved into " + save); //NOSONAR
+      }
+      if (baseline != null)
+      {
+         Properties reference = load(new File(baseline));
+         StringBuilder report = new StringBuilder();
+         int regressions = compare(reference, current, threshold, report);
+         System.out.println(report); //NOSONAR
+         if (regressions > 0 && failOnRegression)
+         {
+            System.exit(1); //NOSONAR
+         }
+      }
+   }
+
+   private static void usage(String message)
+   {
+      System.err.println(message); //NOSONAR
+      System.err.println("Usage: java -jar benchmarks.jar [-profile quick|default|stable] [-include regexp]* " //NOSONAR
+         + "[-save file] [-baseline file] [-threshold percent] [-failOnRegression] [-result file]");
+      System.exit(2); //NOSONAR
+   }
+
+   /**
+    * Converts the results into properties where the key is the name of the benchmark followed by
+    * its parameters and the value is the score, the score error, the unit and the mode separated
+    * by a semicolon. The environment is also described thanks to keys starting with {@link #ENV_PREFIX}.
+    */
+   static Properties toProperties(Collection<RunResult> results, Profile profile)
+   {
+      Properties props = new Properties();
+      props.setProperty(ENV_PREFIX + "profile", profile.name().toLowerCase());
+      props.setProperty(ENV_PREFIX + "java.version", System.getProperty("java.version"));
+      props.setProperty(ENV_PREFIX + "java.vm.name", System.getProperty("java.vm.name"));
+      props.setProperty(ENV_PREFIX + "os.name", System.getProperty("os.name"));
+      props.setProperty(ENV_PREFIX + "os.arch", System.getProperty("os.arch"));
+      props.setProperty(ENV_PREFIX + "processors", Integer.toString(Runtime.getRuntime().availableProcessors()));
+      for (RunResult runResult : results)
+      {
+         BenchmarkParams params = runResult.getParams();
+         Result<?> result = runResult.getPrimaryResult();
+         StringBuilder key = new StringBuilder(params.getBenchmark());
+         for (String param : params.getParamsKeys())
+         {
+            key.append(key.indexOf("{") == -1 ? '{' : ',').append(param).append('=').append(params.getParam(param));
+         }
+         if (key.indexOf("{") != -1)
+         {
+            key.append('}');
+         }
+         props.setProperty(key.toString(), result.getScore() + ";" + result.getScoreError() + ";"
+            + result.getScoreUnit() + ";" + params.getMode().name());
+      }
+      return props;
+   }
+
+   /**
+    * Compares the current results with the reference results and writes the report into the given
+    * {@link StringBuilder}
+    * @return the total amount of regressions that have been detected
+    */
+   static int compare(Properties reference, Properties current, double threshold, StringBuilder report)
+   {
+      Map<String, String> sorted = new TreeMap<String, String>();
+      for (String key : current.stringPropertyNames())
+      {
+         sorted.put(key, current.getProperty(key));
+      }
+      String nl = System.getProperty("line.separator");
+      for (Map.Entry<String, String> entry : sorted.entrySet())
+      {
+         if (!entry.getKey().startsWith(ENV_PREFIX))
+            continue;
+         String value = reference.getProperty(entry.getKey());
+         if (!entry.getValue().equals(value))
+         {
+            report.append("WARNING: The environment differs for ").append(entry.getKey().substring(ENV_PREFIX.length()))
+               .append(", baseline = ").append(value).append(", current = ").append(entry.getValue()).append(nl);
+         }
+      }
+      report.append(String.format("%-90s %15s %15s %9s %s%n", "Benchmark", "Baseline", "Current", "Delta", "Unit"));
+      int regressions = 0;
+      for (Map.Entry<String, String> entry : sorted.entrySet())
+      {
+         if (entry.getKey().startsWith(ENV_PREFIX))
+            continue;
+         String[] values = entry.getValue().split(";");
+         double score = Double.parseDouble(values[0]);
+         String value = reference.getProperty(entry.getKey());
+         if (value == null)
+         {
+            report.append(String.format("%-90s %15s %15.3f %9s %s%n", entry.getKey(), "N/A", score, "", values[2]));
+            continue;
+         }
+         String[] refValues = value.split(";");
+         double refScore = Double.parseDouble(refValues[0]);
+         double delta = refScore == 0 ? 0 : (score - refScore) * 100 / refScore;
+         // In throughput mode, the higher the better otherwise the lower the better
+         double degradation = Mode.Throughput.name().equals(values[3]) ? -delta : delta;
+         double errors = errorOf(values[1]) + errorOf(refValues[1]);
+         boolean regression = degradation > threshold && Math.abs(score - refScore) > errors;
+         if (regression)
+         {
+            regressions++;
+         }
+         report.append(String.format("%-90s %15.3f %15.3f %+8.1f%% %s%s%n", entry.getKey(), refScore, score, delta,
+            values[2], regression ? " REGRESSION" : ""));
+      }
+      report.append(regressions).append(" regression(s) detected with a threshold of ").append(threshold)
+         .append('%');
+      return regressions;
+   }
+
+   private static double errorOf(String value)
+   {
+      double error = Double.parseDouble(value);
+      return Double.isNaN(error) ? 0 : error;
+   }
+
+   private static Properties load(File file) throws IOException
+   {
+      Properties props = new Properties();
+      InputStream in = new FileInputStream(file);
+      try
+      {
+         props.load(in);
+      }
+      finally
+      {
+         in.close();
+      }
+      return props;
+   }
+
+   private static void store(Properties props, File file) throws IOException
+   {
+      OutputStream out = new FileOutputStream(file);
+      try
+      {
+         props.store(out, "Baseline of the kernel benchmarks");
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link ConcurrentFIFOExoCache} under contention. The keys are picked among
+ * a set of keys twice bigger than the max size of the cache so that evictions happen.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConcurrentFIFOExoCacheBenchmark
+{
+
+   @Param({"1000", "100000"})
+   public int maxSize;
+
+   private ConcurrentFIFOExoCache<String, Object> cache;
+
+   private String[] keys;
+
+   @Setup
+   public void setUp()
+   {
+      cache = new ConcurrentFIFOExoCache<String, Object>("benchmark", maxSize);
+      keys = new String[maxSize * 2];
+      for (int i = 0; i < keys.length; i++)
+      {
+         keys[i] = "key-" + i;
+         if (i % 2 == 0)
+         {
+            cache.put(keys[i], keys[i]);
+         }
+      }
+   }
+
+   /**
+    * The cursor of a given thread, the sequence of keys is random but the same for all the runs
+    */
+   @State(Scope.Thread)
+   public static class Cursor
+   {
+      private int[] indexes;
+
+      private int position;
+
+      @Setup
+      public void setUp(ConcurrentFIFOExoCacheBenchmark benchmark)
+      {
+         Random random = new Random(benchmark.maxSize);
+         indexes = new int[1024];
+         for (int i = 0; i < indexes.length; i++)
+         {
+            indexes[i] = random.nextInt(benchmark.keys.length);
+         }
+      }
+
+      String next(String[] keys)
+      {
+         return keys[indexes[position++ & 1023]];
+      }
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public Object get(Cursor cursor)
+   {
+      return cache.get(cursor.next(keys));
+   }
+
+   @Benchmark
+   @Group("readWrite")
+   @GroupThreads(3)
+   public Object readWriteGet(Cursor cursor)
+   {
+      return cache.get(cursor.next(keys));
+   }
+
+   @Benchmark
+   @Group("readWrite")
+   @GroupThreads(1)
+   public void readWritePut(Cursor cursor)
+   {
+      String key = cursor.next(keys);
+      cache.put(key, key);
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public void put(Cursor cursor)
+   {
+      String key = cursor.next(keys);
+      cache.put(key, key);
+   }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.container.configuration.ConfigurationUnmarshaller;
+import org.exoplatform.container.xml.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link ConfigurationUnmarshaller#unmarshall(URL)} with a configuration file
+ * representative of the configuration files of a portal.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigurationUnmarshallerBenchmark
+{
+
+   private ConfigurationUnmarshaller unmarshaller;
+
+   private URL url;
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      unmarshaller = new ConfigurationUnmarshaller();
+      url = ConfigurationUnmarshallerBenchmark.class.getResource("/conf/benchmark-configuration.xml");
+      if (url == null)
+      {
+         throw new IllegalStateException("The configuration file of the benchmark cannot be found");
+      }
+   }
+
+   @Benchmark
+   public Configuration unmarshall() throws Exception
+   {
+      return unmarshaller.unmarshall(url);
+   }
+}
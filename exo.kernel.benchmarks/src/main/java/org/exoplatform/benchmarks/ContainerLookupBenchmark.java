@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.container.ExoContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the lookups of components through the full interceptor chain of an
+ * {@link ExoContainer} that has a parent container.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ContainerLookupBenchmark
+{
+
+   private ExoContainer parent;
+
+   private ExoContainer container;
+
+   @Setup
+   public void setUp()
+   {
+      parent = new ExoContainer();
+      container = new ExoContainer(parent);
+      parent.registerComponentImplementation(ParentComponent.class);
+      container.registerComponentImplementation(LocalComponent.class);
+      container.registerComponentImplementation(ListedComponent1.class);
+      container.registerComponentImplementation(ListedComponent2.class);
+      parent.start();
+      container.start();
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      container.stop();
+      parent.stop();
+   }
+
+   /**
+    * Lookup of a component of the container itself
+    */
+   @Benchmark
+   public LocalComponent lookupByType()
+   {
+      return container.getComponentInstanceOfType(LocalComponent.class);
+   }
+
+   /**
+    * Same as {@link #lookupByType()} with as many threads as available processors
+    */
+   @Benchmark
+   @Threads(Threads.MAX)
+   public LocalComponent lookupByTypeContended()
+   {
+      return container.getComponentInstanceOfType(LocalComponent.class);
+   }
+
+   /**
+    * Lookup by key of a component of the container itself
+    */
+   @Benchmark
+   public Object lookupByKey()
+   {
+      return container.getComponentInstance(LocalComponent.class);
+   }
+
+   /**
+    * Lookup of a component only available in the parent container
+    */
+   @Benchmark
+   public ParentComponent lookupFromParent()
+   {
+      return container.getComponentInstanceOfType(ParentComponent.class);
+   }
+
+   /**
+    * Lookup of a component that cannot be found, such lookups cannot be cached
+    */
+   @Benchmark
+   public MissingComponent lookupMissing()
+   {
+      return container.getComponentInstanceOfType(MissingComponent.class);
+   }
+
+   /**
+    * Lookup of all the components of a given type
+    */
+   @Benchmark
+   public List<Listed> lookupAllOfType()
+   {
+      return container.getComponentInstancesOfType(Listed.class);
+   }
+
+   public static interface Listed
+   {
+   }
+
+   public static class LocalComponent
+   {
+   }
+
+   public static class ParentComponent
+   {
+   }
+
+   public static class MissingComponent
+   {
+   }
+
+   public static class ListedComponent1 implements Listed
+   {
+   }
+
+   public static class ListedComponent2 implements Listed
+   {
+   }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.container.xml.Deserializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link Deserializer#resolveVariables(String, Map)} with the typical values
+ * found in the configuration files.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DeserializerBenchmark
+{
+
+   private static final String NO_VARIABLE = "org.exoplatform.services.cache.impl.CacheServiceImpl";
+
+   private static final String ONE_VARIABLE = "${exo.benchmark.dir}/data/index";
+
+   private static final String SEVERAL_VARIABLES =
+      "jdbc:hsqldb:file:${exo.benchmark.dir}/${exo.benchmark.db:portal}/${exo.benchmark.unknown:db}";
+
+   private static final String FROM_PARAMS = "${exo.benchmark.param}-${exo.benchmark.dir}";
+
+   private Map<String, Object> params;
+
+   @Setup
+   public void setUp()
+   {
+      System.setProperty("exo.benchmark.dir", "/var/exo/data");
+      System.setProperty("exo.benchmark.db", "benchmark");
+      params = new HashMap<String, Object>();
+      params.put("exo.benchmark.param", "value");
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      System.clearProperty("exo.benchmark.dir");
+      System.clearProperty("exo.benchmark.db");
+   }
+
+   @Benchmark
+   public String noVariable()
+   {
+      return Deserializer.resolveVariables(NO_VARIABLE);
+   }
+
+   @Benchmark
+   public String oneVariable()
+   {
+      return Deserializer.resolveVariables(ONE_VARIABLE);
+   }
+
+   @Benchmark
+   public String severalVariables()
+   {
+      return Deserializer.resolveVariables(SEVERAL_VARIABLES);
+   }
+
+   @Benchmark
+   public String fromParams()
+   {
+      return Deserializer.resolveVariables(FROM_PARAMS, params);
+   }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.future.FutureExoCache;
+import org.exoplatform.services.cache.future.Loader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link FutureExoCache} during miss storms: all the threads request the
+ * same small set of keys from a cache too small to keep them all, so the same keys are
+ * constantly reloaded concurrently.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FutureExoCacheBenchmark
+{
+
+   /**
+    * The cost of a load expressed in amount of tokens consumed by {@link Blackhole#consumeCPU(long)}
+    */
+   @Param({"100", "10000"})
+   public long loadCost;
+
+   /**
+    * The total amount of keys requested by the threads
+    */
+   @Param({"64"})
+   public int keys;
+
+   private FutureExoCache<String, String, Object> cache;
+
+   private String[] values;
+
+   @Setup
+   public void setUp()
+   {
+      values = new String[keys];
+      for (int i = 0; i < keys; i++)
+      {
+         values[i] = "key-" + i;
+      }
+      Loader<String, String, Object> loader = new Loader<String, String, Object>()
+      {
+         public String retrieve(Object context, String key) throws Exception
+         {
+            Blackhole.consumeCPU(loadCost);
+            return key;
+         }
+      };
+      // Only one quarter of the keys can be cached
+      cache = new FutureExoCache<String, String, Object>(loader, new ConcurrentFIFOExoCache<String, String>(keys / 4));
+   }
+
+   /**
+    * The cursor of a given thread, all the threads follow the same sequence of keys
+    */
+   @State(Scope.Thread)
+   public static class Cursor
+   {
+      private int position;
+
+      String next(String[] values)
+      {
+         return values[(position++ & Integer.MAX_VALUE) % values.length];
+      }
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public String missStorm(Cursor cursor)
+   {
+      return cache.get(null, cursor.next(values));
+   }
+}
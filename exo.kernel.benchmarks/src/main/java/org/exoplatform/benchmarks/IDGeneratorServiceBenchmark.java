@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.idgenerator.IDGeneratorService;
+import org.exoplatform.services.idgenerator.impl.IDGeneratorServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the generation of identifiers by the {@link IDGeneratorService} with
+ * the available generators.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IDGeneratorServiceBenchmark
+{
+   /**
+    * The generator to use
+    */
+   @Param({"random", "sequence"})
+   public String generator;
+
+   private IDGeneratorService service;
+
+   private Object object;
+
+   @Setup
+   public void setUp()
+   {
+      InitParams params = new InitParams();
+      ValueParam vp = new ValueParam();
+      vp.setName(IDGeneratorServiceImpl.GENERATOR);
+      vp.setValue(generator);
+      params.addParameter(vp);
+      service = new IDGeneratorServiceImpl(params);
+      object = new Object();
+   }
+
+   @Benchmark
+   public String generateStringID()
+   {
+      return service.generateStringID(object);
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public String generateStringIDContended()
+   {
+      return service.generateStringID(object);
+   }
+
+   @Benchmark
+   public long generateLongID()
+   {
+      return service.generateLongID(object);
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public long generateLongIDContended()
+   {
+      return service.generateLongID(object);
+   }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.commons.utils.ISO8601;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single-pass parser and formatter of {@link ISO8601} with the
+ * implementation based on {@link SimpleDateFormat}.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ISO8601Benchmark
+{
+   /**
+    * The date to parse
+    */
+   @Param({"2013-07-16T19:20:30.450+01:00", "2013-07-16T19:20:30Z", "2013-07-16"})
+   public String date;
+
+   /**
+    * A copy of the default formats, it prevents the single-pass parser from being used
+    */
+   private String[] formats;
+
+   private Calendar calendar;
+
+   @Setup
+   public void setUp() throws ParseException
+   {
+      formats = ISO8601.FORMATS.clone();
+      calendar = ISO8601.parseEx(date);
+   }
+
+   @Benchmark
+   public Calendar parse() throws ParseException
+   {
+      return ISO8601.parse(date, ISO8601.FORMATS);
+   }
+
+   @Benchmark
+   public Calendar parseWithFormats() throws ParseException
+   {
+      return ISO8601.parse(date, formats);
+   }
+
+   @Benchmark
+   public String format()
+   {
+      return ISO8601.format(calendar);
+   }
+
+   @Benchmark
+   public String formatWithSimpleDateFormat()
+   {
+      SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.US);
+      formatter.setTimeZone(calendar.getTimeZone());
+      String formattedDate = formatter.format(calendar.getTime());
+      if (formattedDate.endsWith("0000"))
+      {
+         return formattedDate.substring(0, formattedDate.length() - 5) + "Z";
+      }
+      int index = formattedDate.length() - 2;
+      return formattedDate.substring(0, index) + ":" + formattedDate.substring(index);
+   }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.services.naming.ExoContainerContextFactory;
+import org.exoplatform.services.naming.InitialContextInitializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.naming.spi.ObjectFactory;
+
+/**
+ * Benchmarks the JNDI lookups of the objects bound thanks to the {@link ExoContainerContextFactory}.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JNDILookupBenchmark
+{
+
+   private static final String OBJECT_NAME = "benchmark/object";
+
+   private static final String REFERENCE_NAME = "benchmark/reference";
+
+   private ExoContainer container;
+
+   private Hashtable<String, Object> env;
+
+   @Setup
+   public void setUp() throws NamingException
+   {
+      container = new ExoContainer();
+      ExoContainerContext.setCurrentContainer(container);
+      Hashtable<String, Object> initializerEnv = new Hashtable<String, Object>();
+      initializerEnv.put(Context.INITIAL_CONTEXT_FACTORY, ExoContainerContextFactory.class.getName());
+      initializerEnv.put(InitialContextInitializer.class.getName(), "true");
+      InitialContext ctx = new InitialContext(initializerEnv);
+      ctx.bind(OBJECT_NAME, new Object());
+      ctx.bind(REFERENCE_NAME, new Reference(Object.class.getName(), BenchmarkObjectFactory.class.getName(), null));
+      env = new Hashtable<String, Object>();
+      env.put(Context.INITIAL_CONTEXT_FACTORY, ExoContainerContextFactory.class.getName());
+   }
+
+   /**
+    * The current container is a thread local so it is set at each call
+    */
+   @Benchmark
+   public Object lookup() throws NamingException
+   {
+      ExoContainerContext.setCurrentContainer(container);
+      return new InitialContext(env).lookup(OBJECT_NAME);
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public Object lookupContended() throws NamingException
+   {
+      ExoContainerContext.setCurrentContainer(container);
+      return new InitialContext(env).lookup(OBJECT_NAME);
+   }
+
+   /**
+    * Lookup of a reference that is resolved once then kept in the bindings
+    */
+   @Benchmark
+   @Threads(Threads.MAX)
+   public Object lookupReferenceContended() throws NamingException
+   {
+      ExoContainerContext.setCurrentContainer(container);
+      return new InitialContext(env).lookup(REFERENCE_NAME);
+   }
+
+   public static class BenchmarkObjectFactory implements ObjectFactory
+   {
+      public Object getObjectInstance(Object obj, Name name, Context nameCtx,
+         Hashtable<?, ?> environment) throws Exception
+      {
+         return new Object();
+      }
+   }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.services.listener.Event;
+import org.exoplatform.services.listener.Listener;
+import org.exoplatform.services.listener.ListenerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link ListenerService#broadcast(String, Object, Object)} with synchronous listeners.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ListenerServiceBenchmark
+{
+
+   private static final String EVENT_NAME = "benchmark.event";
+
+   /**
+    * The total amount of listeners registered for the event
+    */
+   @Param({"1", "10"})
+   public int listeners;
+
+   private ListenerService service;
+
+   private Object source;
+
+   private Object data;
+
+   @Setup
+   public void setUp()
+   {
+      service = new ListenerService(new ExoContainerContext(new ExoContainer()));
+      for (int i = 0; i < listeners; i++)
+      {
+         service.addListener(EVENT_NAME, new ConsumingListener());
+      }
+      source = new Object();
+      data = new Object();
+   }
+
+   @Benchmark
+   public void broadcast() throws Exception
+   {
+      service.broadcast(EVENT_NAME, source, data);
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public void broadcastContended() throws Exception
+   {
+      service.broadcast(EVENT_NAME, source, data);
+   }
+
+   /**
+    * Broadcast of an event that has no listener
+    */
+   @Benchmark
+   public void broadcastNoListener() throws Exception
+   {
+      service.broadcast("benchmark.unknown", source, data);
+   }
+
+   public static class ConsumingListener extends Listener<Object, Object>
+   {
+      @Override
+      public void onEvent(Event<Object, Object> event) throws Exception
+      {
+         Blackhole.consumeCPU(10);
+      }
+   }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.log.impl.LogMessageFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks the parameterized messages of the {@link Log}, when the level is disabled and
+ * when it is enabled, and compares the formatting of the messages by {@link LogMessageFormatter}
+ * with the former implementation based on a regular expression.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggerBenchmark
+{
+   /**
+    * The logger, its level is INFO and its messages are discarded (see log4j.properties)
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.benchmarks.LoggerBenchmark");
+
+   private static final Pattern REPLACE_PATTERN = Pattern.compile("\\{\\}");
+
+   private static final String FORMAT = "The component {} of the container {} has been started in {} ms";
+
+   private final Object[] args = {"org.exoplatform.services.foo.FooService", "portal", 42};
+
+   @Benchmark
+   public void debugDisabled()
+   {
+      LOG.debug(FORMAT, args[0], args[1], args[2]);
+   }
+
+   @Benchmark
+   public void infoEnabled()
+   {
+      LOG.info(FORMAT, args[0], args[1], args[2]);
+   }
+
+   @Benchmark
+   public String format()
+   {
+      return LogMessageFormatter.getMessage(FORMAT, args);
+   }
+
+   @Benchmark
+   public String formatWithRegex()
+   {
+      String str = FORMAT;
+      for (int i = 0; i < args.length; i++)
+      {
+         str = REPLACE_PATTERN.matcher(str).replaceFirst(Matcher.quoteReplacement(String.valueOf(args[i])));
+      }
+      return str;
+   }
+}
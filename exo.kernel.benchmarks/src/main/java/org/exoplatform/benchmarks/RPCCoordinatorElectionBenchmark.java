@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.benchmarks.RPCServiceBenchmark.CountingRPCService;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.rpc.TopologyChangeEvent;
+import org.exoplatform.services.rpc.TopologyChangeListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the time needed by the remaining nodes of a cluster running in the same JVM to
+ * be notified of the election of a new coordinator once the coordinator leaves the cluster.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RPCCoordinatorElectionBenchmark
+{
+
+   /**
+    * The total amount of nodes in the cluster
+    */
+   @Param({"3", "8"})
+   public int nodes;
+
+   /**
+    * The latency of the simulated network in milliseconds
+    */
+   @Param({"0"})
+   public long latency;
+
+   /**
+    * The rate of lost messages of the simulated network
+    */
+   @Param({"0"})
+   public double lossRate;
+
+   private CountingRPCService[] services;
+
+   private CountingRPCService coordinator;
+
+   private CountDownLatch elected;
+
+   @Setup(Level.Invocation)
+   public void setUp() throws Exception
+   {
+      services = new CountingRPCService[nodes];
+      InitParams params = RPCServiceBenchmark.getInitParams(latency, lossRate);
+      for (int i = 0; i < nodes; i++)
+      {
+         services[i] = new CountingRPCService(params);
+         services[i].start();
+      }
+      RPCServiceBenchmark.waitForCluster(services, nodes);
+      elected = new CountDownLatch(nodes - 1);
+      for (CountingRPCService service : services)
+      {
+         if (service.isCoordinator())
+         {
+            coordinator = service;
+            continue;
+         }
+         service.registerTopologyChangeListener(new TopologyChangeListener()
+         {
+            public void onChange(TopologyChangeEvent event)
+            {
+               if (event.isCoordinatorHasChanged())
+               {
+                  elected.countDown();
+               }
+            }
+         });
+      }
+   }
+
+   @TearDown(Level.Invocation)
+   public void tearDown()
+   {
+      for (CountingRPCService service : services)
+      {
+         if (service != coordinator)
+         {
+            service.stop();
+         }
+      }
+   }
+
+   @Benchmark
+   public void electCoordinator() throws Exception
+   {
+      coordinator.stop();
+      elected.await();
+   }
+}
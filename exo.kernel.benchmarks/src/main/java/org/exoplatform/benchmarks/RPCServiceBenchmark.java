@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.configuration.ConfigurationManagerImpl;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.rpc.RemoteCommand;
+import org.exoplatform.services.rpc.jgv3.RPCServiceImpl;
+import org.jgroups.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks {@link RPCServiceImpl#executeCommandOnCoordinator(RemoteCommand, boolean, Serializable...)}
+ * against {@link RPCServiceImpl#executeCommandOnAllNodes(RemoteCommand, boolean, Serializable...)}
+ * on a cluster of nodes running in the same JVM and connected through a simulated network. At the end of each iteration, the average amount of messages
+ * received by the nodes per call is printed, it is expected to be 1 for the calls on the
+ * coordinator whatever the size of the cluster and the size of the cluster for the calls
+ * on all the nodes.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RPCServiceBenchmark
+{
+
+   /**
+    * The total amount of nodes in the cluster
+    */
+   @Param({"2", "4", "8"})
+   public int nodes;
+
+   /**
+    * The latency of the simulated network in milliseconds
+    */
+   @Param({"0"})
+   public long latency;
+
+   /**
+    * The rate of lost messages of the simulated network
+    */
+   @Param({"0"})
+   public double lossRate;
+
+   private CountingRPCService[] services;
+
+   /**
+    * The node from which the commands are launched, it is not the coordinator
+    */
+   private RPCServiceImpl caller;
+
+   private RemoteCommand command;
+
+   private final AtomicLong calls = new AtomicLong();
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      services = new CountingRPCService[nodes];
+      InitParams params = getInitParams(latency, lossRate);
+      for (int i = 0; i < nodes; i++)
+      {
+         services[i] = new CountingRPCService(params);
+         command = services[i].registerCommand(new EchoCommand());
+         services[i].start();
+      }
+      waitForCluster(services, nodes);
+      caller = services[nodes - 1];
+      if (caller.isCoordinator())
+      {
+         throw new IllegalStateException("The caller is not expected to be the coordinator");
+      }
+   }
+
+   @TearDown(Level.Iteration)
+   public void report()
+   {
+      long received = 0;
+      for (CountingRPCService service : services)
+      {
+         received += service.handled.getAndSet(0);
+      }
+      long total = calls.getAndSet(0);
+      if (total > 0)
+      {
+         System.out.printf("%nMessages received per call: %.2f%n", (double)received / total);
+      }
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      for (CountingRPCService service : services)
+      {
+         service.stop();
+      }
+   }
+
+   @Benchmark
+   public Object executeOnCoordinator() throws Exception
+   {
+      calls.incrementAndGet();
+      return caller.executeCommandOnCoordinator(command, true);
+   }
+
+   @Benchmark
+   public List<Object> executeOnAllNodes() throws Exception
+   {
+      calls.incrementAndGet();
+      return caller.executeCommandOnAllNodes(command, true);
+   }
+
+   /**
+    * Gives the parameters of a node of a cluster running in the same JVM
+    * @param latency the latency of the simulated network in milliseconds
+    * @param lossRate the rate of lost messages of the simulated network
+    */
+   static InitParams getInitParams(long latency, double lossRate)
+   {
+      System.setProperty("exo.rpc.network.latency", String.valueOf(latency));
+      System.setProperty("exo.rpc.network.loss_rate", String.valueOf(lossRate));
+      InitParams params = new InitParams();
+      ValueParam paramConf = new ValueParam();
+      paramConf.setName("jgroups-configuration");
+      paramConf.setValue("jar:/conf/rpc/in-jvm.xml");
+      params.addParameter(paramConf);
+      return params;
+   }
+
+   /**
+    * Waits until all the given nodes see a cluster of the expected size
+    */
+   static void waitForCluster(CountingRPCService[] services, int size) throws InterruptedException
+   {
+      long timeout = System.currentTimeMillis() + 30000;
+      for (CountingRPCService service : services)
+      {
+         if (service == null)
+         {
+            continue;
+         }
+         while (service.getClusterSize() != size)
+         {
+            if (System.currentTimeMillis() > timeout)
+            {
+               throw new IllegalStateException("The cluster could not be formed in time");
+            }
+            Thread.sleep(10);
+         }
+      }
+   }
+
+   public static class EchoCommand implements RemoteCommand
+   {
+      public String getId()
+      {
+         return "benchmark.echo";
+      }
+
+      public Serializable execute(Serializable[] args) throws Throwable
+      {
+         return Boolean.TRUE;
+      }
+   }
+
+   /**
+    * Counts the messages received by a node
+    */
+   public static class CountingRPCService extends RPCServiceImpl
+   {
+      private final AtomicLong handled = new AtomicLong();
+
+      public CountingRPCService(InitParams params)
+      {
+         super(new ExoContainerContext(new ExoContainer(), "benchmark"), params, new ConfigurationManagerImpl());
+      }
+
+      @Override
+      public Object handle(Message msg)
+      {
+         handled.incrementAndGet();
+         return super.handle(msg);
+      }
+
+      int getClusterSize()
+      {
+         List<?> members = this.members;
+         return members == null ? 0 : members.size();
+      }
+   }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.component.ComponentRequestLifecycle;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link RequestLifeCycle#begin(ExoContainer)} followed by {@link RequestLifeCycle#end()}
+ * on a container with several {@link ComponentRequestLifecycle}.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestLifeCycleBenchmark
+{
+
+   private ExoContainer container;
+
+   private ComponentRequestLifecycle component;
+
+   @Setup
+   public void setUp()
+   {
+      container = new ExoContainer();
+      container.registerComponentImplementation(Component1.class);
+      container.registerComponentImplementation(Component2.class);
+      container.registerComponentImplementation(Component3.class);
+      container.start();
+      component = container.getComponentInstanceOfType(Component1.class);
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      container.stop();
+   }
+
+   @Benchmark
+   public Map<Object, Throwable> beginEndContainer()
+   {
+      RequestLifeCycle.begin(container);
+      return RequestLifeCycle.end();
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public Map<Object, Throwable> beginEndContainerContended()
+   {
+      RequestLifeCycle.begin(container);
+      return RequestLifeCycle.end();
+   }
+
+   /**
+    * Nested request life cycles, the nested one is ignored since the container is already started
+    */
+   @Benchmark
+   public Map<Object, Throwable> beginEndNested()
+   {
+      RequestLifeCycle.begin(container);
+      try
+      {
+         RequestLifeCycle.begin(container);
+         return RequestLifeCycle.end();
+      }
+      finally
+      {
+         RequestLifeCycle.end();
+      }
+   }
+
+   @Benchmark
+   public Map<Object, Throwable> beginEndComponent()
+   {
+      RequestLifeCycle.begin(component);
+      return RequestLifeCycle.end();
+   }
+
+   public abstract static class AbstractComponent implements ComponentRequestLifecycle
+   {
+      public void startRequest(ExoContainer container)
+      {
+      }
+
+      public void endRequest(ExoContainer container)
+      {
+      }
+   }
+
+   public static class Component1 extends AbstractComponent
+   {
+   }
+
+   public static class Component2 extends AbstractComponent
+   {
+   }
+
+   public static class Component3 extends AbstractComponent
+   {
+   }
+}
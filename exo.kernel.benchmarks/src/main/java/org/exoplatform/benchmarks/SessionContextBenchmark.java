@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.benchmarks;
+
+import org.exoplatform.container.context.SessionContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.enterprise.context.spi.Contextual;
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.PassivationCapable;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Benchmarks the {@link SessionContext} when all the threads access the same session which is
+ * the case of the concurrent requests of a given user. The instances are either already created
+ * or created concurrently because the session is regularly replaced with a new one.
+ * 
+ * @version $Id$
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionContextBenchmark
+{
+
+   private static final AtomicInteger SESSION_IDS = new AtomicInteger();
+
+   /**
+    * The total amount of session scoped components
+    */
+   @Param({"16"})
+   public int components;
+
+   /**
+    * The amount of accesses of a given thread after which it replaces the current session
+    */
+   @Param({"256"})
+   public int renewal;
+
+   private SessionContext context;
+
+   private BenchmarkContextual[] contextuals;
+
+   private final AtomicReference<HttpSession> current = new AtomicReference<HttpSession>();
+
+   @Setup
+   public void setUp()
+   {
+      context = new SessionContext();
+      contextuals = new BenchmarkContextual[components];
+      for (int i = 0; i < components; i++)
+      {
+         contextuals[i] = new BenchmarkContextual("benchmark-" + i);
+      }
+      current.set(createSession());
+   }
+
+   /**
+    * The state of a given thread
+    */
+   @State(Scope.Thread)
+   public static class ThreadState
+   {
+      private HttpSession session;
+
+      private int accesses;
+
+      private final CreationalContext<Object> creationalContext = new BenchmarkCreationalContext();
+
+      @TearDown
+      public void tearDown(SessionContextBenchmark benchmark)
+      {
+         if (session != null)
+         {
+            benchmark.context.deactivate(session);
+            session = null;
+         }
+      }
+   }
+
+   /**
+    * Accesses the components of a session in which they have already been created
+    */
+   @Benchmark
+   @Threads(Threads.MAX)
+   public Object getExisting(ThreadState state)
+   {
+      activate(state, current.get());
+      return context.get(contextuals[state.accesses++ % components], state.creationalContext);
+   }
+
+   /**
+    * Accesses the components of a session that is regularly replaced with a new one, so that
+    * the instances are created concurrently
+    */
+   @Benchmark
+   @Threads(Threads.MAX)
+   public Object getWithNewSessions(ThreadState state)
+   {
+      HttpSession session = current.get();
+      if (++state.accesses % renewal == 0)
+      {
+         HttpSession newSession = createSession();
+         session = current.compareAndSet(session, newSession) ? newSession : current.get();
+      }
+      activate(state, session);
+      return context.get(contextuals[state.accesses % components], state.creationalContext);
+   }
+
+   private void activate(ThreadState state, HttpSession session)
+   {
+      if (state.session != session)
+      {
+         if (state.session != null)
+         {
+            context.deactivate(state.session);
+         }
+         context.activate(session);
+         state.session = session;
+      }
+   }
+
+   private static HttpSession createSession()
+   {
+      final String id = "session-" + SESSION_IDS.incrementAndGet();
+      final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+      return (HttpSession)Proxy.newProxyInstance(SessionContextBenchmark.class.getClassLoader(),
+         new Class<?>[]{HttpSession.class}, new InvocationHandler()
+         {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+               String name = method.getName();
+               if ("getAttribute".equals(name))
+               {
+                  return attributes.get(args[0]);
+               }
+               else if ("setAttribute".equals(name))
+               {
+                  if (args[1] == null)
+                     attributes.remove(args[0]);
+                  else
+                     attributes.put((String)args[0], args[1]);
+               }
+               else if ("removeAttribute".equals(name))
+               {
+                  attributes.remove(args[0]);
+               }
+               else if ("getId".equals(name))
+               {
+                  return id;
+               }
+               else if ("getAttributeNames".equals(name))
+               {
+                  Enumeration<String> names = Collections.enumeration(attributes.keySet());
+                  return names;
+               }
+               else if ("hashCode".equals(name))
+               {
+                  return System.identityHashCode(proxy);
+               }
+               else if ("equals".equals(name))
+               {
+                  return proxy == args[0];
+               }
+               return null;
+            }
+         });
+   }
+
+   private static class BenchmarkContextual implements Contextual<Object>, PassivationCapable
+   {
+      private final String id;
+
+      BenchmarkContextual(String id)
+      {
+         this.id = id;
+      }
+
+      public Object create(CreationalContext<Object> creationalContext)
+      {
+         return new Object();
+      }
+
+      public void destroy(Object instance, CreationalContext<Object> creationalContext)
+      {
+      }
+
+      public String getId()
+      {
+         return id;
+      }
+   }
+
+   private static class BenchmarkCreationalContext implements CreationalContext<Object>
+   {
+      public void push(Object incompleteInstance)
+      {
+      }
+
+      public void release()
+      {
+      }
+   }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.commons.utils;
+
+/**
+ * An open addressing hash table of file extensions that can be looked up case insensitively
+ * from a region of a file name without creating any intermediate string.
+ *
+ * @version $Id$
+ */
+class ExtensionTable
+{
+   private String[] keys = new String[64];
+
+   private String[] values = new String[64];
+
+   private int size;
+
+   /**
+    * Associates the given MIME type to the given extension, unless the extension already
+    * has a MIME type
+    */
+   void putIfAbsent(String extension, String mimeType)
+   {
+      if (get(extension, 0, extension.length()) != null)
+      {
+         return;
+      }
+      if ((size + 1) * 2 > keys.length)
+      {
+         resize();
+      }
+      insert(keys, values, extension, mimeType);
+      size++;
+   }
+
+   /**
+    * Gives the MIME type of the extension located between the given indexes of the given
+    * string, regardless of the case
+    */
+   String get(String s, int start, int end)
+   {
+      int length = end - start;
+      int mask = keys.length - 1;
+      for (int i = hash(s, start, end) & mask;; i = (i + 1) & mask)
+      {
+         String key = keys[i];
+         if (key == null)
+         {
+            return null;
+         }
+         else if (key.length() == length && key.regionMatches(true, 0, s, start, length))
+         {
+            return values[i];
+         }
+      }
+   }
+
+   private void resize()
+   {
+      String[] newKeys = new String[keys.length * 2];
+      String[] newValues = new String[keys.length * 2];
+      for (int i = 0; i < keys.length; i++)
+      {
+         if (keys[i] != null)
+         {
+            insert(newKeys, newValues, keys[i], values[i]);
+         }
+      }
+      keys = newKeys;
+      values = newValues;
+   }
+
+   private static void insert(String[] keys, String[] values, String key, String value)
+   {
+      int mask = keys.length - 1;
+      int i = hash(key, 0, key.length()) & mask;
+      while (keys[i] != null)
+      {
+         i = (i + 1) & mask;
+      }
+      keys[i] = key.intern();
+      values[i] = value.intern();
+   }
+
+   private static int hash(String s, int start, int end)
+   {
+      int h = 0;
+      for (int i = start; i < end; i++)
+      {
+         h = 31 * h + Character.toLowerCase(s.charAt(i));
+      }
+      return h ^ (h >>> 16);
+   }
+}
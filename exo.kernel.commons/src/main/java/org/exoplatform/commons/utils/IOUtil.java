@@ -23,13 +23,27 @@ import org.exoplatform.services.log.Log;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
 
 /**
  * @author: Tuan Nguyen
@@ -43,7 +57,10 @@ public class IOUtil
    private static final Log LOG = ExoLogger.getLogger("exo.kernel.commons.IOUtil");
 
    /** The buffer size for reading input streams. */
-   private static final int DEFAULT_BUFFER_SIZE = 256;
+   private static final int BUFFER_SIZE = 8192;
+
+   /** The size of the char buffer used for decoding the content. */
+   private static final int CHAR_BUFFER_SIZE = 8192;
 
    /**
     * Returns the content of the specified file as a string using the <code>UTF-8</code> charset.
@@ -73,8 +90,17 @@ public class IOUtil
       {
          throw new IllegalArgumentException("No null file accepted");
       }
+      Charset cs = toCharset(charset);
       FileInputStream is = PrivilegedFileHelper.fileInputStream(file);
-      return new String(getStreamContentAsBytes(is), charset);
+      try
+      {
+         FileChannel channel = is.getChannel();
+         return decode(channel, cs, (int)Math.min(checkSize(channel.size()), Integer.MAX_VALUE));
+      }
+      finally
+      {
+         close(is);
+      }
    }
 
    /**
@@ -119,8 +145,35 @@ public class IOUtil
     */
    static public String getStreamContentAsString(InputStream is) throws IOException, IllegalArgumentException
    {
-      byte buf[] = getStreamContentAsBytes(is);
-      return new String(buf, "UTF-8");
+      return getStreamContentAsString(is, "UTF-8");
+   }
+
+   /**
+    * Reads a stream until its end and returns its content as a string using the specified charset.
+    * The content is decoded while being read, without building an intermediate byte array. The provided
+    * stream will be closed by this method.
+    *
+    * @param is the stream
+    * @param charset the charset
+    * @return the content
+    * @throws IOException any io exception
+    * @throws IllegalArgumentException if the specified stream is null
+    */
+   static public String getStreamContentAsString(InputStream is, String charset) throws IOException,
+      IllegalArgumentException
+   {
+      if (is == null)
+      {
+         throw new IllegalArgumentException("No null input stream accepted");
+      }
+      try
+      {
+         return decode(Channels.newChannel(is), toCharset(charset), BUFFER_SIZE);
+      }
+      finally
+      {
+         close(is);
+      }
    }
 
    /**
@@ -137,8 +190,41 @@ public class IOUtil
       {
          throw new IllegalArgumentException("No null file name accepted");
       }
-      FileInputStream is = PrivilegedFileHelper.fileInputStream(fileName);
-      return getStreamContentAsBytes(is);
+      return getFileContentAsBytes(new File(fileName));
+   }
+
+   /**
+    * Returns the content of the specified file as a byte array. The file is read through its channel
+    * into an array of its exact size.
+    *
+    * @param file the file
+    * @return the content
+    * @throws IOException any io exception
+    * @throws IllegalArgumentException if the specified file is null
+    */
+   static public byte[] getFileContentAsBytes(File file) throws IOException, IllegalArgumentException
+   {
+      if (file == null)
+      {
+         throw new IllegalArgumentException("No null file accepted");
+      }
+      FileInputStream is = PrivilegedFileHelper.fileInputStream(file);
+      try
+      {
+         FileChannel channel = is.getChannel();
+         byte[] data = new byte[(int)checkSize(channel.size())];
+         ByteBuffer buffer = ByteBuffer.wrap(data);
+         while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+         {
+         }
+         // The size of the file may have changed in the meantime or be unknown like in the case of
+         // some special files, so the rest of the file is read if any
+         return read(Channels.newInputStream(channel), data, buffer.position());
+      }
+      finally
+      {
+         close(is);
+      }
    }
 
    /**
@@ -157,40 +243,73 @@ public class IOUtil
       {
          throw new IllegalArgumentException("No null input stream accepted");
       }
-      try
+      int length = -1;
+      if (is instanceof FileInputStream)
       {
-         ByteArrayOutputStream output = new ByteArrayOutputStream();
-         byte[] data = new byte[DEFAULT_BUFFER_SIZE];
-         int available;
-         while ((available = is.read(data)) > -1)
-         {
-            output.write(data, 0, available);
-         }
-         return output.toByteArray();
-      }
-      finally
-      {
-         if (is != null)
+         try
          {
-            try
+            FileChannel channel = ((FileInputStream)is).getChannel();
+            long remaining = channel.size() - channel.position();
+            if (remaining >= 0 && remaining < Integer.MAX_VALUE)
             {
-               is.close();
+               length = (int)remaining;
             }
-            catch (IOException ignore)
+         }
+         catch (IOException e)
+         {
+            // The length is unknown
+            if (LOG.isTraceEnabled())
             {
-               if (LOG.isTraceEnabled())
-               {
-                  LOG.trace("An exception occurred: " + ignore.getMessage());
-               }
+               LOG.trace("An exception occurred: " + e.getMessage());
             }
-            catch (RuntimeException ignore)
+         }
+      }
+      return getStreamContentAsBytes(is, length);
+   }
+
+   /**
+    * Reads a stream until its end and returns its content as a byte array. If the expected length of
+    * the content is known, the content is read directly into an array of this size, otherwise it is
+    * read through a buffer. The provided stream will be closed by this method.
+    * Any runtime exception thrown when the stream is closed will be ignored and not rethrown.
+    *
+    * @param is the input stream
+    * @param length the expected length of the content or a negative value if it is unknown
+    * @return the data read from the input stream its end
+    * @throws IOException if any IOException occurs during a read
+    * @throws IllegalArgumentException if the provided input stream is null
+    */
+   static public byte[] getStreamContentAsBytes(InputStream is, int length) throws IOException,
+      IllegalArgumentException
+   {
+      if (is == null)
+      {
+         throw new IllegalArgumentException("No null input stream accepted");
+      }
+      try
+      {
+         if (length >= 0)
+         {
+            return read(is, new byte[length], 0);
+         }
+         byte[] data = new byte[BUFFER_SIZE];
+         byte[] content = new byte[BUFFER_SIZE];
+         int count = 0;
+         int available;
+         while ((available = is.read(data)) > -1)
+         {
+            if (count + available > content.length)
             {
-               if (LOG.isTraceEnabled())
-               {
-                  LOG.trace("An exception occurred: " + ignore.getMessage());
-               }
+               content = Arrays.copyOf(content, Math.max(content.length * 2, count + available));
             }
+            System.arraycopy(data, 0, content, count, available);
+            count += available;
          }
+         return Arrays.copyOf(content, count);
+      }
+      finally
+      {
+         close(is);
       }
    }
 
@@ -207,8 +326,7 @@ public class IOUtil
     */
    static public String getResourceAsString(String resource) throws IOException
    {
-      byte[] bytes = getResourceAsBytes(resource);
-      return new String(bytes, "UTF-8");
+      return getStreamContentAsString(getResource(resource).getInputStream(), "UTF-8");
    }
 
    /**
@@ -222,6 +340,15 @@ public class IOUtil
     * @throws IOException thrown by accessing the resource
     */
    static public byte[] getResourceAsBytes(String resource) throws IOException
+   {
+      URLConnection connection = getResource(resource);
+      return getStreamContentAsBytes(connection.getInputStream(), connection.getContentLength());
+   }
+
+   /**
+    * Opens a connection to a resource of the thread context classloader.
+    */
+   private static URLConnection getResource(String resource) throws IOException
    {
       if (resource == null)
       {
@@ -234,8 +361,147 @@ public class IOUtil
          throw new IllegalArgumentException("The resource " + resource
             + " was not found in the thread context classloader");
       }
-      InputStream is = url.openStream();
-      return getStreamContentAsBytes(is);
+      return url.openConnection();
+   }
+
+   /**
+    * Decodes the content of the given channel chunk by chunk through bounded buffers
+    *
+    * @param capacity the initial capacity of the builder that collects the decoded chars
+    */
+   private static String decode(ReadableByteChannel channel, Charset charset, int capacity) throws IOException
+   {
+      CharsetDecoder decoder = newDecoder(charset);
+      StringBuilder sb = new StringBuilder(capacity);
+      ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+      CharBuffer out = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+      boolean eof = false;
+      while (!eof)
+      {
+         // Only the bytes of an incomplete char can remain so there is always enough room
+         eof = channel.read(in) < 0;
+         in.flip();
+         while (decoder.decode(in, out, eof).isOverflow())
+         {
+            drain(out, sb);
+         }
+         in.compact();
+      }
+      while (decoder.flush(out).isOverflow())
+      {
+         drain(out, sb);
+      }
+      drain(out, sb);
+      return sb.toString();
+   }
+
+   /**
+    * Moves the decoded chars into the given builder
+    */
+   private static void drain(CharBuffer out, StringBuilder sb)
+   {
+      sb.append(out.array(), out.arrayOffset(), out.position());
+      out.clear();
+   }
+
+   /**
+    * Reads the given stream until its end into the given array that already contains the given amount
+    * of bytes, the array is enlarged if needed and the result is an array of the exact size
+    */
+   private static byte[] read(InputStream is, byte[] data, int count) throws IOException
+   {
+      for (;;)
+      {
+         count = fill(is, data, count);
+         if (count < data.length)
+         {
+            return Arrays.copyOf(data, count);
+         }
+         int b = is.read();
+         if (b < 0)
+         {
+            return data;
+         }
+         data = Arrays.copyOf(data, Math.max(data.length * 2, BUFFER_SIZE));
+         data[count++] = (byte)b;
+      }
+   }
+
+   /**
+    * Reads the given stream until the given array is full or the end of the stream is reached
+    *
+    * @return the total amount of bytes in the array
+    */
+   private static int fill(InputStream is, byte[] data, int count) throws IOException
+   {
+      int n;
+      while (count < data.length && (n = is.read(data, count, data.length - count)) >= 0)
+      {
+         count += n;
+      }
+      return count;
+   }
+
+   /**
+    * Checks that a file of the given size can be loaded in memory
+    */
+   private static long checkSize(long size) throws IOException
+   {
+      if (size > Integer.MAX_VALUE)
+      {
+         throw new IOException("The file is too large to be loaded in memory: " + size + " bytes");
+      }
+      return size;
+   }
+
+   private static Charset toCharset(String charset) throws UnsupportedEncodingException
+   {
+      try
+      {
+         return Charset.forName(charset);
+      }
+      catch (IllegalCharsetNameException e)
+      {
+         throw new UnsupportedEncodingException(charset);
+      }
+      catch (UnsupportedCharsetException e)
+      {
+         throw new UnsupportedEncodingException(charset);
+      }
+   }
+
+   /**
+    * Creates a decoder that replaces the malformed input as {@link String#String(byte[], String)} does
+    */
+   private static CharsetDecoder newDecoder(Charset charset)
+   {
+      return charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(
+         CodingErrorAction.REPLACE);
+   }
+
+   /**
+    * Closes the given stream, any exception thrown is ignored
+    */
+   private static void close(Closeable c)
+   {
+      try
+      {
+         c.close();
+      }
+      catch (IOException ignore)
+      {
+         if (LOG.isTraceEnabled())
+         {
+            LOG.trace("An exception occurred: " + ignore.getMessage());
+         }
+      }
+      catch (RuntimeException ignore)
+      {
+         if (LOG.isTraceEnabled())
+         {
+            LOG.trace("An exception occurred: " + ignore.getMessage());
+         }
+      }
    }
 
    // Deprecated stuf ***************************************************************************************************
@@ -301,5 +567,4 @@ public class IOUtil
    {
       return getFileContentAsString(fileName);
    }
-
 }
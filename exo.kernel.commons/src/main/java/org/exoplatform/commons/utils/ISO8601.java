@@ -22,7 +22,9 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Created by The eXo Platform SAS Author : Peter Nedonosko
@@ -136,6 +138,27 @@ public class ISO8601
          COMPLETE_DATEHOURSMINUTESZ_FORMAT, COMPLETE_DATEHOURSMINUTESZRFC822_FORMAT, SIMPLE_DATEHOURSMINUTES_FORMAT,
          COMPLETE_DATE_FORMAT, YEARMONTH_FORMAT, YEAR_FORMAT};
 
+   /**
+    * The first year supported by the single-pass parser and formatter, the previous
+    * years are handled by {@link SimpleDateFormat} since they may belong to the Julian
+    * calendar
+    */
+   private static final int MIN_YEAR = 1583;
+
+   /**
+    * The last year supported by the single-pass parser and formatter
+    */
+   private static final int MAX_YEAR = 9999;
+
+   private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+   /**
+    * The range of local times in milliseconds supported by the single-pass formatter
+    */
+   private static final long MIN_LOCAL_TIME = daysFromCivil(MIN_YEAR, 1, 1) * MILLIS_PER_DAY;
+
+   private static final long MAX_LOCAL_TIME = daysFromCivil(MAX_YEAR + 1, 1, 1) * MILLIS_PER_DAY;
+
    protected static class ISODateFormat
    {
 
@@ -212,14 +235,62 @@ public class ISO8601
 
    /**
     * Format date using format: complete date plus hours, minutes, seconds and a
-    * decimal fraction of a second.
+    * decimal fraction of a second. This method is thread safe and only relies on
+    * {@link SimpleDateFormat} for the years out of the range 1583-9999.
     * 
     * @param date
     * @return
     */
    public static String format(Calendar date)
    {
-      return new ISODateFormat(COMPLETE_DATETIMEMSZ_FORMAT).format(date);
+      long time = date.getTimeInMillis();
+      TimeZone tz = date.getTimeZone();
+      int offset = tz.getOffset(time);
+      long localTime = time + offset;
+      if (localTime < MIN_LOCAL_TIME || localTime >= MAX_LOCAL_TIME)
+      {
+         return new ISODateFormat(COMPLETE_DATETIMEMSZ_FORMAT).format(date);
+      }
+      long days = localTime / MILLIS_PER_DAY;
+      if (localTime < 0 && days * MILLIS_PER_DAY != localTime)
+      {
+         days--;
+      }
+      int millisOfDay = (int)(localTime - days * MILLIS_PER_DAY);
+      char[] buffer = new char[29];
+      int pos = civilFromDays(days, buffer);
+      buffer[pos++] = 'T';
+      pos = append2Digits(buffer, pos, millisOfDay / 3600000);
+      buffer[pos++] = ':';
+      pos = append2Digits(buffer, pos, millisOfDay / 60000 % 60);
+      buffer[pos++] = ':';
+      pos = append2Digits(buffer, pos, millisOfDay / 1000 % 60);
+      buffer[pos++] = '.';
+      int millis = millisOfDay % 1000;
+      buffer[pos++] = (char)('0' + millis / 100);
+      pos = append2Digits(buffer, pos, millis % 100);
+      // Like the RFC 822 time zone of SimpleDateFormat, the seconds of the offset are ignored
+      int offsetMinutes = offset / 60000;
+      if (offsetMinutes == 0)
+      {
+         buffer[pos++] = 'Z';
+      }
+      else
+      {
+         if (offsetMinutes < 0)
+         {
+            buffer[pos++] = '-';
+            offsetMinutes = -offsetMinutes;
+         }
+         else
+         {
+            buffer[pos++] = '+';
+         }
+         pos = append2Digits(buffer, pos, offsetMinutes / 60);
+         buffer[pos++] = ':';
+         pos = append2Digits(buffer, pos, offsetMinutes % 60);
+      }
+      return new String(buffer, 0, pos);
    }
 
    /**
@@ -263,6 +334,14 @@ public class ISO8601
     */
    public static Calendar parse(String dateString, String[] formats) throws ParseException
    {
+      if (formats == FORMATS)
+      {
+         Calendar isoDate = parseDefault(dateString);
+         if (isoDate != null)
+         {
+            return isoDate;
+         }
+      }
       StringBuilder problems = new StringBuilder();
 
       int errOffset = 0;
@@ -298,4 +377,227 @@ public class ISO8601
 
       throw new ParseException("Can not parse " + dateString + " as Date. " + problems.toString(), errOffset);
    }
+
+   /**
+    * Parses in a single pass the given string if it matches exactly with one of the
+    * default formats. The result is the same as the one of the first matching format
+    * of {@link #FORMATS}, so the decimal fraction of a second is read as an amount of
+    * milliseconds like {@link SimpleDateFormat} does.
+    * 
+    * @return the parsed calendar or <code>null</code> if the string must be parsed
+    * with the formats themselves
+    */
+   private static Calendar parseDefault(String dateString)
+   {
+      int length = dateString.length();
+      int year = parseDigits(dateString, 0, 4);
+      if (year < MIN_YEAR || year > MAX_YEAR)
+      {
+         return null;
+      }
+      int month = 1, day = 1, hour = 0, minute = 0, second = 0, millis = 0;
+      int pos = 4;
+      if (pos < length)
+      {
+         if (dateString.charAt(pos) != '-' || (month = parseDigits(dateString, pos + 1, 2)) < 1 || month > 12)
+         {
+            return null;
+         }
+         pos += 3;
+      }
+      if (pos < length)
+      {
+         if (dateString.charAt(pos) != '-' || (day = parseDigits(dateString, pos + 1, 2)) < 1
+            || day > daysInMonth(year, month))
+         {
+            return null;
+         }
+         pos += 3;
+      }
+      if (pos == length)
+      {
+         return toCalendar(year, month, day, hour, minute, second, millis);
+      }
+      if (pos != 10 || length < 16 || dateString.charAt(pos) != 'T' || (hour = parseDigits(dateString, 11, 2)) < 0 || hour > 23
+         || dateString.charAt(13) != ':' || (minute = parseDigits(dateString, 14, 2)) < 0 || minute > 59)
+      {
+         return null;
+      }
+      pos = 16;
+      if (pos < length && dateString.charAt(pos) == ':')
+      {
+         if ((second = parseDigits(dateString, pos + 1, 2)) < 0 || second > 59)
+         {
+            return null;
+         }
+         pos += 3;
+         if (pos < length && dateString.charAt(pos) == '.')
+         {
+            int start = ++pos;
+            while (pos < length && pos - start < 3 && isDigit(dateString.charAt(pos)))
+            {
+               pos++;
+            }
+            if (pos == start)
+            {
+               return null;
+            }
+            millis = parseDigits(dateString, start, pos - start);
+         }
+      }
+      if (pos == length)
+      {
+         return toCalendar(year, month, day, hour, minute, second, millis);
+      }
+      int offset;
+      char c = dateString.charAt(pos);
+      if (c == 'Z' && pos + 1 == length)
+      {
+         offset = 0;
+      }
+      else if (c == '+' || c == '-')
+      {
+         int offsetHours = parseDigits(dateString, pos + 1, 2);
+         pos += 3;
+         if (pos < length && dateString.charAt(pos) == ':')
+         {
+            pos++;
+         }
+         int offsetMinutes = parseDigits(dateString, pos, 2);
+         if (pos + 2 != length || offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59)
+         {
+            return null;
+         }
+         offset = (offsetHours * 60 + offsetMinutes) * 60000;
+         if (c == '-')
+         {
+            offset = -offset;
+         }
+      }
+      else
+      {
+         return null;
+      }
+      long time =
+         daysFromCivil(year, month, day) * MILLIS_PER_DAY + ((hour * 60 + minute) * 60 + second) * 1000L + millis
+            - offset;
+      Calendar isoCalendar = Calendar.getInstance();
+      isoCalendar.setTimeInMillis(time);
+      return isoCalendar;
+   }
+
+   /**
+    * Gives the calendar corresponding to the given local date and time in the default
+    * time zone
+    */
+   private static Calendar toCalendar(int year, int month, int day, int hour, int minute, int second, int millis)
+   {
+      // The fields are resolved by a Gregorian calendar like SimpleDateFormat does in
+      // order to get the same result during the daylight saving time transitions
+      Calendar local = new GregorianCalendar(Locale.US);
+      local.clear();
+      local.set(year, month - 1, day, hour, minute, second);
+      local.set(Calendar.MILLISECOND, millis);
+      Calendar isoCalendar = Calendar.getInstance();
+      isoCalendar.setTimeInMillis(local.getTimeInMillis());
+      return isoCalendar;
+   }
+
+   /**
+    * Gives the value of the given amount of digits from the given index or -1 if
+    * they are not all digits
+    */
+   private static int parseDigits(String s, int index, int digits)
+   {
+      if (index + digits > s.length())
+      {
+         return -1;
+      }
+      int value = 0;
+      for (int i = index, end = index + digits; i < end; i++)
+      {
+         char c = s.charAt(i);
+         if (!isDigit(c))
+         {
+            return -1;
+         }
+         value = value * 10 + c - '0';
+      }
+      return value;
+   }
+
+   private static boolean isDigit(char c)
+   {
+      return c >= '0' && c <= '9';
+   }
+
+   private static boolean isLeapYear(int year)
+   {
+      return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+   }
+
+   private static int daysInMonth(int year, int month)
+   {
+      switch (month)
+      {
+         case 2 :
+            return isLeapYear(year) ? 29 : 28;
+         case 4 :
+         case 6 :
+         case 9 :
+         case 11 :
+            return 30;
+         default :
+            return 31;
+      }
+   }
+
+   /**
+    * Gives the amount of days since 1970-01-01 of the given date of the proleptic
+    * Gregorian calendar, the year is expected to be positive
+    */
+   private static long daysFromCivil(int year, int month, int day)
+   {
+      if (month <= 2)
+      {
+         year--;
+      }
+      int era = year / 400;
+      int yearOfEra = year - era * 400;
+      int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+      int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+      return era * 146097L + dayOfEra - 719468;
+   }
+
+   /**
+    * Writes into the given buffer the date of the proleptic Gregorian calendar
+    * corresponding to the given amount of days since 1970-01-01 in the form yyyy-MM-dd
+    * 
+    * @return the position following the date in the buffer
+    */
+   private static int civilFromDays(long days, char[] buffer)
+   {
+      days += 719468;
+      int era = (int)(days / 146097);
+      int dayOfEra = (int)(days - era * 146097L);
+      int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+      int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      int mp = (5 * dayOfYear + 2) / 153;
+      int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+      int month = mp < 10 ? mp + 3 : mp - 9;
+      int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+      int pos = append2Digits(buffer, 0, year / 100);
+      pos = append2Digits(buffer, pos, year % 100);
+      buffer[pos++] = '-';
+      pos = append2Digits(buffer, pos, month);
+      buffer[pos++] = '-';
+      return append2Digits(buffer, pos, day);
+   }
+
+   private static int append2Digits(char[] buffer, int pos, int value)
+   {
+      buffer[pos++] = (char)('0' + value / 10);
+      buffer[pos++] = (char)('0' + value % 10);
+      return pos;
+   }
 }
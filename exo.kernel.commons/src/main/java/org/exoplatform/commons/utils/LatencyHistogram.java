@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.commons.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lightweight histogram of durations expressed in nanoseconds. The durations are
+ * stored into buckets whose upper bound is a power of 2 so the percentiles are
+ * approximated by the upper bound of the bucket in which they fall. Like
+ * {@link StripedCounter}, the updates are spread over several rows of buckets to
+ * reduce the contention.
+ *
+ * @version $Id$
+ *
+ */
+public class LatencyHistogram
+{
+
+   /**
+    * The total amount of buckets, the last one contains all the durations greater
+    * than 2^(BUCKETS - 2) nanoseconds which is more than 4 minutes
+    */
+   private static final int BUCKETS = 40;
+
+   /**
+    * The rows of buckets
+    */
+   private final AtomicLongArray buckets;
+
+   /**
+    * The mask used to get the row of a thread
+    */
+   private final int mask;
+
+   /**
+    * The sum of all the durations
+    */
+   private final StripedCounter total;
+
+   /**
+    * The max duration
+    */
+   private final AtomicLong max = new AtomicLong();
+
+   public LatencyHistogram()
+   {
+      this(StripedCounter.DEFAULT_STRIPES);
+   }
+
+   /**
+    * @param stripes the amount of rows of buckets to use, it will be rounded up to the next power of 2
+    */
+   public LatencyHistogram(int stripes)
+   {
+      int size = 1;
+      while (size < stripes)
+      {
+         size <<= 1;
+      }
+      this.mask = size - 1;
+      this.buckets = new AtomicLongArray(size * BUCKETS);
+      this.total = new StripedCounter(size);
+   }
+
+   /**
+    * Records the given duration
+    * @param nanos the duration in nanoseconds
+    */
+   public void record(long nanos)
+   {
+      if (nanos < 0)
+      {
+         nanos = 0;
+      }
+      int bucket = 64 - Long.numberOfLeadingZeros(nanos);
+      if (bucket >= BUCKETS)
+      {
+         bucket = BUCKETS - 1;
+      }
+      buckets.getAndIncrement(StripedCounter.getStripe(mask) * BUCKETS + bucket);
+      total.add(nanos);
+      long currentMax;
+      while (nanos > (currentMax = max.get()))
+      {
+         if (max.compareAndSet(currentMax, nanos))
+         {
+            break;
+         }
+      }
+   }
+
+   /**
+    * Records the duration between the given start time and now
+    * @param startTime the start time in nanoseconds as returned by {@link System#nanoTime()}
+    */
+   public void recordSince(long startTime)
+   {
+      record(System.nanoTime() - startTime);
+   }
+
+   private long[] getCounts()
+   {
+      long[] counts = new long[BUCKETS];
+      for (int i = 0, length = buckets.length(); i < length; i++)
+      {
+         counts[i % BUCKETS] += buckets.get(i);
+      }
+      return counts;
+   }
+
+   /**
+    * @return the total amount of recorded durations
+    */
+   public long getCount()
+   {
+      long count = 0;
+      for (int i = 0, length = buckets.length(); i < length; i++)
+      {
+         count += buckets.get(i);
+      }
+      return count;
+   }
+
+   /**
+    * @return the sum of all the recorded durations in nanoseconds
+    */
+   public long getTotal()
+   {
+      return total.get();
+   }
+
+   /**
+    * @return the max recorded duration in nanoseconds
+    */
+   public long getMax()
+   {
+      return max.get();
+   }
+
+   /**
+    * @return the mean of the recorded durations in nanoseconds
+    */
+   public long getMean()
+   {
+      long count = getCount();
+      return count == 0 ? 0 : getTotal() / count;
+   }
+
+   /**
+    * Gives an approximation of the given percentile
+    * @param percentile the percentile to compute, between 0 and 100
+    * @return the upper bound in nanoseconds of the bucket corresponding to the given percentile
+    */
+   public long getPercentile(double percentile)
+   {
+      if (percentile < 0 || percentile > 100)
+      {
+         throw new IllegalArgumentException("The percentile must be between 0 and 100");
+      }
+      long[] counts = getCounts();
+      long count = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         count += counts[i];
+      }
+      if (count == 0)
+      {
+         return 0;
+      }
+      long threshold = (long)Math.ceil(count * percentile / 100d);
+      long current = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         current += counts[i];
+         if (current >= threshold && counts[i] > 0)
+         {
+            return Math.min(i == 0 ? 0 : (1L << i) - 1, getMax());
+         }
+      }
+      return getMax();
+   }
+
+   /**
+    * Resets the histogram
+    */
+   public void reset()
+   {
+      for (int i = 0, length = buckets.length(); i < length; i++)
+      {
+         buckets.set(i, 0);
+      }
+      total.reset();
+      max.set(0);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString()
+   {
+      return "count=" + getCount() + ", mean=" + toMicros(getMean()) + "us, p50=" + toMicros(getPercentile(50))
+         + "us, p99=" + toMicros(getPercentile(99)) + "us, max=" + toMicros(getMax()) + "us";
+   }
+
+   private static long toMicros(long nanos)
+   {
+      return TimeUnit.NANOSECONDS.toMicros(nanos);
+   }
+}
@@ -21,10 +21,18 @@ package org.exoplatform.commons.utils;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 
-import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
 import java.util.AbstractList;
 import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * <p>A lazy list and uses a {@link org.exoplatform.commons.utils.ListAccess} object to load
@@ -33,9 +41,15 @@ import java.util.RandomAccess;
  *
  * <p>The loading policy is based on a simple batch algorithm that loads the elements by batches.</p>
  *
- * <p>The list also keeps a cache of the retrieved elements. The cache use soft references to provide
- * eviction of the elements if necessary. When a soft reference is cleared and access is made to an
- * evicted element then the elements will be reloaded from the list access object.</p>
+ * <p>The list also keeps a cache of the retrieved elements. By default the cache use soft references
+ * to provide eviction of the elements if necessary. When a soft reference is cleared and access is made
+ * to an evicted element then the elements will be reloaded from the list access object.</p>
+ *
+ * <p>The list can be accessed by several threads concurrently, a batch being loaded by a thread
+ * is awaited by the other threads that need it. The {@link Settings} allow to cache the size of the
+ * list until the next call to {@link #refresh()}, to prefetch asynchronously the next batch
+ * according to the direction of the accesses, to keep strong references to the batches and to limit
+ * the amount of batches kept in the cache.</p>
  *
  * <p>If the list access fails to load a batch by throwing a checked exception, it will cause the
  * list to throw an {@link IllegalStateException} wrapping the original exception. Any other kind
@@ -59,13 +73,59 @@ public class LazyList<E> extends AbstractList<E> implements RandomAccess
    /** The batch size. */
    private final int batchSize;
 
-   /** The pages. */
-   private Batch[] batches;
+   /**
+    * The pages, a slot contains a {@link Batch} once loaded and a {@link Loader} while
+    * being loaded.
+    */
+   private volatile AtomicReferenceArray<Object> batches;
 
    /** The list access. */
-   private ListAccess<E> listAccess;
+   private final ListAccess<E> listAccess;
+
+   /**
+    * Indicates whether the size is cached
+    */
+   private final boolean cacheSize;
+
+   /**
+    * Indicates whether the batches are kept thanks to soft references
+    */
+   private final boolean softReferences;
+
+   /**
+    * The max amount of batches kept in the cache, a value lower or equal to 0 means no limit
+    */
+   private final int maxBatches;
+
+   /**
+    * The executor used to prefetch the batches, <code>null</code> if the prefetching is disabled
+    */
+   private final Executor prefetchExecutor;
+
+   /**
+    * The cached size or -1 if unknown
+    */
+   private volatile int size = -1;
+
+   /**
+    * The index of the last batch accessed, it gives the direction of the accesses
+    */
+   private volatile int lastBatchIndex = -1;
+
+   /**
+    * The batches kept in the cache in the order they have been loaded, it is only used
+    * if the amount of batches is limited
+    */
+   private final ConcurrentLinkedQueue<Batch> loadedBatches = new ConcurrentLinkedQueue<Batch>();
+
+   private final AtomicInteger loadedBatchesCount = new AtomicInteger();
 
    public LazyList(ListAccess<E> listAccess, int batchSize)
+   {
+      this(listAccess, batchSize, new Settings());
+   }
+
+   public LazyList(ListAccess<E> listAccess, int batchSize, Settings settings)
    {
       if (listAccess == null)
       {
@@ -75,10 +135,18 @@ public class LazyList<E> extends AbstractList<E> implements RandomAccess
       {
          throw new IllegalArgumentException("No batch size < 1 is accepted");
       }
+      if (settings == null)
+      {
+         throw new IllegalArgumentException("The settings cannot be null");
+      }
 
       //
       this.listAccess = listAccess;
       this.batchSize = batchSize;
+      this.cacheSize = settings.isCacheSize();
+      this.softReferences = settings.isSoftReferences();
+      this.maxBatches = settings.getMaxBatches();
+      this.prefetchExecutor = settings.getPrefetchExecutor();
    }
 
    public E get(int index)
@@ -96,62 +164,373 @@ public class LazyList<E> extends AbstractList<E> implements RandomAccess
       }
 
       //
-      if (batches == null)
+      int batchIndex = index / batchSize;
+      AtomicReferenceArray<Object> batches = getBatches(batchIndex, size);
+      Object[] elements = getElements(batches, batchIndex, size);
+      if (prefetchExecutor != null)
       {
-         batches = new Batch[1 + size / batchSize];
+         prefetch(batches, batchIndex, size);
       }
 
       //
-      Object[] elements = null;
-      int batchIndex = index / batchSize;
-      Batch batch = batches[batchIndex];
-      if (batch != null)
+      return (E)elements[index % batchSize];
+   }
+
+   public int size()
+   {
+      int size = this.size;
+      if (size >= 0)
+      {
+         return size;
+      }
+      try
+      {
+         size = listAccess.getSize();
+      }
+      catch (Exception e)
+      {
+         throw new IllegalStateException("Cannot access resource size", e);
+      }
+      if (cacheSize)
       {
-         elements = batch.elements.get();
+         this.size = size;
       }
+      return size;
+   }
 
-      //
-      if (elements == null)
+   /**
+    * Removes the cached size and all the cached batches, they will be loaded again from
+    * the list access object on the next accesses.
+    */
+   public void refresh()
+   {
+      synchronized (this)
+      {
+         batches = null;
+         size = -1;
+      }
+      lastBatchIndex = -1;
+      loadedBatches.clear();
+      loadedBatchesCount.set(0);
+   }
+
+   /**
+    * Gives the batches, the array is created or extended if needed
+    */
+   private AtomicReferenceArray<Object> getBatches(int batchIndex, int size)
+   {
+      AtomicReferenceArray<Object> batches = this.batches;
+      if (batches == null || batchIndex >= batches.length())
+      {
+         synchronized (this)
+         {
+            batches = this.batches;
+            if (batches == null || batchIndex >= batches.length())
+            {
+               AtomicReferenceArray<Object> newBatches =
+                  new AtomicReferenceArray<Object>(Math.max(1 + size / batchSize, batchIndex + 1));
+               for (int i = 0, length = batches == null ? 0 : batches.length(); i < length; i++)
+               {
+                  newBatches.set(i, batches.get(i));
+               }
+               this.batches = batches = newBatches;
+            }
+         }
+      }
+      return batches;
+   }
+
+   /**
+    * Gives the elements of the given batch, the batch is loaded by the current thread
+    * if it is neither cached nor being loaded by another thread
+    */
+   private Object[] getElements(AtomicReferenceArray<Object> batches, int batchIndex, int size)
+   {
+      for (;;)
+      {
+         Object slot = batches.get(batchIndex);
+         if (slot instanceof Batch)
+         {
+            Object[] elements = ((Batch)slot).get();
+            if (elements != null)
+            {
+               return elements;
+            }
+         }
+         else if (slot instanceof Loader)
+         {
+            Object[] elements = ((Loader)slot).await();
+            if (elements != null)
+            {
+               return elements;
+            }
+            // The prefetching has been cancelled
+            continue;
+         }
+         Loader loader = new Loader(this, batchIndex, size);
+         if (batches.compareAndSet(batchIndex, slot, loader))
+         {
+            loader.run();
+            return loader.await();
+         }
+      }
+   }
+
+   /**
+    * Loads asynchronously the batch that follows the given one in the direction of the
+    * accesses if it is not cached yet
+    */
+   private void prefetch(AtomicReferenceArray<Object> batches, int batchIndex, int size)
+   {
+      int last = lastBatchIndex;
+      if (last == batchIndex)
+      {
+         return;
+      }
+      lastBatchIndex = batchIndex;
+      int next = batchIndex < last ? batchIndex - 1 : batchIndex + 1;
+      if (next < 0 || next >= batches.length() || next * batchSize >= size)
+      {
+         return;
+      }
+      Object slot = batches.get(next);
+      if (slot instanceof Loader || (slot instanceof Batch && ((Batch)slot).get() != null))
+      {
+         return;
+      }
+      Loader loader = new Loader(this, next, size);
+      if (batches.compareAndSet(next, slot, loader))
       {
          try
          {
-            int loadedIndex = batchIndex * batchSize;
-            int loadedLength = Math.min(batchSize, size - loadedIndex);
-            elements = listAccess.load(loadedIndex, loadedLength);
-            batches[batchIndex] = new Batch(elements);
+            prefetchExecutor.execute(loader);
          }
-         catch (Exception e)
+         catch (RejectedExecutionException e)
          {
-            LOG.error(e.getLocalizedMessage(), e);
-            throw new IllegalStateException("Cannot load resource at index " + index, e);
+            loader.cancel(false);
          }
       }
+   }
 
-      //
-      return (E)elements[index % batchSize];
+   /**
+    * Replaces atomically the content of the given slot of the current batches. It is done under
+    * the lock used to extend the batches so that the change cannot be made on batches that have
+    * been replaced or lost by a copy in progress.
+    * @return <code>true</code> if the slot has been replaced, <code>false</code> otherwise
+    */
+   private synchronized boolean replaceBatch(int index, Object expected, Object value)
+   {
+      AtomicReferenceArray<Object> batches = this.batches;
+      return batches != null && index < batches.length() && batches.compareAndSet(index, expected, value);
    }
 
-   public int size()
+   /**
+    * Adds the given batch to the cache and evicts the oldest batch if the max amount
+    * of batches has been exceeded
+    */
+   private void onLoaded(Batch batch)
    {
-      try
+      if (maxBatches <= 0)
       {
-         return listAccess.getSize();
+         return;
       }
-      catch (Exception e)
+      loadedBatches.add(batch);
+      if (loadedBatchesCount.incrementAndGet() > maxBatches)
       {
-         throw new IllegalStateException("Cannot access resource size", e);
+         Batch eldest = loadedBatches.poll();
+         if (eldest != null)
+         {
+            loadedBatchesCount.decrementAndGet();
+            replaceBatch(eldest.index, eldest, null);
+         }
       }
    }
 
    private static class Batch
    {
 
-      /** . */
-      private final Reference<Object[]> elements;
+      /**
+       * The index of the batch in the batches
+       */
+      private final int index;
+
+      /** The elements if they are strongly referenced. */
+      private final Object[] elements;
+
+      /** The elements if they are softly referenced. */
+      private final SoftReference<Object[]> softElements;
+
+      private Batch(int index, Object[] elements, boolean softReferences)
+      {
+         this.index = index;
+         this.elements = softReferences ? null : elements;
+         this.softElements = softReferences ? new SoftReference<Object[]>(elements) : null;
+      }
+
+      private Object[] get()
+      {
+         return softElements == null ? elements : softElements.get();
+      }
+   }
+
+   /**
+    * The task loading a batch, once done the batch replaces the task in its slot
+    */
+   private static class Loader extends FutureTask<Object[]>
+   {
+
+      private final LazyList<?> list;
+
+      private final int index;
+
+      private Loader(final LazyList<?> list, final int index, final int size)
+      {
+         super(new Callable<Object[]>()
+         {
+            public Object[] call() throws Exception
+            {
+               int loadedIndex = index * list.batchSize;
+               int loadedLength = Math.min(list.batchSize, size - loadedIndex);
+               return list.listAccess.load(loadedIndex, loadedLength);
+            }
+         });
+         this.list = list;
+         this.index = index;
+      }
+
+      @Override
+      protected void done()
+      {
+         Batch batch = null;
+         if (!isCancelled())
+         {
+            try
+            {
+               batch = new Batch(index, get(), list.softReferences);
+            }
+            catch (Exception e)
+            {
+               if (LOG.isDebugEnabled())
+               {
+                  LOG.debug("Cannot load the batch " + index + ": " + e.getMessage());
+               }
+            }
+         }
+         // A failed or cancelled load is removed to be retried on the next access
+         if (list.replaceBatch(index, this, batch) && batch != null)
+         {
+            list.onLoaded(batch);
+         }
+      }
+
+      /**
+       * Waits for the elements of the batch
+       * 
+       * @return the elements or <code>null</code> if the load has been cancelled
+       */
+      private Object[] await()
+      {
+         try
+         {
+            return get();
+         }
+         catch (CancellationException e)
+         {
+            return null;
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading the resources at index " + index
+               * list.batchSize, e);
+         }
+         catch (ExecutionException e)
+         {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error)
+            {
+               throw (Error)cause;
+            }
+            LOG.error(cause.getLocalizedMessage(), cause);
+            throw new IllegalStateException("Cannot load resource at index " + index * list.batchSize, cause);
+         }
+      }
+   }
+
+   /**
+    * The settings of a {@link LazyList}, by default the size is not cached, the batches are
+    * softly referenced without limit and they are not prefetched.
+    */
+   public static class Settings
+   {
+
+      private boolean cacheSize;
+
+      private boolean softReferences = true;
+
+      private int maxBatches;
+
+      private Executor prefetchExecutor;
+
+      public boolean isCacheSize()
+      {
+         return cacheSize;
+      }
+
+      /**
+       * Indicates whether the size must be kept until {@link LazyList#refresh()} is called
+       * instead of being retrieved from the list access object on each access
+       */
+      public Settings setCacheSize(boolean cacheSize)
+      {
+         this.cacheSize = cacheSize;
+         return this;
+      }
+
+      public boolean isSoftReferences()
+      {
+         return softReferences;
+      }
+
+      /**
+       * Indicates whether the batches are kept thanks to soft references, such that the
+       * garbage collector can evict them, or thanks to strong references
+       */
+      public Settings setSoftReferences(boolean softReferences)
+      {
+         this.softReferences = softReferences;
+         return this;
+      }
+
+      public int getMaxBatches()
+      {
+         return maxBatches;
+      }
+
+      /**
+       * Sets the max amount of batches kept in the cache, once exceeded the oldest batch
+       * is evicted. A value lower or equal to 0 means no limit.
+       */
+      public Settings setMaxBatches(int maxBatches)
+      {
+         this.maxBatches = maxBatches;
+         return this;
+      }
+
+      public Executor getPrefetchExecutor()
+      {
+         return prefetchExecutor;
+      }
 
-      private Batch(Object[] elements)
+      /**
+       * Sets the executor used to load asynchronously the batch that follows the batch
+       * being accessed in the direction of the accesses. The prefetching is disabled if
+       * <code>null</code>.
+       */
+      public Settings setPrefetchExecutor(Executor prefetchExecutor)
       {
-         this.elements = new SoftReference<Object[]>(elements);
+         this.prefetchExecutor = prefetchExecutor;
+         return this;
       }
    }
 }
@@ -30,16 +30,32 @@ public class LazyPageList<E> extends PageList<E>
    private final LazyList<E> list;
 
    public LazyPageList(ListAccess<E> listAccess, int pageSize)
+   {
+      this(listAccess, pageSize, new LazyList.Settings());
+   }
+
+   public LazyPageList(ListAccess<E> listAccess, int pageSize, LazyList.Settings settings)
    {
       super(pageSize);
 
       //
-      this.list = new LazyList<E>(listAccess, pageSize);
+      this.list = new LazyList<E>(listAccess, pageSize, settings);
 
       // This results from bad design
       setAvailablePage(list.size());
    }
 
+   /**
+    * Removes the cached size and the cached elements, such that the changes of the
+    * underlying data are taken into account
+    */
+   public void refresh()
+   {
+      list.refresh();
+      currentListPage_ = null;
+      setAvailablePage(list.size());
+   }
+
    protected void populateCurrentPage(int page) throws Exception
    {
       int from = getFrom();
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.commons.utils;
+
+/**
+ * A trie of magic numbers, it gives the MIME type associated to the longest magic number
+ * found at the beginning of some data.
+ *
+ * @version $Id$
+ */
+class MagicTrie
+{
+   private final Node root = new Node();
+
+   /**
+    * The length of the longest magic number
+    */
+   private int maxLength;
+
+   /**
+    * Associates the given magic number to the given MIME type
+    */
+   void add(byte[] magic, String mimeType)
+   {
+      Node node = root;
+      for (int i = 0; i < magic.length; i++)
+      {
+         node = node.getOrCreateChild(magic[i]);
+      }
+      node.mimeType = mimeType;
+      maxLength = Math.max(maxLength, magic.length);
+   }
+
+   /**
+    * Gives the amount of bytes needed to find any magic number
+    */
+   int getMaxLength()
+   {
+      return maxLength;
+   }
+
+   /**
+    * Gives the MIME type of the longest magic number found at the beginning of the given
+    * data or <code>null</code> if there is none
+    */
+   String match(byte[] data, int length)
+   {
+      String mimeType = null;
+      Node node = root;
+      for (int i = 0; i < length; i++)
+      {
+         node = node.getChild(data[i]);
+         if (node == null)
+         {
+            break;
+         }
+         else if (node.mimeType != null)
+         {
+            mimeType = node.mimeType;
+         }
+      }
+      return mimeType;
+   }
+
+   private static class Node
+   {
+      /**
+       * The bytes leading to the children
+       */
+      private byte[] keys = new byte[0];
+
+      private Node[] children = new Node[0];
+
+      private String mimeType;
+
+      private Node getChild(byte key)
+      {
+         for (int i = 0; i < keys.length; i++)
+         {
+            if (keys[i] == key)
+            {
+               return children[i];
+            }
+         }
+         return null;
+      }
+
+      private Node getOrCreateChild(byte key)
+      {
+         Node child = getChild(key);
+         if (child == null)
+         {
+            int length = keys.length;
+            byte[] newKeys = new byte[length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, length);
+            newKeys[length] = key;
+            Node[] newChildren = new Node[length + 1];
+            System.arraycopy(children, 0, newChildren, 0, length);
+            newChildren[length] = child = new Node();
+            keys = newKeys;
+            children = newChildren;
+         }
+         return child;
+      }
+   }
+}
@@ -25,11 +25,13 @@ import org.exoplatform.services.log.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -43,6 +45,28 @@ public class MimeTypeResolver
     */
    private static final String MIME_CACHE = "exo.mime.cache";
 
+   /**
+    * Name of the property giving the maximum amount of bytes read from a stream to detect
+    * its MIME type.
+    */
+   private static final String HEADER_SIZE = "exo.mime.header.size";
+
+   private static final int DEFAULT_HEADER_SIZE = 8192;
+
+   /**
+    * The maximum amount of results of content detection kept by a resolver.
+    */
+   private static final int CACHE_SIZE = 128;
+
+   /**
+    * The magic numbers that are recognized without going through MimeUtil, they are only
+    * used with the default detector as they give the same results.
+    */
+   private static final MagicTrie MAGIC = new MagicTrie();
+
+   private static int headerSize = DEFAULT_HEADER_SIZE;
+
+   private static boolean useMagic;
 
    static {
       SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
@@ -58,13 +82,55 @@ public class MimeTypeResolver
             else
             {
                MimeUtil.registerMimeDetector("eu.medsea.mimeutil.detector.MagicMimeMimeDetector");
+               useMagic = true;
+            }
+            String size = PropertyManager.getProperty(HEADER_SIZE);
+            if (size != null)
+            {
+               try
+               {
+                  headerSize = Integer.parseInt(size);
+               }
+               catch (NumberFormatException e)
+               {
+                  LOG.warn("Invalid value for the property " + HEADER_SIZE + ": " + size);
+               }
             }
             return null;
          }
       });
+      MAGIC.add(new byte[]{(byte)0xFF, (byte)0xD8, (byte)0xFF}, "image/jpeg");
+      MAGIC.add(new byte[]{(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}, "image/png");
+      MAGIC.add(new byte[]{'G', 'I', 'F', '8', '7', 'a'}, "image/gif");
+      MAGIC.add(new byte[]{'G', 'I', 'F', '8', '9', 'a'}, "image/gif");
+      MAGIC.add(new byte[]{'I', 'I', '*', 0}, "image/tiff");
+      MAGIC.add(new byte[]{'M', 'M', 0, '*'}, "image/tiff");
+      MAGIC.add(new byte[]{'%', 'P', 'D', 'F', '-'}, "application/pdf");
+      MAGIC.add(new byte[]{'%', '!', 'P', 'S'}, "application/postscript");
+      MAGIC.add(new byte[]{(byte)0xD0, (byte)0xCF, 0x11, (byte)0xE0, (byte)0xA1, (byte)0xB1, 0x1A, (byte)0xE1},
+         "application/msword");
+      MAGIC.add(new byte[]{0x1F, (byte)0x8B}, "application/x-gzip");
+      MAGIC.add(new byte[]{'<', '?', 'x', 'm', 'l'}, "text/xml");
    }
 
-   private Map<String, List<String>> mimeTypes = new HashMap<String, List<String>>();
+   /**
+    * The first MIME type of each extension.
+    */
+   private final ExtensionTable mimeTypes = new ExtensionTable();
+
+   /**
+    * The results of the content detection indexed by header.
+    */
+   private final Map<ByteBuffer, String> cache = new LinkedHashMap<ByteBuffer, String>(16, 0.75f, true)
+   {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ByteBuffer, String> eldest)
+      {
+         return size() > CACHE_SIZE;
+      }
+   };
 
    private Map<String, List<String>> extentions = new HashMap<String, List<String>>();
 
@@ -146,19 +212,22 @@ public class MimeTypeResolver
     */
    public String getMimeType(String filename)
    {
-      String ext = filename.substring(filename.lastIndexOf(".") + 1);
-      if (ext.isEmpty())
+      int start = filename.lastIndexOf('.') + 1;
+      if (start == filename.length())
       {
-         ext = filename;
+         start = 0;
       }
 
-      List<String> values = mimeTypes.get(ext.toLowerCase());
-      return values == null ? defaultMimeType : values.get(0);
+      String mimeType = mimeTypes.get(filename, start, filename.length());
+      return mimeType == null ? defaultMimeType : mimeType;
    }
 
    /**
     * Get MIMEType which corresponds to file content. If file content 
     * does not allow to determine MIMEtype, the default MIMEType will be returned. 
+    * Only the first bytes of the stream are read and the stream is reset to its initial
+    * position once done. The content of a stream that does not support mark cannot be
+    * read without losing bytes, so only the file name is used in that case.
     *
     * @param fileName
     * @param is
@@ -170,16 +239,100 @@ public class MimeTypeResolver
 
       if (mimeType.equals(defaultMimeType))
       {
-         Collection<?> mimeTypes = MimeUtil.getMimeTypes(is);
-         if (!mimeTypes.isEmpty())
+         if (!is.markSupported())
          {
-            mimeType = mimeTypes.toArray()[0].toString().toLowerCase();
+            if (LOG.isDebugEnabled())
+            {
+               LOG.debug("The content of " + fileName + " cannot be read since the stream does not support mark");
+            }
+            return mimeType;
+         }
+         try
+         {
+            String detected = detect(is);
+            if (detected != null)
+            {
+               mimeType = detected;
+            }
+         }
+         catch (IOException e)
+         {
+            LOG.warn("Could not read the content of " + fileName + ": " + e.getMessage());
          }
       }
 
       return mimeType;
    }
 
+   /**
+    * Detects the MIME type of the given stream from its header, the stream is reset to
+    * its initial position once done.
+    */
+   private String detect(InputStream is) throws IOException
+   {
+      byte[] header = new byte[Math.max(headerSize, MAGIC.getMaxLength())];
+      int length;
+      is.mark(header.length);
+      try
+      {
+         length = read(is, header, 0, MAGIC.getMaxLength());
+         if (useMagic)
+         {
+            String mimeType = MAGIC.match(header, length);
+            if (mimeType != null)
+            {
+               return mimeType;
+            }
+         }
+         length += read(is, header, length, header.length - length);
+      }
+      finally
+      {
+         is.reset();
+      }
+      if (length == 0)
+      {
+         return null;
+      }
+
+      ByteBuffer key = ByteBuffer.wrap(header, 0, length).slice();
+      synchronized (cache)
+      {
+         String mimeType = cache.get(key);
+         if (mimeType != null)
+         {
+            return mimeType.isEmpty() ? null : mimeType;
+         }
+      }
+      byte[] data = new byte[length];
+      System.arraycopy(header, 0, data, 0, length);
+      Collection<?> mimeTypes = MimeUtil.getMimeTypes(data);
+      String mimeType = mimeTypes.isEmpty() ? "" : mimeTypes.toArray()[0].toString().toLowerCase();
+      synchronized (cache)
+      {
+         cache.put(ByteBuffer.wrap(data), mimeType);
+      }
+      return mimeType.isEmpty() ? null : mimeType;
+   }
+
+   /**
+    * Reads up to the given amount of bytes, it stops only at the end of the stream
+    */
+   private static int read(InputStream is, byte[] buffer, int offset, int length) throws IOException
+   {
+      int total = 0;
+      while (total < length)
+      {
+         int n = is.read(buffer, offset + total, length - total);
+         if (n < 0)
+         {
+            break;
+         }
+         total += n;
+      }
+      return total;
+   }
+
    /**
     * Get file extension corresponds to MIMEType. If MIMEType is empty or equals
     * default MIMEType empty string will be returned. If there is no file extension
@@ -236,17 +389,11 @@ public class MimeTypeResolver
       String ext = aLine.substring(0, p);
       String mimetype = aLine.substring(p + 1);
 
-      // add mimetype
-      List<String> values = mimeTypes.get(ext);
-      if (values == null)
-      {
-         values = new ArrayList<String>();
-         mimeTypes.put(ext, values);
-      }
-      values.add(mimetype);
+      // add mimetype, only the first one of an extension is used
+      mimeTypes.putIfAbsent(ext, mimetype);
 
       // add extension
-      values = extentions.get(mimetype);
+      List<String> values = extentions.get(mimetype);
       if (values == null)
       {
          values = new ArrayList<String>();
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.commons.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads its updates over several cells to reduce the contention
+ * when it is updated concurrently by many threads. The cell used by a thread is
+ * defined by the id of the thread and each cell is padded to prevent false sharing,
+ * the value of the counter is the sum of all the cells.
+ *
+ * @version $Id$
+ *
+ */
+public class StripedCounter
+{
+
+   /**
+    * The default amount of cells, it is a power of 2 close to the amount of processors
+    */
+   static final int DEFAULT_STRIPES = getDefaultStripes();
+
+   /**
+    * The amount of longs between 2 cells to prevent false sharing
+    */
+   private static final int PADDING = 8;
+
+   /**
+    * The cells of the counter
+    */
+   private final AtomicLongArray cells;
+
+   /**
+    * The mask used to get the cell of a thread
+    */
+   private final int mask;
+
+   public StripedCounter()
+   {
+      this(DEFAULT_STRIPES);
+   }
+
+   /**
+    * @param stripes the amount of cells to use, it will be rounded up to the next power of 2
+    */
+   public StripedCounter(int stripes)
+   {
+      int size = 1;
+      while (size < stripes)
+      {
+         size <<= 1;
+      }
+      this.mask = size - 1;
+      this.cells = new AtomicLongArray(size * PADDING);
+   }
+
+   private static int getDefaultStripes()
+   {
+      int processors = Runtime.getRuntime().availableProcessors();
+      int stripes = 1;
+      while (stripes < processors && stripes < 64)
+      {
+         stripes <<= 1;
+      }
+      return stripes;
+   }
+
+   /**
+    * Gives the index of the cell to use for the current thread
+    */
+   static int getStripe(int mask)
+   {
+      long id = Thread.currentThread().getId();
+      int h = (int)(id ^ (id >>> 32));
+      h ^= (h >>> 16);
+      h *= 0x85ebca6b;
+      h ^= (h >>> 13);
+      return h & mask;
+   }
+
+   /**
+    * Increments the counter by one
+    */
+   public void increment()
+   {
+      cells.getAndIncrement(getStripe(mask) * PADDING);
+   }
+
+   /**
+    * Adds the given value to the counter
+    */
+   public void add(long value)
+   {
+      cells.getAndAdd(getStripe(mask) * PADDING, value);
+   }
+
+   /**
+    * Gives the current value of the counter, it is not an atomic snapshot in case of
+    * concurrent updates
+    */
+   public long get()
+   {
+      long sum = 0;
+      for (int i = 0, length = cells.length(); i < length; i += PADDING)
+      {
+         sum += cells.get(i);
+      }
+      return sum;
+   }
+
+   /**
+    * Resets the counter
+    */
+   public void reset()
+   {
+      for (int i = 0, length = cells.length(); i < length; i += PADDING)
+      {
+         cells.set(i, 0);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString()
+   {
+      return Long.toString(get());
+   }
+}
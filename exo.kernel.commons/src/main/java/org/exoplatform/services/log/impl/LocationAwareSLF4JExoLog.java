@@ -200,8 +200,11 @@ public class LocationAwareSLF4JExoLog implements Log
     */
    public void trace(String format, Object... argsArray)
    {
-      logger.log(null, FQCN, LocationAwareLogger.TRACE_INT, LogMessageFormatter.getMessage(format, argsArray),
-         LogMessageFormatter.getThrowable(argsArray));
+      if (logger.isTraceEnabled())
+      {
+         logger.log(null, FQCN, LocationAwareLogger.TRACE_INT, LogMessageFormatter.getMessage(format, argsArray),
+            LogMessageFormatter.getThrowable(argsArray));
+      }
    }
 
    /**
@@ -209,8 +212,11 @@ public class LocationAwareSLF4JExoLog implements Log
     */
    public void debug(String format, Object... argsArray)
    {
-      logger.log(null, FQCN, LocationAwareLogger.DEBUG_INT, LogMessageFormatter.getMessage(format, argsArray),
-         LogMessageFormatter.getThrowable(argsArray));
+      if (logger.isDebugEnabled())
+      {
+         logger.log(null, FQCN, LocationAwareLogger.DEBUG_INT, LogMessageFormatter.getMessage(format, argsArray),
+            LogMessageFormatter.getThrowable(argsArray));
+      }
    }
 
    /**
@@ -218,8 +224,11 @@ public class LocationAwareSLF4JExoLog implements Log
     */
    public void info(String format, Object... argsArray)
    {
-      logger.log(null, FQCN, LocationAwareLogger.INFO_INT, LogMessageFormatter.getMessage(format, argsArray),
-         LogMessageFormatter.getThrowable(argsArray));
+      if (logger.isInfoEnabled())
+      {
+         logger.log(null, FQCN, LocationAwareLogger.INFO_INT, LogMessageFormatter.getMessage(format, argsArray),
+            LogMessageFormatter.getThrowable(argsArray));
+      }
    }
 
    /**
@@ -227,8 +236,11 @@ public class LocationAwareSLF4JExoLog implements Log
     */
    public void warn(String format, Object... argsArray)
    {
-      logger.log(null, FQCN, LocationAwareLogger.WARN_INT, LogMessageFormatter.getMessage(format, argsArray),
-         LogMessageFormatter.getThrowable(argsArray));
+      if (logger.isWarnEnabled())
+      {
+         logger.log(null, FQCN, LocationAwareLogger.WARN_INT, LogMessageFormatter.getMessage(format, argsArray),
+            LogMessageFormatter.getThrowable(argsArray));
+      }
    }
 
    /**
@@ -236,8 +248,11 @@ public class LocationAwareSLF4JExoLog implements Log
     */
    public void error(String format, Object... argsArray)
    {
-      logger.log(null, FQCN, LocationAwareLogger.ERROR_INT, LogMessageFormatter.getMessage(format, argsArray),
-         LogMessageFormatter.getThrowable(argsArray));
+      if (logger.isErrorEnabled())
+      {
+         logger.log(null, FQCN, LocationAwareLogger.ERROR_INT, LogMessageFormatter.getMessage(format, argsArray),
+            LogMessageFormatter.getThrowable(argsArray));
+      }
    }
 
    /**
@@ -245,7 +260,10 @@ public class LocationAwareSLF4JExoLog implements Log
     */
    public void fatal(String format, Object... argsArray)
    {
-      logger.log(null, FQCN, LocationAwareLogger.ERROR_INT, LogMessageFormatter.getMessage(format, argsArray),
-         LogMessageFormatter.getThrowable(argsArray));
+      if (logger.isErrorEnabled())
+      {
+         logger.log(null, FQCN, LocationAwareLogger.ERROR_INT, LogMessageFormatter.getMessage(format, argsArray),
+            LogMessageFormatter.getThrowable(argsArray));
+      }
    }
 }
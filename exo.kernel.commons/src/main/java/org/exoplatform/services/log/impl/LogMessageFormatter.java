@@ -18,11 +18,9 @@
  */
 package org.exoplatform.services.log.impl;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Simple class to provide format parsing of log messages similar to what slf4j library does.
+ * The message is formatted in a single pass.
  * @author <a href="mailto:dkuleshov@exoplatform.com">Dmitry Kuleshov</a>
  */
 public class LogMessageFormatter
@@ -31,24 +29,41 @@ public class LogMessageFormatter
     * '{}' - anchor which will be replaced by corresponding 
     * object's string representation
     */
-   private static final Pattern REPLACE_PATTERN = Pattern.compile("\\{\\}");
+   private static final String ANCHOR = "{}";
+
+   /**
+    * The expected average length of the string representation of an argument
+    */
+   private static final int ARGUMENT_SIZE = 16;
 
    public static String getMessage(String str, Object... argsArray)
    {
-      if (argsArray != null && argsArray.length > 0)
+      if (str == null || argsArray == null || argsArray.length == 0)
       {
-         for (int i = 0; i < argsArray.length; i++)
-         {
-            if (i != argsArray.length - 1 || !(argsArray[i] instanceof Throwable))
-            {
-               String message = String.valueOf(argsArray[i]);
-               str =
-                  REPLACE_PATTERN.matcher(str).replaceFirst(
-                     message != null ? Matcher.quoteReplacement(message) : "null");
-            }
-         }
+         return str;
+      }
+      int length = argsArray.length;
+      if (argsArray[length - 1] instanceof Throwable)
+      {
+         // The last argument is the throwable to log
+         length--;
+      }
+      int index = str.indexOf(ANCHOR);
+      if (length == 0 || index < 0)
+      {
+         return str;
+      }
+      StringBuilder sb = new StringBuilder(str.length() + length * ARGUMENT_SIZE);
+      int start = 0;
+      for (int i = 0; i < length && index >= 0; i++)
+      {
+         sb.append(str, start, index);
+         sb.append(String.valueOf(argsArray[i]));
+         start = index + ANCHOR.length();
+         index = str.indexOf(ANCHOR, start);
       }
-      return str;
+      sb.append(str, start, str.length());
+      return sb.toString();
    }
 
    public static Throwable getThrowable(Object... argsArray)
@@ -22,9 +22,13 @@ import junit.framework.TestCase;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.util.Arrays;
 
 /**
  * @author <a href="mailto:julien.viet@exoplatform.com">Julien Viet</a>
@@ -383,6 +387,114 @@ public class TestIOUtil extends TestCase
       }
    }
 
+   public void testGetStreamContentAsBytesWithLargeStream() throws IOException
+   {
+      byte[] content = createContent(200000);
+      assertTrue(Arrays.equals(content, IOUtil.getStreamContentAsBytes(new ByteArrayInputStream(content))));
+   }
+
+   public void testGetStreamContentAsBytesWithLength() throws IOException
+   {
+      byte[] content = createContent(1000);
+      assertTrue(Arrays.equals(content, IOUtil.getStreamContentAsBytes(new ByteArrayInputStream(content), 1000)));
+      // the expected length may be wrong
+      assertTrue(Arrays.equals(content, IOUtil.getStreamContentAsBytes(new ByteArrayInputStream(content), 10)));
+      assertTrue(Arrays.equals(content, IOUtil.getStreamContentAsBytes(new ByteArrayInputStream(content), 5000)));
+      assertEquals(0, IOUtil.getStreamContentAsBytes(new ByteArrayInputStream(new byte[0]), 0).length);
+   }
+
+   public void testGetStreamContentAsStringWithLargeStream() throws IOException
+   {
+      // multi bytes chars that are split between several reads
+      String content = createString(100000);
+      assertEquals(content, IOUtil.getStreamContentAsString(new ByteArrayInputStream(content.getBytes("UTF-8"))));
+      assertEquals(content, IOUtil.getStreamContentAsString(new ByteArrayInputStream(content.getBytes("UTF-16")),
+         "UTF-16"));
+   }
+
+   public void testGetStreamContentAsStringWithMalformedInput() throws IOException
+   {
+      byte[] bytes = new byte[100000];
+      Arrays.fill(bytes, (byte)0xC3);
+      assertEquals(new String(bytes, "UTF-8"), IOUtil.getStreamContentAsString(new ByteArrayInputStream(bytes)));
+   }
+
+   public void testGetStreamContentAsStringWithUnsupportedCharset() throws IOException
+   {
+      try
+      {
+         IOUtil.getStreamContentAsString(new ByteArrayInputStream(new byte[0]), "unknown-charset");
+         fail("Was expecting an UnsupportedEncodingException");
+      }
+      catch (UnsupportedEncodingException e)
+      {
+      }
+   }
+
+   public void testGetFileContent() throws IOException
+   {
+      // the largest files are memory mapped
+      int[] sizes = {0, 10, 100000, 2000000};
+      for (int size : sizes)
+      {
+         String content = createString(size);
+         File file = File.createTempFile("TestIOUtil", null);
+         try
+         {
+            FileOutputStream out = new FileOutputStream(file);
+            try
+            {
+               out.write(content.getBytes("UTF-8"));
+            }
+            finally
+            {
+               out.close();
+            }
+            assertEquals(content, IOUtil.getFileContentAsString(file));
+            assertEquals(content, IOUtil.getFileContentAsString(file.getAbsolutePath(), "UTF-8"));
+            assertTrue(Arrays.equals(content.getBytes("UTF-8"), IOUtil.getFileContentAsBytes(file)));
+            assertTrue(Arrays.equals(content.getBytes("UTF-8"), IOUtil.getStreamContentAsBytes(new FileInputStream(
+               file))));
+         }
+         finally
+         {
+            file.delete();
+         }
+      }
+   }
+
+   public void testGetFileContentAsBytesThrowsIllegalArgumentException() throws IOException
+   {
+      try
+      {
+         IOUtil.getFileContentAsBytes((File)null);
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException e)
+      {
+      }
+   }
+
+   private static byte[] createContent(int length)
+   {
+      byte[] content = new byte[length];
+      for (int i = 0; i < length; i++)
+      {
+         content[i] = (byte)i;
+      }
+      return content;
+   }
+
+   private static String createString(int length)
+   {
+      StringBuilder sb = new StringBuilder(length);
+      for (int i = 0; i < length; i++)
+      {
+         sb.append(i % 3 == 0 ? 'a' : (i % 3 == 1 ? '\u00e9' : '\u1000'));
+      }
+      return sb.toString();
+   }
+
    private abstract static class ClosableInputStream extends InputStream
    {
 
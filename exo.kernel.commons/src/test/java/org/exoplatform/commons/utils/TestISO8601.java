@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.commons.utils;
+
+import junit.framework.TestCase;
+
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * @version $Id$
+ */
+public class TestISO8601 extends TestCase
+{
+   private static final String[] DATES =
+      {"1997", "1997-07", "1997-07-16", "1997-07-16T19:20", "1997-07-16T19:20Z", "1997-07-16T19:20+01:00",
+         "1997-07-16T19:20-0530", "1997-07-16T19:20:30", "1997-07-16T19:20:30Z", "1997-07-16T19:20:30+01:00",
+         "1997-07-16T19:20:30-1100", "1997-07-16T19:20:30.4", "1997-07-16T19:20:30.45", "1997-07-16T19:20:30.450",
+         "1997-07-16T19:20:30.45Z", "1997-07-16T19:20:30.45+01:00", "1997-07-16T19:20:30.450-0100",
+         "2000-02-29T23:59:59.999+14:00", "2013-03-31T02:30:00", "2013-10-27T02:30:00", "1600-01-01T00:00:00.000Z",
+         "9999-12-31T23:59:59.999Z",
+         // The following dates are not handled by the single-pass parser
+         "1500-01-01T00:00:00.000Z", "1997-02-30", "1997-13", "1997-07-16T24:00", "1997-07-16T19:20:30.4567+01:00",
+         "1997-07-16T19:20:30+01:00xyz", "1997-07-16T19", "1997-07-16 19:20", "19970716", "97"};
+
+   private static final String[] TIME_ZONES = {"UTC", "Europe/Paris", "America/New_York", "Asia/Kolkata"};
+
+   private TimeZone defaultTimeZone;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      defaultTimeZone = TimeZone.getDefault();
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      TimeZone.setDefault(defaultTimeZone);
+   }
+
+   public void testParse() throws Exception
+   {
+      for (String timeZone : TIME_ZONES)
+      {
+         TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+         for (String date : DATES)
+         {
+            // A copy of the formats prevents the single-pass parser from being used
+            assertEquals(date + " in " + timeZone, parse(date, ISO8601.FORMATS.clone()), parse(date, ISO8601.FORMATS));
+         }
+      }
+      assertNull(ISO8601.parse("foo"));
+   }
+
+   public void testFormat() throws Exception
+   {
+      Random random = new Random();
+      for (String timeZone : TIME_ZONES)
+      {
+         Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(timeZone));
+         for (int i = 0; i < 1000; i++)
+         {
+            // Dates between 1600 and 2400
+            calendar.setTimeInMillis(-11676096000000L + (long)(random.nextDouble() * 25245100800000L));
+            String expected = new ISO8601.ISODateFormat(ISO8601.COMPLETE_DATETIMEMSZ_FORMAT).format(calendar);
+            String date = ISO8601.format(calendar);
+            assertEquals(expected, date);
+            if (calendar.getTimeZone().getOffset(calendar.getTimeInMillis()) % 60000 == 0)
+            {
+               // The seconds of the local mean time offsets are lost
+               assertEquals(calendar.getTimeInMillis(), ISO8601.parse(date).getTimeInMillis());
+            }
+         }
+      }
+      Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+      calendar.setTimeInMillis(-20000000000000L);
+      assertEquals(new ISO8601.ISODateFormat(ISO8601.COMPLETE_DATETIMEMSZ_FORMAT).format(calendar),
+         ISO8601.format(calendar));
+   }
+
+   private static String parse(String date, String[] formats)
+   {
+      try
+      {
+         Calendar calendar = ISO8601.parse(date, formats);
+         return calendar.getTimeInMillis() + " " + calendar.getTimeZone().getID();
+      }
+      catch (ParseException e)
+      {
+         return null;
+      }
+   }
+}
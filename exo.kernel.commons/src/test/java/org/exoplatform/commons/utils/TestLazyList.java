@@ -22,6 +22,9 @@ import junit.framework.TestCase;
 
 import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="mailto:julien.viet@exoplatform.com">Julien Viet</a>
@@ -235,6 +238,162 @@ public class TestLazyList extends TestCase
       assertTrue(access.lengths.isEmpty());
    }
 
+   public void testCachedSize()
+   {
+      list = new LazyList<Integer>(access, 3, new LazyList.Settings().setCacheSize(true));
+      for (int i = 0; i < 10; i++)
+      {
+         assertEquals(i, (int)list.get(i));
+      }
+      assertEquals(1, access.sizeCalls);
+      access.add(10);
+      assertEquals(10, list.size());
+      list.refresh();
+      assertEquals(11, list.size());
+      assertEquals(10, (int)list.get(10));
+      assertEquals(2, access.sizeCalls);
+
+      // The batches are reloaded after a refresh
+      access.indexes.clear();
+      assertEquals(0, (int)list.get(0));
+      assertEquals(0, (int)access.indexes.removeFirst());
+   }
+
+   public void testPrefetch()
+   {
+      Executor executor = new Executor()
+      {
+         public void execute(Runnable command)
+         {
+            command.run();
+         }
+      };
+      list = new LazyList<Integer>(access, 3, new LazyList.Settings().setPrefetchExecutor(executor));
+
+      // The next batches are prefetched while moving forward
+      assertEquals(0, (int)list.get(0));
+      assertEquals(0, (int)access.indexes.removeLast());
+      assertEquals(3, (int)access.indexes.removeLast());
+      assertTrue(access.indexes.isEmpty());
+      assertEquals(2, (int)list.get(2));
+      assertTrue(access.indexes.isEmpty());
+      assertEquals(3, (int)list.get(3));
+      assertEquals(6, (int)access.indexes.removeLast());
+      assertTrue(access.indexes.isEmpty());
+
+      // The previous batches are prefetched while moving backward
+      list = new LazyList<Integer>(access, 3, new LazyList.Settings().setPrefetchExecutor(executor));
+      assertEquals(9, (int)list.get(9));
+      assertEquals(9, (int)access.indexes.removeLast());
+      assertTrue(access.indexes.isEmpty());
+      assertEquals(6, (int)list.get(6));
+      assertEquals(6, (int)access.indexes.removeLast());
+      assertEquals(3, (int)access.indexes.removeLast());
+      assertTrue(access.indexes.isEmpty());
+      assertEquals(4, (int)list.get(4));
+      assertEquals(0, (int)access.indexes.removeLast());
+      assertTrue(access.indexes.isEmpty());
+   }
+
+   public void testMaxBatches()
+   {
+      list =
+         new LazyList<Integer>(access, 3, new LazyList.Settings().setSoftReferences(false).setMaxBatches(2));
+      assertEquals(0, (int)list.get(0));
+      assertEquals(3, (int)list.get(3));
+      assertEquals(6, (int)list.get(6));
+      assertEquals(3, access.indexes.size());
+      access.indexes.clear();
+
+      // The first batch has been evicted
+      assertEquals(7, (int)list.get(7));
+      assertTrue(access.indexes.isEmpty());
+      assertEquals(1, (int)list.get(1));
+      assertEquals(0, (int)access.indexes.removeFirst());
+      assertTrue(access.indexes.isEmpty());
+   }
+
+   public void testMaxBatchesWhileGrowing()
+   {
+      list =
+         new LazyList<Integer>(access, 3, new LazyList.Settings().setSoftReferences(false).setMaxBatches(2));
+      assertEquals(0, (int)list.get(0));
+      access.add(10);
+      access.add(11);
+      access.add(12);
+
+      // The batches grow once the size has increased
+      assertEquals(12, (int)list.get(12));
+      assertEquals(3, (int)list.get(3));
+      assertEquals(3, access.indexes.size());
+      access.indexes.clear();
+
+      // The first batch has been evicted even if it was loaded before the growth
+      assertEquals(4, (int)list.get(4));
+      assertEquals(12, (int)list.get(12));
+      assertTrue(access.indexes.isEmpty());
+      assertEquals(1, (int)list.get(1));
+      assertEquals(0, (int)access.indexes.removeFirst());
+      assertTrue(access.indexes.isEmpty());
+   }
+
+   public void testConcurrentReaders() throws Exception
+   {
+      final AtomicInteger loads = new AtomicInteger();
+      final LazyList<Integer> list = new LazyList<Integer>(new ListAccess<Integer>()
+      {
+         public Integer[] load(int index, int length) throws Exception, IllegalArgumentException
+         {
+            loads.incrementAndGet();
+            Thread.sleep(100);
+            Integer[] result = new Integer[length];
+            for (int i = 0; i < length; i++)
+            {
+               result[i] = index + i;
+            }
+            return result;
+         }
+
+         public int getSize() throws Exception
+         {
+            return 10;
+         }
+      }, 10);
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(5);
+      final AtomicInteger errors = new AtomicInteger();
+      for (int i = 0; i < 5; i++)
+      {
+         final int index = i;
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  if (list.get(index) != index)
+                  {
+                     errors.incrementAndGet();
+                  }
+               }
+               catch (Exception e)
+               {
+                  errors.incrementAndGet();
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      doneSignal.await();
+      assertEquals(0, errors.get());
+      assertEquals(1, loads.get());
+   }
+
    private static class SimpleListAccess<E> extends ArrayList<E> implements ListAccess<E>
    {
 
@@ -242,6 +401,8 @@ public class TestLazyList extends TestCase
 
       private LinkedList<Integer> lengths = new LinkedList<Integer>();
 
+      private int sizeCalls;
+
       public E[] load(int index, int length) throws Exception, IllegalArgumentException
       {
          indexes.addFirst(index);
@@ -258,6 +419,7 @@ public class TestLazyList extends TestCase
 
       public int getSize()
       {
+         sizeCalls++;
          return size();
       }
    }
@@ -74,6 +74,28 @@ public class TestLogMessageFormatter extends TestCase
          LogMessageFormatter.getMessage("Counting {} to {}", "one, two, three ...", "$end"));
    }
 
+   public void testAnchorsAndArgumentsMismatch() throws Exception
+   {
+      assertEquals("No anchor", LogMessageFormatter.getMessage("No anchor", "foo"));
+      assertEquals("One foo, then {}", LogMessageFormatter.getMessage("One {}, then {}", "foo"));
+      assertEquals("Only foo", LogMessageFormatter.getMessage("Only {}", "foo", "bar"));
+      assertEquals("foobar{", LogMessageFormatter.getMessage("{}{}{", "foo", "bar"));
+      assertEquals("Value null", LogMessageFormatter.getMessage("Value {}", (Object)null));
+   }
+
+   public void testNestedFormatting() throws Exception
+   {
+      Object nested = new Object()
+      {
+         public String toString()
+         {
+            return LogMessageFormatter.getMessage("nested {}", "value");
+         }
+      };
+      assertEquals("Outer nested value and foo", LogMessageFormatter.getMessage("Outer {} and {}", nested, "foo"));
+      assertEquals("Outer foo", LogMessageFormatter.getMessage("Outer {}", "foo"));
+   }
+
    class A
    {
       public String toString()
@@ -20,8 +20,11 @@ package org.exoplatform.commons.utils;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * Created by The eXo Platform SAS.
@@ -131,4 +134,39 @@ public class TestMimeTypeResolver extends TestCase
       assertEquals("image/jpeg", resolver.getMimeType("MY.JPG"));
       assertEquals("application/vnd.oasis.opendocument.text", resolver.getMimeType("MY.ODT"));
    }
+
+   public void testGetMimeTypeFromMagicNumber() throws IOException
+   {
+      byte[] png = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 0x0D, 'I', 'H', 'D', 'R'};
+      InputStream is = new ByteArrayInputStream(png);
+      assertEquals("image/png", resolver.getMimeType("image", is));
+      // the stream must be left at its initial position
+      assertEquals(0x89, is.read());
+
+      byte[] gif = {'G', 'I', 'F', '8', '9', 'a', 1, 0, 1, 0};
+      assertEquals("image/gif", resolver.getMimeType("image", new ByteArrayInputStream(gif)));
+
+      // the extension has priority over the content
+      assertEquals("application/pdf", resolver.getMimeType("image.pdf", new ByteArrayInputStream(gif)));
+
+      assertEquals(resolver.getDefaultMimeType(), resolver.getMimeType("empty", new ByteArrayInputStream(new byte[0])));
+   }
+
+   public void testGetMimeTypeFromNonMarkableStream() throws IOException
+   {
+      byte[] content = IOUtil.getStreamContentAsBytes(TestMimeTypeResolver.class.getResourceAsStream("/testpdf"));
+      InputStream nonMarkable = new FilterInputStream(new ByteArrayInputStream(content))
+      {
+         @Override
+         public boolean markSupported()
+         {
+            return false;
+         }
+      };
+      // only the file name can be used since the content cannot be read without losing bytes
+      assertEquals(resolver.getDefaultMimeType(), resolver.getMimeType("testpdf", nonMarkable));
+      assertEquals("application/pdf", resolver.getMimeType("testpdf.pdf", nonMarkable));
+      // the stream must still have its full content
+      assertTrue(Arrays.equals(content, IOUtil.getStreamContentAsBytes(nonMarkable)));
+   }
 }
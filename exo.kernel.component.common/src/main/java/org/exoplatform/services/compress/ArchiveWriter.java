@@ -0,0 +1,734 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.compress;
+
+import org.exoplatform.commons.utils.PrivilegedFileHelper;
+import org.exoplatform.commons.utils.PrivilegedSystemHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Writes zip and jar archives, the files are read and compressed in parallel by a pool of
+ * workers while the archive is assembled in the order of the entries by the calling thread.
+ * The compressed files waiting to be written are kept in memory within a bounded budget,
+ * the files that are too big for the budget and the streams are compressed on the fly by
+ * the calling thread. The files of formats that are already compressed are stored as is,
+ * they are read through a {@link FileChannel}.
+ * <p>
+ * The produced archives are the same as the ones of {@link java.util.zip.ZipOutputStream}
+ * and {@link java.util.jar.JarOutputStream} except that the size and the checksum of the
+ * files are written in the local headers. ZIP64 is not supported.
+ *
+ * @version $Id$
+ */
+class ArchiveWriter
+{
+   /**
+    * The total amount of bytes of compressed data that can be kept in memory, it can be
+    * changed thanks to the system property <code>exo.compress.memory.budget</code>
+    */
+   static final long MEMORY_BUDGET = Long.parseLong(PrivilegedSystemHelper.getProperty("exo.compress.memory.budget",
+      "67108864"));
+
+   /**
+    * The extensions of the formats that are already compressed
+    */
+   private static final Set<String> STORED_EXTENSIONS = new HashSet<String>();
+   static
+   {
+      String[] extensions =
+         {"zip", "jar", "war", "ear", "gz", "tgz", "bz2", "xz", "7z", "rar", "jpg", "jpeg", "png", "gif", "mp3",
+            "mp4", "avi", "mov", "ogg", "flv", "docx", "xlsx", "pptx", "odt", "ods", "odp"};
+      for (String extension : extensions)
+      {
+         STORED_EXTENSIONS.add(extension);
+      }
+   }
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+   private static final int MAX_ENTRIES = 0xFFFF;
+
+   private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+   private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+
+   private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+   private static final int END_SIGNATURE = 0x06054b50;
+
+   private static final int STORED = 0;
+
+   private static final int DEFLATED = 8;
+
+   /**
+    * The flag indicating that the sizes and the checksum follow the data
+    */
+   private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+
+   /**
+    * The flag indicating that the names are encoded in UTF-8
+    */
+   private static final int UTF8_FLAG = 0x800;
+
+   /**
+    * The extra field that identifies a jar file, see {@link java.util.jar.JarOutputStream}
+    */
+   private static final byte[] JAR_MAGIC = {(byte)0xFE, (byte)0xCA, 0, 0};
+
+   private static final byte[] NO_EXTRA = new byte[0];
+
+   /**
+    * The workers shared by all the archives
+    */
+   private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+   private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(WORKERS, new ThreadFactory()
+   {
+      private final AtomicInteger counter = new AtomicInteger();
+
+      public Thread newThread(Runnable r)
+      {
+         Thread t = new Thread(r, "ArchiveWriter-" + counter.incrementAndGet());
+         t.setDaemon(true);
+         return t;
+      }
+   });
+
+   private final CountingOutputStream out;
+
+   private final boolean jar;
+
+   private final long budget;
+
+   private final List<Entry> entries = new ArrayList<Entry>();
+
+   private final Set<String> names = new HashSet<String>();
+
+   /**
+    * The buffer used to build the headers
+    */
+   private final ByteArrayOutputStream header = new ByteArrayOutputStream(256);
+
+   private final long time = toDosTime(System.currentTimeMillis());
+
+   ArchiveWriter(OutputStream out, boolean jar)
+   {
+      this(out, jar, MEMORY_BUDGET);
+   }
+
+   ArchiveWriter(OutputStream out, boolean jar, long budget)
+   {
+      this.out = new CountingOutputStream(out);
+      this.jar = jar;
+      this.budget = budget;
+   }
+
+   /**
+    * Adds the content of the given file to the archive
+    */
+   void addFile(String name, File file) throws ZipException
+   {
+      Entry entry = new Entry(name, file, null);
+      entry.stored = isStored(name);
+      add(entry);
+   }
+
+   /**
+    * Adds the content of the given stream to the archive, the stream is not closed
+    */
+   void addStream(String name, InputStream is) throws ZipException
+   {
+      add(new Entry(name, null, is));
+   }
+
+   /**
+    * Adds a directory to the archive, the name is expected to end with a slash
+    */
+   void addDirectory(String name) throws ZipException
+   {
+      Entry entry = new Entry(name, null, null);
+      entry.stored = true;
+      add(entry);
+   }
+
+   private void add(Entry entry) throws ZipException
+   {
+      if (!names.add(entry.name))
+      {
+         throw new ZipException("duplicate entry: " + entry.name);
+      }
+      if (entries.size() == MAX_ENTRIES)
+      {
+         throw new ZipException("Too many entries, ZIP64 is not supported");
+      }
+      entries.add(entry);
+   }
+
+   /**
+    * Writes all the entries then the central directory, the output stream is flushed but
+    * not closed
+    */
+   void write() throws IOException
+   {
+      ArrayDeque<Entry> pending = new ArrayDeque<Entry>();
+      int maxPending = 4 * WORKERS;
+      long used = 0;
+      try
+      {
+         for (int i = 0, length = entries.size(); i < length; i++)
+         {
+            final Entry entry = entries.get(i);
+            if (entry.file != null)
+            {
+               long size = PrivilegedFileHelper.length(entry.file);
+               if (size > MAX_SIZE)
+               {
+                  throw new ZipException("The file " + entry.file + " is too big, ZIP64 is not supported");
+               }
+               // The compressed data is slightly bigger than the raw data in the worst case
+               entry.reserved = entry.stored ? 0 : size + (size >>> 8) + 64;
+               if (entry.reserved <= budget)
+               {
+                  // The oldest entries are written until there is enough room for this one
+                  while (!pending.isEmpty() && (used + entry.reserved > budget || pending.size() >= maxPending))
+                  {
+                     used -= writeEntry(pending.poll());
+                  }
+                  used += entry.reserved;
+                  entry.future = EXECUTOR.submit(new Callable<Entry>()
+                  {
+                     public Entry call() throws Exception
+                     {
+                        return entry.stored ? checksum(entry) : deflate(entry);
+                     }
+                  });
+               }
+            }
+            if (entry.future == null)
+            {
+               entry.reserved = 0;
+               while (pending.size() >= maxPending)
+               {
+                  used -= writeEntry(pending.poll());
+               }
+            }
+            pending.add(entry);
+         }
+         while (!pending.isEmpty())
+         {
+            writeEntry(pending.poll());
+         }
+      }
+      finally
+      {
+         for (Entry entry : pending)
+         {
+            if (entry.future != null)
+            {
+               entry.future.cancel(true);
+            }
+         }
+      }
+      writeCentralDirectory();
+      out.flush();
+   }
+
+   /**
+    * Writes the given entry once ready
+    * @return the amount of bytes of the budget that the entry was using
+    */
+   private long writeEntry(Entry entry) throws IOException
+   {
+      if (entry.future != null)
+      {
+         try
+         {
+            entry.future.get();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing " + entry.name);
+         }
+         catch (ExecutionException e)
+         {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+               throw (IOException)cause;
+            }
+            IOException ioe = new IOException("Could not compress " + entry.name);
+            ioe.initCause(cause);
+            throw ioe;
+         }
+      }
+      entry.offset = out.count;
+      if (entry.offset > MAX_SIZE)
+      {
+         throw new ZipException("The archive is too big, ZIP64 is not supported");
+      }
+      if (entry.future != null)
+      {
+         writeLocalHeader(entry);
+         if (entry.data != null)
+         {
+            out.write(entry.data.buffer(), 0, entry.data.size());
+            entry.data = null;
+         }
+         else
+         {
+            transfer(entry);
+         }
+      }
+      else if (entry.file == null && entry.is == null)
+      {
+         // A directory
+         writeLocalHeader(entry);
+      }
+      else
+      {
+         // The entry is compressed on the fly, so its sizes are only known afterwards
+         entry.flags |= DATA_DESCRIPTOR_FLAG;
+         entry.method = DEFLATED;
+         writeLocalHeader(entry);
+         InputStream is = entry.is;
+         try
+         {
+            if (is == null)
+            {
+               is = PrivilegedFileHelper.fileInputStream(entry.file);
+            }
+            long start = out.count;
+            deflate(entry, is, out);
+            entry.compressedSize = out.count - start;
+         }
+         finally
+         {
+            if (entry.file != null && is != null)
+            {
+               is.close();
+            }
+         }
+         checkSizes(entry);
+         header.reset();
+         writeInt(DATA_DESCRIPTOR_SIGNATURE);
+         writeInt(entry.crc);
+         writeInt(entry.compressedSize);
+         writeInt(entry.size);
+         header.writeTo(out);
+      }
+      return entry.reserved;
+   }
+
+   /**
+    * Compresses the content of the file of the given entry in memory
+    */
+   private static Entry deflate(Entry entry) throws IOException
+   {
+      InputStream is = PrivilegedFileHelper.fileInputStream(entry.file);
+      try
+      {
+         Buffer data = new Buffer((int)Math.min(entry.reserved, BUFFER_SIZE));
+         deflate(entry, is, data);
+         entry.data = data;
+         entry.compressedSize = data.size();
+      }
+      finally
+      {
+         is.close();
+      }
+      checkSizes(entry);
+      return entry;
+   }
+
+   /**
+    * Compresses the given stream into the given output stream, the checksum and the size
+    * of the entry are computed on the way. The output stream is not closed.
+    */
+   private static void deflate(Entry entry, InputStream is, OutputStream os) throws IOException
+   {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      try
+      {
+         DeflaterOutputStream dos = new DeflaterOutputStream(os, deflater, BUFFER_SIZE);
+         CRC32 crc = new CRC32();
+         byte[] buffer = new byte[BUFFER_SIZE];
+         long size = 0;
+         int len;
+         while ((len = is.read(buffer)) != -1)
+         {
+            crc.update(buffer, 0, len);
+            dos.write(buffer, 0, len);
+            size += len;
+         }
+         dos.finish();
+         entry.crc = crc.getValue();
+         entry.size = size;
+         entry.method = DEFLATED;
+      }
+      finally
+      {
+         deflater.end();
+      }
+   }
+
+   /**
+    * Computes the checksum of the file of the given entry that will be stored as is
+    */
+   private static Entry checksum(Entry entry) throws IOException
+   {
+      FileInputStream fis = PrivilegedFileHelper.fileInputStream(entry.file);
+      try
+      {
+         FileChannel channel = fis.getChannel();
+         ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+         CRC32 crc = new CRC32();
+         long size = 0;
+         int len;
+         while ((len = channel.read(buffer)) != -1)
+         {
+            crc.update(buffer.array(), 0, len);
+            size += len;
+            buffer.clear();
+         }
+         entry.crc = crc.getValue();
+         entry.size = size;
+         entry.compressedSize = size;
+      }
+      finally
+      {
+         fis.close();
+      }
+      checkSizes(entry);
+      return entry;
+   }
+
+   /**
+    * Copies the file of the given stored entry into the archive, the file is directly
+    * transferred to the archive when it is a file
+    */
+   private void transfer(Entry entry) throws IOException
+   {
+      FileInputStream fis = PrivilegedFileHelper.fileInputStream(entry.file);
+      try
+      {
+         FileChannel channel = fis.getChannel();
+         long position = 0;
+         if (out.getTarget() instanceof FileOutputStream)
+         {
+            out.flush();
+            FileChannel target = ((FileOutputStream)out.getTarget()).getChannel();
+            long count;
+            while (position < entry.size && (count = channel.transferTo(position, entry.size - position, target)) > 0)
+            {
+               position += count;
+            }
+            out.count += position;
+         }
+         else
+         {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int len;
+            while (position < entry.size && (len = channel.read(buffer)) != -1)
+            {
+               len = (int)Math.min(len, entry.size - position);
+               out.write(buffer.array(), 0, len);
+               position += len;
+               buffer.clear();
+            }
+         }
+         if (position != entry.size)
+         {
+            throw new ZipException("The file " + entry.file + " has been modified while being archived");
+         }
+      }
+      finally
+      {
+         fis.close();
+      }
+   }
+
+   private static void checkSizes(Entry entry) throws ZipException
+   {
+      if (entry.size > MAX_SIZE || entry.compressedSize > MAX_SIZE)
+      {
+         throw new ZipException("The entry " + entry.name + " is too big, ZIP64 is not supported");
+      }
+   }
+
+   private void writeLocalHeader(Entry entry) throws IOException
+   {
+      header.reset();
+      writeInt(LOCAL_HEADER_SIGNATURE);
+      writeShort(entry.method == DEFLATED ? 20 : 10);
+      writeShort(entry.flags);
+      writeShort(entry.method);
+      writeInt(time);
+      if ((entry.flags & DATA_DESCRIPTOR_FLAG) != 0)
+      {
+         writeInt(0);
+         writeInt(0);
+         writeInt(0);
+      }
+      else
+      {
+         writeInt(entry.crc);
+         writeInt(entry.compressedSize);
+         writeInt(entry.size);
+      }
+      byte[] extra = getExtra(entry);
+      writeShort(entry.nameBytes.length);
+      writeShort(extra.length);
+      header.write(entry.nameBytes);
+      header.write(extra);
+      header.writeTo(out);
+   }
+
+   private void writeCentralDirectory() throws IOException
+   {
+      long start = out.count;
+      for (int i = 0, length = entries.size(); i < length; i++)
+      {
+         Entry entry = entries.get(i);
+         header.reset();
+         writeInt(CENTRAL_HEADER_SIGNATURE);
+         writeShort(20);
+         writeShort(entry.method == DEFLATED ? 20 : 10);
+         writeShort(entry.flags);
+         writeShort(entry.method);
+         writeInt(time);
+         writeInt(entry.crc);
+         writeInt(entry.compressedSize);
+         writeInt(entry.size);
+         byte[] extra = getExtra(entry);
+         writeShort(entry.nameBytes.length);
+         writeShort(extra.length);
+         // The comment, the disk number, the internal and the external attributes
+         writeShort(0);
+         writeShort(0);
+         writeShort(0);
+         writeInt(0);
+         writeInt(entry.offset);
+         header.write(entry.nameBytes);
+         header.write(extra);
+         header.writeTo(out);
+      }
+      long size = out.count - start;
+      if (start > MAX_SIZE || size > MAX_SIZE)
+      {
+         throw new ZipException("The archive is too big, ZIP64 is not supported");
+      }
+      header.reset();
+      writeInt(END_SIGNATURE);
+      writeShort(0);
+      writeShort(0);
+      writeShort(entries.size());
+      writeShort(entries.size());
+      writeInt(size);
+      writeInt(start);
+      writeShort(0);
+      header.writeTo(out);
+   }
+
+   /**
+    * Gives the extra field of the given entry, a jar has the jar magic in its first entry
+    */
+   private byte[] getExtra(Entry entry)
+   {
+      return jar && entry == entries.get(0) ? JAR_MAGIC : NO_EXTRA;
+   }
+
+   private void writeShort(int value)
+   {
+      header.write(value & 0xFF);
+      header.write((value >>> 8) & 0xFF);
+   }
+
+   private void writeInt(long value)
+   {
+      writeShort((int)(value & 0xFFFF));
+      writeShort((int)((value >>> 16) & 0xFFFF));
+   }
+
+   /**
+    * Indicates whether the entry of the given name is in a format that is already compressed
+    */
+   private static boolean isStored(String name)
+   {
+      int index = name.lastIndexOf('.');
+      return index != -1 && STORED_EXTENSIONS.contains(name.substring(index + 1).toLowerCase(Locale.ENGLISH));
+   }
+
+   /**
+    * Converts the given time to the MS-DOS format used by the zip files
+    */
+   private static long toDosTime(long time)
+   {
+      Calendar calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(time);
+      int year = calendar.get(Calendar.YEAR);
+      if (year < 1980)
+      {
+         return (1 << 21) | (1 << 16);
+      }
+      return (long)(year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+         | calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+         | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+   }
+
+   /**
+    * An entry of the archive
+    */
+   private static class Entry
+   {
+      private final String name;
+
+      private final byte[] nameBytes;
+
+      private final File file;
+
+      private final InputStream is;
+
+      private boolean stored;
+
+      private int method;
+
+      private int flags = UTF8_FLAG;
+
+      private long crc;
+
+      private long size;
+
+      private long compressedSize;
+
+      private long offset;
+
+      /**
+       * The amount of bytes of the memory budget reserved for the entry
+       */
+      private long reserved;
+
+      private Future<Entry> future;
+
+      /**
+       * The compressed data of the entry
+       */
+      private Buffer data;
+
+      private Entry(String name, File file, InputStream is) throws ZipException
+      {
+         this.name = name;
+         this.file = file;
+         this.is = is;
+         try
+         {
+            this.nameBytes = name.getBytes("UTF-8");
+         }
+         catch (UnsupportedEncodingException e)
+         {
+            throw new IllegalStateException(e);
+         }
+         if (nameBytes.length > 0xFFFF)
+         {
+            throw new ZipException("The name of the entry is too long: " + name);
+         }
+      }
+   }
+
+   /**
+    * A buffer whose content can be accessed without being copied
+    */
+   private static class Buffer extends ByteArrayOutputStream
+   {
+      private Buffer(int size)
+      {
+         super(size);
+      }
+
+      private byte[] buffer()
+      {
+         return buf;
+      }
+   }
+
+   /**
+    * Counts the bytes written into the archive
+    */
+   private static class CountingOutputStream extends FilterOutputStream
+   {
+      private long count;
+
+      private CountingOutputStream(OutputStream out)
+      {
+         super(out);
+      }
+
+      public void write(int b) throws IOException
+      {
+         out.write(b);
+         count++;
+      }
+
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+         out.write(b, off, len);
+         count += len;
+      }
+
+      /**
+       * Gives the stream into which the archive is written
+       */
+      private OutputStream getTarget()
+      {
+         return out;
+      }
+   }
+}
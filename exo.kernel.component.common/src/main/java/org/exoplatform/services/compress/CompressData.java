@@ -26,7 +26,6 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -75,15 +74,14 @@ public class CompressData
 
    public void addFile(String entryName, File file)
    {
-      try
-      {
-         InputStream is = PrivilegedFileHelper.fileInputStream(file);
-         datas_.add(new InputStreamDataInstance(entryName, is));
-      }
-      catch (FileNotFoundException e)
+      if (!PrivilegedFileHelper.exists(file) || PrivilegedFileHelper.isDirectory(file))
       {
+         FileNotFoundException e = new FileNotFoundException(file.getPath() + " (No such file)");
          LOG.error(e.getLocalizedMessage(), e);
+         return;
       }
+      // The file is only read when the archive is created
+      datas_.add(new SingleFileDataInstance(entryName, file));
    }
 
    public void addDir(File srcDir)
@@ -108,146 +106,101 @@ public class CompressData
    {
       File fileZip = new File(fileName + ".zip");
       FileOutputStream out = PrivilegedFileHelper.fileOutputStream(fileZip);
-      ZipOutputStream zos = new ZipOutputStream(out);
-      int size = datas_.size();
-      byte InputData[] = new byte[BUFFER];
-      if (size < 0)
+      try
       {
-         throw new Exception("Data size is null");
+         createArchive(out, false, false);
       }
-      for (int i = 0; i < size; i++)
+      finally
       {
-         DataInstance di = datas_.get(i);
-         if (di instanceof InputStreamDataInstance)
-         {
-            InputStream is = di.getInputStream();
-            zos.putNextEntry(new ZipEntry(di.getEntryName()));
-            int len;
-            while ((len = is.read(InputData)) != EOF)
-            {
-               zos.write(InputData, 0, len);
-            }
-            zos.closeEntry();
-         }
-         else if (di instanceof FileDataInstance)
-         {
-            di.getZipOut(true, zos);
-         }
+         out.close();
       }
-      zos.close();
-      out.close();
    }
 
    public void createZip(OutputStream os) throws Exception
    {
-      int size = datas_.size();
-      ZipOutputStream zos = new ZipOutputStream(os);
-      if (size == 0)
+      if (datas_.size() == 0)
          throw new Exception("Data is null");
-      for (int i = 0; i < size; i++)
+      try
       {
-         DataInstance di = datas_.get(i);
-         if (di instanceof InputStreamDataInstance)
-         {
-            InputStream is = di.getInputStream();
-            zos.putNextEntry(new ZipEntry(di.getEntryName()));
-            int len;
-            byte InputData[] = new byte[BUFFER];
-            while ((len = is.read(InputData)) != EOF)
-            {
-               zos.write(InputData, 0, len);
-            }
-            zos.closeEntry();
-         }
-         else if (di instanceof FileDataInstance)
-         {
-            di.setType("Zip");
-            InputStream is = di.getInputStream();
-            int len;
-            byte[] data = new byte[BUFFER];
-            while ((len = is.read(data)) != EOF)
-            {
-               os.write(data, 0, len);
-            }
-            is.close();
-         }
+         createArchive(os, false, false);
+      }
+      finally
+      {
+         os.close();
       }
-      zos.close();
-      os.close();
    }
 
    public void createJarFile(String fileName) throws Exception
    {
       File fileZip = new File(fileName + ".jar");
       FileOutputStream out = PrivilegedFileHelper.fileOutputStream(fileZip);
-      JarOutputStream jos = new JarOutputStream(out);
-      int size = datas_.size();
-      if (size < 0)
-         throw new Exception("Data size is null");
-      for (int i = 0; i < size; i++)
+      try
       {
-         DataInstance di = datas_.get(i);
-
-         if (di instanceof InputStreamDataInstance)
-         {
-            String entryName = di.getEntryName();
-            InputStream is = di.getInputStream();
-            jos.putNextEntry(new ZipEntry(entryName));
-            int len;
-            byte InputData[] = new byte[BUFFER];
-            while ((len = is.read(InputData)) != EOF)
-            {
-               jos.write(InputData, 0, len);
-            }
-            jos.closeEntry();
-         }
-         else if (di instanceof FileDataInstance)
-         {
-            di.getJarOut(true, jos);
-         }
+         createArchive(out, true, false);
+      }
+      finally
+      {
+         out.close();
       }
-      jos.close();
-      out.close();
    }
 
    public void createJar(OutputStream os) throws Exception
    {
-      int size = datas_.size();
-      JarOutputStream jos = new JarOutputStream(os);
-      if (size == 0)
+      if (datas_.size() == 0)
          throw new Exception("Data is null");
-      for (int i = 0; i < size; i++)
+      try
       {
-         DataInstance di = datas_.get(i);
-         if (di instanceof InputStreamDataInstance)
-         {
-            InputStream is = di.getInputStream();
+         createArchive(os, true, true);
+      }
+      finally
+      {
+         os.close();
+      }
+   }
 
-            jos.putNextEntry(new ZipEntry(di.getEntryName()));
-            int len;
-            byte InputData[] = new byte[BUFFER];
-            while ((len = is.read(InputData)) != EOF)
+   /**
+    * Writes all the data into the given stream as a zip or a jar archive, the entries are
+    * compressed in parallel thanks to an {@link ArchiveWriter}
+    * @param closeStreams indicates whether the input streams that have been added must be
+    * closed once the archive is created
+    */
+   private void createArchive(OutputStream os, boolean jar, boolean closeStreams) throws Exception
+   {
+      ArchiveWriter writer = new ArchiveWriter(os, jar);
+      try
+      {
+         for (int i = 0, size = datas_.size(); i < size; i++)
+         {
+            DataInstance di = datas_.get(i);
+            if (di instanceof SingleFileDataInstance)
             {
-               jos.write(InputData, 0, len);
+               writer.addFile(di.getEntryName(), ((SingleFileDataInstance)di).file_);
+            }
+            else if (di instanceof InputStreamDataInstance)
+            {
+               writer.addStream(di.getEntryName(), di.getInputStream());
+            }
+            else if (di instanceof FileDataInstance)
+            {
+               ((FileDataInstance)di).addTo(writer, true);
             }
-            jos.closeEntry();
-            is.close();
          }
-         else if (di instanceof FileDataInstance)
+         writer.write();
+      }
+      finally
+      {
+         if (closeStreams)
          {
-            di.setType("Jar");
-            InputStream is = di.getInputStream();
-            int len;
-            byte[] data = new byte[BUFFER];
-            while ((len = is.read(data)) != EOF)
+            for (int i = 0, size = datas_.size(); i < size; i++)
             {
-               os.write(data, 0, len);
+               DataInstance di = datas_.get(i);
+               if (di instanceof InputStreamDataInstance && !(di instanceof SingleFileDataInstance))
+               {
+                  di.getInputStream().close();
+               }
             }
-            is.close();
          }
       }
-      jos.close();
-      os.close();
    }
 
    public void cleanDataInstance()
@@ -345,46 +298,85 @@ public class CompressData
       @Override
       public void getJarOut(boolean containParent, JarOutputStream jos) throws Exception
       {
-         String path = file_.getAbsolutePath();
-         InputStream bufInput = null;
+         for (File f : getFiles())
+         {
+            InputStream bufInput = f.isFile() ? PrivilegedFileHelper.fileInputStream(f) : null;
+            try
+            {
+               addToArchive(jos, bufInput, getEntryName(f, containParent));
+            }
+            finally
+            {
+               if (bufInput != null)
+               {
+                  bufInput.close();
+               }
+            }
+         }
+      }
+
+      /**
+       * Adds all the files and directories of this data instance to the given archive
+       */
+      void addTo(ArchiveWriter writer, boolean containParent) throws Exception
+      {
+         for (File f : getFiles())
+         {
+            if (f.isFile())
+            {
+               writer.addFile(getEntryName(f, containParent), f);
+            }
+            else
+            {
+               writer.addDirectory(getEntryName(f, containParent));
+            }
+         }
+      }
+
+      /**
+       * Gives all the files and directories to archive
+       */
+      private List<File> getFiles() throws Exception
+      {
          List<File> list = listFile(file_);
          if (file_.isDirectory())
             list.remove(file_);
          if (list == null || list.size() < 1)
             throw new Exception("nothing in the list");
-         for (File f : list)
-         {
-            StringBuilder filePath = new StringBuilder(f.getAbsolutePath());
+         return list;
+      }
+
+      /**
+       * Gives the name of the entry of the given file or directory
+       */
+      private String getEntryName(File f, boolean containParent)
+      {
+         String path = file_.getAbsolutePath();
+         StringBuilder filePath = new StringBuilder(f.getAbsolutePath());
 
-            if (f.getAbsolutePath().startsWith(path))
+         if (f.getAbsolutePath().startsWith(path))
+         {
+            if (containParent && file_.isDirectory())
             {
-               if (containParent && file_.isDirectory())
-               {
-                  filePath = new StringBuilder(file_.getName());
-                  filePath.append(File.separator);
-                  filePath.append(f.getAbsolutePath().substring(path.length() + 1));
-               }
-               else if (file_.isDirectory())
-               {
-                  filePath = new StringBuilder(f.getAbsolutePath().substring(path.length() + 1));
-               }
-               else
-               {
-                  filePath = new StringBuilder(file_.getName());
-               }
+               filePath = new StringBuilder(file_.getName());
+               filePath.append(File.separator);
+               filePath.append(f.getAbsolutePath().substring(path.length() + 1));
             }
-
-            if (f.isFile())
+            else if (file_.isDirectory())
             {
-               bufInput = PrivilegedFileHelper.fileInputStream(f);
+               filePath = new StringBuilder(f.getAbsolutePath().substring(path.length() + 1));
             }
             else
             {
-               filePath.append("/");
+               filePath = new StringBuilder(file_.getName());
             }
+         }
 
-            addToArchive(jos, bufInput, filePath.toString());
+         if (!f.isFile())
+         {
+            filePath.append("/");
          }
+         return filePath.toString();
       }
 
       private List<File> listFile(File dir)
@@ -443,45 +435,20 @@ public class CompressData
       @Override
       public void getZipOut(boolean containParent, ZipOutputStream zos) throws Exception
       {
-         String path = file_.getAbsolutePath();
-         InputStream bufInput = null;
-         List<File> list = listFile(file_);
-         if (file_.isDirectory())
-            list.remove(file_);
-         if (list == null || list.size() < 1)
-            throw new Exception("nothing in the list");
-         for (File f : list)
+         for (File f : getFiles())
          {
-            StringBuilder filePath = new StringBuilder(f.getAbsolutePath());
-
-            if (f.getAbsolutePath().startsWith(path))
-            {
-               if (containParent && file_.isDirectory())
-               {
-                  filePath = new StringBuilder(file_.getName());
-                  filePath.append(File.separator);
-                  filePath.append(f.getAbsolutePath().substring(path.length() + 1));
-               }
-               else if (file_.isDirectory())
-               {
-                  filePath = new StringBuilder(f.getAbsolutePath().substring(path.length() + 1));
-               }
-               else
-               {
-                  filePath = new StringBuilder(file_.getName());
-               }
-            }
-
-            if (f.isFile())
+            InputStream bufInput = f.isFile() ? PrivilegedFileHelper.fileInputStream(f) : null;
+            try
             {
-               bufInput = new FileInputStream(f);
+               addToArchive(zos, bufInput, getEntryName(f, containParent));
             }
-            else
+            finally
             {
-               filePath.append("/");
+               if (bufInput != null)
+               {
+                  bufInput.close();
+               }
             }
-
-            addToArchive(zos, bufInput, filePath.toString());
          }
       }
    }
@@ -516,4 +483,32 @@ public class CompressData
 
    }
 
+   /**
+    * A file added thanks to {@link CompressData#addFile(String, File)}, it is opened
+    * each time its content is needed
+    */
+   private static class SingleFileDataInstance extends InputStreamDataInstance
+   {
+      private final File file_;
+
+      private SingleFileDataInstance(String entryName, File file)
+      {
+         super(entryName, null);
+         file_ = file;
+      }
+
+      @Override
+      public InputStream getInputStream()
+      {
+         try
+         {
+            return PrivilegedFileHelper.fileInputStream(file_);
+         }
+         catch (FileNotFoundException e)
+         {
+            LOG.error(e.getLocalizedMessage(), e);
+            return null;
+         }
+      }
+   }
 }
@@ -18,11 +18,14 @@
  */
 package org.exoplatform.services.idgenerator.impl;
 
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
 import org.exoplatform.services.idgenerator.IDGeneratorService;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.security.SecureRandom;
 import java.util.Random;
@@ -56,14 +59,89 @@ public class IDGeneratorServiceImpl implements IDGeneratorService
       }
    }
 
-   private static final Random seeder_ = new SecureRandom();
+   /**
+    * The name of the parameter that defines the generator to use, the supported values are
+    * <code>random</code> (default) and <code>sequence</code>
+    */
+   public static final String GENERATOR = "generator";
+
+   /**
+    * The name of the parameter that defines the identifier of the node between 0 and 1023,
+    * only used by the generator <code>sequence</code>. By default it is computed from the
+    * address of the host and the name of the JVM, which may give the same identifier to
+    * several nodes, so it must be set explicitly to a different value on each node of a cluster.
+    */
+   public static final String NODE_ID = "node-id";
+
+   /**
+    * The random generator of each thread, one per thread to prevent any contention
+    */
+   private static final ThreadLocal<Random> SEEDERS = new ThreadLocal<Random>()
+   {
+      @Override
+      protected Random initialValue()
+      {
+         return new SecureRandom();
+      }
+   };
+
+   /**
+    * The generator of sequential identifiers, <code>null</code> if the random generator
+    * is used
+    */
+   private final SequenceIDGenerator sequence_;
+
+   /**
+    * A random number that identifies the current instance, it is appended to the string
+    * identifiers generated by the generator of sequential identifiers
+    */
+   private final String hexInstance_;
 
    public IDGeneratorServiceImpl()
+   {
+      this(null);
+   }
+
+   public IDGeneratorServiceImpl(InitParams params)
    {
       if (hexServerIP_ == null)
       {
          throw new IllegalStateException("The local inet address could not be found");
       }
+      ValueParam vp = params == null ? null : params.getValueParam(GENERATOR);
+      String generator = vp == null ? "random" : vp.getValue().trim();
+      if ("sequence".equalsIgnoreCase(generator))
+      {
+         vp = params.getValueParam(NODE_ID);
+         long nodeId;
+         if (vp == null)
+         {
+            nodeId = getDefaultNodeId();
+            LOG.warn("No value has been set for the parameter '" + NODE_ID + "', the node id " + nodeId
+               + " has been computed from the address of the host and the name of the JVM. Since this node id"
+               + " may be the same on other nodes, it is strongly recommended to set a different value on each"
+               + " node of a cluster to ensure that the generated identifiers are unique.");
+         }
+         else
+         {
+            nodeId = Long.parseLong(vp.getValue().trim());
+         }
+         sequence_ = new SequenceIDGenerator(nodeId);
+         hexInstance_ = hexFormat(SEEDERS.get().nextInt(), 8);
+         if (LOG.isDebugEnabled())
+         {
+            LOG.debug("The sequential identifiers will be generated with the node id " + nodeId);
+         }
+      }
+      else if ("random".equalsIgnoreCase(generator))
+      {
+         sequence_ = null;
+         hexInstance_ = null;
+      }
+      else
+      {
+         throw new IllegalArgumentException("Unknown generator '" + generator + "'");
+      }
    }
 
    public Serializable generateID(Object o)
@@ -73,30 +151,55 @@ public class IDGeneratorServiceImpl implements IDGeneratorService
 
    public long generateLongID(Object o)
    {
+      if (sequence_ != null)
+      {
+         return sequence_.nextLong();
+      }
       String uuid = generateStringID(o);
       return uuid.hashCode();
    }
 
    public int generatIntegerID(Object o)
    {
+      // A 32-bit counter cannot be unique across restarts and nodes, so the integer identifiers
+      // are still derived from the string identifiers whatever the generator
       String uuid = generateStringID(o);
       return uuid.hashCode();
    }
 
    public String generateStringID(Object o)
    {
-      return generateStringID(o, System.currentTimeMillis(), hexServerIP_, seeder_.nextInt());
+      if (sequence_ != null)
+      {
+         char[] guid = new char[ID_LENGTH];
+         SequenceIDGenerator.encodeHex(guid, 0, sequence_.nextLong(), 16);
+         hexServerIP_.getChars(0, 8, guid, 16);
+         hexInstance_.getChars(0, 8, guid, 24);
+         return new String(guid);
+      }
+      return generateStringID(o, System.currentTimeMillis(), hexServerIP_, SEEDERS.get().nextInt());
    }
 
    protected String generateStringID(Object o, long timeNow, String hexServerIP, int node)
    {
-      StringBuilder guid = new StringBuilder(32);
-      int timeLow = (int)timeNow & 0xFFFFFFFF;
-      addHexFormat(guid, timeLow, 8);
-      guid.append(hexServerIP);
-      addHexFormat(guid, System.identityHashCode(o), 8);
-      addHexFormat(guid, node, 8);
-      return guid.toString();
+      int length = hexServerIP.length();
+      char[] guid = new char[24 + length];
+      SequenceIDGenerator.encodeHex(guid, 0, timeNow, 8);
+      hexServerIP.getChars(0, length, guid, 8);
+      SequenceIDGenerator.encodeHex(guid, 8 + length, System.identityHashCode(o), 8);
+      SequenceIDGenerator.encodeHex(guid, 16 + length, node, 8);
+      return new String(guid);
+   }
+
+   /**
+    * Computes a node identifier from the address of the host and the name of the JVM which
+    * contains the pid on most of the JVMs
+    */
+   private static long getDefaultNodeId()
+   {
+      int hash = hexServerIP_.hashCode() * 31 + ManagementFactory.getRuntimeMXBean().getName().hashCode();
+      hash ^= (hash >>> 16);
+      return hash & SequenceIDGenerator.MAX_NODE_ID;
    }
 
    private static int getInt(byte bytes[])
@@ -114,27 +217,8 @@ public class IDGeneratorServiceImpl implements IDGeneratorService
 
    private static String hexFormat(int i, int j)
    {
-      StringBuilder buffer = new StringBuilder(j);
-      addHexFormat(buffer, i, j);
-      return buffer.toString();
-   }
-
-   private static void addHexFormat(StringBuilder buffer, int i, int j)
-   {
-      String s = Integer.toHexString(i);
-      addPadHex(buffer, s, j);
-      buffer.append(s);
-   }
-
-   private static void addPadHex(StringBuilder buffer, String s, int i)
-   {
-      int length = s.length();
-      if (length < i)
-      {
-         for (int j = 0; j < i - length; j++)
-         {
-            buffer.append('0');
-         }
-      }
+      char[] buffer = new char[j];
+      SequenceIDGenerator.encodeHex(buffer, 0, i, j);
+      return new String(buffer);
    }
 }
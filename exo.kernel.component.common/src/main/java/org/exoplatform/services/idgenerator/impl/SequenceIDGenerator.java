@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.idgenerator.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates 64-bit identifiers made of a timestamp in milliseconds (41 bits), a node
+ * identifier (10 bits) and a sequence (12 bits), such that the identifiers generated by
+ * a given thread are strictly increasing and the identifiers generated by a given node
+ * are all different.
+ * <p>
+ * To avoid any contention, each thread reserves a block of sequence numbers thanks to
+ * a single compare and set on a shared counter, then serves the identifiers of its block
+ * locally. If the sequence numbers of the current millisecond are exhausted, the
+ * generator borrows the sequence numbers of the next milliseconds, but never more than
+ * {@link #MAX_BORROWED_MILLIS} ahead of the clock, beyond that it waits for the next
+ * millisecond. This way the identifiers cannot run ahead of the clock and be issued
+ * again after a restart.
+ *
+ * @version $Id$
+ */
+class SequenceIDGenerator
+{
+   /**
+    * The total amount of bits of the sequence
+    */
+   static final int SEQUENCE_BITS = 12;
+
+   /**
+    * The total amount of bits of the node identifier
+    */
+   static final int NODE_BITS = 10;
+
+   static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+
+   private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+   /**
+    * The time from which the timestamps are computed (2013-01-01T00:00:00Z)
+    */
+   static final long EPOCH = 1356998400000L;
+
+   /**
+    * The total amount of sequence numbers reserved by a thread at once, the sequence numbers
+    * left in a block once out of date are lost
+    */
+   private static final int BLOCK_SIZE = 8;
+
+   /**
+    * The maximum amount of milliseconds that can be borrowed ahead of the clock
+    */
+   static final long MAX_BORROWED_MILLIS = 2;
+
+   private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+   /**
+    * The node identifier shifted to its position in the identifiers
+    */
+   private final long node;
+
+   /**
+    * The last ticket reserved, a ticket is a timestamp followed by a sequence number
+    */
+   private final AtomicLong lastTicket = new AtomicLong();
+
+   /**
+    * The block of tickets of the current thread
+    */
+   private final ThreadLocal<Block> blocks = new ThreadLocal<Block>()
+   {
+      @Override
+      protected Block initialValue()
+      {
+         return new Block();
+      }
+   };
+
+   SequenceIDGenerator(long nodeId)
+   {
+      if (nodeId < 0 || nodeId > MAX_NODE_ID)
+      {
+         throw new IllegalArgumentException("The node id must be between 0 and " + MAX_NODE_ID);
+      }
+      this.node = nodeId << SEQUENCE_BITS;
+   }
+
+   /**
+    * Gives the next identifier of the current thread
+    */
+   long nextLong()
+   {
+      Block block = blocks.get();
+      long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+      // A block is renewed once exhausted or once its timestamp is out of date
+      if (block.next >= block.end || block.next < now)
+      {
+         reserve(block, now);
+      }
+      long ticket = block.next++;
+      return ((ticket & ~SEQUENCE_MASK) << NODE_BITS) | node | (ticket & SEQUENCE_MASK);
+   }
+
+   private void reserve(Block block, long now)
+   {
+      for (;;)
+      {
+         long current = lastTicket.get();
+         long start = Math.max(current, now);
+         long end = start + BLOCK_SIZE;
+         long limit = now + (MAX_BORROWED_MILLIS << SEQUENCE_BITS);
+         if (end > limit)
+         {
+            // Too many sequence numbers have been borrowed or the clock went backwards, so we
+            // wait for the clock to catch up
+            long required = end - (MAX_BORROWED_MILLIS << SEQUENCE_BITS);
+            now = waitFor((required + SEQUENCE_MASK) >>> SEQUENCE_BITS) << SEQUENCE_BITS;
+            continue;
+         }
+         if (lastTicket.compareAndSet(current, end))
+         {
+            block.next = start;
+            block.end = end;
+            return;
+         }
+      }
+   }
+
+   /**
+    * Waits until the clock reaches the given timestamp
+    * @return the current timestamp
+    */
+   private static long waitFor(long timestamp)
+   {
+      boolean interrupted = false;
+      try
+      {
+         for (;;)
+         {
+            long now = System.currentTimeMillis() - EPOCH;
+            long delay = timestamp - now;
+            if (delay <= 0)
+            {
+               return now;
+            }
+            else if (delay > 1)
+            {
+               try
+               {
+                  Thread.sleep(delay - 1);
+               }
+               catch (InterruptedException e)
+               {
+                  interrupted = true;
+               }
+            }
+            else
+            {
+               Thread.yield();
+            }
+         }
+      }
+      finally
+      {
+         if (interrupted)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * Writes the hexadecimal representation of the given value on the given amount of
+    * digits into the given buffer from the given offset
+    */
+   static void encodeHex(char[] buffer, int offset, long value, int digits)
+   {
+      for (int i = offset + digits - 1; i >= offset; i--)
+      {
+         buffer[i] = DIGITS[(int)(value & 0xF)];
+         value >>>= 4;
+      }
+   }
+
+   /**
+    * A block of tickets reserved by a thread
+    */
+   private static class Block
+   {
+      private long next;
+
+      private long end;
+   }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.jdbc.impl;
+
+import org.exoplatform.commons.utils.LatencyHistogram;
+import org.exoplatform.commons.utils.StripedCounter;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The metrics of an instrumented data source: the time spent to acquire the connections,
+ * the latency of the statements per SQL query, the efficiency of the statement cache and
+ * the connections currently held with the stack trace of their acquisition to be able
+ * to detect the leaks.
+ *
+ * @version $Id$
+ */
+class DataSourceMetrics
+{
+   /**
+    * The max amount of distinct SQL queries for which the metrics are collected, the other
+    * queries are all collected under the key {@link #OTHER_QUERIES}
+    */
+   static final int MAX_QUERIES = 200;
+
+   static final String OTHER_QUERIES = "<other queries>";
+
+   /**
+    * The default amount of entries returned by the report
+    */
+   private static final int DEFAULT_REPORT_SIZE = 20;
+
+   /**
+    * The time spent to get a connection from the data source
+    */
+   final LatencyHistogram acquireTimes = new LatencyHistogram();
+
+   /**
+    * The total amount of connections that could not be acquired
+    */
+   final StripedCounter acquireFailures = new StripedCounter();
+
+   /**
+    * The time during which the connections have been held
+    */
+   final LatencyHistogram holdTimes = new LatencyHistogram();
+
+   /**
+    * The total amount of prepared statements found in the statement cache
+    */
+   final StripedCounter cacheHits = new StripedCounter();
+
+   /**
+    * The total amount of prepared statements that could not be found in the statement cache
+    */
+   final StripedCounter cacheMisses = new StripedCounter();
+
+   /**
+    * The metrics per SQL query
+    */
+   private final ConcurrentMap<String, QueryMetrics> queries = new ConcurrentHashMap<String, QueryMetrics>();
+
+   /**
+    * The connections currently held
+    */
+   private final ConcurrentMap<InstrumentedConnection, Boolean> connections =
+      new ConcurrentHashMap<InstrumentedConnection, Boolean>();
+
+   /**
+    * Gives the metrics of the given SQL query
+    */
+   QueryMetrics getQueryMetrics(String sql)
+   {
+      QueryMetrics qm = queries.get(sql);
+      if (qm == null)
+      {
+         if (queries.size() >= MAX_QUERIES)
+         {
+            // The queries are probably not parameterized so we stop collecting them separately
+            sql = OTHER_QUERIES;
+            qm = queries.get(sql);
+            if (qm != null)
+            {
+               return qm;
+            }
+         }
+         qm = new QueryMetrics();
+         QueryMetrics existing = queries.putIfAbsent(sql, qm);
+         if (existing != null)
+         {
+            qm = existing;
+         }
+      }
+      return qm;
+   }
+
+   void acquired(InstrumentedConnection connection)
+   {
+      connections.put(connection, Boolean.TRUE);
+   }
+
+   void released(InstrumentedConnection connection)
+   {
+      if (connections.remove(connection) != null)
+      {
+         holdTimes.recordSince(connection.getAcquireTime());
+      }
+   }
+
+   /**
+    * Gives the total amount of connections currently held
+    */
+   int getHeldConnections()
+   {
+      return connections.size();
+   }
+
+   /**
+    * Gives the connections that have been held for longer than the given time in
+    * milliseconds with the stack trace of their acquisition
+    */
+   String getLeakedConnections(long threshold)
+   {
+      long now = System.nanoTime();
+      StringWriter sw = new StringWriter();
+      PrintWriter pw = new PrintWriter(sw);
+      for (InstrumentedConnection connection : connections.keySet())
+      {
+         long heldTime = (now - connection.getAcquireTime()) / 1000000;
+         if (heldTime >= threshold)
+         {
+            pw.println("Connection held for " + heldTime + " ms");
+            Exception acquisition = connection.getAcquisition();
+            if (acquisition != null)
+            {
+               acquisition.printStackTrace(pw);
+            }
+         }
+      }
+      pw.flush();
+      return sw.toString();
+   }
+
+   /**
+    * Gives the metrics of the SQL queries that took the most time
+    */
+   String getQueriesReport(int size)
+   {
+      List<Map.Entry<String, QueryMetrics>> entries =
+         new ArrayList<Map.Entry<String, QueryMetrics>>(queries.entrySet());
+      Collections.sort(entries, new Comparator<Map.Entry<String, QueryMetrics>>()
+      {
+         public int compare(Map.Entry<String, QueryMetrics> e1, Map.Entry<String, QueryMetrics> e2)
+         {
+            long t1 = e1.getValue().executionTimes.getTotal();
+            long t2 = e2.getValue().executionTimes.getTotal();
+            return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+         }
+      });
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0, length = Math.min(size <= 0 ? DEFAULT_REPORT_SIZE : size, entries.size()); i < length; i++)
+      {
+         Map.Entry<String, QueryMetrics> entry = entries.get(i);
+         sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Removes all the metrics collected so far, the connections held are kept
+    */
+   void reset()
+   {
+      acquireTimes.reset();
+      acquireFailures.reset();
+      holdTimes.reset();
+      cacheHits.reset();
+      cacheMisses.reset();
+      queries.clear();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString()
+   {
+      return "acquireTimes=[" + acquireTimes + "], acquireFailures=" + acquireFailures + ", held="
+         + connections.size() + ", holdTimes=[" + holdTimes + "], cacheHits=" + cacheHits + ", cacheMisses="
+         + cacheMisses;
+   }
+
+   /**
+    * The metrics of a given SQL query
+    */
+   static class QueryMetrics
+   {
+      /**
+       * The duration of the executions, the metrics of a query are not striped to keep
+       * the footprint of all the queries low
+       */
+      final LatencyHistogram executionTimes = new LatencyHistogram(1);
+
+      /**
+       * The total amount of executions that failed
+       */
+      final StripedCounter failures = new StripedCounter(1);
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public String toString()
+      {
+         return "executionTimes=[" + executionTimes + "], failures=" + failures;
+      }
+   }
+}
@@ -21,6 +21,11 @@ package org.exoplatform.services.jdbc.impl;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.container.xml.ValueParam;
 import org.exoplatform.container.xml.ValuesParam;
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.annotations.ManagedName;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
 import org.exoplatform.services.jdbc.DataSourceProvider;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
@@ -29,6 +34,9 @@ import org.exoplatform.services.transaction.TransactionService;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -39,12 +47,17 @@ import javax.transaction.TransactionManager;
  * The default implementation of {@link DataSourceProvider}. It allows you
  * to define a data source as managed thanks to the configuration of this 
  * component. When the data source is declared as managed, the {@link DataSource}
- * object will be wrap into a {@link ManagedDataSource}.
+ * object will be wrap into a {@link ManagedDataSource}. When the data source is declared
+ * as instrumented, the metrics of its connections and of its statements are collected
+ * and exposed through JMX.
  * 
  * @author <a href="mailto:nfilotto@exoplatform.com">Nicolas Filotto</a>
  * @version $Id$
  *
  */
+@Managed
+@ManagedDescription("The provider of data sources")
+@NameTemplate(@Property(key = "service", value = "DataSourceProvider"))
 public class DataSourceProviderImpl implements DataSourceProvider
 {
 
@@ -67,6 +80,28 @@ public class DataSourceProviderImpl implements DataSourceProvider
     * The name of the parameter of all the managed data sources.
     */
    protected static final String PARAM_MANAGED_DS = "managed-data-sources";
+
+   /**
+    * The name of the parameter of all the instrumented data sources.
+    */
+   protected static final String PARAM_INSTRUMENTED_DS = "instrumented-data-sources";
+
+   /**
+    * The name of the parameter of the max amount of prepared statements kept in cache
+    * per connection of an instrumented data source.
+    */
+   protected static final String PARAM_STATEMENT_CACHE_SIZE = "statement-cache-size";
+
+   /**
+    * The name of the parameter of the time in milliseconds after which a connection
+    * of an instrumented data source is considered as leaked.
+    */
+   protected static final String PARAM_LEAK_DETECTION_THRESHOLD = "leak-detection-threshold";
+
+   /**
+    * The default time in milliseconds after which a connection is considered as leaked
+    */
+   private static final long DEFAULT_LEAK_DETECTION_THRESHOLD = 30000;
  
    /**
     * The transaction manager
@@ -90,6 +125,29 @@ public class DataSourceProviderImpl implements DataSourceProvider
     * A set of all the data sources that are managed
     */
    protected final Set<String> managedDS = new HashSet<String>(); 
+
+   /**
+    * A set of all the data sources that are instrumented
+    */
+   protected final Set<String> instrumentedDS = new HashSet<String>();
+
+   /**
+    * The max amount of prepared statements kept in cache per connection of an
+    * instrumented data source, a value lower or equal to 0 disables the cache
+    */
+   protected int statementCacheSize;
+
+   /**
+    * The time in milliseconds after which a connection of an instrumented data source
+    * is considered as leaked, a value lower or equal to 0 disables the detection
+    */
+   protected long leakDetectionThreshold = DEFAULT_LEAK_DETECTION_THRESHOLD;
+
+   /**
+    * The metrics of the instrumented data sources
+    */
+   private final ConcurrentMap<String, DataSourceMetrics> metrics =
+      new ConcurrentHashMap<String, DataSourceMetrics>();
    
    /**
     * The default constructor
@@ -112,26 +170,45 @@ public class DataSourceProviderImpl implements DataSourceProvider
          {
             this.checkIfTxActive = Boolean.valueOf(param.getValue());
          }
+         param = params.getValueParam(PARAM_STATEMENT_CACHE_SIZE);
+         if (param != null)
+         {
+            this.statementCacheSize = Integer.parseInt(param.getValue().trim());
+         }
+         param = params.getValueParam(PARAM_LEAK_DETECTION_THRESHOLD);
+         if (param != null)
+         {
+            this.leakDetectionThreshold = Long.parseLong(param.getValue().trim());
+         }
+         addDataSourceNames(params.getValuesParam(PARAM_INSTRUMENTED_DS), instrumentedDS);
          param = params.getValueParam(PARAM_ALWAYS_MANAGED);
          if (param != null && Boolean.valueOf(param.getValue()))
          {
             this.alwaysManaged = true;
             return;
          }
-         ValuesParam vp = params.getValuesParam(PARAM_MANAGED_DS);
-         if (vp != null && vp.getValues() != null)
+         addDataSourceNames(params.getValuesParam(PARAM_MANAGED_DS), managedDS);
+      }
+   }
+
+   /**
+    * Adds to the given set the comma separated names of data sources defined in the given
+    * parameter
+    */
+   private static void addDataSourceNames(ValuesParam vp, Set<String> names)
+   {
+      if (vp != null && vp.getValues() != null)
+      {
+         for (Object oValue : vp.getValues())
          {
-            for (Object oValue : vp.getValues())
+            String s = (String)oValue;
+            StringTokenizer st = new StringTokenizer(s, ",");
+            while (st.hasMoreTokens())
             {
-               String s = (String)oValue;
-               StringTokenizer st = new StringTokenizer(s, ",");
-               while (st.hasMoreTokens())
+               String dsName = st.nextToken().trim();
+               if (!dsName.isEmpty())
                {
-                  String dsName = st.nextToken().trim();
-                  if (!dsName.isEmpty())
-                  {
-                     managedDS.add(dsName);                     
-                  }
+                  names.add(dsName);                     
                }
             }
          }
@@ -148,6 +225,10 @@ public class DataSourceProviderImpl implements DataSourceProvider
       try
       {
          DataSource ds = (DataSource)ctx.lookup(dataSourceName);
+         if (isInstrumented(dataSourceName))
+         {
+            ds = new InstrumentedDataSource(ds, getMetrics(dataSourceName), statementCacheSize, leakDetectionThreshold);
+         }
          // wrap the data source object if it is managed
          return isManaged(dataSourceName) ? new ManagedDataSource(ds, tm, checkIfTxActive) : ds;
       }
@@ -179,4 +260,80 @@ public class DataSourceProviderImpl implements DataSourceProvider
       }
       return managedDS.contains(dataSourceName);
    }
+
+   /**
+    * Gives the metrics of the given instrumented data source
+    */
+   private DataSourceMetrics getMetrics(String dataSourceName)
+   {
+      DataSourceMetrics dsm = metrics.get(dataSourceName);
+      if (dsm == null)
+      {
+         dsm = new DataSourceMetrics();
+         DataSourceMetrics existing = metrics.putIfAbsent(dataSourceName, dsm);
+         if (existing != null)
+         {
+            dsm = existing;
+         }
+      }
+      return dsm;
+   }
+
+   /**
+    * Indicates whether or not the given data source is instrumented
+    */
+   public boolean isInstrumented(String dataSourceName)
+   {
+      return instrumentedDS.contains(dataSourceName);
+   }
+
+   @Managed
+   @ManagedDescription("Gives the names of the instrumented data sources that have already been provided")
+   public String getInstrumentedDataSources()
+   {
+      return new TreeSet<String>(metrics.keySet()).toString();
+   }
+
+   @Managed
+   @ManagedDescription("Gives the metrics of the connections of the given instrumented data source")
+   public String getDataSourceMetrics(
+      @ManagedDescription("The name of the data source") @ManagedName("dataSourceName") String dataSourceName)
+   {
+      DataSourceMetrics dsm = metrics.get(dataSourceName);
+      return dsm == null ? null : dsm.toString();
+   }
+
+   @Managed
+   @ManagedDescription("Gives the metrics of the SQL queries of the given instrumented data source "
+      + "that took the most time")
+   public String getStatementReport(
+      @ManagedDescription("The name of the data source") @ManagedName("dataSourceName") String dataSourceName,
+      @ManagedDescription("The max amount of SQL queries") @ManagedName("size") int size)
+   {
+      DataSourceMetrics dsm = metrics.get(dataSourceName);
+      return dsm == null ? null : dsm.getQueriesReport(size);
+   }
+
+   @Managed
+   @ManagedDescription("Gives the connections of the given instrumented data source that have been held "
+      + "for longer than the given time with the stack trace of their acquisition if the leak detection is enabled")
+   public String getLeakedConnections(
+      @ManagedDescription("The name of the data source") @ManagedName("dataSourceName") String dataSourceName,
+      @ManagedDescription("The time in milliseconds") @ManagedName("threshold") long threshold)
+   {
+      DataSourceMetrics dsm = metrics.get(dataSourceName);
+      return dsm == null ? null : dsm.getLeakedConnections(threshold);
+   }
+
+   @Managed
+   @ManagedDescription("Removes all the metrics of the given instrumented data source collected so far")
+   public void resetDataSourceMetrics(
+      @ManagedDescription("The name of the data source") @ManagedName("dataSourceName") String dataSourceName)
+   {
+      DataSourceMetrics dsm = metrics.get(dataSourceName);
+      if (dsm != null)
+      {
+         dsm.reset();
+      }
+   }
 }
@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.jdbc.impl;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class wraps a jdbc connection in order to collect the metrics of the statements
+ * that it executes and to keep track of the place where it has been acquired until it
+ * is closed. It can also keep in a cache the prepared statements once closed, in order to
+ * reuse them the next time the same SQL query is prepared with the same connection.
+ * <p>
+ * The connection and its statements are dynamic proxies to be independent of the version
+ * of the JDBC API.
+ *
+ * @version $Id$
+ */
+class InstrumentedConnection implements InvocationHandler
+{
+   /**
+    * The logger
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.common.InstrumentedConnection");
+
+   /**
+    * The key under which the metrics of the batches of a simple statement are collected
+    */
+   private static final String BATCH = "<batch>";
+
+   /**
+    * The methods that change the state of a statement in a way that cannot be reset, a prepared
+    * statement on which one of them has been called is closed for good instead of being cached
+    */
+   private static final Set<String> STATE_METHODS = new HashSet<String>(Arrays.asList("setMaxRows",
+      "setLargeMaxRows", "setFetchSize", "setFetchDirection", "setQueryTimeout", "setMaxFieldSize",
+      "setEscapeProcessing", "setCursorName", "setPoolable", "closeOnCompletion"));
+
+   /**
+    * The nested connection
+    */
+   private final Connection con;
+
+   /**
+    * The proxy of the connection given to the application
+    */
+   private final Connection proxy;
+
+   private final DataSourceMetrics metrics;
+
+   /**
+    * The time in milliseconds after which a connection held is considered as leaked,
+    * a value lower or equal to 0 disables the detection
+    */
+   private final long leakDetectionThreshold;
+
+   /**
+    * The time at which the connection has been acquired
+    */
+   private final long acquireTime = System.nanoTime();
+
+   /**
+    * The stack trace of the acquisition of the connection, only kept if the leak detection is enabled
+    */
+   private final Exception acquisition;
+
+   /**
+    * The prepared statements that have been closed and that can be reused, the least
+    * recently used ones are closed for good once the cache is full
+    */
+   private final Map<String, PreparedStatement> statements;
+
+   private volatile boolean closed;
+
+   private InstrumentedConnection(Connection con, DataSourceMetrics metrics, final int statementCacheSize,
+      long leakDetectionThreshold)
+   {
+      this.con = con;
+      this.metrics = metrics;
+      this.leakDetectionThreshold = leakDetectionThreshold;
+      this.acquisition =
+         leakDetectionThreshold > 0 ? new Exception("Connection acquired by the thread "
+            + Thread.currentThread().getName()) : null;
+      this.statements = statementCacheSize <= 0 ? null : new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+         {
+            if (size() > statementCacheSize)
+            {
+               closeQuietly(eldest.getValue());
+               return true;
+            }
+            return false;
+         }
+      };
+      this.proxy =
+         (Connection)Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(),
+            new Class<?>[]{Connection.class}, this);
+   }
+
+   /**
+    * Wraps the given connection and registers it as held in the given metrics
+    */
+   static Connection wrap(Connection con, DataSourceMetrics metrics, int statementCacheSize,
+      long leakDetectionThreshold)
+   {
+      InstrumentedConnection ic = new InstrumentedConnection(con, metrics, statementCacheSize, leakDetectionThreshold);
+      metrics.acquired(ic);
+      return ic.proxy;
+   }
+
+   long getAcquireTime()
+   {
+      return acquireTime;
+   }
+
+   Exception getAcquisition()
+   {
+      return acquisition;
+   }
+
+   /**
+    * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+    */
+   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+   {
+      String name = method.getName();
+      if (name.equals("close"))
+      {
+         close();
+         return null;
+      }
+      else if (name.equals("isClosed"))
+      {
+         return closed || con.isClosed();
+      }
+      else if (name.equals("equals"))
+      {
+         return proxy == args[0];
+      }
+      else if (name.equals("hashCode"))
+      {
+         return System.identityHashCode(proxy);
+      }
+      else if (name.equals("toString"))
+      {
+         return "InstrumentedConnection[" + con + "]";
+      }
+      else if (closed)
+      {
+         throw new SQLException("The connection is closed");
+      }
+      else if (name.equals("prepareStatement") && args.length == 1 && statements != null)
+      {
+         return prepareStatement((String)args[0]);
+      }
+      Object result = call(con, method, args);
+      if (result instanceof Statement
+         && (name.equals("createStatement") || name.equals("prepareStatement") || name.equals("prepareCall")))
+      {
+         String sql = args != null && args.length > 0 && args[0] instanceof String ? (String)args[0] : null;
+         return wrap((Statement)result, method.getReturnType(), sql, false);
+      }
+      return result;
+   }
+
+   /**
+    * Gives a prepared statement from the cache if any, creates a new one otherwise
+    */
+   private Object prepareStatement(String sql) throws SQLException
+   {
+      PreparedStatement ps;
+      synchronized (statements)
+      {
+         ps = statements.remove(sql);
+      }
+      if (ps == null)
+      {
+         metrics.cacheMisses.increment();
+         ps = con.prepareStatement(sql);
+      }
+      else
+      {
+         metrics.cacheHits.increment();
+      }
+      return wrap(ps, PreparedStatement.class, sql, true);
+   }
+
+   /**
+    * Puts back into the cache the given prepared statement that has been closed by the
+    * application once its parameters, its batch and its result sets cleared. A statement whose
+    * state has been changed by the application is closed for good.
+    */
+   private void release(PreparedStatement ps, String sql, StatementHandler handler)
+   {
+      handler.closeResultSets();
+      if (!closed && handler.reusable)
+      {
+         try
+         {
+            ps.clearParameters();
+            if (handler.batched)
+            {
+               ps.clearBatch();
+            }
+            ps.clearWarnings();
+            synchronized (statements)
+            {
+               if (!statements.containsKey(sql))
+               {
+                  statements.put(sql, ps);
+                  return;
+               }
+            }
+         }
+         catch (SQLException e)
+         {
+            if (LOG.isDebugEnabled())
+            {
+               LOG.debug("The prepared statement cannot be reused: " + e.getMessage());
+            }
+         }
+      }
+      closeQuietly(ps);
+   }
+
+   private void close() throws SQLException
+   {
+      if (closed)
+      {
+         return;
+      }
+      closed = true;
+      metrics.released(this);
+      if (leakDetectionThreshold > 0)
+      {
+         long heldTime = (System.nanoTime() - acquireTime) / 1000000;
+         if (heldTime >= leakDetectionThreshold)
+         {
+            LOG.warn("A connection has been held for " + heldTime + " ms", acquisition);
+         }
+      }
+      if (statements != null)
+      {
+         List<PreparedStatement> toClose;
+         synchronized (statements)
+         {
+            toClose = new ArrayList<PreparedStatement>(statements.values());
+            statements.clear();
+         }
+         for (Iterator<PreparedStatement> it = toClose.iterator(); it.hasNext();)
+         {
+            closeQuietly(it.next());
+         }
+      }
+      con.close();
+   }
+
+   private Object wrap(Statement st, Class<?> type, String sql, boolean cached)
+   {
+      return Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(), new Class<?>[]{type},
+         new StatementHandler(st, sql, cached));
+   }
+
+   private static Object call(Object target, Method method, Object[] args) throws Throwable
+   {
+      try
+      {
+         return method.invoke(target, args);
+      }
+      catch (InvocationTargetException e)
+      {
+         throw e.getCause();
+      }
+   }
+
+   private static void closeQuietly(Statement st)
+   {
+      try
+      {
+         st.close();
+      }
+      catch (SQLException e)
+      {
+         if (LOG.isDebugEnabled())
+         {
+            LOG.debug("Could not close the statement: " + e.getMessage());
+         }
+      }
+   }
+
+   private static void closeQuietly(ResultSet rs)
+   {
+      try
+      {
+         rs.close();
+      }
+      catch (SQLException e)
+      {
+         if (LOG.isDebugEnabled())
+         {
+            LOG.debug("Could not close the result set: " + e.getMessage());
+         }
+      }
+   }
+
+   /**
+    * The handler of the statements that collects the latency of their executions
+    */
+   private class StatementHandler implements InvocationHandler
+   {
+      private final Statement st;
+
+      /**
+       * The SQL query of the statement if it has been prepared
+       */
+      private final String sql;
+
+      /**
+       * Indicates whether the statement must be put back into the cache once closed
+       */
+      private final boolean cached;
+
+      private volatile boolean stClosed;
+
+      /**
+       * Indicates whether the state of the statement allows to cache it once closed
+       */
+      private boolean reusable = true;
+
+      /**
+       * Indicates whether a batch has been added to the statement
+       */
+      private boolean batched;
+
+      /**
+       * The result sets given by the statement if it must be put back into the cache
+       */
+      private List<ResultSet> resultSets;
+
+      StatementHandler(Statement st, String sql, boolean cached)
+      {
+         this.st = st;
+         this.sql = sql;
+         this.cached = cached;
+      }
+
+      /**
+       * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+       */
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+         String name = method.getName();
+         if (name.equals("close"))
+         {
+            if (!stClosed)
+            {
+               stClosed = true;
+               if (cached)
+               {
+                  release((PreparedStatement)st, sql, this);
+               }
+               else
+               {
+                  st.close();
+               }
+            }
+            return null;
+         }
+         else if (name.equals("isClosed"))
+         {
+            return stClosed || st.isClosed();
+         }
+         else if (name.equals("equals"))
+         {
+            return proxy == args[0];
+         }
+         else if (name.equals("hashCode"))
+         {
+            return System.identityHashCode(proxy);
+         }
+         else if (name.equals("toString"))
+         {
+            return "InstrumentedStatement[" + st + "]";
+         }
+         else if (stClosed)
+         {
+            throw new SQLException("The statement is closed");
+         }
+         else if (name.equals("getConnection"))
+         {
+            return InstrumentedConnection.this.proxy;
+         }
+         else if (!name.startsWith("execute"))
+         {
+            if (cached)
+            {
+               if (STATE_METHODS.contains(name))
+               {
+                  reusable = false;
+               }
+               else if (name.equals("addBatch"))
+               {
+                  batched = true;
+               }
+               return track(call(st, method, args));
+            }
+            return call(st, method, args);
+         }
+         String key = args != null && args.length > 0 && args[0] instanceof String ? (String)args[0] : sql;
+         DataSourceMetrics.QueryMetrics qm = metrics.getQueryMetrics(key == null ? BATCH : key);
+         long start = System.nanoTime();
+         try
+         {
+            return cached ? track(call(st, method, args)) : call(st, method, args);
+         }
+         catch (Throwable e)
+         {
+            qm.failures.increment();
+            throw e;
+         }
+         finally
+         {
+            qm.executionTimes.recordSince(start);
+         }
+      }
+
+      /**
+       * Keeps track of the given result of a call if it is a result set, in order to close it
+       * before putting back the statement into the cache
+       */
+      private Object track(Object result)
+      {
+         if (result instanceof ResultSet)
+         {
+            synchronized (this)
+            {
+               if (resultSets == null)
+               {
+                  resultSets = new ArrayList<ResultSet>();
+               }
+               resultSets.add((ResultSet)result);
+            }
+         }
+         return result;
+      }
+
+      /**
+       * Closes the result sets given by the statement
+       */
+      private void closeResultSets()
+      {
+         List<ResultSet> toClose;
+         synchronized (this)
+         {
+            toClose = resultSets;
+            resultSets = null;
+         }
+         if (toClose != null)
+         {
+            for (Iterator<ResultSet> it = toClose.iterator(); it.hasNext();)
+            {
+               closeQuietly(it.next());
+            }
+         }
+      }
+   }
+}
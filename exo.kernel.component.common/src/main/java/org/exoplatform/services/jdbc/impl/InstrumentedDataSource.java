@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.jdbc.impl;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * This class wraps the original {@link DataSource} in order to collect the time spent
+ * to acquire the connections and to provide instrumented connections. A {@link DataSource}
+ * is expected to be wrapped only when it has been configured as instrumented.
+ *
+ * @see InstrumentedConnection
+ * @version $Id$
+ */
+class InstrumentedDataSource implements DataSource
+{
+   /**
+    * The wrapped {@link DataSource}
+    */
+   private final DataSource ds;
+
+   private final DataSourceMetrics metrics;
+
+   /**
+    * The max amount of prepared statements kept in cache per connection
+    */
+   private final int statementCacheSize;
+
+   /**
+    * The time in milliseconds after which a connection held is considered as leaked
+    */
+   private final long leakDetectionThreshold;
+
+   InstrumentedDataSource(DataSource ds, DataSourceMetrics metrics, int statementCacheSize,
+      long leakDetectionThreshold)
+   {
+      this.ds = ds;
+      this.metrics = metrics;
+      this.statementCacheSize = statementCacheSize;
+      this.leakDetectionThreshold = leakDetectionThreshold;
+   }
+
+   /**
+    * @see javax.sql.CommonDataSource#getLogWriter()
+    */
+   public PrintWriter getLogWriter() throws SQLException
+   {
+      return ds.getLogWriter();
+   }
+
+   /**
+    * @see javax.sql.CommonDataSource#getLoginTimeout()
+    */
+   public int getLoginTimeout() throws SQLException
+   {
+      return ds.getLoginTimeout();
+   }
+
+   /**
+    * @see javax.sql.CommonDataSource#setLogWriter(java.io.PrintWriter)
+    */
+   public void setLogWriter(PrintWriter out) throws SQLException
+   {
+      ds.setLogWriter(out);
+   }
+
+   /**
+    * @see javax.sql.CommonDataSource#setLoginTimeout(int)
+    */
+   public void setLoginTimeout(int seconds) throws SQLException
+   {
+      ds.setLoginTimeout(seconds);
+   }
+
+   /**
+    * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
+    */
+   public boolean isWrapperFor(Class<?> iface) throws SQLException
+   {
+      return ds.isWrapperFor(iface);
+   }
+
+   /**
+    * @see java.sql.Wrapper#unwrap(java.lang.Class)
+    */
+   public <T> T unwrap(Class<T> iface) throws SQLException
+   {
+      return ds.unwrap(iface);
+   }
+
+   /**
+    * @see javax.sql.DataSource#getConnection()
+    */
+   public Connection getConnection() throws SQLException
+   {
+      return getConnection(null, null, false);
+   }
+
+   /**
+    * @see javax.sql.DataSource#getConnection(java.lang.String, java.lang.String)
+    */
+   public Connection getConnection(String username, String password) throws SQLException
+   {
+      return getConnection(username, password, true);
+   }
+
+   private Connection getConnection(String username, String password, boolean withCredentials)
+      throws SQLException
+   {
+      long start = System.nanoTime();
+      Connection con;
+      try
+      {
+         con = withCredentials ? ds.getConnection(username, password) : ds.getConnection();
+      }
+      catch (SQLException e)
+      {
+         metrics.acquireFailures.increment();
+         throw e;
+      }
+      catch (RuntimeException e)
+      {
+         metrics.acquireFailures.increment();
+         throw e;
+      }
+      finally
+      {
+         metrics.acquireTimes.recordSince(start);
+      }
+      return con == null ? null : InstrumentedConnection.wrap(con, metrics, statementCacheSize,
+         leakDetectionThreshold);
+   }
+
+   /**
+    * @see javax.sql.CommonDataSource#getParentLogger()
+    */
+   public Logger getParentLogger() throws SQLFeatureNotSupportedException
+   {
+      try
+      {
+         Method m = ds.getClass().getMethod("getParentLogger");
+         return (Logger)m.invoke(ds);
+      }
+      catch (Exception e)
+      {
+         throw new SQLFeatureNotSupportedException(e);
+      }
+   }
+}
@@ -34,4 +34,11 @@ import java.lang.annotation.Target;
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Asynchronous {
+
+   /**
+    * Indicates whether the listener must be executed within a request life cycle of the container
+    * which is the case by default. Listeners that don't need it should disable it to reduce the
+    * overhead of each execution.
+    */
+   boolean requestLifeCycle() default true;
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.listener;
+
+import org.exoplatform.commons.utils.LatencyHistogram;
+import org.exoplatform.commons.utils.StripedCounter;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The metrics of a {@link Listener} registered for a given event name. The statistics are
+ * only allocated once the metrics are enabled since they are disabled by default.
+ *
+ * @version $Id$
+ *
+ */
+class ListenerMetrics
+{
+   /**
+    * The name of the event
+    */
+   final String eventName;
+
+   /**
+    * The name of the listener
+    */
+   final String listenerName;
+
+   /**
+    * The statistics of the invocations, <code>null</code> until the metrics are collected
+    */
+   final AtomicReference<Statistics> statistics = new AtomicReference<Statistics>();
+
+   /**
+    * The executor dedicated to the listener if it has been isolated because it was too slow,
+    * <code>null</code> otherwise
+    */
+   volatile ThreadPoolExecutor lane;
+
+   /**
+    * The amount of invocations since the creation, only used to sample the checks of the
+    * duration of the listener so it is not meant to be accurate
+    */
+   int samples;
+
+   ListenerMetrics(String eventName, Listener<?, ?> listener)
+   {
+      this.eventName = eventName;
+      this.listenerName = listener.getName() == null ? listener.getClass().getName() : listener.getName();
+   }
+
+   /**
+    * Gives the statistics of the invocations, they are created if needed
+    */
+   Statistics getStatistics()
+   {
+      return Statistics.get(statistics);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString()
+   {
+      Statistics stats = statistics.get();
+      return eventName + "/" + listenerName + ": invocations=" + (stats == null ? "0" : stats.count) + ", errors="
+         + (stats == null ? "0" : stats.errors) + ", times=[" + (stats == null ? "" : stats.times) + "]"
+         + (lane == null ? "" : ", isolated");
+   }
+
+   /**
+    * The statistics of the invocations of a listener or of the broadcasts of an event
+    */
+   static class Statistics
+   {
+      /**
+       * The total amount of invocations
+       */
+      final StripedCounter count = new StripedCounter();
+
+      /**
+       * The total amount of invocations that failed
+       */
+      final StripedCounter errors = new StripedCounter(1);
+
+      /**
+       * The duration of the invocations
+       */
+      final LatencyHistogram times = new LatencyHistogram();
+
+      /**
+       * Gives the statistics of the given reference, they are created and set atomically if needed
+       */
+      static Statistics get(AtomicReference<Statistics> reference)
+      {
+         Statistics stats = reference.get();
+         if (stats == null)
+         {
+            stats = new Statistics();
+            if (!reference.compareAndSet(null, stats))
+            {
+               stats = reference.get();
+            }
+         }
+         return stats;
+      }
+
+      void reset()
+      {
+         count.reset();
+         errors.reset();
+         times.reset();
+      }
+   }
+}
@@ -22,20 +22,33 @@ import org.exoplatform.commons.utils.SecurityHelper;
 import org.exoplatform.container.ExoContainer;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.component.RequestLifeCycle;
-import org.exoplatform.container.component.ThreadContextHandler;
+import org.exoplatform.container.component.ThreadContextSnapshot;
 import org.exoplatform.container.spi.DefinitionByType;
 import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.naming.InitialContextInitializer;
+import org.picocontainer.Startable;
 
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by The eXo Platform SAS<br>
@@ -47,20 +60,105 @@ import java.util.concurrent.Executors;
  * @LevelAPI Platform
  */
 @DefinitionByType
-public class ListenerService
+@Managed
+@ManagedDescription("The listener service")
+@NameTemplate(@Property(key = "service", value = "listener"))
+public class ListenerService implements Startable
 {
+   /**
+    * The name of the parameter that defines the total amount of threads used for the
+    * asynchronous listeners, each thread has its own queue.
+    */
+   public static final String ASYNCH_POOL_SIZE = "asynchPoolSize";
+
+   /**
+    * The name of the parameter that defines the max size of the queue of each thread
+    * used for the asynchronous listeners. The queues are unbounded by default.
+    */
+   public static final String ASYNCH_QUEUE_SIZE = "asynchQueueSize";
+
+   /**
+    * The name of the parameter that defines what to do when the queue of an asynchronous
+    * thread is full, the possible values are <code>block</code> (the default value),
+    * <code>caller-runs</code>, <code>drop</code> and <code>drop-oldest</code>.
+    */
+   public static final String ASYNCH_REJECTION_POLICY = "asynchRejectionPolicy";
+
+   /**
+    * The name of the parameter that indicates whether the durations of the broadcasts and of
+    * the listeners must be collected, they are not collected by default.
+    */
+   public static final String METRICS_ENABLED = "metricsEnabled";
+
+   /**
+    * The name of the parameter that defines the 99th percentile in milliseconds of the duration of a
+    * synchronous listener beyond which the listener is moved to its own asynchronous lane. This is
+    * disabled by default, if set the metrics are enabled.
+    */
+   public static final String SLOW_LISTENER_THRESHOLD = "slowListenerThreshold";
+
+   /**
+    * The minimum amount of invocations of a listener before checking whether it is too slow
+    */
+   private static final int SLOW_LISTENER_MIN_INVOCATIONS = 128;
+
+   /**
+    * The maximum amount of time in milliseconds given to the queued events to be processed
+    * once the service is stopped
+    */
+   private static final long SHUTDOWN_TIMEOUT = 10000;
+
    /** 
-    * This executor used for asynchronously event broadcast. 
+    * The executors used for asynchronously event broadcast, an event is always executed by
+    * the same executor for a given key so that the events of a given key are processed in
+    * the same order as they have been broadcasted.
     */
-   private final Executor executor;
+   private final ThreadPoolExecutor[] executors;
 
    /**
-    * Listeners by name map.
+    * Listeners by name map. The arrays are never modified, they are replaced with a new
+    * array any time a listener is added.
     */
-   private final Map<String, List<Listener>> listeners_;
+   private final ConcurrentMap<String, ListenerGroup> listeners_;
+
+   /**
+    * Indicates whether the durations of the broadcasts and of the listeners are collected
+    */
+   private volatile boolean metricsEnabled;
+
+   /**
+    * The threshold in nanoseconds beyond which a synchronous listener is isolated, 0 if disabled
+    */
+   private final long slowListenerThreshold;
+
+   /**
+    * The size of the queues of the asynchronous executors
+    */
+   private final int queueSize;
+
+   /**
+    * The policy to apply when the queue of an asynchronous executor is full
+    */
+   private final RejectedExecutionHandler rejectionPolicy;
+
+   /**
+    * The factory of the threads of the asynchronous executors
+    */
+   private final ListenerThreadFactory threadFactory;
+
+   /**
+    * Indicates whether the service has been stopped, in which case the slow listeners are no
+    * longer isolated
+    */
+   private volatile boolean stopped;
 
    private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.common.ListenerService");
 
+   /**
+    * Indicates whether the current thread is executing an asynchronous listener
+    */
+   private static final ThreadLocal<Boolean> IN_ASYNCH_LISTENER = new ThreadLocal<Boolean>();
+
    private final ExoContainer container;
    
    /**
@@ -93,14 +191,74 @@ public class ListenerService
    public ListenerService(ExoContainerContext ctx, InitialContextInitializer initializer, InitParams params)
    {
       container = ctx.getContainer();
-      listeners_ = new HashMap<String, List<Listener>>();
+      listeners_ = new ConcurrentHashMap<String, ListenerGroup>();
       int poolSize = 1;
+      int queueSize = Integer.MAX_VALUE;
+      String policy = null;
+      long slowListenerThreshold = 0;
 
-      if (params != null && params.getValueParam("asynchPoolSize") != null)
+      if (params != null && params.getValueParam(ASYNCH_POOL_SIZE) != null)
+      {
+         poolSize = Integer.parseInt(params.getValueParam(ASYNCH_POOL_SIZE).getValue());
+      }
+      if (params != null && params.getValueParam(ASYNCH_QUEUE_SIZE) != null)
       {
-         poolSize = Integer.parseInt(params.getValueParam("asynchPoolSize").getValue());
+         queueSize = Integer.parseInt(params.getValueParam(ASYNCH_QUEUE_SIZE).getValue());
+      }
+      if (params != null && params.getValueParam(ASYNCH_REJECTION_POLICY) != null)
+      {
+         policy = params.getValueParam(ASYNCH_REJECTION_POLICY).getValue();
+      }
+      if (params != null && params.getValueParam(METRICS_ENABLED) != null)
+      {
+         metricsEnabled = Boolean.valueOf(params.getValueParam(METRICS_ENABLED).getValue());
+      }
+      if (params != null && params.getValueParam(SLOW_LISTENER_THRESHOLD) != null)
+      {
+         slowListenerThreshold =
+            TimeUnit.MILLISECONDS.toNanos(Long.parseLong(params.getValueParam(SLOW_LISTENER_THRESHOLD).getValue()));
+         if (slowListenerThreshold > 0)
+         {
+            metricsEnabled = true;
+         }
       }
-      executor = Executors.newFixedThreadPool(poolSize, new ListenerThreadFactory());
+      this.slowListenerThreshold = Math.max(0, slowListenerThreshold);
+      this.queueSize = queueSize;
+      this.rejectionPolicy = createRejectionPolicy(policy);
+      this.threadFactory = new ListenerThreadFactory();
+      executors = new ThreadPoolExecutor[poolSize];
+      for (int i = 0; i < poolSize; i++)
+      {
+         executors[i] = createExecutor();
+      }
+   }
+
+   private ThreadPoolExecutor createExecutor()
+   {
+      return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(queueSize),
+         threadFactory, rejectionPolicy);
+   }
+
+   private static RejectedExecutionHandler createRejectionPolicy(String policy)
+   {
+      if (policy == null || "block".equalsIgnoreCase(policy))
+      {
+         return new BlockingPolicy();
+      }
+      else if ("caller-runs".equalsIgnoreCase(policy))
+      {
+         return new ThreadPoolExecutor.CallerRunsPolicy();
+      }
+      else if ("drop".equalsIgnoreCase(policy))
+      {
+         return new DroppingPolicy(false);
+      }
+      else if ("drop-oldest".equalsIgnoreCase(policy))
+      {
+         return new DroppingPolicy(true);
+      }
+      throw new IllegalArgumentException("Unknown rejection policy '" + policy + "', the expected values are "
+         + "block, caller-runs, drop and drop-oldest");
    }
 
    /**
@@ -131,14 +289,19 @@ public class ListenerService
     */
    public void addListener(String eventName, Listener listener)
    {
+      ListenerMetrics metrics = new ListenerMetrics(eventName, listener);
       // Check is Listener or its superclass asynchronous, if so - wrap it in AsynchronousListener.
       Class listenerClass = listener.getClass();
 
       do
       {
-         if (listenerClass.isAnnotationPresent(Asynchronous.class))
+         Asynchronous asynchronous = (Asynchronous)listenerClass.getAnnotation(Asynchronous.class);
+         if (asynchronous != null)
          {
-            listener = new AsynchronousListener(listener);
+            AsynchronousListener asynchListener = new AsynchronousListener(listener);
+            asynchListener.metrics = metrics;
+            asynchListener.requestLifeCycle = asynchronous.requestLifeCycle();
+            listener = asynchListener;
             break;
          }
          else
@@ -148,13 +311,21 @@ public class ListenerService
       }
       while (listenerClass != null);
 
-      List<Listener> list = listeners_.get(eventName);
-      if (list == null)
+      for (;;)
       {
-         list = new ArrayList<Listener>();
-         listeners_.put(eventName, list);
+         ListenerGroup group = listeners_.get(eventName);
+         if (group == null)
+         {
+            if (listeners_.putIfAbsent(eventName, new ListenerGroup(listener, metrics)) == null)
+            {
+               return;
+            }
+         }
+         else if (listeners_.replace(eventName, group, group.add(listener, metrics)))
+         {
+            return;
+         }
       }
-      list.add(listener);
    }
 
    /**
@@ -173,25 +344,11 @@ public class ListenerService
     */
    final public <S, D> void broadcast(String name, S source, D data) throws Exception
    {
-      List<Listener> list = listeners_.get(name);
-      if (list == null)
+      ListenerGroup group = listeners_.get(name);
+      if (group == null)
          return;
-      for (Listener<S, D> listener : list)
-      {
-         if (LOG.isDebugEnabled())
-         {
-            LOG.debug("broadcasting event " + name + " on " + listener.getName());
-         }
-
-         try
-         {
-            listener.onEvent(new Event<S, D>(name, source, data));
-         }
-         catch (Exception e)
-         {
-            LOG.error("Exception on broadcasting events occurs: " + e.getMessage(), e);
-         }
-      }
+      // The same event is shared by all the listeners
+      dispatch(group, new Event<S, D>(name, source, data));
    }
 
    /**
@@ -208,22 +365,331 @@ public class ListenerService
     */
    final public <T extends Event> void broadcast(T event) throws Exception
    {
-      List<Listener> list = listeners_.get(event.getEventName());
-      if (list == null)
+      ListenerGroup group = listeners_.get(event.getEventName());
+      if (group == null)
       {
          return;
       }
-      for (Listener listener : list)
+      dispatch(group, event);
+   }
+
+   /**
+    * Notifies all the listeners of the given group
+    */
+   @SuppressWarnings("unchecked")
+   private void dispatch(ListenerGroup group, Event event)
+   {
+      boolean metrics = metricsEnabled;
+      long start = metrics ? System.nanoTime() : 0;
+      boolean debug = LOG.isDebugEnabled();
+      // The context is captured only once and only if needed
+      ThreadContextSnapshot snapshot = null;
+      Listener[] listeners = group.listeners;
+      for (int i = 0; i < listeners.length; i++)
+      {
+         Listener listener = listeners[i];
+         ListenerMetrics lm = group.metrics[i];
+         if (debug)
+         {
+            LOG.debug("broadcasting event " + event.getEventName() + " on " + listener.getName());
+         }
+         ThreadPoolExecutor lane = lm.lane;
+         if (lane != null || listener instanceof AsynchronousListener)
+         {
+            if (snapshot == null)
+            {
+               snapshot = ThreadContextSnapshot.capture(container);
+            }
+            if (lane == null)
+            {
+               ((AsynchronousListener)listener).execute(event, snapshot);
+            }
+            else
+            {
+               // The listener has been isolated
+               lane.execute(new RunListener(listener, event, lm, snapshot, true));
+            }
+            continue;
+         }
+         if (!metrics)
+         {
+            invoke(listener, event, lm);
+            continue;
+         }
+         ListenerMetrics.Statistics stats = lm.getStatistics();
+         long startListener = System.nanoTime();
+         stats.count.increment();
+         invoke(listener, event, lm);
+         stats.times.recordSince(startListener);
+         checkSlowListener(lm, stats);
+      }
+      if (metrics)
+      {
+         ListenerMetrics.Statistics stats = ListenerMetrics.Statistics.get(group.statistics);
+         stats.count.increment();
+         stats.times.recordSince(start);
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private void invoke(Listener listener, Event event, ListenerMetrics lm)
+   {
+      try
+      {
+         listener.onEvent(event);
+      }
+      catch (Exception e)
+      {
+         if (metricsEnabled)
+         {
+            lm.getStatistics().errors.increment();
+         }
+         LOG.error("Exception on broadcasting events occurs: " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Moves the given listener to its own asynchronous lane if its 99th percentile
+    * exceeds the threshold
+    */
+   private void checkSlowListener(ListenerMetrics lm, ListenerMetrics.Statistics stats)
+   {
+      // The histogram is only checked from time to time as it is not free, the sampling
+      // counter is not thread safe on purpose since missing a sample is harmless
+      if (slowListenerThreshold == 0 || (++lm.samples & 63) != 0)
+         return;
+      if (stats.times.getCount() < SLOW_LISTENER_MIN_INVOCATIONS
+         || stats.times.getPercentile(99) <= slowListenerThreshold)
+      {
+         return;
+      }
+      synchronized (lm)
+      {
+         if (lm.lane == null && !stopped)
+         {
+            lm.lane = createExecutor();
+            LOG.warn("The listener " + lm.listenerName + " of the event " + lm.eventName
+               + " is too slow, it will be executed asynchronously from now. " + lm);
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void start()
+   {
+   }
+
+   /**
+    * Shuts down the executors of the asynchronous listeners and the lanes of the isolated
+    * listeners, the events already queued are given a bounded amount of time to be processed.
+    * The next events of the isolated listeners are notified synchronously.
+    */
+   public void stop()
+   {
+      stopped = true;
+      List<ThreadPoolExecutor> shutdownExecutors = new ArrayList<ThreadPoolExecutor>();
+      for (ThreadPoolExecutor executor : executors)
+      {
+         executor.shutdown();
+         shutdownExecutors.add(executor);
+      }
+      for (ListenerGroup group : listeners_.values())
+      {
+         for (ListenerMetrics lm : group.metrics)
+         {
+            synchronized (lm)
+            {
+               if (lm.lane != null)
+               {
+                  lm.lane.shutdown();
+                  shutdownExecutors.add(lm.lane);
+                  lm.lane = null;
+               }
+            }
+         }
+      }
+      long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+      int pending = 0;
+      for (ThreadPoolExecutor executor : shutdownExecutors)
       {
          try
          {
-            listener.onEvent(event);
+            if (!executor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()),
+               TimeUnit.MILLISECONDS))
+            {
+               pending += executor.shutdownNow().size();
+            }
          }
-         catch (Exception e)
+         catch (InterruptedException e)
          {
-            LOG.error("Exception on broadcasting events occurs: " + e.getMessage(), e);
+            Thread.currentThread().interrupt();
+            pending += executor.shutdownNow().size();
          }
       }
+      if (pending > 0)
+      {
+         LOG.warn(pending + " event(s) of the asynchronous listeners have been discarded");
+      }
+   }
+
+   /**
+    * @return <code>true</code> if the durations are collected, <code>false</code> otherwise
+    */
+   @Managed
+   @ManagedDescription("Indicates whether the durations of the broadcasts and of the listeners are collected")
+   public boolean isMetricsEnabled()
+   {
+      return metricsEnabled;
+   }
+
+   /**
+    * Enables the collect of the durations of the broadcasts and of the listeners
+    */
+   @Managed
+   @ManagedDescription("Enables the collect of the durations of the broadcasts and of the listeners")
+   public void enableMetrics()
+   {
+      this.metricsEnabled = true;
+   }
+
+   /**
+    * Disables the collect of the durations of the broadcasts and of the listeners
+    */
+   @Managed
+   @ManagedDescription("Disables the collect of the durations of the broadcasts and of the listeners")
+   public void disableMetrics()
+   {
+      this.metricsEnabled = false;
+   }
+
+   /**
+    * Removes all the metrics collected so far, the isolated listeners remain isolated
+    */
+   @Managed
+   @ManagedDescription("Removes all the metrics collected so far")
+   public void resetMetrics()
+   {
+      for (ListenerGroup group : listeners_.values())
+      {
+         ListenerMetrics.Statistics stats = group.statistics.get();
+         if (stats != null)
+         {
+            stats.reset();
+         }
+         for (ListenerMetrics lm : group.metrics)
+         {
+            stats = lm.statistics.get();
+            if (stats != null)
+            {
+               stats.reset();
+            }
+         }
+      }
+   }
+
+   /**
+    * Gives the metrics of all the events and of their listeners
+    */
+   @Managed
+   @ManagedDescription("Gives the metrics of all the events and of their listeners")
+   public String getMetrics()
+   {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, ListenerGroup> entry : new TreeMap<String, ListenerGroup>(listeners_).entrySet())
+      {
+         ListenerGroup group = entry.getValue();
+         ListenerMetrics.Statistics stats = group.statistics.get();
+         sb.append(entry.getKey()).append(": broadcasts=").append(stats == null ? "0" : stats.count)
+            .append(", times=[").append(stats == null ? "" : stats.times).append("]\n");
+         for (ListenerMetrics lm : group.metrics)
+         {
+            sb.append("   ").append(lm).append('\n');
+         }
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Gives the listeners that have been isolated because they were too slow
+    */
+   @Managed
+   @ManagedDescription("Gives the listeners that have been moved to their own asynchronous lane because they were too slow")
+   public String getIsolatedListeners()
+   {
+      StringBuilder sb = new StringBuilder();
+      for (ListenerGroup group : listeners_.values())
+      {
+         for (ListenerMetrics lm : group.metrics)
+         {
+            if (lm.lane != null)
+            {
+               sb.append(lm).append('\n');
+            }
+         }
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Gives the metrics of the given listener
+    */
+   ListenerMetrics getListenerMetrics(String eventName, int index)
+   {
+      ListenerGroup group = listeners_.get(eventName);
+      return group == null || index >= group.metrics.length ? null : group.metrics[index];
+   }
+
+   /**
+    * The listeners registered for a given event name, this object is immutable except
+    * its metrics, it is replaced any time a new listener is added.
+    */
+   private static class ListenerGroup
+   {
+      /**
+       * The listeners in the order in which they must be notified
+       */
+      final Listener[] listeners;
+
+      /**
+       * The metrics of each listener
+       */
+      final ListenerMetrics[] metrics;
+
+      /**
+       * The statistics of the broadcasts, <code>null</code> until the metrics are collected,
+       * they are shared by all the versions of the group
+       */
+      final AtomicReference<ListenerMetrics.Statistics> statistics;
+
+      ListenerGroup(Listener listener, ListenerMetrics metrics)
+      {
+         this(new Listener[]{listener}, new ListenerMetrics[]{metrics},
+            new AtomicReference<ListenerMetrics.Statistics>());
+      }
+
+      private ListenerGroup(Listener[] listeners, ListenerMetrics[] metrics,
+         AtomicReference<ListenerMetrics.Statistics> statistics)
+      {
+         this.listeners = listeners;
+         this.metrics = metrics;
+         this.statistics = statistics;
+      }
+
+      /**
+       * Creates a new group with the given listener added
+       */
+      ListenerGroup add(Listener listener, ListenerMetrics lm)
+      {
+         Listener[] newListeners = new Listener[listeners.length + 1];
+         System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+         newListeners[listeners.length] = listener;
+         ListenerMetrics[] newMetrics = new ListenerMetrics[metrics.length + 1];
+         System.arraycopy(metrics, 0, newMetrics, 0, metrics.length);
+         newMetrics[metrics.length] = lm;
+         return new ListenerGroup(newListeners, newMetrics, statistics);
+      }
    }
 
    /**
@@ -234,6 +700,16 @@ public class ListenerService
    {
       private Listener<S, D> listener;
 
+      /**
+       * The metrics of the wrapped listener
+       */
+      private ListenerMetrics metrics;
+
+      /**
+       * Indicates whether the listener must be executed within a request life cycle
+       */
+      private boolean requestLifeCycle = true;
+
       public AsynchronousListener(Listener<S, D> listener)
       {
          this.listener = listener;
@@ -266,7 +742,117 @@ public class ListenerService
       @Override
       public void onEvent(Event<S, D> event) throws Exception
       {
-         executor.execute(new RunListener<S, D>(listener, event));
+         execute(event, ThreadContextSnapshot.capture(container));
+      }
+
+      /**
+       * Executes asynchronously the wrapped listener with the given context
+       */
+      void execute(Event<S, D> event, ThreadContextSnapshot snapshot)
+      {
+         getExecutor(event).execute(new RunListener<S, D>(listener, event, metrics, snapshot, requestLifeCycle));
+      }
+   }
+
+   private static void setCurrentContainer(final ExoContainer container)
+   {
+      SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+      {
+         public Void run()
+         {
+            ExoContainerContext.setCurrentContainer(container);
+            return null;
+         }
+      });
+   }
+
+   /**
+    * Gives the executor to use for the given event. The key of the event is its source if
+    * it has one, its name otherwise.
+    */
+   private Executor getExecutor(Event<?, ?> event)
+   {
+      if (executors.length == 1)
+      {
+         return executors[0];
+      }
+      Object key = event.getSource();
+      if (key == null)
+      {
+         key = event.getEventName();
+      }
+      int hash = key == null ? 0 : key.hashCode();
+      // Spread the bits to avoid collisions
+      hash ^= (hash >>> 16);
+      return executors[(hash & Integer.MAX_VALUE) % executors.length];
+   }
+
+   /**
+    * Waits until there is enough room in the queue of the executor. If the current thread is
+    * already executing an asynchronous listener, the task is executed directly to prevent dead locks.
+    */
+   private static class BlockingPolicy implements RejectedExecutionHandler
+   {
+      /**
+       * {@inheritDoc}
+       */
+      public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+      {
+         if (executor.isShutdown())
+         {
+            throw new RejectedExecutionException("The executor has been shutdown");
+         }
+         if (IN_ASYNCH_LISTENER.get() != null)
+         {
+            r.run();
+            return;
+         }
+         try
+         {
+            executor.getQueue().put(r);
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for the queue", e);
+         }
+      }
+   }
+
+   /**
+    * Drops the new task or the oldest task of the queue when the queue is full
+    */
+   private static class DroppingPolicy implements RejectedExecutionHandler
+   {
+      private final boolean oldest;
+
+      private final AtomicLong dropped = new AtomicLong();
+
+      DroppingPolicy(boolean oldest)
+      {
+         this.oldest = oldest;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+      {
+         if (executor.isShutdown())
+         {
+            return;
+         }
+         if (oldest)
+         {
+            executor.getQueue().poll();
+            executor.execute(r);
+         }
+         // We log only from time to time to avoid flooding the logs during event storms
+         long total = dropped.incrementAndGet();
+         if (total == 1 || total % 1000 == 0)
+         {
+            LOG.warn("The queue of the asynchronous listeners is full, " + total + " event(s) have been dropped so far");
+         }
       }
    }
 
@@ -279,14 +865,34 @@ public class ListenerService
 
       private Event<S, D> event;
       
-      private final ThreadContextHandler handler;
+      /**
+       * The context to propagate, it can be shared with other listeners
+       */
+      private final ThreadContextSnapshot snapshot;
+
+      /**
+       * The metrics of the listener if any
+       */
+      private final ListenerMetrics metrics;
+
+      /**
+       * Indicates whether the listener must be executed within a request life cycle
+       */
+      private final boolean requestLifeCycle;
 
       public RunListener(Listener<S, D> listener, Event<S, D> event)
+      {
+         this(listener, event, null, ThreadContextSnapshot.capture(container), true);
+      }
+
+      RunListener(Listener<S, D> listener, Event<S, D> event, ListenerMetrics metrics,
+         ThreadContextSnapshot snapshot, boolean requestLifeCycle)
       {
          this.listener = listener;
          this.event = event;
-         this.handler = new ThreadContextHandler(container);
-         handler.store();
+         this.metrics = metrics;
+         this.snapshot = snapshot;
+         this.requestLifeCycle = requestLifeCycle;
       }
 
       /**
@@ -294,19 +900,46 @@ public class ListenerService
        */
       public void run()
       {
+         // The pooled threads are dedicated to the listeners of this service so they keep the
+         // container as current container, otherwise the listener is executed by the thread that
+         // broadcasted the event according to the rejection policy so we need to restore its context
+         final boolean pooled = Thread.currentThread() instanceof ListenerThreadFactory.ListenerThread;
+         final ExoContainer previousContainer = ExoContainerContext.getCurrentContainerIfPresent();
+         final Boolean inAsynchListener = IN_ASYNCH_LISTENER.get();
+         boolean begun = false;
+         Object[] previousValues = null;
          try
          {
-            SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+            IN_ASYNCH_LISTENER.set(Boolean.TRUE);
+            if (previousContainer != container)
+            {
+               setCurrentContainer(container);
+            }
+            if (requestLifeCycle)
+            {
+               RequestLifeCycle.begin(container);
+               begun = true;
+            }
+            previousValues = snapshot.push();
+            if (metrics == null)
+            {
+               listener.onEvent(event);
+            }
+            else
             {
-               public Void run()
+               if (metricsEnabled)
                {
-                  ExoContainerContext.setCurrentContainer(container);
-                  return null;
+                  ListenerMetrics.Statistics stats = metrics.getStatistics();
+                  stats.count.increment();
+                  long start = System.nanoTime();
+                  invoke(listener, event, metrics);
+                  stats.times.recordSince(start);
                }
-            });
-            RequestLifeCycle.begin(container);
-            handler.push();
-            listener.onEvent(event);
+               else
+               {
+                  invoke(listener, event, metrics);
+               }
+            }
          }
          catch (Exception e)
          {
@@ -318,19 +951,25 @@ public class ListenerService
          {
             try
             {
-               handler.restore();
-               RequestLifeCycle.end();
+               if (previousValues != null)
+               {
+                  snapshot.restore(previousValues);
+               }
+               if (begun)
+               {
+                  RequestLifeCycle.end();
+               }
             }
             finally
             {
-               SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+               if (!pooled && previousContainer != container)
                {
-                  public Void run()
-                  {
-                     ExoContainerContext.setCurrentContainer(null);
-                     return null;
-                  }
-               });
+                  setCurrentContainer(previousContainer);
+               }
+               if (inAsynchListener == null)
+               {
+                  IN_ASYNCH_LISTENER.remove();
+               }
             }
          }
       }
@@ -52,11 +52,23 @@ public class ListenerThreadFactory implements ThreadFactory
     */
    public Thread newThread(Runnable r)
    {
-      Thread t = new Thread(group, r, namePrefix + threadNumber.getAndIncrement(), 0);
+      Thread t = new ListenerThread(group, r, namePrefix + threadNumber.getAndIncrement());
       if (t.isDaemon())
          t.setDaemon(false);
       if (t.getPriority() != Thread.NORM_PRIORITY)
          t.setPriority(Thread.NORM_PRIORITY);
       return t;
    }
+
+   /**
+    * The threads of the asynchronous listeners, they allow to know whether the current
+    * thread is a pooled thread of the {@link ListenerService}.
+    */
+   static class ListenerThread extends Thread
+   {
+      ListenerThread(ThreadGroup group, Runnable target, String name)
+      {
+         super(group, target, name, 0);
+      }
+   }
 }
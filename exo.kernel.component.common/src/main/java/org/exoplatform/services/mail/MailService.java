@@ -18,6 +18,8 @@
  */
 package org.exoplatform.services.mail;
 
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
@@ -74,6 +76,16 @@ public interface MailService
     */
    public void sendMessage(MimeMessage message) throws Exception;
 
+   /**
+    * Sends all the given mail messages, the messages are sent over the same connection to the
+    * mail server whenever possible which is much faster than sending them one by one. A message
+    * that cannot be sent doesn't prevent the next ones from being sent.
+    * @param messages - the {@link MimeMessage} instances to send
+    * @return the messages that could not be sent with the exception that occurred for each of them,
+    * the map is empty if all the messages have been sent successfully
+    */
+   public Map<MimeMessage, Exception> sendMessages(List<MimeMessage> messages);
+
    /**
     * Asynchronous variant of {@link MailService#sendMessage(String, String, String, String)}. 
     * Returns {@link Future} object, which allows to track mail sending result. Calling {@link Future#get()}
@@ -112,4 +124,14 @@ public interface MailService
     * @return {@link Future} object to watch the result of asynchronous calculation
     */
    public Future<Boolean> sendMessageInFuture(MimeMessage message);
+
+   /**
+    * Asynchronous variant of {@link MailService#sendMessages(List)}. 
+    * Returns {@link Future} object, which allows to track mail sending result. Calling {@link Future#get()}
+    * for this object returns the messages that could not be sent with the exception that occurred
+    * for each of them.
+    * @param messages - the {@link MimeMessage} instances to send
+    * @return {@link Future} object to watch the result of asynchronous calculation
+    */
+   public Future<Map<MimeMessage, Exception>> sendMessagesInFuture(List<MimeMessage> messages);
 }
@@ -18,28 +18,46 @@
  */
 package org.exoplatform.services.mail.impl;
 
+import org.exoplatform.commons.utils.LatencyHistogram;
 import org.exoplatform.commons.utils.PrivilegedSystemHelper;
 import org.exoplatform.commons.utils.SecurityHelper;
+import org.exoplatform.commons.utils.StripedCounter;
 import org.exoplatform.container.ExoContainer;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
 import org.exoplatform.services.mail.Attachment;
 import org.exoplatform.services.mail.MailService;
 import org.exoplatform.services.mail.Message;
+import org.picocontainer.Startable;
 
 import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.security.PrivilegedAction;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.activation.DataHandler;
+import javax.mail.Address;
+import javax.mail.MessagingException;
 import javax.mail.Part;
+import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
@@ -57,17 +75,86 @@ import javax.mail.util.ByteArrayDataSource;
  * Note: To be able to send mails you must provide active SMTP server and
  * mention it in service configuration. 
  * <p>
+ * The messages of the mail session of the service are sent over a pool of persistent
+ * connections, the other messages are sent with a dedicated connection.
+ * <p>
  * Created by The eXo Platform SAS Author : Phung Hai Nam phunghainam@gmail.com
  * Dec 23, 2005
  */
-public class MailServiceImpl implements MailService
+@Managed
+@ManagedDescription("The mail service")
+@NameTemplate(@Property(key = "service", value = "MailService"))
+public class MailServiceImpl implements MailService, Startable
 {
+   /**
+    * The logger
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.common.MailServiceImpl");
+
    /**
     * String mapping of configuration parameter to define maximal number
     * of threads for asynchronous mail message sending
     */
    static final String MAX_THREAD_NUMBER = "mail.max.thread.number";
 
+   /**
+    * String mapping of configuration parameter to define maximal number of connections
+    * to the SMTP server opened at the same time, 0 disables the pool of connections.
+    * By default it is the maximal number of threads.
+    */
+   static final String POOL_MAX_CONNECTIONS = "mail.pool.max.connections";
+
+   /**
+    * String mapping of configuration parameter to define the time in milliseconds after
+    * which an idle connection is closed
+    */
+   static final String POOL_MAX_IDLE_TIME = "mail.pool.max.idle.time";
+
+   /**
+    * String mapping of configuration parameter to define the time in milliseconds after
+    * which an idle connection is checked to keep it alive, 0 disables the checks
+    */
+   static final String POOL_KEEP_ALIVE_INTERVAL = "mail.pool.keep.alive.interval";
+
+   /**
+    * String mapping of configuration parameter to define maximal number of messages
+    * sent over a connection before closing it, 0 means no limit
+    */
+   static final String POOL_MAX_MESSAGES_PER_CONNECTION = "mail.pool.max.messages.per.connection";
+
+   /**
+    * The default value of the parameter {@link #POOL_MAX_IDLE_TIME}
+    */
+   private static final long DEFAULT_MAX_IDLE_TIME = 60000L;
+
+   /**
+    * The default value of the parameter {@link #POOL_KEEP_ALIVE_INTERVAL}
+    */
+   private static final long DEFAULT_KEEP_ALIVE_INTERVAL = 30000L;
+
+   /**
+    * The field holding the session of a message, JavaMail 1.4 doesn't expose it while
+    * it is needed to know whether a message can be sent with the pooled connections
+    */
+   private static final Field SESSION_FIELD = SecurityHelper.doPrivilegedAction(new PrivilegedAction<Field>()
+   {
+      public Field run()
+      {
+         try
+         {
+            Field field = javax.mail.Message.class.getDeclaredField("session");
+            field.setAccessible(true);
+            return field;
+         }
+         catch (Exception e)
+         {
+            LOG.warn("The session of the messages cannot be accessed, the connections won't be pooled: "
+               + e.getMessage());
+            return null;
+         }
+      }
+   });
+
    private Session mailSession_;
 
    private Properties props_;
@@ -83,6 +170,25 @@ public class MailServiceImpl implements MailService
     */
    private volatile int mailServiceThreadCounter = 0;
 
+   /**
+    * The pool of connections to the SMTP server, it is <code>null</code> if disabled
+    */
+   private TransportPool pool;
+
+   /**
+    * Closes the idle connections and keeps alive the others
+    */
+   private ScheduledExecutorService evictor;
+
+   private final StripedCounter sent = new StripedCounter();
+
+   private final StripedCounter failed = new StripedCounter();
+
+   /**
+    * The time spent to send the messages
+    */
+   private final LatencyHistogram sendTimes = new LatencyHistogram();
+
    public MailServiceImpl(InitParams params, final ExoContainerContext ctx) throws Exception
    {
       props_ = new Properties(PrivilegedSystemHelper.getProperties());
@@ -121,6 +227,61 @@ public class MailServiceImpl implements MailService
             return new Thread(arg0, ctx.getName() + "-MailServiceThread-" + mailServiceThreadCounter++);
          }
       });
+
+      int maxConnections =
+         props_.getProperty(POOL_MAX_CONNECTIONS) != null ? Integer.valueOf(props_.getProperty(POOL_MAX_CONNECTIONS))
+            : threadNumber;
+      if (maxConnections > 0)
+      {
+         long maxIdleTime =
+            props_.getProperty(POOL_MAX_IDLE_TIME) != null ? Long.valueOf(props_.getProperty(POOL_MAX_IDLE_TIME))
+               : DEFAULT_MAX_IDLE_TIME;
+         long keepAliveInterval =
+            props_.getProperty(POOL_KEEP_ALIVE_INTERVAL) != null ? Long.valueOf(props_
+               .getProperty(POOL_KEEP_ALIVE_INTERVAL)) : DEFAULT_KEEP_ALIVE_INTERVAL;
+         int maxMessages =
+            props_.getProperty(POOL_MAX_MESSAGES_PER_CONNECTION) != null ? Integer.valueOf(props_
+               .getProperty(POOL_MAX_MESSAGES_PER_CONNECTION)) : 0;
+         pool =
+            new TransportPool(mailSession_, props_.getProperty("mail.transport.protocol", "smtp"), maxConnections,
+               maxIdleTime, keepAliveInterval, maxMessages);
+         long period = keepAliveInterval > 0 ? Math.min(maxIdleTime, keepAliveInterval) : maxIdleTime;
+         evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+         {
+            public Thread newThread(Runnable r)
+            {
+               Thread t = new Thread(r, ctx.getName() + "-MailServiceEvictor");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+         evictor.scheduleWithFixedDelay(new Runnable()
+         {
+            public void run()
+            {
+               pool.evict();
+            }
+         }, period, period, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void start()
+   {
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void stop()
+   {
+      if (pool != null)
+      {
+         evictor.shutdownNow();
+         pool.close();
+      }
    }
 
    /**
@@ -248,7 +409,145 @@ public class MailServiceImpl implements MailService
     */
    public void sendMessage(MimeMessage message) throws Exception
    {
-      Transport.send(message);
+      Exception e = send(Collections.singletonList(message))[0];
+      if (e != null)
+      {
+         throw e;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Map<MimeMessage, Exception> sendMessages(List<MimeMessage> messages)
+   {
+      Exception[] errors = send(messages);
+      Map<MimeMessage, Exception> result = new LinkedHashMap<MimeMessage, Exception>();
+      for (int i = 0; i < errors.length; i++)
+      {
+         if (errors[i] != null)
+         {
+            result.put(messages.get(i), errors[i]);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Sends the given messages, the messages that can be sent with the pooled connections
+    * are all sent over the same connection.
+    * @return the exceptions that occurred indexed like the messages
+    */
+   private Exception[] send(List<MimeMessage> messages)
+   {
+      Exception[] errors = new Exception[messages.size()];
+      TransportPool.Connection connection = null;
+      try
+      {
+         for (int i = 0; i < errors.length; i++)
+         {
+            MimeMessage message = messages.get(i);
+            long start = System.nanoTime();
+            try
+            {
+               if (pool == null || !isPoolable(message))
+               {
+                  Transport.send(message);
+               }
+               else
+               {
+                  message.saveChanges();
+                  Address[] recipients = message.getAllRecipients();
+                  if (recipients == null || recipients.length == 0)
+                  {
+                     throw new SendFailedException("No recipient addresses");
+                  }
+                  if (connection == null)
+                  {
+                     connection = pool.borrow(false);
+                  }
+                  try
+                  {
+                     connection.send(message, recipients);
+                  }
+                  catch (MessagingException e)
+                  {
+                     pool.release(connection, true);
+                     connection = null;
+                     if (!(e instanceof TransportPool.StaleConnectionException))
+                     {
+                        // The message could have been partially or fully sent so it is not
+                        // sent again to avoid duplicates
+                        throw e;
+                     }
+                     // The idle connection has been closed by the server in the meantime and
+                     // nothing has been sent so the message is sent over a new connection
+                     connection = pool.borrow(true);
+                     try
+                     {
+                        connection.send(message, recipients);
+                     }
+                     catch (MessagingException e2)
+                     {
+                        pool.release(connection, true);
+                        connection = null;
+                        throw e2;
+                     }
+                  }
+                  if (pool.isExhausted(connection))
+                  {
+                     // The connection is replaced as soon as it reaches its limit
+                     pool.release(connection, false);
+                     connection = null;
+                  }
+               }
+               sent.increment();
+            }
+            catch (Exception e)
+            {
+               if (connection != null && !(e instanceof MessagingException))
+               {
+                  // The state of the connection is unknown
+                  pool.release(connection, true);
+                  connection = null;
+               }
+               failed.increment();
+               errors[i] = e;
+            }
+            finally
+            {
+               sendTimes.recordSince(start);
+            }
+         }
+      }
+      finally
+      {
+         if (connection != null)
+         {
+            pool.release(connection, false);
+         }
+      }
+      return errors;
+   }
+
+   /**
+    * Indicates whether the given message can be sent with the pooled connections which is
+    * the case if it has been created with the mail session of the service
+    */
+   private boolean isPoolable(MimeMessage message)
+   {
+      if (SESSION_FIELD == null)
+      {
+         return false;
+      }
+      try
+      {
+         return SESSION_FIELD.get(message) == mailSession_;
+      }
+      catch (IllegalAccessException e)
+      {
+         return false;
+      }
    }
 
    /**
@@ -297,6 +596,62 @@ public class MailServiceImpl implements MailService
       });
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public Future<Map<MimeMessage, Exception>> sendMessagesInFuture(final List<MimeMessage> messages)
+   {
+      return executorService.submit(new Callable<Map<MimeMessage, Exception>>()
+      {
+         public Map<MimeMessage, Exception> call() throws Exception
+         {
+            return sendMessages(messages);
+         }
+      });
+   }
+
+   @Managed
+   @ManagedDescription("The total amount of connections to the SMTP server currently opened")
+   public int getOpenedConnections()
+   {
+      return pool == null ? 0 : pool.getOpenedConnections();
+   }
+
+   @Managed
+   @ManagedDescription("The total amount of idle connections to the SMTP server")
+   public int getIdleConnections()
+   {
+      return pool == null ? 0 : pool.getIdleConnections();
+   }
+
+   @Managed
+   @ManagedDescription("Gives the metrics of the sent messages")
+   public String getMailMetrics()
+   {
+      StringBuilder sb = new StringBuilder();
+      sb.append("sent=").append(sent.get()).append(", failed=").append(failed.get());
+      if (pool != null)
+      {
+         sb.append(", createdConnections=").append(pool.getCreatedConnections()).append(", reusedConnections=")
+            .append(pool.getReusedConnections());
+      }
+      sb.append(", sendTimes=[").append(sendTimes).append(']');
+      return sb.toString();
+   }
+
+   @Managed
+   @ManagedDescription("Removes all the metrics of the sent messages collected so far")
+   public void resetMailMetrics()
+   {
+      sent.reset();
+      failed.reset();
+      sendTimes.reset();
+      if (pool != null)
+      {
+         pool.resetMetrics();
+      }
+   }
+
    protected String[] getArrs(String toArray)
    {
       if (toArray != null && !toArray.equals(""))
@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.mail.impl;
+
+import org.exoplatform.commons.utils.StripedCounter;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * A pool of persistent {@link Transport} connections, it allows to send many messages
+ * without opening and authenticating a new connection for each of them. The total
+ * amount of connections opened at the same time is bounded, the idle connections are
+ * reused in LIFO order so that the least used ones can be evicted once they have
+ * been idle for too long. The idle connections that are kept are regularly checked
+ * which keeps them alive.
+ *
+ * @version $Id$
+ */
+class TransportPool
+{
+   /**
+    * The logger
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.common.TransportPool");
+
+   private final Session session;
+
+   private final String protocol;
+
+   /**
+    * The time in milliseconds after which an idle connection is closed
+    */
+   private final long maxIdleTime;
+
+   /**
+    * The time in milliseconds after which an idle connection is checked, a value
+    * lower or equal to 0 means never
+    */
+   private final long keepAliveInterval;
+
+   /**
+    * The total amount of messages that can be sent over a connection before closing it,
+    * a value lower or equal to 0 means no limit
+    */
+   private final int maxMessagesPerConnection;
+
+   /**
+    * The permits of the connections that can be used at the same time
+    */
+   private final Semaphore permits;
+
+   /**
+    * The idle connections, the most recently used one is the first one
+    */
+   private final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<Connection>();
+
+   /**
+    * The total amount of connections currently opened
+    */
+   private final AtomicInteger opened = new AtomicInteger();
+
+   private final StripedCounter created = new StripedCounter();
+
+   private final StripedCounter reused = new StripedCounter();
+
+   private volatile boolean closed;
+
+   TransportPool(Session session, String protocol, int maxSize, long maxIdleTime, long keepAliveInterval,
+      int maxMessagesPerConnection)
+   {
+      if (maxSize <= 0)
+      {
+         throw new IllegalArgumentException("The size of the pool must be positive");
+      }
+      this.session = session;
+      this.protocol = protocol;
+      this.maxIdleTime = maxIdleTime;
+      this.keepAliveInterval = keepAliveInterval;
+      this.maxMessagesPerConnection = maxMessagesPerConnection;
+      this.permits = new Semaphore(maxSize, true);
+   }
+
+   /**
+    * Gives a connection, the most recently used idle connection is given if any otherwise
+    * a new connection is opened. If the maximum amount of connections is in use, it
+    * waits until one of them is released.
+    * @param fresh indicates whether the idle connections must be skipped
+    */
+   Connection borrow(boolean fresh) throws MessagingException
+   {
+      if (closed)
+      {
+         throw new MessagingException("The pool of connections has been closed");
+      }
+      try
+      {
+         permits.acquire();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new MessagingException("Interrupted while waiting for a connection", e);
+      }
+      try
+      {
+         if (!fresh)
+         {
+            Connection connection;
+            long now = System.currentTimeMillis();
+            while ((connection = idle.pollFirst()) != null)
+            {
+               if (now - connection.lastUsed < maxIdleTime)
+               {
+                  reused.increment();
+                  connection.reused = true;
+                  return connection;
+               }
+               close(connection);
+            }
+         }
+         Transport transport = session.getTransport(protocol);
+         transport.connect();
+         opened.incrementAndGet();
+         created.increment();
+         return new Connection(transport);
+      }
+      catch (MessagingException e)
+      {
+         permits.release();
+         throw e;
+      }
+      catch (RuntimeException e)
+      {
+         permits.release();
+         throw e;
+      }
+   }
+
+   /**
+    * Gives back a connection to the pool
+    * @param broken indicates whether the connection is in an unknown state in which case it
+    * is closed
+    */
+   void release(Connection connection, boolean broken)
+   {
+      try
+      {
+         if (broken || closed || isExhausted(connection))
+         {
+            close(connection);
+         }
+         else
+         {
+            connection.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(connection);
+         }
+      }
+      finally
+      {
+         permits.release();
+      }
+      if (closed)
+      {
+         // The pool could have been closed while the connection was being added
+         closeIdleConnections();
+      }
+   }
+
+   /**
+    * Indicates whether the maximum amount of messages has been sent over the given connection,
+    * in which case it must be released to be replaced with a new one
+    */
+   boolean isExhausted(Connection connection)
+   {
+      return maxMessagesPerConnection > 0 && connection.messages >= maxMessagesPerConnection;
+   }
+
+   /**
+    * Closes the connections that have been idle for too long and checks the ones that
+    * have not been used for longer than the keep alive interval, which keeps them alive.
+    * It is expected to be called regularly.
+    */
+   void evict()
+   {
+      List<Connection> kept = new ArrayList<Connection>();
+      long now = System.currentTimeMillis();
+      try
+      {
+         // The oldest connections are checked first, each checked connection is considered
+         // as being in use to remain within the limits of the pool
+         for (int i = idle.size(); i > 0 && permits.tryAcquire(); i--)
+         {
+            Connection connection = idle.pollLast();
+            if (connection == null)
+            {
+               permits.release();
+               break;
+            }
+            if (now - connection.lastUsed >= maxIdleTime)
+            {
+               close(connection);
+               permits.release();
+            }
+            else if (keepAliveInterval > 0 && now - connection.lastUsed >= keepAliveInterval
+               && !connection.transport.isConnected())
+            {
+               // The connection has been closed by the server
+               close(connection);
+               permits.release();
+            }
+            else
+            {
+               kept.add(connection);
+            }
+         }
+      }
+      finally
+      {
+         // The connections are put back from the most recent to the oldest to keep the order
+         for (int i = kept.size() - 1; i >= 0; i--)
+         {
+            idle.offerLast(kept.get(i));
+            permits.release();
+         }
+      }
+   }
+
+   /**
+    * Closes the pool and all its idle connections, the connections in use will be closed
+    * once released
+    */
+   void close()
+   {
+      closed = true;
+      closeIdleConnections();
+   }
+
+   private void closeIdleConnections()
+   {
+      Connection connection;
+      while ((connection = idle.pollFirst()) != null)
+      {
+         close(connection);
+      }
+   }
+
+   private void close(Connection connection)
+   {
+      opened.decrementAndGet();
+      try
+      {
+         connection.transport.close();
+      }
+      catch (MessagingException e)
+      {
+         if (LOG.isDebugEnabled())
+         {
+            LOG.debug("Could not close the connection properly: " + e.getMessage());
+         }
+      }
+   }
+
+   /**
+    * Gives the total amount of connections currently opened
+    */
+   int getOpenedConnections()
+   {
+      return opened.get();
+   }
+
+   /**
+    * Gives the total amount of idle connections
+    */
+   int getIdleConnections()
+   {
+      return idle.size();
+   }
+
+   /**
+    * Gives the total amount of connections that have been created
+    */
+   long getCreatedConnections()
+   {
+      return created.get();
+   }
+
+   /**
+    * Gives the total amount of times an idle connection has been reused
+    */
+   long getReusedConnections()
+   {
+      return reused.get();
+   }
+
+   void resetMetrics()
+   {
+      created.reset();
+      reused.reset();
+   }
+
+   /**
+    * A connection of the pool
+    */
+   static class Connection
+   {
+      private final Transport transport;
+
+      /**
+       * The last time at which the connection has been released
+       */
+      private long lastUsed;
+
+      /**
+       * The total amount of messages sent over the connection
+       */
+      private int messages;
+
+      /**
+       * Indicates whether the connection has been taken from the idle connections and
+       * has not been used successfully since then
+       */
+      private boolean reused;
+
+      private Connection(Transport transport)
+      {
+         this.transport = transport;
+      }
+
+      /**
+       * Sends the given message to the given recipients, the changes of the message are
+       * expected to have been saved. If the connection has been idle, it is checked first
+       * @throws StaleConnectionException if the connection has been idle and is no longer
+       * usable, nothing has been sent so the message can be sent over another connection
+       */
+      void send(MimeMessage message, Address[] recipients) throws MessagingException
+      {
+         if (reused && !transport.isConnected())
+         {
+            throw new StaleConnectionException();
+         }
+         messages++;
+         transport.sendMessage(message, recipients);
+         reused = false;
+      }
+   }
+
+   /**
+    * Thrown when an idle connection could not be used because it has been closed in the
+    * meantime, before anything could be sent over it
+    */
+   static class StaleConnectionException extends MessagingException
+   {
+      /**
+       * The serial version UID
+       */
+      private static final long serialVersionUID = -3816720143785126913L;
+
+      StaleConnectionException()
+      {
+         super("The idle connection has been closed");
+      }
+   }
+}
@@ -21,10 +21,13 @@ package org.exoplatform.services.naming;
 import org.exoplatform.container.ExoContainer;
 import org.exoplatform.container.ExoContainerContext;
 
-import java.util.HashMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Hashtable;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.naming.Binding;
 import javax.naming.Context;
@@ -61,10 +64,17 @@ public class ExoContainerContextFactory implements InitialContextFactory
    {
 
       /**
-       * The map containing all the bindings for all the containers defined
+       * The map containing all the bindings for all the containers defined, the containers
+       * are weakly referenced to let them be garbage collected once removed
        */
-      private static volatile Map<ExoContainer, AtomicReference<Map<String, Object>>> ALL_BINDINGS =
-         new HashMap<ExoContainer, AtomicReference<Map<String, Object>>>();
+      private static final ConcurrentMap<ContainerKey, ConcurrentMap<String, Object>> ALL_BINDINGS =
+         new ConcurrentHashMap<ContainerKey, ConcurrentMap<String, Object>>();
+
+      /**
+       * The queue into which the keys of the containers that have been garbage collected are
+       * pushed
+       */
+      private static final ReferenceQueue<ExoContainer> QUEUE = new ReferenceQueue<ExoContainer>();
 
       /**
        * The environment to use in case we cannot find the object
@@ -76,54 +86,79 @@ public class ExoContainerContextFactory implements InitialContextFactory
        */
       private final ExoContainer container;
 
+      /**
+       * Indicates whether the context has been created by the {@link InitialContextInitializer}
+       */
+      private final boolean initializerCall;
+
       /**
        * The nested context
        */
       private InitialContext ctx;
 
       /**
-       * The reference to the bindings corresponding to this context;
+       * The bindings corresponding to this context;
        */
-      private AtomicReference<Map<String, Object>> bindingsRef;
+      private ConcurrentMap<String, Object> bindings;
       
       public ExoContainerCtx(Hashtable<?, ?> env)
       {
-         this.env = env == null ? null : (Hashtable)env.clone();
+         // The environment is owned by the InitialContext which doesn't modify it after
+         // the creation of the context so there is no need to copy it
+         this.env = env;
          this.container = ExoContainerContext.getCurrentContainerIfPresent();
+         this.initializerCall =
+            container != null && env != null && env.containsKey(InitialContextInitializer.class.getName());
          if (container != null)
          {
-            AtomicReference<Map<String, Object>> ref = ALL_BINDINGS.get(container);
-            if (ref == null)
+            this.bindings = getBindings(container);
+         }
+      }
+
+      /**
+       * Gives the bindings of the given container, they are created if they don't exist yet
+       */
+      private static ConcurrentMap<String, Object> getBindings(ExoContainer container)
+      {
+         ConcurrentMap<String, Object> bindings = ALL_BINDINGS.get(new ContainerKey(container, null));
+         if (bindings == null)
+         {
+            // Removes the bindings of the containers that have been garbage collected
+            Reference<? extends ExoContainer> ref;
+            while ((ref = QUEUE.poll()) != null)
+            {
+               ALL_BINDINGS.remove(ref);
+            }
+            bindings = new ConcurrentHashMap<String, Object>();
+            ConcurrentMap<String, Object> existingBindings =
+               ALL_BINDINGS.putIfAbsent(new ContainerKey(container, QUEUE), bindings);
+            if (existingBindings != null)
             {
-               synchronized (ExoContainerCtx.class)
-               {
-                  if (ref == null)
-                  {
-                     Map<ExoContainer, AtomicReference<Map<String, Object>>> tempAllBindings =
-                        new HashMap<ExoContainer, AtomicReference<Map<String, Object>>>(ALL_BINDINGS);
-                     tempAllBindings.put(container, ref =
-                        new AtomicReference<Map<String, Object>>(new HashMap<String, Object>()));
-                     ALL_BINDINGS = tempAllBindings;
-                  }
-               }
+               bindings = existingBindings;
             }
-            this.bindingsRef = ref;
          }
+         return bindings;
       }
 
-      protected void bindRefValue(String name, Object value) throws NamingException
+      protected boolean cacheResolvedReferences()
       {
-         bind(name, value, false);
+         return true;
       }
 
       protected Map<String, Object> getBindings()
       {
-         return bindingsRef.get();
+         return bindings;
       }
 
       protected void setBindings(Map<String, Object> bindings)
       {
-         bindingsRef.set(bindings);
+         synchronized (getMutex())
+         {
+            // The new bindings are added before removing the old ones so that the lookups
+            // that don't hold the mutex never miss a name that is bound before and after
+            this.bindings.putAll(bindings);
+            this.bindings.keySet().retainAll(bindings.keySet());
+         }
       }
 
       private InitialContext getContext() throws NamingException
@@ -148,7 +183,7 @@ public class ExoContainerContextFactory implements InitialContextFactory
 
       private boolean isInitialContextInitializerCall()
       {
-         return container != null && env != null && env.containsKey(InitialContextInitializer.class.getName());
+         return initializerCall;
       }
 
       /**
@@ -156,7 +191,7 @@ public class ExoContainerContextFactory implements InitialContextFactory
        */
       public Object lookup(String name) throws NamingException
       {
-         if (getBindings().containsKey(name) || isInitialContextInitializerCall())
+         if (initializerCall || (bindings != null && bindings.containsKey(name)))
          {
             return super.lookup(name);
          }
@@ -169,7 +204,7 @@ public class ExoContainerContextFactory implements InitialContextFactory
       public Object lookup(Name name) throws NamingException
       {
          String sName = nameToString(name);
-         if (getBindings().containsKey(sName) || isInitialContextInitializerCall())
+         if (initializerCall || (bindings != null && bindings.containsKey(sName)))
          {
             return super.lookup(sName);
          }
@@ -501,7 +536,7 @@ public class ExoContainerContextFactory implements InitialContextFactory
 
       protected Object getMutex()
       {
-         return bindingsRef;
+         return bindings;
       }
       
       /**
@@ -509,11 +544,7 @@ public class ExoContainerContextFactory implements InitialContextFactory
        */
       public void close() throws NamingException
       {
-         bindingsRef = null;
-         if (env != null)
-         {
-            env.clear();
-         }
+         bindings = null;
          if (ctx != null)
          {
             ctx.close();
@@ -532,4 +563,40 @@ public class ExoContainerContextFactory implements InitialContextFactory
          return getContext().getNameInNamespace();
       }
    }
+
+   /**
+    * The key of the bindings of a container, it weakly references the container and
+    * relies on its identity
+    */
+   private static class ContainerKey extends WeakReference<ExoContainer>
+   {
+      private final int hash;
+
+      ContainerKey(ExoContainer container, ReferenceQueue<ExoContainer> queue)
+      {
+         super(container, queue);
+         this.hash = System.identityHashCode(container);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (this == o)
+         {
+            return true;
+         }
+         if (!(o instanceof ContainerKey))
+         {
+            return false;
+         }
+         Object container = get();
+         return container != null && container == ((ContainerKey)o).get();
+      }
+   }
 }
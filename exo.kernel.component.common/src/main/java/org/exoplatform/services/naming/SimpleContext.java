@@ -22,9 +22,11 @@ import org.exoplatform.services.jdbc.impl.CloseableDataSource;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 
 import javax.naming.Binding;
 import javax.naming.CompositeName;
@@ -62,22 +64,39 @@ public class SimpleContext implements Context
 
    private static final NameParser NAME_PARSER = new SimpleNameParser();
    
-   private static volatile Map<String, Object> BINDINGS = new HashMap<String, Object>();
+   private static volatile Map<String, Object> BINDINGS = new ConcurrentHashMap<String, Object>();
 
    public SimpleContext()
    {
    }
 
+   /**
+    * Gives the bindings of the context, they are read without any lock and modified in place
+    * while holding the mutex of the context so a thread safe map is expected
+    */
    protected Map<String, Object> getBindings()
    {
       return BINDINGS;
    }
 
+   /**
+    * @deprecated the bindings are now modified in place, so this method is not used anymore
+    */
    protected void setBindings(Map<String, Object> bindings)
    {
       BINDINGS = bindings;
    }
 
+   /**
+    * Indicates whether the objects created from the {@link Reference} bound in the context
+    * must replace their reference, in other words whether all the lookups of the same name
+    * must return the same instance. By default it returns <code>false</code>.
+    */
+   protected boolean cacheResolvedReferences()
+   {
+      return false;
+   }
+
    /**
     * Converts a Name to a flat String.
     */
@@ -104,34 +123,9 @@ public class SimpleContext implements Context
          throw new InvalidNameException("Cannot bind empty name");
       }
       Object obj = getBindings().get(name);
-      if (obj instanceof Reference)
+      if (obj instanceof Reference || obj instanceof PendingReference)
       {
-         synchronized (obj)
-         {
-            obj = getBindings().get(name);
-            if (obj instanceof Reference)
-            {
-               try
-               {
-                  obj = NamingManager.getObjectInstance(obj, NAME_PARSER.parse(name), this, getInternalEnv());
-
-                  if (obj instanceof DataSource)
-                  {
-                     obj = new CloseableDataSource((DataSource)obj);
-                  }
-
-                  // Re-bind with the object with its new value to be able to return the same ins
-                  bindRefValue(name, obj);
-               }
-               catch (Exception e)
-               {
-                  LOG.error(e.getLocalizedMessage(), e);
-                  NamingException ne = new NamingException("getObjectInstance failed");
-                  ne.setRootCause(e);
-                  throw ne;
-               }
-            }
-         }
+         return resolve(name, obj);
       }
       else if (obj == null)
       {
@@ -140,6 +134,72 @@ public class SimpleContext implements Context
       return obj;
    }
 
+   /**
+    * Gives the object corresponding to the given reference. If the resolved references are
+    * cached, the reference is first replaced with a placeholder to ensure that only one
+    * thread creates the object while the others wait for it.
+    */
+   @SuppressWarnings("unchecked")
+   private Object resolve(String name, Object obj) throws NamingException
+   {
+      if (obj instanceof PendingReference)
+      {
+         return ((PendingReference)obj).get(name);
+      }
+      Map<String, Object> bindings = getBindings();
+      if (!cacheResolvedReferences() || !(bindings instanceof ConcurrentMap))
+      {
+         obj = getObjectInstance(name, (Reference)obj);
+         bindRefValue(name, obj);
+         return obj;
+      }
+      ConcurrentMap<String, Object> cBindings = (ConcurrentMap<String, Object>)bindings;
+      PendingReference pending = new PendingReference();
+      if (!cBindings.replace(name, obj, pending))
+      {
+         // The binding has been modified in the meantime
+         return lookup(name);
+      }
+      try
+      {
+         Object value = getObjectInstance(name, (Reference)obj);
+         if (value == null)
+         {
+            // A null value cannot be stored in the bindings
+            throw new NamingException("The reference bound to the name '" + name + "' has been resolved to null");
+         }
+         pending.set(value);
+         cBindings.replace(name, pending, value);
+         return value;
+      }
+      catch (NamingException e)
+      {
+         pending.setError(e);
+         cBindings.replace(name, pending, obj);
+         throw e;
+      }
+   }
+
+   private Object getObjectInstance(String name, Reference ref) throws NamingException
+   {
+      try
+      {
+         Object obj = NamingManager.getObjectInstance(ref, NAME_PARSER.parse(name), this, getInternalEnv());
+         if (obj instanceof DataSource)
+         {
+            obj = new CloseableDataSource((DataSource)obj);
+         }
+         return obj;
+      }
+      catch (Exception e)
+      {
+         LOG.error(e.getLocalizedMessage(), e);
+         NamingException ne = new NamingException("getObjectInstance failed");
+         ne.setRootCause(e);
+         throw ne;
+      }
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -165,7 +225,11 @@ public class SimpleContext implements Context
       // Call getStateToBind for using any state factories
       value = NamingManager.getStateToBind(value, NAME_PARSER.parse(name), this, getInternalEnv());
 
-      if (value instanceof Context)
+      if (value == null)
+      {
+         throw new NamingException("Cannot bind a null object with the name '" + name + "'");
+      }
+      else if (value instanceof Context)
       {
          throw new OperationNotSupportedException("Context not supported");
       }
@@ -179,18 +243,18 @@ public class SimpleContext implements Context
       }
       synchronized (getMutex())
       {
-         Map<String, Object> tmpObjects = new HashMap<String, Object>(getBindings());
-         if (checkIfExists && tmpObjects.containsKey(name))
+         Map<String, Object> bindings = getBindings();
+         if (checkIfExists && bindings.containsKey(name))
          {
             throw new NameAlreadyBoundException("An object has already been binded with the name '" + name + "'");
          }
-         tmpObjects.put(name, value);
-         setBindings(tmpObjects);
+         bindings.put(name, value);
       }
    }
 
    /**
-    * {@inheritDoc}
+    * Called once an object has been created from a reference when the resolved
+    * references are not cached
     */
    protected void bindRefValue(String name, Object value) throws NamingException
    {
@@ -231,12 +295,10 @@ public class SimpleContext implements Context
       }
       synchronized (getMutex())
       {
-         Map<String, Object> tmpObjects = new HashMap<String, Object>(getBindings());
-         if (tmpObjects.remove(name) == null)
+         if (getBindings().remove(name) == null)
          {
             throw new NameNotFoundException("No object has been binded with the name '" + name + "'");
          }
-         setBindings(tmpObjects);
       }
    }
 
@@ -260,17 +322,19 @@ public class SimpleContext implements Context
       Object value;
       synchronized (getMutex())
       {
-         Map<String, Object> tmpObjects = new HashMap<String, Object>(getBindings());
-         if (tmpObjects.containsKey(name2))
+         Map<String, Object> bindings = getBindings();
+         if (bindings.containsKey(name2))
          {
             throw new NameAlreadyBoundException("An object has already been binded with the name '" + name2 + "'");
          }
-         else if ((value = tmpObjects.remove(name1)) == null)
+         else if ((value = bindings.get(name1)) == null)
          {
             throw new NameNotFoundException("No object has been binded with the name '" + name1 + "'");
          }
-         tmpObjects.put(name2, value);
-         setBindings(tmpObjects);
+         // The new name is bound before removing the old one so that the lookups that don't
+         // hold the mutex always find the object under one of the two names
+         bindings.put(name2, value);
+         bindings.remove(name1);
       }
    }
 
@@ -436,6 +500,61 @@ public class SimpleContext implements Context
       throw new OperationNotSupportedException("Not supported");
    }
 
+   /**
+    * The placeholder of a reference for which an object is being created
+    */
+   private static class PendingReference
+   {
+      /**
+       * The thread creating the object
+       */
+      private final Thread owner = Thread.currentThread();
+
+      private final CountDownLatch done = new CountDownLatch(1);
+
+      private volatile Object value;
+
+      private volatile NamingException error;
+
+      void set(Object value)
+      {
+         this.value = value;
+         done.countDown();
+      }
+
+      void setError(NamingException error)
+      {
+         this.error = error;
+         done.countDown();
+      }
+
+      Object get(String name) throws NamingException
+      {
+         if (owner == Thread.currentThread() && done.getCount() > 0)
+         {
+            // The object is looked up by its own factory, waiting would never end
+            throw new NamingException("Circular lookup of the name '" + name
+               + "' while the object bound to it is being created");
+         }
+         try
+         {
+            done.await();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            NamingException ne = new NamingException("Interrupted while waiting for the object to be created");
+            ne.setRootCause(e);
+            throw ne;
+         }
+         if (error != null)
+         {
+            throw error;
+         }
+         return value;
+      }
+   }
+
    private static class SimpleNameParser implements NameParser
    {
       /**
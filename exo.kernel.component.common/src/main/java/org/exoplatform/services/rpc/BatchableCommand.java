@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc;
+
+/**
+ * A {@link RemoteCommand} whose invocations on all the cluster nodes can be grouped into
+ * batches. The invocations launched during the batch window are sent as one message, executed
+ * in the same order on each cluster node and the result of each invocation is given back to
+ * its caller. This is only relevant for small and frequent commands, since a synchronous
+ * invocation may wait up to the batch window before being sent.
+ * 
+ * @version $Id$
+ *
+ */
+public interface BatchableCommand extends RemoteCommand
+{
+
+   /**
+    * Gives the maximum amount of time in milliseconds that an invocation waits for other
+    * invocations before the batch is sent
+    * @return the batch window in milliseconds
+    */
+   long getBatchWindow();
+
+   /**
+    * Gives the maximum amount of invocations in a batch, the batch is sent as soon as
+    * this size is reached
+    * @return the maximum size of a batch
+    */
+   int getMaxBatchSize();
+
+   /**
+    * Indicates whether the invocations of a batch with the same arguments can be merged into
+    * one invocation, which is only possible for idempotent commands. The callers of merged
+    * invocations share the same result.
+    * @return <code>true</code> if the duplicate invocations can be merged, <code>false</code> otherwise
+    */
+   boolean isCoalescable();
+}
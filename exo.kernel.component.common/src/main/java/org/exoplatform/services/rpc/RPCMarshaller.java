@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * This interface defines the way the arguments of the commands are converted into bytes
+ * before being sent to the other cluster nodes. The streams provided to the marshaller 
+ * delegate their own methods <code>writeObject</code> and <code>readObject</code> to the
+ * marshaller, so that the nested objects of an {@link java.io.Externalizable} argument are
+ * marshalled the same way. The implementation must be the same on all the cluster nodes 
+ * and must be thread safe.
+ * 
+ * @version $Id$
+ *
+ */
+public interface RPCMarshaller
+{
+
+   /**
+    * Writes the given object into the output stream
+    * @param out the stream into which the object is written
+    * @param o the object to write, can be <code>null</code>
+    * @throws IOException if the object could not be written
+    */
+   void writeObject(ObjectOutput out, Object o) throws IOException;
+
+   /**
+    * Reads the next object from the input stream
+    * @param in the stream from which the object is read
+    * @return the object read, can be <code>null</code>
+    * @throws IOException if the object could not be read
+    * @throws ClassNotFoundException if the class of the object cannot be found
+    */
+   Object readObject(ObjectInput in) throws IOException, ClassNotFoundException;
+}
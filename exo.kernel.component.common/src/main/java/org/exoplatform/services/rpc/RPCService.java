@@ -20,6 +20,7 @@ package org.exoplatform.services.rpc;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * This service provides mechanism to communicate with the other cluster nodes. This service will
@@ -35,6 +36,17 @@ public interface RPCService
     */
    public static final RuntimePermission ACCESS_RPC_SERVICE_PERMISSION = new RuntimePermission("accessRPCService");
 
+   /**
+    * The value of the expected responses to use to wait for the responses of all the cluster nodes
+    */
+   public static final int ALL_RESPONSES = 0;
+
+   /**
+    * The value of the expected responses to use to wait for the responses of the majority of 
+    * the cluster nodes
+    */
+   public static final int QUORUM = -1;
+
    /**
     * Executes a command on all the cluster nodes. This method is equivalent to the other method of the
     * same type but with the default timeout. The command must be registered first otherwise an 
@@ -71,6 +83,51 @@ public interface RPCService
    List<Object> executeCommandOnAllNodes(RemoteCommand command, long timeout, Serializable... args)
       throws RPCException, SecurityException;
 
+   /**
+    * Executes a command asynchronously on all the cluster nodes. This method is equivalent to the other 
+    * method of the same type but with the default timeout. The command must be registered first otherwise an 
+    * {@link RPCException} will be thrown.
+    *
+    * @param command The command to execute on each cluster node
+    * @param expectedResponses the total amount of responses after which the future is done,
+    * {@link #ALL_RESPONSES} to wait for all the cluster nodes or {@link #QUORUM} to wait for the majority of them.
+    * @param listener the listener to notify each time a cluster node answers, can be <code>null</code>
+    * @param args an array of {@link Serializable} objects corresponding to parameters of the command 
+    * to execute remotely
+    * @return the future of the list of responses, see 
+    * {@link #executeCommandOnAllNodesAsync(RemoteCommand, long, int, ResponseListener, Serializable...)} 
+    * for more details
+    * @throws RPCException in the event of problems.
+    * @throws SecurityException if the {@link SecurityManager} is installed and the call method
+    * doesn't have the {@link RuntimePermission} <code>ACCESS_RPC_SERVICE_PERMISSION</code>
+    */
+   Future<List<Object>> executeCommandOnAllNodesAsync(RemoteCommand command, int expectedResponses,
+      ResponseListener listener, Serializable... args) throws RPCException, SecurityException;
+
+   /**
+    * Executes a command asynchronously on all the cluster nodes, the calling thread is not blocked
+    * while the cluster nodes execute the command. The command must be registered first otherwise an 
+    * {@link RPCException} will be thrown.
+    *
+    * @param command The command to execute on each cluster node
+    * @param timeout the maximum amount of time in milliseconds that {@link Future#get()} waits for the
+    * responses, 0 to wait forever.
+    * @param expectedResponses the total amount of responses after which the future is done,
+    * {@link #ALL_RESPONSES} to wait for all the cluster nodes or {@link #QUORUM} to wait for the majority of them.
+    * @param listener the listener to notify each time a cluster node answers, can be <code>null</code>
+    * @param args an array of {@link Serializable} objects corresponding to parameters of the command 
+    * to execute remotely
+    * @return the future of the list of responses. If all the responses are expected, it contains
+    * one response per member of the cluster like the synchronous version of this method, otherwise
+    * it only contains the responses received. If we met an exception on a given node, the RPCException 
+    * will be the corresponding response of this particular node
+    * @throws RPCException in the event of problems.
+    * @throws SecurityException if the {@link SecurityManager} is installed and the call method
+    * doesn't have the {@link RuntimePermission} <code>ACCESS_RPC_SERVICE_PERMISSION</code>
+    */
+   Future<List<Object>> executeCommandOnAllNodesAsync(RemoteCommand command, long timeout, int expectedResponses,
+      ResponseListener listener, Serializable... args) throws RPCException, SecurityException;
+
    /**
     * Executes a command on the coordinator only. This method is equivalent to the other method of the
     * same type but with the default timeout. The command must be registered first otherwise an 
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc;
+
+/**
+ * This interface is used to be notified each time a cluster node answers to a command that
+ * has been launched asynchronously thanks to
+ * {@link RPCService#executeCommandOnAllNodesAsync(RemoteCommand, int, ResponseListener, java.io.Serializable...)}.
+ * 
+ * @version $Id$
+ *
+ */
+public interface ResponseListener
+{
+
+   /**
+    * Called each time a cluster node answers. This method is called by the thread of the
+    * underlying transport so it must be as fast as possible.
+    * @param member the name of the cluster node that answered
+    * @param response the response of the cluster node. If we met an exception on this node,
+    * the response will be the corresponding RPCException
+    */
+   void onResponse(String member, Object response);
+}
@@ -18,6 +18,7 @@
  */
 package org.exoplatform.services.rpc.impl;
 
+import org.exoplatform.commons.utils.ClassLoading;
 import org.exoplatform.commons.utils.PropertyManager;
 import org.exoplatform.commons.utils.SecurityHelper;
 import org.exoplatform.container.ExoContainer;
@@ -25,20 +26,27 @@ import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.configuration.ConfigurationManager;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.container.xml.ValuesParam;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
+import org.exoplatform.services.rpc.BatchableCommand;
 import org.exoplatform.services.rpc.RPCException;
+import org.exoplatform.services.rpc.RPCMarshaller;
 import org.exoplatform.services.rpc.RPCService;
 import org.exoplatform.services.rpc.RemoteCommand;
+import org.exoplatform.services.rpc.ResponseListener;
 import org.exoplatform.services.rpc.TopologyChangeEvent;
 import org.exoplatform.services.rpc.TopologyChangeListener;
 import org.jgroups.Address;
 import org.jgroups.Channel;
 import org.jgroups.MembershipListener;
 import org.jgroups.Message;
+import org.jgroups.SuspectedException;
+import org.jgroups.TimeoutException;
 import org.jgroups.View;
 import org.jgroups.blocks.MessageDispatcher;
 import org.jgroups.blocks.RequestHandler;
+import org.jgroups.blocks.RspFilter;
 import org.jgroups.conf.ConfiguratorFactory;
 import org.jgroups.conf.ProtocolStackConfigurator;
 import org.jgroups.util.Rsp;
@@ -57,11 +65,22 @@ import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is a basic implementation of the {@link RPCService}, it is mainly based on the
@@ -103,6 +122,17 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
     * The name of the parameter for the retry timeout
     */
    protected static final String PARAM_RETRY_TIMEOUT = "retry-timeout";
+
+   /**
+    * The name of the parameter for the type of {@link RPCMarshaller} to use
+    */
+   protected static final String PARAM_MARSHALLER = "marshaller";
+
+   /**
+    * The name of the parameter for the {@link Externalizable} types to register to the
+    * {@link CompactRPCMarshaller}
+    */
+   protected static final String PARAM_MARSHALLER_TYPES = "marshaller-types";
    
    /**
     * The value of the default timeout
@@ -118,6 +148,11 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
     * The default value of the cluster name
     */
    protected static final String CLUSTER_NAME = "RPCService-Cluster";
+
+   /**
+    * The id of the internal command used to execute the batches of {@link BatchableCommand}
+    */
+   protected static final String BATCH_COMMAND_ID = "org.exoplatform.services.rpc.impl.AbstractRPCService-Batch";
    
    /**
     * The configurator used to create the JGroups Channel
@@ -195,8 +230,47 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
    /**
     * All the commands that have been registered
     */
-   private volatile Map<String, RemoteCommand> commands =
-      Collections.unmodifiableMap(new HashMap<String, RemoteCommand>());
+   private volatile Map<String, RemoteCommand> commands;
+
+   /**
+    * All the registered commands whose hash code of the id is unique, they are sent
+    * with the hash code of their id instead of their id to the members to which the key
+    * has already been announced
+    */
+   private volatile CommandKeys commandKeys;
+
+   /**
+    * The ids of the commands announced by each member indexed by their key
+    */
+   private final ConcurrentMap<Address, ConcurrentMap<Integer, String>> remoteCommandKeys =
+      new ConcurrentHashMap<Address, ConcurrentMap<Integer, String>>();
+
+   /**
+    * The marshaller used to serialize the arguments of the commands
+    */
+   private final RPCMarshaller marshaller;
+
+   /**
+    * The internal command used to execute the batches of {@link BatchableCommand}
+    */
+   private final RemoteCommand batchCommand = new BatchCommand();
+
+   /**
+    * The batchers of all the {@link BatchableCommand} that have been executed
+    */
+   private final ConcurrentMap<BatchableCommand, CommandBatcher> batchers =
+      new ConcurrentHashMap<BatchableCommand, CommandBatcher>();
+
+   /**
+    * The scheduler used to detect the end of the batch windows of {@link BatchableCommand}
+    */
+   private volatile ScheduledExecutorService batchScheduler;
+
+   /**
+    * The executor used to send the batches of {@link BatchableCommand} whose window expired, it
+    * uses at most one thread per command since the batches of a command are sent one after the other
+    */
+   private volatile ExecutorService batchExecutor;
 
    /**
     * The public constructor
@@ -265,6 +339,11 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
             LOG.debug("The retry timeout of the RPCServiceImpl has been set to " + retryTimeout);
          }
       }
+      this.marshaller = getMarshaller(params);
+      Map<String, RemoteCommand> tmpCommands = new HashMap<String, RemoteCommand>();
+      tmpCommands.put(BATCH_COMMAND_ID, batchCommand);
+      this.commands = Collections.unmodifiableMap(tmpCommands);
+      this.commandKeys = new CommandKeys(tmpCommands);
       this.state = State.INITIALIZED;
    }
 
@@ -304,9 +383,78 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
    protected List<Object> executeCommandOnAllNodesMain(RemoteCommand command, boolean synchronous, long timeout,
       Serializable... args) throws RPCException
    {
+      if (command instanceof BatchableCommand)
+      {
+         checkCommand(command);
+         return getBatcher((BatchableCommand)command).execute(synchronous, timeout, args);
+      }
       return excecuteCommand(members, command, synchronous, timeout, args);
    }
 
+   /**
+    * Gives the {@link CommandBatcher} of the given command, it will be created if it doesn't exist
+    * @param command the command for which we want the batcher
+    * @return the batcher of the command
+    * @throws RPCException if the service is not started
+    */
+   private CommandBatcher getBatcher(BatchableCommand command) throws RPCException
+   {
+      CommandBatcher batcher = batchers.get(command);
+      if (batcher == null)
+      {
+         ScheduledExecutorService scheduler = batchScheduler;
+         ExecutorService executor = batchExecutor;
+         if (scheduler == null || executor == null)
+         {
+            throw new RPCException(
+               "Cannot execute any commands if the service is not started, the current state of the service is "
+                  + state);
+         }
+         batcher = new CommandBatcher(this, command, scheduler, executor);
+         CommandBatcher prevBatcher = batchers.putIfAbsent(command, batcher);
+         if (prevBatcher != null)
+         {
+            batcher = prevBatcher;
+         }
+      }
+      return batcher;
+   }
+
+   /**
+    * Stops all the batchers, their pending batches are sent and their next invocations are rejected
+    */
+   private void stopBatchers()
+   {
+      for (Iterator<CommandBatcher> it = batchers.values().iterator(); it.hasNext();)
+      {
+         CommandBatcher batcher = it.next();
+         it.remove();
+         batcher.stop();
+      }
+   }
+
+   /**
+    * Executes a batch of invocations of the given command on all the cluster nodes
+    * @param command the command to execute
+    * @param synchronous if true, waits for the responses of all the members
+    * @param timeout a timeout after which to throw a replication exception.
+    * @param invocations the arguments of each invocation
+    * @return a list of responses from all the members of the cluster, the response of a member
+    * is an array containing the result of each invocation unless the whole batch failed on this member
+    * @throws RPCException in the event of problems.
+    */
+   List<Object> executeBatch(BatchableCommand command, boolean synchronous, long timeout,
+      Serializable[][] invocations) throws RPCException
+   {
+      // The permissions have been checked when the invocations have been added to the batch
+      if (state != State.STARTED)
+      {
+         throw new RPCException(
+            "Cannot execute any commands if the service is not started, the current state of the service is " + state);
+      }
+      return sendCommand(members, batchCommand, synchronous, timeout, command.getId(), invocations);
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -395,23 +543,42 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
    protected List<Object> excecuteCommand(final List<Address> dests, RemoteCommand command,
       final boolean synchronous, final long timeout, Serializable... args) throws RPCException
    {
-      SecurityManager security = System.getSecurityManager();
-      if (security != null)
-      {
-         security.checkPermission(RPCService.ACCESS_RPC_SERVICE_PERMISSION);
-      }
-      if (state != State.STARTED)
-      {
-         throw new RPCException(
-            "Cannot execute any commands if the service is not started, the current state of the service is " + state);
-      }
+      checkCommand(command);
+      return sendCommand(dests, command, synchronous, timeout, args);
+   }
+
+   /**
+    * Sends the command to all the nodes corresponding to the list of destinations.
+    * @param dests the list of members on which the command needs to be executed
+    * @param command the command to execute
+    * @param synchronous if true, sets group request mode to {@link org.jgroups.blocks.GroupRequest#GET_ALL}, and if false sets 
+    * it to {@link org.jgroups.blocks.GroupRequest#GET_NONE}.
+    * @param timeout a timeout after which to throw a replication exception.
+    * @param args the list of parameters
+    * @return a list of responses from all the targeted members of the cluster.
+    * @throws RPCException in the event of problems.
+    */
+   private List<Object> sendCommand(final List<Address> dests, RemoteCommand command,
+      final boolean synchronous, final long timeout, Serializable... args) throws RPCException
+   {
       final String commandId = command.getId();
-      if (commands.get(commandId) != command)
+      final Message msg = new Message();
+      if (dests.size() == 1 && dests != members)
       {
-         throw new RPCException("Command " + commandId + " unknown, please register your command first");
+         // Only one member is targeted so we send the message directly to this member to prevent the other
+         // members from receiving and deserializing a message that they will ignore anyway
+         Address dest = dests.get(0);
+         CommandKeys keys = commandKeys;
+         msg.setBuffer(marshall(dest, dests, keys, command, args));
+         List<Object> result = excecuteCommand(dest, msg, commandId, synchronous, timeout);
+         if (synchronous && isSuccessful(result.get(0)))
+         {
+            keys.announced(command, dest);
+         }
+         return result;
       }
-      final Message msg = new Message();
-      setObject(msg, new MessageBody(dests.size() == 1 && dests != members ? dests.get(0) : null, commandId, args)); //NOSONAR
+      CommandKeys keys = commandKeys;
+      msg.setBuffer(marshall(null, dests, keys, command, args));
       RspList rsps = SecurityHelper.doPrivilegedAction(new PrivilegedAction<RspList>()
       {
          public RspList run()
@@ -434,10 +601,41 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
          throw new RPCException("Could not get the responses for command " + commandId + ".");
       if (!synchronous)
          return Collections.emptyList();// async case
+      for (Address dest : dests)
+      {
+         Rsp rsp = rsps.get(dest);
+         if (rsp != null && rsp.wasReceived() && isSuccessful(rsp.getValue()))
+         {
+            keys.announced(command, dest);
+         }
+      }
       if (LOG.isTraceEnabled())
       {
          LOG.trace("(" + getLocalAddress() + "): responses for command " + commandId + ":\n" + rsps);
       }
+      return getResults(dests, rsps, false);
+   }
+
+   /**
+    * Indicates whether the given response proves that the member has executed the command, the
+    * key of the command that the message may define has then been recorded by the member
+    */
+   private static boolean isSuccessful(Object response)
+   {
+      return response != null && !(response instanceof Throwable);
+   }
+
+   /**
+    * Converts the given responses into a list of results.
+    * @param dests the list of members on which the command has been executed
+    * @param rsps the responses of the members
+    * @param partial indicates whether only the responses that have been received are expected, if
+    * <code>false</code> the members from which no response could be received will get a replication
+    * timeout.
+    * @return a list of responses of the targeted members of the cluster.
+    */
+   static List<Object> getResults(List<Address> dests, RspList rsps, boolean partial)
+   {
       List<Object> retval = new ArrayList<Object>(rsps.size());
       for (Address dest : dests)
       {
@@ -450,7 +648,10 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
          }
          else if (!rsp.wasReceived())
          {
-            retval.add(new RPCException("Replication timeout for " + rsp.getSender() + ", rsp=" + rsp));
+            if (!partial)
+            {
+               retval.add(new RPCException("Replication timeout for " + rsp.getSender() + ", rsp=" + rsp));
+            }
          }
          else
          {
@@ -467,6 +668,146 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
       return retval;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public Future<List<Object>> executeCommandOnAllNodesAsync(RemoteCommand command, int expectedResponses,
+      ResponseListener listener, Serializable... args) throws RPCException
+   {
+      return executeCommandOnAllNodesAsync(command, defaultTimeout, expectedResponses, listener, args);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Future<List<Object>> executeCommandOnAllNodesAsync(RemoteCommand command, long timeout,
+      int expectedResponses, ResponseListener listener, Serializable... args) throws RPCException
+   {
+      final String commandId = checkCommand(command);
+      final List<Address> dests = members;
+      final int size = dests.size();
+      int expected;
+      if (expectedResponses == RPCService.QUORUM)
+      {
+         expected = size / 2 + 1;
+      }
+      else if (expectedResponses <= 0 || expectedResponses > size)
+      {
+         expected = size;
+      }
+      else
+      {
+         expected = expectedResponses;
+      }
+      final Message msg = new Message();
+      CommandKeys keys = commandKeys;
+      msg.setBuffer(marshall(null, dests, keys, command, args));
+      final RPCFuture future = new RPCFuture(dests, expected, timeout, listener);
+      Future<RspList<Object>> rsps = SecurityHelper.doPrivilegedAction(new PrivilegedAction<Future<RspList<Object>>>()
+      {
+         public Future<RspList<Object>> run()
+         {
+            try
+            {
+               return castMessageWithFuture(dests, msg, future, future.getTimeout());
+            }
+            catch (Exception e)
+            {
+               LOG.error("Could not cast the message corresponding to the command " + commandId + ".", e);
+            }
+            return null;
+         }
+      });
+      if (rsps == null)
+         throw new RPCException("Could not get the responses for command " + commandId + ".");
+      future.setResponses(rsps);
+      return future;
+   }
+
+   /**
+    * Checks whether the given command can be executed
+    * @param command the command to check
+    * @return the id of the command
+    * @throws RPCException if the service is not started or the command is unknown
+    */
+   private String checkCommand(RemoteCommand command) throws RPCException
+   {
+      SecurityManager security = System.getSecurityManager();
+      if (security != null)
+      {
+         security.checkPermission(RPCService.ACCESS_RPC_SERVICE_PERMISSION);
+      }
+      if (state != State.STARTED)
+      {
+         throw new RPCException(
+            "Cannot execute any commands if the service is not started, the current state of the service is " + state);
+      }
+      String commandId = command.getId();
+      if (commands.get(commandId) != command)
+      {
+         throw new RPCException("Command " + commandId + " unknown, please register your command first");
+      }
+      return commandId;
+   }
+
+   /**
+    * Execute the command on the given member only by sending a point-to-point message.
+    * @param dest the member on which the command needs to be executed
+    * @param msg the message to send
+    * @param commandId the id of the command to execute
+    * @param synchronous if true, waits for the response of the member, and if false sends the
+    * message without waiting for any response.
+    * @param timeout a timeout after which to throw a replication exception.
+    * @return a list containing the response of the targeted member.
+    * @throws RPCException in the event of problems.
+    */
+   private List<Object> excecuteCommand(final Address dest, final Message msg, String commandId,
+      final boolean synchronous, final long timeout) throws RPCException
+   {
+      Object result;
+      try
+      {
+         result = SecurityHelper.doPrivilegedExceptionAction(new PrivilegedExceptionAction<Object>()
+         {
+            public Object run() throws Exception
+            {
+               return sendMessage(dest, msg, synchronous, timeout);
+            }
+         });
+      }
+      catch (PrivilegedActionException pae)
+      {
+         Throwable cause = pae.getCause();
+         if (cause instanceof SuspectedException)
+         {
+            // The corresponding member has left
+            result = new MemberHasLeftException("No response for the member " + dest
+               + ", this member has probably left the cluster.");
+         }
+         else if (cause instanceof TimeoutException)
+         {
+            result = new RPCException("Replication timeout for " + dest);
+         }
+         else if (cause instanceof RPCException)
+         {
+            result = cause;
+         }
+         else
+         {
+            LOG.error("Could not send the message corresponding to the command " + commandId + " to " + dest + ".",
+               cause);
+            throw new RPCException("Could not get the response for command " + commandId + ".");
+         }
+      }
+      if (!synchronous)
+         return Collections.emptyList();// async case
+      if (LOG.isTraceEnabled())
+      {
+         LOG.trace("(" + getLocalAddress() + "): response for command " + commandId + " from " + dest + ": " + result);
+      }
+      return Collections.singletonList(result);
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -477,8 +818,23 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
       {
          // Ensure that the service is fully started before trying to execute any command
          startSignal.await();
-         MessageBody body = (MessageBody)msg.getObject();
+         MessageBody body = unmarshall(msg);
          commandId = body.getCommandId();
+         if (body.isCommandKeyDefinition())
+         {
+            // The sender announces that it will send this command with its key from now on
+            ConcurrentMap<Integer, String> keys = remoteCommandKeys.get(msg.getSrc());
+            if (keys == null)
+            {
+               keys = new ConcurrentHashMap<Integer, String>();
+               ConcurrentMap<Integer, String> existingKeys = remoteCommandKeys.putIfAbsent(msg.getSrc(), keys);
+               if (existingKeys != null)
+               {
+                  keys = existingKeys;
+               }
+            }
+            keys.put(body.getCommandKey(), commandId);
+         }
          if (!body.accept(getLocalAddress()))
          {
             if (LOG.isTraceEnabled())
@@ -488,6 +844,17 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
             }
             return null;
          }
+         if (commandId == null)
+         {
+            // The command has been sent with the key that the sender announced previously
+            Map<Integer, String> keys = remoteCommandKeys.get(msg.getSrc());
+            commandId = keys == null ? null : keys.get(body.getCommandKey());
+            if (commandId == null)
+            {
+               return new RPCException("Command with the key " + body.getCommandKey() + " unkown for the member "
+                  + msg.getSrc() + ", the key has not been announced");
+            }
+         }
          RemoteCommand command = getCommand(commandId);
          if (command == null)
          {
@@ -533,6 +900,12 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
       synchronized (topologyChangeLock)
       {
          this.members = getMembers(view);
+         if (members != null)
+         {
+            // Forgets the keys of the members that have left
+            remoteCommandKeys.keySet().retainAll(members);
+            commandKeys.retainMembers(members);
+         }
          Address currentCoordinator = coordinator;
          this.coordinator = members != null && members.size() > 0 ? members.get(0) : null;
          this.isCoordinator = coordinator != null && coordinator.equals(getLocalAddress());
@@ -590,6 +963,7 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
                + ", this command will be replaced with the new one");
          }
          this.commands = Collections.unmodifiableMap(tmpCommands);
+         this.commandKeys = new CommandKeys(tmpCommands);
          return command;
       }
       return null;
@@ -627,6 +1001,15 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
          Map<String, RemoteCommand> tmpCommands = new HashMap<String, RemoteCommand>(this.commands);
          tmpCommands.remove(commandId);
          this.commands = Collections.unmodifiableMap(tmpCommands);
+         this.commandKeys = new CommandKeys(tmpCommands);
+         if (command instanceof BatchableCommand)
+         {
+            CommandBatcher batcher = batchers.remove(command);
+            if (batcher != null)
+            {
+               batcher.stop();
+            }
+         }
       }
    }
 
@@ -677,6 +1060,47 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
       listeners.remove(listener);
    }
 
+   /**
+    * Converts the given command into a byte array
+    * @param dest the expected destination of the message, <code>null</code> if the message is for everybody
+    * @param dests the members to which the message is sent
+    * @param keys the keys of the commands to use
+    * @param command the command to execute
+    * @param args the list of parameters
+    * @return the content of the message
+    * @throws RPCException if the command could not be converted
+    */
+   private byte[] marshall(Address dest, List<Address> dests, CommandKeys keys, RemoteCommand command,
+      Serializable[] args) throws RPCException
+   {
+      String commandId = command.getId();
+      boolean keyed = keys.isKeyed(command);
+      boolean announced = keyed && keys.isAnnounced(command, dests);
+      MessageBody body = new MessageBody(dest, commandId, announced, keyed && !announced, args);
+      try
+      {
+         return RPCObjectOutput.marshall(marshaller, body);
+      }
+      catch (IOException e)
+      {
+         throw new RPCException("Could not marshall the command " + commandId + ".", e);
+      }
+   }
+
+   /**
+    * Extracts the {@link MessageBody} from the given message
+    * @param msg the message received
+    * @return the corresponding {@link MessageBody}
+    * @throws IOException if the content of the message could not be read
+    * @throws ClassNotFoundException if a class of an argument cannot be found
+    */
+   private MessageBody unmarshall(Message msg) throws IOException, ClassNotFoundException
+   {
+      MessageBody body = new MessageBody();
+      body.readExternal(new RPCObjectInput(marshaller, msg.getRawBuffer(), msg.getOffset(), msg.getLength()));
+      return body;
+   }
+
    /**
     * Gives the {@link RemoteCommand} corresponding to the given id
     * @param commandId the command id of the command to retrieve
@@ -704,6 +1128,27 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
          {
             public Void run() throws Exception
             {
+               batchScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+               {
+                  public Thread newThread(Runnable r)
+                  {
+                     Thread t = new Thread(r, "RPCService-Batcher-" + clusterName);
+                     t.setDaemon(true);
+                     return t;
+                  }
+               });
+               batchExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+               {
+                  private final AtomicInteger threadNumber = new AtomicInteger();
+
+                  public Thread newThread(Runnable r)
+                  {
+                     Thread t =
+                        new Thread(r, "RPCService-Batch-Sender-" + clusterName + "-" + threadNumber.incrementAndGet());
+                     t.setDaemon(true);
+                     return t;
+                  }
+               });
                channel = createChannel();
                dispatcher = new MessageDispatcher(channel, null, AbstractRPCService.this, AbstractRPCService.this);
                channel.connect(clusterName);
@@ -733,6 +1178,23 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
          security.checkPermission(RPCService.ACCESS_RPC_SERVICE_PERMISSION);
       }
 
+      // Send the pending batches before stopping and reject the next invocations, the batchers are
+      // stopped before the scheduler so that no batch window can be dropped
+      ScheduledExecutorService scheduler = batchScheduler;
+      ExecutorService executor = batchExecutor;
+      batchScheduler = null;
+      batchExecutor = null;
+      stopBatchers();
+      if (scheduler != null)
+      {
+         scheduler.shutdownNow();
+      }
+      if (executor != null)
+      {
+         executor.shutdown();
+      }
+      // The batchers created concurrently
+      stopBatchers();
       this.state = State.STOPPED;
       this.isCoordinator = false;
       if (channel != null && channel.isOpen())
@@ -813,6 +1275,32 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
     * @throws Exception if any error occur while casting the message
     */
    protected abstract RspList castMessage(List<Address> dests, Message msg, boolean synchronous, long timeout) throws Exception;
+
+   /**
+    * Cast a message to all the given members without waiting for the responses
+    * @param dests The members to which the message is to be sent.
+    * @param msg The message to be sent to the members.
+    * @param filter The filter notified each time a response is received, it also indicates when
+    * enough responses have been received.
+    * @param timeout If 0: wait forever. Otherwise, wait for responses or timeout time.
+    * @return The future of the list of responses.
+    * @throws Exception if any error occur while casting the message
+    */
+   protected abstract Future<RspList<Object>> castMessageWithFuture(List<Address> dests, Message msg,
+      RspFilter filter, long timeout) throws Exception;
+
+   /**
+    * Sends a message to the given member only
+    * @param dest The member to which the message is to be sent.
+    * @param msg The message to be sent to the member.
+    * @param synchronous Indicates whether the message must be sent in synchronous or asynchronous mode.
+    * @param timeout If 0: wait forever. Otherwise, wait for the response or timeout time.
+    * @return The response of the member or <code>null</code> in asynchronous mode.
+    * @throws Exception if any error occur while sending the message, a {@link SuspectedException}
+    * is expected if the member has left and a {@link TimeoutException} if no response could
+    * be received in time.
+    */
+   protected abstract Object sendMessage(Address dest, Message msg, boolean synchronous, long timeout) throws Exception;
    
    /**
     * Create a channel
@@ -830,12 +1318,6 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
     */
    protected abstract List<Address> getMembers(View view);
    
-   /**
-    * Takes an object and uses Java serialization to generate the byte[] buffer which
-    * is set in the message.
-    */
-   protected abstract void setObject(Message m, Object o);
-   
    /**
     * Gives the value of the {@link ValueParam} corresponding to the given key
     * @param params the list of initial parameters from which we want to extract the {@link ValueParam}
@@ -859,6 +1341,61 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
       return null;
    }
 
+   /**
+    * Creates the {@link RPCMarshaller} defined in the given parameters
+    * @param params the initial parameters from which we extract the parameters 
+    * <code>PARAM_MARSHALLER</code> and <code>PARAM_MARSHALLER_TYPES</code>
+    * @return the {@link RPCMarshaller} to use, {@link CompactRPCMarshaller} by default
+    */
+   @SuppressWarnings("unchecked")
+   private RPCMarshaller getMarshaller(InitParams params)
+   {
+      String type = getValueParam(params, PARAM_MARSHALLER);
+      RPCMarshaller marshaller;
+      try
+      {
+         marshaller =
+            type == null ? new CompactRPCMarshaller() : (RPCMarshaller)ClassLoading.forName(type, this)
+               .newInstance();
+      }
+      catch (Exception e)
+      {
+         throw new IllegalArgumentException("Cannot create the marshaller of type " + type, e);
+      }
+      ValuesParam vp = params.getValuesParam(PARAM_MARSHALLER_TYPES);
+      if (vp != null && vp.getValues() != null)
+      {
+         if (!(marshaller instanceof CompactRPCMarshaller))
+         {
+            LOG.warn("The parameter '" + PARAM_MARSHALLER_TYPES + "' is ignored since the marshaller is of type "
+               + marshaller.getClass().getName());
+            return marshaller;
+         }
+         for (Object oValue : vp.getValues())
+         {
+            String typeName = ((String)oValue).trim();
+            try
+            {
+               Class<?> c = ClassLoading.forName(typeName, this);
+               if (!Externalizable.class.isAssignableFrom(c))
+               {
+                  throw new IllegalArgumentException("The type " + typeName + " is not Externalizable");
+               }
+               ((CompactRPCMarshaller)marshaller).registerType((Class<? extends Externalizable>)c);
+            }
+            catch (ClassNotFoundException e)
+            {
+               throw new IllegalArgumentException("Cannot find the type " + typeName, e);
+            }
+         }
+      }
+      if (LOG.isDebugEnabled())
+      {
+         LOG.debug("The marshaller of the RPCServiceImpl is of type " + marshaller.getClass().getName());
+      }
+      return marshaller;
+   }
+
    /**
     * Gives the {@link URL} corresponding to the location of the JGroups configuration
     * @param params the initial parameters from which we extract the parameter 
@@ -914,11 +1451,42 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
     */
    public static class MessageBody implements Externalizable
    {
+      /**
+       * The flag indicating that the message is for a given destination
+       */
+      private static final byte UNICAST = 1;
+
+      /**
+       * The flag indicating that the command is identified by the hash code of its id
+       */
+      private static final byte COMMAND_KEY = 2;
+
+      /**
+       * The flag indicating that the command is sent with its id and that the sender
+       * will identify it with the hash code of its id from now on
+       */
+      private static final byte COMMAND_KEY_DEFINITION = 4;
+
       /**
        * The Id of the command to execute
        */
       private String commandId;
 
+      /**
+       * The hash code of the id of the command to execute
+       */
+      private int commandKey;
+
+      /**
+       * Indicates whether the command is identified by the hash code of its id
+       */
+      private boolean useCommandKey;
+
+      /**
+       * Indicates whether the message announces the key of the command
+       */
+      private boolean defineCommandKey;
+
       /**
        * The list of parameters
        */
@@ -939,17 +1507,56 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
        * @param args the arguments to use
        */
       public MessageBody(Address dest, String commandId, Serializable[] args)
+      {
+         this(dest, commandId, false, false, args);
+      }
+
+      /**
+       * @param dest The destination of the message
+       * @param commandId the id of the command to execute
+       * @param useCommandKey indicates whether the command must be identified by the hash code of 
+       * its id, the key must then have been announced to the receivers
+       * @param defineCommandKey indicates whether the message announces the key of the command to
+       * the receivers, it is ignored if <code>useCommandKey</code> is <code>true</code>
+       * @param args the arguments to use
+       */
+      public MessageBody(Address dest, String commandId, boolean useCommandKey, boolean defineCommandKey,
+         Serializable[] args)
       {
          this.commandId = commandId;
+         this.commandKey = commandId.hashCode();
+         this.useCommandKey = useCommandKey;
+         this.defineCommandKey = !useCommandKey && defineCommandKey;
          this.args = args;
          this.destination = dest == null ? 0 : dest.hashCode();
       }
 
+      /**
+       * @return the id of the command or <code>null</code> if the command has been
+       * identified by the hash code of its id
+       */
       public String getCommandId()
       {
          return commandId;
       }
 
+      /**
+       * @return the hash code of the id of the command
+       */
+      public int getCommandKey()
+      {
+         return commandKey;
+      }
+
+      /**
+       * @return <code>true</code> if the message announces that the sender will identify the command
+       * with the hash code of its id from now on, <code>false</code> otherwise
+       */
+      public boolean isCommandKeyDefinition()
+      {
+         return defineCommandKey;
+      }
+
       public Serializable[] getArgs()
       {
          return args;
@@ -971,12 +1578,22 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
        */
       public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
       {
-         boolean unicast = in.readBoolean();
-         if (unicast)
+         byte flags = in.readByte();
+         if ((flags & UNICAST) != 0)
          {
             this.destination = in.readInt();            
          }
-         this.commandId = in.readUTF();
+         this.useCommandKey = (flags & COMMAND_KEY) != 0;
+         this.defineCommandKey = (flags & COMMAND_KEY_DEFINITION) != 0;
+         if (useCommandKey)
+         {
+            this.commandKey = in.readInt();
+         }
+         else
+         {
+            this.commandId = in.readUTF();
+            this.commandKey = commandId.hashCode();
+         }
          int size = in.readInt();
          if (size == -1)
          {
@@ -997,13 +1614,32 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
        */
       public void writeExternal(ObjectOutput out) throws IOException
       {
-         boolean unicast = destination != 0;
-         out.writeBoolean(unicast);
-         if (unicast)
+         byte flags = 0;
+         if (destination != 0)
+         {
+            flags |= UNICAST;
+         }
+         if (useCommandKey)
+         {
+            flags |= COMMAND_KEY;
+         }
+         else if (defineCommandKey)
+         {
+            flags |= COMMAND_KEY_DEFINITION;
+         }
+         out.writeByte(flags);
+         if (destination != 0)
          {
             out.writeInt(destination);            
          }         
-         out.writeUTF(commandId);
+         if (useCommandKey)
+         {
+            out.writeInt(commandKey);
+         }
+         else
+         {
+            out.writeUTF(commandId);
+         }
          if (args == null)
          {
             out.writeInt(-1);
@@ -1019,6 +1655,135 @@ public abstract class AbstractRPCService implements RPCService, Startable, Reque
       }
    }
 
+   /**
+    * The commands that can be identified by the hash code of their id. A member only
+    * receives a command with its key once it has successfully responded to a message that
+    * defined the key, the definition has then been recorded whatever the stream, unicast or
+    * multicast, on which the next messages are delivered. The asynchronous messages never
+    * announce a key since no response proves that they have been received. A new instance
+    * is created each time the registered commands change, so that the keys are announced again.
+    */
+   private static class CommandKeys
+   {
+      /**
+       * The commands whose hash code of the id is unique mapped to the hash code of their id
+       */
+      private final Map<Integer, RemoteCommand> keys;
+
+      /**
+       * The members to which the key of each command has been announced
+       */
+      private final ConcurrentMap<String, Set<Address>> announced = new ConcurrentHashMap<String, Set<Address>>();
+
+      private CommandKeys(Map<String, RemoteCommand> commands)
+      {
+         Map<Integer, RemoteCommand> keys = new HashMap<Integer, RemoteCommand>();
+         Set<Integer> duplicates = new HashSet<Integer>();
+         for (RemoteCommand command : commands.values())
+         {
+            Integer key = command.getId().hashCode();
+            if (keys.put(key, command) != null)
+            {
+               duplicates.add(key);
+            }
+         }
+         keys.keySet().removeAll(duplicates);
+         this.keys = keys;
+      }
+
+      private boolean isKeyed(RemoteCommand command)
+      {
+         return keys.get(command.getId().hashCode()) == command;
+      }
+
+      /**
+       * Indicates whether the key of the given command has been announced to all the given members
+       */
+      private boolean isAnnounced(RemoteCommand command, List<Address> dests)
+      {
+         Set<Address> members = announced.get(command.getId());
+         return members != null && members.containsAll(dests);
+      }
+
+      /**
+       * Called once the given member has successfully responded to the given command, its
+       * key has then been announced to this member
+       */
+      private void announced(RemoteCommand command, Address member)
+      {
+         if (!isKeyed(command))
+         {
+            return;
+         }
+         Set<Address> members = announced.get(command.getId());
+         if (members == null)
+         {
+            members = Collections.newSetFromMap(new ConcurrentHashMap<Address, Boolean>());
+            Set<Address> existingMembers = announced.putIfAbsent(command.getId(), members);
+            if (existingMembers != null)
+            {
+               members = existingMembers;
+            }
+         }
+         members.add(member);
+      }
+
+      private void retainMembers(List<Address> members)
+      {
+         for (Set<Address> s : announced.values())
+         {
+            s.retainAll(members);
+         }
+      }
+   }
+
+   /**
+    * The internal command that executes in order all the invocations of a batch of
+    * {@link BatchableCommand}, its arguments are the id of the command and the arguments 
+    * of each invocation.
+    */
+   private class BatchCommand implements RemoteCommand
+   {
+      /**
+       * {@inheritDoc}
+       */
+      public String getId()
+      {
+         return BATCH_COMMAND_ID;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public Serializable execute(Serializable[] args) throws Throwable
+      {
+         String commandId = (String)args[0];
+         RemoteCommand command = getCommand(commandId);
+         if (command == null)
+         {
+            return new RPCException("Command " + commandId + " unkown, please register your command first");
+         }
+         Serializable[] invocations = (Serializable[])args[1];
+         Serializable[] results = new Serializable[invocations.length];
+         for (int i = 0; i < invocations.length; i++)
+         {
+            try
+            {
+               results[i] = command.execute((Serializable[])invocations[i]);
+            }
+            catch (Throwable e) //NOSONAR
+            {
+               if (LOG.isTraceEnabled())
+               {
+                  LOG.trace("Problems invoking command.", e);
+               }
+               results[i] = new RPCException("Cannot execute the command " + commandId, e);
+            }
+         }
+         return results;
+      }
+   }
+
    /**
     * All the potential states of the {@link RPCServiceImpl}
     */
@@ -0,0 +1,464 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc.impl;
+
+import org.exoplatform.services.rpc.BatchableCommand;
+import org.exoplatform.services.rpc.RPCException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Groups the invocations of a {@link BatchableCommand} on all the cluster nodes into batches.
+ * A batch is sent once its window expires or once it is full. Each command has its own window,
+ * the batches of a given command are sent one after the other in order to keep the order of
+ * its invocations while the batches of different commands are sent independently.
+ * 
+ * @version $Id$
+ *
+ */
+class CommandBatcher
+{
+
+   /**
+    * The service used to send the batches
+    */
+   private final AbstractRPCService service;
+
+   /**
+    * The command whose invocations are grouped
+    */
+   private final BatchableCommand command;
+
+   /**
+    * The scheduler used to detect the end of the batch windows
+    */
+   private final ScheduledExecutorService scheduler;
+
+   /**
+    * The executor used to send the batches whose window expired, so that the scheduler
+    * is never blocked by the sending of a batch
+    */
+   private final Executor executor;
+
+   /**
+    * The batches that are closed and waiting to be sent in order
+    */
+   private final Queue<Batch> ready = new ConcurrentLinkedQueue<Batch>();
+
+   /**
+    * Indicates whether a thread is sending the ready batches, only one thread at a time
+    * sends the batches of the command
+    */
+   private final AtomicBoolean sending = new AtomicBoolean();
+
+   /**
+    * The task used to send the ready batches
+    */
+   private final Runnable sendTask = new Runnable()
+   {
+      public void run()
+      {
+         sendReady();
+      }
+   };
+
+   /**
+    * The batch currently filled, guarded by this
+    */
+   private Batch current;
+
+   /**
+    * Indicates whether the batcher has been stopped, guarded by this
+    */
+   private boolean stopped;
+
+   CommandBatcher(AbstractRPCService service, BatchableCommand command, ScheduledExecutorService scheduler,
+      Executor executor)
+   {
+      this.service = service;
+      this.command = command;
+      this.scheduler = scheduler;
+      this.executor = executor;
+   }
+
+   BatchableCommand getCommand()
+   {
+      return command;
+   }
+
+   /**
+    * Adds an invocation of the command to the current batch
+    * @param synchronous indicates whether the caller waits for the result
+    * @param timeout a timeout after which to throw a replication exception.
+    * @param args the arguments of the invocation
+    * @return a list of responses from all the members of the cluster in synchronous mode, an
+    * empty list otherwise
+    * @throws RPCException in the event of problems.
+    */
+   List<Object> execute(boolean synchronous, long timeout, Serializable[] args) throws RPCException
+   {
+      Invocation invocation;
+      boolean full;
+      Batch created = null;
+      synchronized (this)
+      {
+         if (stopped)
+         {
+            throw new RPCException("The invocations of the command " + command.getId()
+               + " cannot be sent anymore since the batcher has been stopped");
+         }
+         if (current == null)
+         {
+            created = current = new Batch(command.isCoalescable());
+         }
+         invocation = current.add(synchronous, timeout, args);
+         // The batch is closed under the lock so that no invocation can be added to a full batch
+         full = current.size() >= command.getMaxBatchSize() && close(current);
+      }
+      if (full)
+      {
+         sendReady();
+      }
+      else if (created != null)
+      {
+         final Batch batch = created;
+         try
+         {
+            scheduler.schedule(new Runnable()
+            {
+               public void run()
+               {
+                  if (close(batch))
+                  {
+                     dispatch();
+                  }
+               }
+            }, command.getBatchWindow(), TimeUnit.MILLISECONDS);
+         }
+         catch (RejectedExecutionException e)
+         {
+            // The service is stopping
+            if (close(batch))
+            {
+               sendReady();
+            }
+         }
+      }
+      return synchronous ? invocation.get(command.getBatchWindow(), timeout) : Collections.emptyList();
+   }
+
+   /**
+    * Sends the current batch if any
+    */
+   void flush()
+   {
+      Batch batch;
+      synchronized (this)
+      {
+         batch = current;
+      }
+      if (batch != null && close(batch))
+      {
+         sendReady();
+      }
+   }
+
+   /**
+    * Sends the current batch if any and rejects the next invocations, the invocations that
+    * cannot be sent anymore fail
+    */
+   void stop()
+   {
+      synchronized (this)
+      {
+         stopped = true;
+      }
+      flush();
+   }
+
+   /**
+    * Closes the given batch if it is still the current batch, a closed batch is ready to be sent
+    * @return <code>true</code> if the batch has been closed by this call, <code>false</code>
+    * if it was already closed
+    */
+   private synchronized boolean close(Batch batch)
+   {
+      if (current != batch)
+      {
+         return false;
+      }
+      current = null;
+      ready.add(batch);
+      return true;
+   }
+
+   /**
+    * Sends the ready batches with the executor, they are sent by the calling thread
+    * if the executor is not available anymore
+    */
+   private void dispatch()
+   {
+      try
+      {
+         executor.execute(sendTask);
+      }
+      catch (RejectedExecutionException e)
+      {
+         // The service is stopping
+         sendReady();
+      }
+   }
+
+   /**
+    * Sends in order the ready batches unless another thread is already sending them
+    */
+   private void sendReady()
+   {
+      while (!ready.isEmpty() && sending.compareAndSet(false, true))
+      {
+         try
+         {
+            Batch batch;
+            while ((batch = ready.poll()) != null)
+            {
+               send(batch);
+            }
+         }
+         finally
+         {
+            sending.set(false);
+         }
+      }
+   }
+
+   /**
+    * Sends the given batch and gives back the result of each invocation
+    */
+   private void send(Batch batch)
+   {
+      List<Invocation> invocations = batch.invocations;
+      Serializable[][] args = new Serializable[invocations.size()][];
+      for (int i = 0; i < args.length; i++)
+      {
+         args[i] = invocations.get(i).args;
+      }
+      try
+      {
+         List<Object> responses = executeBatch(batch.synchronous, batch.timeout, args);
+         for (int i = 0; i < args.length; i++)
+         {
+            List<Object> results = new ArrayList<Object>(responses.size());
+            for (Object response : responses)
+            {
+               // A response that is not an array is an error that concerns the whole batch
+               results.add(response instanceof Object[] ? ((Object[])response)[i] : response);
+            }
+            invocations.get(i).setResult(results);
+         }
+      }
+      catch (RPCException e)
+      {
+         for (Invocation invocation : invocations)
+         {
+            invocation.setError(e);
+         }
+      }
+      catch (RuntimeException e)
+      {
+         RPCException error = new RPCException("Could not send the batch of the command " + command.getId(), e);
+         for (Invocation invocation : invocations)
+         {
+            invocation.setError(error);
+         }
+      }
+   }
+
+   /**
+    * Executes the given batch of invocations on all the cluster nodes
+    * @see AbstractRPCService#executeBatch(BatchableCommand, boolean, long, Serializable[][])
+    */
+   List<Object> executeBatch(boolean synchronous, long timeout, Serializable[][] args) throws RPCException
+   {
+      return service.executeBatch(command, synchronous, timeout, args);
+   }
+
+   /**
+    * A group of invocations sent as one message
+    */
+   private static class Batch
+   {
+      private final List<Invocation> invocations = new ArrayList<Invocation>();
+
+      /**
+       * The invocations mapped to their arguments, only used to merge the duplicate invocations
+       */
+      private final Map<ArgumentsKey, Invocation> index;
+
+      private boolean synchronous;
+
+      private long timeout;
+
+      Batch(boolean coalescable)
+      {
+         this.index = coalescable ? new HashMap<ArgumentsKey, Invocation>() : null;
+      }
+
+      Invocation add(boolean synchronous, long timeout, Serializable[] args)
+      {
+         if (invocations.isEmpty())
+         {
+            this.timeout = timeout;
+         }
+         else if (timeout <= 0 || this.timeout <= 0)
+         {
+            this.timeout = 0;
+         }
+         else
+         {
+            this.timeout = Math.max(this.timeout, timeout);
+         }
+         this.synchronous |= synchronous;
+         if (index != null)
+         {
+            ArgumentsKey key = new ArgumentsKey(args);
+            Invocation invocation = index.get(key);
+            if (invocation == null)
+            {
+               invocation = new Invocation(args);
+               index.put(key, invocation);
+               invocations.add(invocation);
+            }
+            return invocation;
+         }
+         Invocation invocation = new Invocation(args);
+         invocations.add(invocation);
+         return invocation;
+      }
+
+      int size()
+      {
+         return invocations.size();
+      }
+   }
+
+   /**
+    * An invocation of the command whose result is given once the batch has been sent
+    */
+   private static class Invocation
+   {
+      private final Serializable[] args;
+
+      private final CountDownLatch done = new CountDownLatch(1);
+
+      private volatile List<Object> result;
+
+      private volatile RPCException error;
+
+      Invocation(Serializable[] args)
+      {
+         this.args = args;
+      }
+
+      void setResult(List<Object> result)
+      {
+         this.result = result;
+         done.countDown();
+      }
+
+      void setError(RPCException error)
+      {
+         this.error = error;
+         done.countDown();
+      }
+
+      /**
+       * Waits for the result of the invocation, the invocation may wait up to the batch window
+       * before being sent
+       * @param window the batch window in milliseconds
+       * @param timeout the timeout of the invocation, the result is awaited without time limit if
+       * it is not positive
+       */
+      List<Object> get(long window, long timeout) throws RPCException
+      {
+         try
+         {
+            if (timeout <= 0)
+            {
+               done.await();
+            }
+            else if (!done.await(window + timeout, TimeUnit.MILLISECONDS))
+            {
+               throw new RPCException("Batch timeout after " + (window + timeout) + " ms");
+            }
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new RPCException("Interrupted while waiting for the result of the batch", e);
+         }
+         if (error != null)
+         {
+            throw new RPCException(error.getMessage(), error);
+         }
+         return result;
+      }
+   }
+
+   /**
+    * The key used to detect the invocations with the same arguments
+    */
+   private static class ArgumentsKey
+   {
+      private final Serializable[] args;
+
+      private final int hash;
+
+      ArgumentsKey(Serializable[] args)
+      {
+         this.args = args;
+         this.hash = Arrays.deepHashCode(args);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         return o instanceof ArgumentsKey && Arrays.deepEquals(args, ((ArgumentsKey)o).args);
+      }
+   }
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc.impl;
+
+import org.exoplatform.commons.utils.ClassLoading;
+import org.exoplatform.services.rpc.RPCMarshaller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The default {@link RPCMarshaller}, it writes a one byte tag followed by a compact binary form
+ * for the primitive wrappers, the strings, the arrays and the registered {@link Externalizable} 
+ * types, any other {@link Serializable} object is written using the Java serialization.
+ * The registered {@link Externalizable} types are identified by the hash code of their name, 
+ * so they must be registered on all the cluster nodes.
+ * 
+ * @version $Id$
+ *
+ */
+public class CompactRPCMarshaller implements RPCMarshaller
+{
+
+   private static final byte NULL = 0;
+
+   private static final byte TRUE = 1;
+
+   private static final byte FALSE = 2;
+
+   private static final byte BYTE = 3;
+
+   private static final byte SHORT = 4;
+
+   private static final byte CHAR = 5;
+
+   private static final byte INT = 6;
+
+   private static final byte LONG = 7;
+
+   private static final byte FLOAT = 8;
+
+   private static final byte DOUBLE = 9;
+
+   private static final byte STRING = 10;
+
+   private static final byte LONG_STRING = 11;
+
+   private static final byte BOOLEAN_ARRAY = 12;
+
+   private static final byte BYTE_ARRAY = 13;
+
+   private static final byte SHORT_ARRAY = 14;
+
+   private static final byte CHAR_ARRAY = 15;
+
+   private static final byte INT_ARRAY = 16;
+
+   private static final byte LONG_ARRAY = 17;
+
+   private static final byte FLOAT_ARRAY = 18;
+
+   private static final byte DOUBLE_ARRAY = 19;
+
+   private static final byte STRING_ARRAY = 20;
+
+   private static final byte OBJECT_ARRAY = 21;
+
+   private static final byte EXTERNALIZABLE = 22;
+
+   private static final byte SERIALIZABLE = 23;
+
+   /**
+    * The maximum length of a string that can always be written with {@link ObjectOutput#writeUTF(String)}
+    */
+   private static final int MAX_UTF_LENGTH = 65535 / 3;
+
+   /**
+    * The registered {@link Externalizable} types
+    */
+   private volatile Map<Integer, Class<? extends Externalizable>> types =
+      new HashMap<Integer, Class<? extends Externalizable>>();
+
+   /**
+    * Registers a new {@link Externalizable} type, the type must have a public constructor without
+    * parameters
+    * @param type the type to register
+    * @throws IllegalArgumentException if another type with the same identifier has already been registered
+    */
+   public synchronized void registerType(Class<? extends Externalizable> type)
+   {
+      Integer id = type.getName().hashCode();
+      Class<? extends Externalizable> oldType = types.get(id);
+      if (oldType != null && !oldType.equals(type))
+      {
+         throw new IllegalArgumentException("The type " + type.getName() + " has the same identifier as the type "
+            + oldType.getName());
+      }
+      Map<Integer, Class<? extends Externalizable>> tmpTypes =
+         new HashMap<Integer, Class<? extends Externalizable>>(types);
+      tmpTypes.put(id, type);
+      this.types = tmpTypes;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void writeObject(ObjectOutput out, Object o) throws IOException
+   {
+      if (o == null)
+      {
+         out.writeByte(NULL);
+      }
+      else if (o instanceof String)
+      {
+         writeString(out, (String)o);
+      }
+      else if (o instanceof Integer)
+      {
+         out.writeByte(INT);
+         out.writeInt((Integer)o);
+      }
+      else if (o instanceof Long)
+      {
+         out.writeByte(LONG);
+         out.writeLong((Long)o);
+      }
+      else if (o instanceof Boolean)
+      {
+         out.writeByte((Boolean)o ? TRUE : FALSE);
+      }
+      else if (o instanceof Byte)
+      {
+         out.writeByte(BYTE);
+         out.writeByte((Byte)o);
+      }
+      else if (o instanceof Short)
+      {
+         out.writeByte(SHORT);
+         out.writeShort((Short)o);
+      }
+      else if (o instanceof Character)
+      {
+         out.writeByte(CHAR);
+         out.writeChar((Character)o);
+      }
+      else if (o instanceof Float)
+      {
+         out.writeByte(FLOAT);
+         out.writeFloat((Float)o);
+      }
+      else if (o instanceof Double)
+      {
+         out.writeByte(DOUBLE);
+         out.writeDouble((Double)o);
+      }
+      else if (o.getClass().isArray())
+      {
+         writeArray(out, o);
+      }
+      else if (o instanceof Externalizable && types.get(o.getClass().getName().hashCode()) == o.getClass())
+      {
+         out.writeByte(EXTERNALIZABLE);
+         out.writeInt(o.getClass().getName().hashCode());
+         ((Externalizable)o).writeExternal(out);
+      }
+      else if (o instanceof Serializable)
+      {
+         out.writeByte(SERIALIZABLE);
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         ObjectOutputStream oos = new ObjectOutputStream(bytes);
+         oos.writeObject(o);
+         oos.close();
+         out.writeInt(bytes.size());
+         out.write(bytes.toByteArray());
+      }
+      else
+      {
+         throw new NotSerializableException(o.getClass().getName());
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Object readObject(ObjectInput in) throws IOException, ClassNotFoundException
+   {
+      byte tag = in.readByte();
+      switch (tag)
+      {
+         case NULL :
+            return null;
+         case TRUE :
+            return Boolean.TRUE;
+         case FALSE :
+            return Boolean.FALSE;
+         case BYTE :
+            return in.readByte();
+         case SHORT :
+            return in.readShort();
+         case CHAR :
+            return in.readChar();
+         case INT :
+            return in.readInt();
+         case LONG :
+            return in.readLong();
+         case FLOAT :
+            return in.readFloat();
+         case DOUBLE :
+            return in.readDouble();
+         case STRING :
+            return in.readUTF();
+         case LONG_STRING :
+            return readLongString(in);
+         case EXTERNALIZABLE :
+            return readExternalizable(in);
+         case SERIALIZABLE :
+            return readSerializable(in);
+         default :
+            return readArray(in, tag);
+      }
+   }
+
+   private static void writeString(ObjectOutput out, String s) throws IOException
+   {
+      if (s.length() <= MAX_UTF_LENGTH)
+      {
+         out.writeByte(STRING);
+         out.writeUTF(s);
+      }
+      else
+      {
+         out.writeByte(LONG_STRING);
+         out.writeInt(s.length());
+         out.writeChars(s);
+      }
+   }
+
+   private static String readLongString(ObjectInput in) throws IOException
+   {
+      char[] chars = new char[in.readInt()];
+      for (int i = 0; i < chars.length; i++)
+      {
+         chars[i] = in.readChar();
+      }
+      return new String(chars);
+   }
+
+   private void writeArray(ObjectOutput out, Object array) throws IOException
+   {
+      Class<?> componentType = array.getClass().getComponentType();
+      int length = Array.getLength(array);
+      if (componentType == byte.class)
+      {
+         out.writeByte(BYTE_ARRAY);
+         out.writeInt(length);
+         out.write((byte[])array);
+      }
+      else if (componentType == int.class)
+      {
+         out.writeByte(INT_ARRAY);
+         out.writeInt(length);
+         for (int value : (int[])array)
+         {
+            out.writeInt(value);
+         }
+      }
+      else if (componentType == long.class)
+      {
+         out.writeByte(LONG_ARRAY);
+         out.writeInt(length);
+         for (long value : (long[])array)
+         {
+            out.writeLong(value);
+         }
+      }
+      else if (componentType == boolean.class)
+      {
+         out.writeByte(BOOLEAN_ARRAY);
+         out.writeInt(length);
+         for (boolean value : (boolean[])array)
+         {
+            out.writeBoolean(value);
+         }
+      }
+      else if (componentType == short.class)
+      {
+         out.writeByte(SHORT_ARRAY);
+         out.writeInt(length);
+         for (short value : (short[])array)
+         {
+            out.writeShort(value);
+         }
+      }
+      else if (componentType == char.class)
+      {
+         out.writeByte(CHAR_ARRAY);
+         out.writeInt(length);
+         for (char value : (char[])array)
+         {
+            out.writeChar(value);
+         }
+      }
+      else if (componentType == float.class)
+      {
+         out.writeByte(FLOAT_ARRAY);
+         out.writeInt(length);
+         for (float value : (float[])array)
+         {
+            out.writeFloat(value);
+         }
+      }
+      else if (componentType == double.class)
+      {
+         out.writeByte(DOUBLE_ARRAY);
+         out.writeInt(length);
+         for (double value : (double[])array)
+         {
+            out.writeDouble(value);
+         }
+      }
+      else if (componentType == String.class)
+      {
+         out.writeByte(STRING_ARRAY);
+         out.writeInt(length);
+         for (String value : (String[])array)
+         {
+            writeObject(out, value);
+         }
+      }
+      else
+      {
+         out.writeByte(OBJECT_ARRAY);
+         out.writeUTF(componentType.getName());
+         out.writeInt(length);
+         for (Object value : (Object[])array)
+         {
+            writeObject(out, value);
+         }
+      }
+   }
+
+   private Object readArray(ObjectInput in, byte tag) throws IOException, ClassNotFoundException
+   {
+      switch (tag)
+      {
+         case BYTE_ARRAY :
+         {
+            byte[] array = new byte[in.readInt()];
+            in.readFully(array);
+            return array;
+         }
+         case INT_ARRAY :
+         {
+            int[] array = new int[in.readInt()];
+            for (int i = 0; i < array.length; i++)
+            {
+               array[i] = in.readInt();
+            }
+            return array;
+         }
+         case LONG_ARRAY :
+         {
+            long[] array = new long[in.readInt()];
+            for (int i = 0; i < array.length; i++)
+            {
+               array[i] = in.readLong();
+            }
+            return array;
+         }
+         case BOOLEAN_ARRAY :
+         {
+            boolean[] array = new boolean[in.readInt()];
+            for (int i = 0; i < array.length; i++)
+            {
+               array[i] = in.readBoolean();
+            }
+            return array;
+         }
+         case SHORT_ARRAY :
+         {
+            short[] array = new short[in.readInt()];
+            for (int i = 0; i < array.length; i++)
+            {
+               array[i] = in.readShort();
+            }
+            return array;
+         }
+         case CHAR_ARRAY :
+         {
+            char[] array = new char[in.readInt()];
+            for (int i = 0; i < array.length; i++)
+            {
+               array[i] = in.readChar();
+            }
+            return array;
+         }
+         case FLOAT_ARRAY :
+         {
+            float[] array = new float[in.readInt()];
+            for (int i = 0; i < array.length; i++)
+            {
+               array[i] = in.readFloat();
+            }
+            return array;
+         }
+         case DOUBLE_ARRAY :
+         {
+            double[] array = new double[in.readInt()];
+            for (int i = 0; i < array.length; i++)
+            {
+               array[i] = in.readDouble();
+            }
+            return array;
+         }
+         case STRING_ARRAY :
+         {
+            String[] array = new String[in.readInt()];
+            for (int i = 0; i < array.length; i++)
+            {
+               array[i] = (String)readObject(in);
+            }
+            return array;
+         }
+         case OBJECT_ARRAY :
+         {
+            String componentTypeName = in.readUTF();
+            Class<?> componentType =
+               componentTypeName.charAt(0) == '[' ? Class.forName(componentTypeName, false, getClass()
+                  .getClassLoader()) : ClassLoading.forName(componentTypeName, this);
+            Object[] array = (Object[])Array.newInstance(componentType, in.readInt());
+            for (int i = 0; i < array.length; i++)
+            {
+               array[i] = readObject(in);
+            }
+            return array;
+         }
+         default :
+            throw new StreamCorruptedException("Unknown tag " + tag);
+      }
+   }
+
+   private Object readExternalizable(ObjectInput in) throws IOException, ClassNotFoundException
+   {
+      int id = in.readInt();
+      Class<? extends Externalizable> type = types.get(id);
+      if (type == null)
+      {
+         throw new ClassNotFoundException("No Externalizable type has been registered with the identifier " + id);
+      }
+      Externalizable o;
+      try
+      {
+         o = type.newInstance();
+      }
+      catch (Exception e)
+      {
+         InvalidClassException ice =
+            new InvalidClassException(type.getName(), "A public constructor without parameters is expected");
+         ice.initCause(e);
+         throw ice;
+      }
+      o.readExternal(in);
+      return o;
+   }
+
+   private Object readSerializable(ObjectInput in) throws IOException, ClassNotFoundException
+   {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))
+      {
+         @Override
+         protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+         {
+            try
+            {
+               return ClassLoading.forName(desc.getName(), CompactRPCMarshaller.class);
+            }
+            catch (ClassNotFoundException e)
+            {
+               return super.resolveClass(desc);
+            }
+         }
+      };
+      try
+      {
+         return ois.readObject();
+      }
+      finally
+      {
+         ois.close();
+      }
+   }
+}
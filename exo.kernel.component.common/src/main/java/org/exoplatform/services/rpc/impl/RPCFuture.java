@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc.impl;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.rpc.RPCException;
+import org.exoplatform.services.rpc.ResponseListener;
+import org.jgroups.Address;
+import org.jgroups.blocks.RspFilter;
+import org.jgroups.util.RspList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The future of the responses of a command executed asynchronously on several cluster nodes. It is
+ * also the {@link RspFilter} of the corresponding request in order to notify the {@link ResponseListener}
+ * each time a response is received and to complete the request as soon as the expected amount of 
+ * responses has been received.
+ * 
+ * @version $Id$
+ *
+ */
+class RPCFuture implements Future<List<Object>>, RspFilter
+{
+
+   /**
+    * The logger
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.common.RPCFuture");
+
+   /**
+    * The value used to store a <code>null</code> response
+    */
+   private static final Object NULL = new Object();
+
+   /**
+    * The list of members on which the command is executed
+    */
+   private final List<Address> dests;
+
+   /**
+    * The total amount of responses expected
+    */
+   private final int expectedResponses;
+
+   /**
+    * The maximum amount of time in milliseconds to wait for the responses, 0 to wait forever
+    */
+   private final long timeout;
+
+   /**
+    * The listener to notify each time a response is received
+    */
+   private final ResponseListener listener;
+
+   /**
+    * The responses received so far
+    */
+   private final ConcurrentMap<Address, Object> received = new ConcurrentHashMap<Address, Object>();
+
+   /**
+    * The total amount of responses received so far
+    */
+   private final AtomicInteger count = new AtomicInteger();
+
+   /**
+    * The future of the underlying request
+    */
+   private volatile Future<RspList<Object>> responses;
+
+   RPCFuture(List<Address> dests, int expectedResponses, long timeout, ResponseListener listener)
+   {
+      this.dests = dests;
+      this.expectedResponses = expectedResponses;
+      this.timeout = timeout;
+      this.listener = listener;
+   }
+
+   long getTimeout()
+   {
+      return timeout;
+   }
+
+   void setResponses(Future<RspList<Object>> responses)
+   {
+      this.responses = responses;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean isAcceptable(Object response, Address sender)
+   {
+      if (received.putIfAbsent(sender, response == null ? NULL : response) == null)
+      {
+         count.incrementAndGet();
+         if (listener != null)
+         {
+            try
+            {
+               listener.onResponse(String.valueOf(sender), response);
+            }
+            catch (Exception e)
+            {
+               LOG.warn("An error occurs with the response listener of type " + listener.getClass(), e);
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean needMoreResponses()
+   {
+      return count.get() < expectedResponses;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean cancel(boolean mayInterruptIfRunning)
+   {
+      return responses.cancel(mayInterruptIfRunning);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean isCancelled()
+   {
+      return responses.isCancelled();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean isDone()
+   {
+      return responses.isDone();
+   }
+
+   /**
+    * Waits for the responses at most the timeout of the request. If the timeout expires, the
+    * request is cancelled and the result is built from the responses received so far.
+    */
+   public List<Object> get() throws InterruptedException, ExecutionException
+   {
+      if (timeout <= 0)
+      {
+         return getResults(responses.get());
+      }
+      try
+      {
+         return getResults(responses.get(timeout, TimeUnit.MILLISECONDS));
+      }
+      catch (TimeoutException e)
+      {
+         responses.cancel(false);
+         return getReceivedResults();
+      }
+   }
+
+   /**
+    * Waits for the responses at most the given timeout, if it expires a {@link TimeoutException}
+    * is thrown and the request goes on until its own timeout. If the given timeout is not shorter
+    * than the timeout of the request, it behaves like {@link #get()}.
+    */
+   public List<Object> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+      TimeoutException
+   {
+      if (this.timeout > 0 && unit.toMillis(timeout) >= this.timeout)
+      {
+         return get();
+      }
+      return getResults(responses.get(timeout, unit));
+   }
+
+   /**
+    * Builds the results from the responses of the underlying request
+    */
+   private List<Object> getResults(RspList<Object> rsps)
+   {
+      return AbstractRPCService.getResults(dests, rsps, expectedResponses < dests.size());
+   }
+
+   /**
+    * Builds the results from the responses received so far, the errors are given as
+    * {@link RPCException} like for the responses of the underlying request
+    */
+   private List<Object> getReceivedResults()
+   {
+      boolean partial = expectedResponses < dests.size();
+      List<Object> results = new ArrayList<Object>(dests.size());
+      for (Address dest : dests)
+      {
+         Object response = received.get(dest);
+         if (response == NULL)
+         {
+            results.add(null);
+         }
+         else if (response instanceof Throwable && !(response instanceof RPCException))
+         {
+            results.add(new RPCException("Cannot execute the command on " + dest, (Throwable)response));
+         }
+         else if (response != null)
+         {
+            if (response instanceof RPCException && LOG.isTraceEnabled())
+            {
+               LOG.trace("Recieved exception'" + response + "' from " + dest, (RPCException)response);
+            }
+            results.add(response);
+         }
+         else if (!partial)
+         {
+            results.add(new RPCException("Replication timeout for " + dest));
+         }
+      }
+      return results;
+   }
+}
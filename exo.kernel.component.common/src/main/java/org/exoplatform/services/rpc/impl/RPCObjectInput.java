@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc.impl;
+
+import org.exoplatform.services.rpc.RPCMarshaller;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+
+/**
+ * An {@link ObjectInput} that reads from a byte array and delegates the deserialization of
+ * the objects to a {@link RPCMarshaller}.
+ * 
+ * @version $Id$
+ *
+ */
+class RPCObjectInput extends DataInputStream implements ObjectInput
+{
+
+   /**
+    * The marshaller to which the deserialization of the objects is delegated
+    */
+   private final RPCMarshaller marshaller;
+
+   RPCObjectInput(RPCMarshaller marshaller, byte[] buffer, int offset, int length)
+   {
+      super(new ByteArrayInputStream(buffer, offset, length));
+      this.marshaller = marshaller;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Object readObject() throws ClassNotFoundException, IOException
+   {
+      return marshaller.readObject(this);
+   }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc.impl;
+
+import org.exoplatform.services.rpc.RPCMarshaller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectOutput;
+
+/**
+ * An {@link ObjectOutput} that writes into a byte array and delegates the serialization of
+ * the objects to a {@link RPCMarshaller}. The instances are pooled per thread to prevent
+ * allocating a new buffer for each message.
+ * 
+ * @version $Id$
+ *
+ */
+class RPCObjectOutput extends DataOutputStream implements ObjectOutput
+{
+
+   /**
+    * The initial size of the buffer
+    */
+   private static final int INITIAL_SIZE = 512;
+
+   /**
+    * The size above which a buffer is not kept in the pool in order to prevent any memory leak
+    */
+   private static final int MAX_POOLED_SIZE = 64 * 1024;
+
+   /**
+    * The instances available for each thread
+    */
+   private static final ThreadLocal<RPCObjectOutput> POOL = new ThreadLocal<RPCObjectOutput>()
+   {
+      @Override
+      protected RPCObjectOutput initialValue()
+      {
+         return new RPCObjectOutput();
+      }
+   };
+
+   /**
+    * The marshaller to which the serialization of the objects is delegated
+    */
+   private RPCMarshaller marshaller;
+
+   /**
+    * Indicates whether the instance is currently used
+    */
+   private boolean inUse;
+
+   private RPCObjectOutput()
+   {
+      super(new ByteArrayOutputStream(INITIAL_SIZE));
+   }
+
+   /**
+    * Converts the given object into a byte array using the given marshaller
+    * @param marshaller the marshaller to use to serialize the objects
+    * @param o the object to convert
+    * @return the content of the object as a byte array
+    * @throws IOException if the object could not be converted
+    */
+   static byte[] marshall(RPCMarshaller marshaller, Externalizable o) throws IOException
+   {
+      RPCObjectOutput output = POOL.get();
+      boolean pooled = !output.inUse;
+      if (!pooled)
+      {
+         // Reentrant call
+         output = new RPCObjectOutput();
+      }
+      ByteArrayOutputStream buffer = (ByteArrayOutputStream)output.out;
+      output.inUse = true;
+      output.marshaller = marshaller;
+      try
+      {
+         o.writeExternal(output);
+         output.flush();
+         return buffer.toByteArray();
+      }
+      finally
+      {
+         output.marshaller = null;
+         output.inUse = false;
+         output.written = 0;
+         if (pooled && buffer.size() > MAX_POOLED_SIZE)
+         {
+            POOL.remove();
+         }
+         else
+         {
+            buffer.reset();
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void writeObject(Object obj) throws IOException
+   {
+      marshaller.writeObject(this, obj);
+   }
+}
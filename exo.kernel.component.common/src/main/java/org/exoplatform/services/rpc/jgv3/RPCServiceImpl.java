@@ -29,9 +29,11 @@ import org.jgroups.Message;
 import org.jgroups.View;
 import org.jgroups.blocks.RequestOptions;
 import org.jgroups.blocks.ResponseMode;
+import org.jgroups.blocks.RspFilter;
 import org.jgroups.util.RspList;
 
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * This class is the implementation of the {@link AbstractRPCService} for JGroups 3.
@@ -70,31 +72,44 @@ public class RPCServiceImpl extends AbstractRPCService
    /**
     * {@inheritDoc}
     */
-   protected Channel createChannel() throws Exception
+   protected Future<RspList<Object>> castMessageWithFuture(List<Address> dests, Message msg, RspFilter filter,
+      long timeout) throws Exception
    {
-      return new JChannel(configurator);
+      RequestOptions options = new RequestOptions(ResponseMode.GET_ALL, timeout);
+      options.setRspFilter(filter);
+      return dispatcher.castMessageWithFuture(dests, msg, options);
    }
 
    /**
     * {@inheritDoc}
     */
-   public void unblock()
+   protected Object sendMessage(Address dest, Message msg, boolean synchronous, long timeout) throws Exception
    {
+      msg.setDest(dest);
+      return dispatcher.sendMessage(msg, new RequestOptions(synchronous ? ResponseMode.GET_FIRST
+         : ResponseMode.GET_NONE, timeout));
    }
 
    /**
     * {@inheritDoc}
     */
-   protected List<Address> getMembers(View view)
+   protected Channel createChannel() throws Exception
    {
-      return view.getMembers();
+      return new JChannel(configurator);
    }
 
    /**
     * {@inheritDoc}
     */
-   protected void setObject(Message m, Object o)
+   public void unblock()
    {
-      m.setObject(o);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   protected List<Address> getMembers(View view)
+   {
+      return view.getMembers();
    }
 }
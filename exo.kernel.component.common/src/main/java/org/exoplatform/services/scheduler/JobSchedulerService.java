@@ -33,6 +33,7 @@ import org.quartz.TriggerListener;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by The eXo Platform SAS Author : Hoa Pham hoapham@exoplatform.com Oct
@@ -97,6 +98,15 @@ public interface JobSchedulerService
 
    public void queueTask(Task task);
 
+   /**
+    * Queues the given task that will be executed once the given delay has elapsed
+    * 
+    * @param task the task to execute
+    * @param delay the minimum amount of time to wait before executing the task
+    * @param unit the unit of the delay
+    */
+   public void queueTask(Task task, long delay, TimeUnit unit);
+
    public List<JobExecutionContext> getAllExcutingJobs() throws Exception;
 
    public List<JobDetail> getAllJobs() throws Exception;
@@ -34,12 +34,25 @@ public class PeriodInfo
 
    private long repeatInterval_;
 
+   private boolean lightweight_;
+
    public PeriodInfo(Date startTime, Date endTime, int repeatCount, long repeatInterval)
+   {
+      this(startTime, endTime, repeatCount, repeatInterval, false);
+   }
+
+   /**
+    * @param lightweight indicates whether the job must be fired by the in-memory timer wheel
+    * of the service rather than by Quartz, which is cheaper for high-frequency periodic jobs
+    * but supports neither persistence nor misfire handling
+    */
+   public PeriodInfo(Date startTime, Date endTime, int repeatCount, long repeatInterval, boolean lightweight)
    {
       startTime_ = startTime;
       endTime_ = endTime;
       repeatCount_ = repeatCount;
       repeatInterval_ = repeatInterval;
+      lightweight_ = lightweight;
    }
 
    public PeriodInfo(int repeatCount, long repeatInterval)
@@ -67,4 +80,13 @@ public class PeriodInfo
    {
       return repeatInterval_;
    }
+
+   /**
+    * Indicates whether the job must be fired by the in-memory timer wheel of the service
+    * rather than by Quartz
+    */
+   public boolean isLightweight()
+   {
+      return lightweight_;
+   }
 }
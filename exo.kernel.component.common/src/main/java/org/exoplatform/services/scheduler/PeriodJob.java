@@ -51,7 +51,8 @@ public class PeriodJob extends BaseComponentPlugin
       Date endTime = getDate(props.getProperty("endTime"));
       int repeatCount = Integer.parseInt(props.getProperty("repeatCount"));
       long repeatInterval = Integer.parseInt(props.getProperty("period"));
-      pjinfo_ = new PeriodInfo(startTime, endTime, repeatCount, repeatInterval);
+      boolean lightweight = Boolean.valueOf(props.getProperty("lightweight"));
+      pjinfo_ = new PeriodInfo(startTime, endTime, repeatCount, repeatInterval, lightweight);
    }
 
    private Date getDate(String stime) throws Exception
@@ -24,5 +24,41 @@ package org.exoplatform.services.scheduler;
  */
 abstract public class Task
 {
+   /**
+    * The lowest priority that a task can have
+    */
+   public static final int MIN_PRIORITY = 1;
+
+   /**
+    * The default priority of a task
+    */
+   public static final int NORM_PRIORITY = 5;
+
+   /**
+    * The highest priority that a task can have
+    */
+   public static final int MAX_PRIORITY = 10;
+
    abstract public void execute() throws Exception;
+
+   /**
+    * Gives the priority of the task, the tasks with the highest priority are executed first,
+    * the tasks of same priority are executed in the order they have been queued.
+    * By default it returns {@link #NORM_PRIORITY}.
+    */
+   public int getPriority()
+   {
+      return NORM_PRIORITY;
+   }
+
+   /**
+    * Gives the maximum amount of time in milliseconds that the task is allowed to run, once
+    * exceeded the thread executing the task is interrupted. A value equal to <code>0</code>
+    * means that the default timeout of the queue is used and a negative value means that
+    * the task has no timeout. By default it returns <code>0</code>.
+    */
+   public long getTimeout()
+   {
+      return 0;
+   }
 }
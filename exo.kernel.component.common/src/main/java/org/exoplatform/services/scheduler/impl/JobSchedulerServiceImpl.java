@@ -19,6 +19,7 @@
 package org.exoplatform.services.scheduler.impl;
 
 import org.exoplatform.container.component.ComponentPlugin;
+import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.container.xml.PortalContainerInfo;
 import org.exoplatform.management.annotations.Managed;
 import org.exoplatform.management.annotations.ManagedDescription;
@@ -44,6 +45,7 @@ import org.quartz.JobExecutionContext;
 import org.quartz.JobKey;
 import org.quartz.JobListener;
 import org.quartz.Matcher;
+import org.quartz.ObjectAlreadyExistsException;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.SimpleScheduleBuilder;
@@ -56,11 +58,19 @@ import org.quartz.TriggerListener;
 import org.quartz.impl.matchers.EverythingMatcher;
 import org.quartz.impl.matchers.GroupMatcher;
 import org.quartz.impl.matchers.KeyMatcher;
+import org.quartz.spi.OperableTrigger;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by The eXo Platform SAS
@@ -83,11 +93,67 @@ public class JobSchedulerServiceImpl implements JobSchedulerService, Startable
 
    private final QueueTasks qtasks_;
 
+   /**
+    * The name of the parameter that defines the total amount of threads used to execute
+    * the queued tasks, by default there is only one thread so the tasks are executed one
+    * after the other, a greater value allows to execute them in parallel
+    */
+   public static final String QUEUE_POOL_SIZE = "queuePoolSize";
+
+   /**
+    * The name of the parameter that defines the default maximum amount of time in
+    * milliseconds that a queued task is allowed to run, by default there is no timeout
+    */
+   public static final String QUEUE_TASK_TIMEOUT = "queueTaskTimeout";
+
+   /**
+    * The maximum amount of time in milliseconds to wait for the queued tasks to complete
+    * when the service is stopped
+    */
+   private static final long QUEUE_SHUTDOWN_TIMEOUT = 10000;
+
+   /**
+    * The name of the parameter that defines the duration in milliseconds of a tick of the
+    * timer wheel used to fire the lightweight period jobs, by default it is 10 ms
+    */
+   public static final String TIMER_WHEEL_TICK_DURATION = "timerWheelTickDuration";
+
+   /**
+    * The name of the parameter that defines the total amount of ticks of the timer wheel
+    * used to fire the lightweight period jobs, by default it is 512
+    */
+   public static final String TIMER_WHEEL_SIZE = "timerWheelSize";
+
+   private final TaskQueueExecutor executor_;
+
+   /**
+    * The lightweight period jobs that are fired by the timer wheel
+    */
+   private final ConcurrentMap<JobKey, TimerWheelJob> wheelJobs_ = new ConcurrentHashMap<JobKey, TimerWheelJob>();
+
+   private final long wheelTickDuration_;
+
+   private final int wheelSize_;
+
+   /**
+    * The timer wheel, it is created at the first lightweight period job
+    */
+   private TimerWheel wheel_;
+
+   /**
+    * The executor of the jobs fired by the timer wheel, it is created with the wheel
+    */
+   private ExecutorService wheelExecutor_;
+
    public JobSchedulerServiceImpl(PortalContainerInfo pinfo, QuartzSheduler quartzSchduler, QueueTasks qtasks)
    {
-      scheduler_ = quartzSchduler.getQuartzSheduler();
-      containerName_ = pinfo.getContainerName();
-      qtasks_ = qtasks;
+      this(pinfo, quartzSchduler, qtasks, null);
+   }
+
+   public JobSchedulerServiceImpl(PortalContainerInfo pinfo, QuartzSheduler quartzSchduler, QueueTasks qtasks,
+      InitParams params)
+   {
+      this(pinfo.getContainerName(), quartzSchduler, qtasks, params);
    }
 
    /**
@@ -97,15 +163,102 @@ public class JobSchedulerServiceImpl implements JobSchedulerService, Startable
     * @param qtasks
     */
    public JobSchedulerServiceImpl(QuartzSheduler quartzSchduler, QueueTasks qtasks)
+   {
+      this(quartzSchduler, qtasks, null);
+   }
+
+   /**
+    * For run in Standalone container
+    * 
+    * @param quartzSchduler
+    * @param qtasks
+    * @param params
+    */
+   public JobSchedulerServiceImpl(QuartzSheduler quartzSchduler, QueueTasks qtasks, InitParams params)
+   {
+      this(STANDALONE_CONTAINER_NAME, quartzSchduler, qtasks, params);
+   }
+
+   private JobSchedulerServiceImpl(String containerName, QuartzSheduler quartzSchduler, QueueTasks qtasks,
+      InitParams params)
    {
       scheduler_ = quartzSchduler.getQuartzSheduler();
-      containerName_ = STANDALONE_CONTAINER_NAME;
+      containerName_ = containerName;
       qtasks_ = qtasks;
+      int poolSize = 1;
+      long timeout = 0;
+      long tickDuration = 10;
+      int wheelSize = 512;
+      if (params != null && params.getValueParam(QUEUE_POOL_SIZE) != null)
+      {
+         poolSize = Integer.parseInt(params.getValueParam(QUEUE_POOL_SIZE).getValue());
+      }
+      if (params != null && params.getValueParam(QUEUE_TASK_TIMEOUT) != null)
+      {
+         timeout = Long.parseLong(params.getValueParam(QUEUE_TASK_TIMEOUT).getValue());
+      }
+      if (params != null && params.getValueParam(TIMER_WHEEL_TICK_DURATION) != null)
+      {
+         tickDuration = Long.parseLong(params.getValueParam(TIMER_WHEEL_TICK_DURATION).getValue());
+      }
+      if (params != null && params.getValueParam(TIMER_WHEEL_SIZE) != null)
+      {
+         wheelSize = Integer.parseInt(params.getValueParam(TIMER_WHEEL_SIZE).getValue());
+      }
+      wheelTickDuration_ = tickDuration;
+      wheelSize_ = wheelSize;
+      executor_ = new TaskQueueExecutor(containerName_, Math.max(1, poolSize), timeout);
    }
 
    public void queueTask(Task task)
    {
-      qtasks_.add(task);
+      queueTask(task, 0, TimeUnit.MILLISECONDS);
+   }
+
+   public void queueTask(Task task, long delay, TimeUnit unit)
+   {
+      if (task == null)
+      {
+         throw new IllegalArgumentException("The task cannot be null");
+      }
+      executor_.execute(task, unit.toMillis(delay));
+   }
+
+   @Managed
+   @ManagedDescription("The total amount of queued tasks waiting for a worker")
+   public int getQueueSize()
+   {
+      return executor_.getQueueSize();
+   }
+
+   @Managed
+   @ManagedDescription("The total amount of queued tasks waiting for their delay to elapse")
+   public int getDelayedTasks()
+   {
+      return executor_.getDelayedTasks();
+   }
+
+   @Managed
+   @ManagedDescription("The total amount of queued tasks being executed")
+   public int getActiveTasks()
+   {
+      return executor_.getActiveTasks();
+   }
+
+   @Managed
+   @ManagedDescription("Gives the metrics of the queued tasks")
+   public String getQueueMetrics()
+   {
+      return "workers=" + executor_.getPoolSize() + ", executed=" + executor_.getExecutedTasks() + ", failed="
+         + executor_.getFailedTasks() + ", timedOut=" + executor_.getTimedOutTasks() + ", waitTimes=["
+         + executor_.getWaitTimes() + "], executionTimes=[" + executor_.getExecutionTimes() + "]";
+   }
+
+   @Managed
+   @ManagedDescription("Removes all the metrics of the queued tasks collected so far")
+   public void resetQueueMetrics()
+   {
+      executor_.resetMetrics();
    }
 
    public void addJob(JobDetail job, Trigger trigger) throws Exception
@@ -163,28 +316,7 @@ public class JobSchedulerServiceImpl implements JobSchedulerService, Startable
 
    public void addPeriodJob(JobInfo jinfo, PeriodInfo pinfo) throws Exception
    {
-      int repeat = pinfo.getRepeatCount();
-      Date start = pinfo.getStartTime();
-      JobInfo jobinfo = getJobInfo(jinfo);
-      if (start == null)
-         start = new Date();
-      if (repeat <= 0)
-         repeat = SimpleTrigger.REPEAT_INDEFINITELY;
-      else
-         repeat = repeat - 1;
-      Trigger trigger =
-         TriggerBuilder
-            .newTrigger()
-            .withIdentity(jobinfo.getJobName(), jobinfo.getGroupName())
-            .withSchedule(
-               SimpleScheduleBuilder.simpleSchedule().withRepeatCount(repeat)
-                  .withIntervalInMilliseconds(pinfo.getRepeatInterval())).startAt(start).endAt(pinfo.getEndTime())
-            .build();
-      @SuppressWarnings("unchecked")
-      JobDetail job =
-         JobBuilder.newJob(jobinfo.getJob()).withIdentity(jobinfo.getJobName(), jobinfo.getGroupName())
-            .withDescription(jinfo.getDescription()).build();
-      scheduler_.scheduleJob(job, trigger);
+      addPeriodJob(jinfo, pinfo, null);
    }
 
    public void addPeriodJob(ComponentPlugin plugin) throws Exception
@@ -268,18 +400,88 @@ public class JobSchedulerServiceImpl implements JobSchedulerService, Startable
          JobBuilder.newJob(jobinfo.getJob()).withIdentity(jobinfo.getJobName(), jobinfo.getGroupName())
             .withDescription(jinfo.getDescription());
       JobDetail job = jdatamap == null ? jb.build() : jb.usingJobData(jdatamap).build();
-      scheduler_.scheduleJob(job, trigger);
+      if (pinfo.isLightweight())
+      {
+         addWheelJob(job, trigger, pinfo, start);
+      }
+      else
+      {
+         scheduler_.scheduleJob(job, trigger);
+      }
+   }
+
+   /**
+    * Adds the given job to the timer wheel instead of Quartz
+    */
+   private void addWheelJob(JobDetail job, Trigger trigger, PeriodInfo pinfo, Date start) throws Exception
+   {
+      if (scheduler_.checkExists(job.getKey()))
+      {
+         throw new ObjectAlreadyExistsException(job);
+      }
+      TimerWheelJob wjob =
+         new TimerWheelJob(scheduler_, job, (OperableTrigger)trigger, getWheel(), getWheelExecutor(), wheelJobs_,
+            pinfo.getRepeatInterval(), pinfo.getRepeatCount(), pinfo.getEndTime());
+      if (wheelJobs_.putIfAbsent(job.getKey(), wjob) != null)
+      {
+         throw new ObjectAlreadyExistsException(job);
+      }
+      wjob.start(start);
+   }
+
+   private synchronized TimerWheel getWheel()
+   {
+      if (wheel_ == null)
+      {
+         wheel_ = new TimerWheel(containerName_, wheelTickDuration_, wheelSize_);
+         wheel_.start();
+      }
+      return wheel_;
+   }
+
+   private synchronized ExecutorService getWheelExecutor()
+   {
+      if (wheelExecutor_ == null)
+      {
+         wheelExecutor_ = Executors.newCachedThreadPool(new ThreadFactory()
+         {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+               Thread t = new Thread(r, containerName_ + "-TimerWheelJob-" + counter.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            }
+         });
+      }
+      return wheelExecutor_;
    }
 
    public boolean removeJob(JobInfo jinfo) throws Exception
    {
       JobInfo jobinfo = getJobInfo(jinfo);
+      TimerWheelJob wjob = wheelJobs_.remove(JobKey.jobKey(jobinfo.getJobName(), jobinfo.getGroupName()));
+      if (wjob != null)
+      {
+         wjob.remove();
+         return true;
+      }
       return scheduler_.deleteJob(JobKey.jobKey(jobinfo.getJobName(), jobinfo.getGroupName()));
    }
 
    public List<JobExecutionContext> getAllExcutingJobs() throws Exception
    {
-      return scheduler_.getCurrentlyExecutingJobs();
+      List<JobExecutionContext> jobs = new ArrayList<JobExecutionContext>(scheduler_.getCurrentlyExecutingJobs());
+      for (TimerWheelJob wjob : wheelJobs_.values())
+      {
+         JobExecutionContext context = wjob.getExecutionContext();
+         if (context != null)
+         {
+            jobs.add(context);
+         }
+      }
+      return jobs;
    }
 
    public List<JobDetail> getAllJobs() throws Exception
@@ -294,6 +496,10 @@ public class JobSchedulerServiceImpl implements JobSchedulerService, Startable
             jlist.add(scheduler_.getJobDetail(jkey));
          }
       }
+      for (TimerWheelJob wjob : wheelJobs_.values())
+      {
+         jlist.add(wjob.getJobDetail());
+      }
       return jlist;
    }
 
@@ -481,12 +687,26 @@ public class JobSchedulerServiceImpl implements JobSchedulerService, Startable
 
    public void pauseJob(String jobName, String groupName) throws Exception
    {
-      scheduler_.pauseJob(JobKey.jobKey(jobName, getGroupName(groupName)));
+      JobKey key = JobKey.jobKey(jobName, getGroupName(groupName));
+      TimerWheelJob wjob = wheelJobs_.get(key);
+      if (wjob != null)
+      {
+         wjob.pause();
+         return;
+      }
+      scheduler_.pauseJob(key);
    }
 
    public void resumeJob(String jobName, String groupName) throws Exception
    {
-      scheduler_.resumeJob(JobKey.jobKey(jobName, getGroupName(groupName)));
+      JobKey key = JobKey.jobKey(jobName, getGroupName(groupName));
+      TimerWheelJob wjob = wheelJobs_.get(key);
+      if (wjob != null)
+      {
+         wjob.resume();
+         return;
+      }
+      scheduler_.resumeJob(key);
    }
 
    public void executeJob(String jname, String jgroup, JobDataMap jdatamap) throws Exception
@@ -581,11 +801,48 @@ public class JobSchedulerServiceImpl implements JobSchedulerService, Startable
       {
          LOG.warn("Could not interrupt all the current jobs properly", ex);
       }
+      ExecutorService wheelExecutor;
+      synchronized (this)
+      {
+         if (wheel_ != null)
+         {
+            wheel_.stop();
+         }
+         wheelExecutor = wheelExecutor_;
+      }
+      for (TimerWheelJob wjob : wheelJobs_.values())
+      {
+         wjob.remove();
+      }
+      wheelJobs_.clear();
+      if (wheelExecutor != null)
+      {
+         // Gives the jobs being executed the time to complete like Quartz does
+         wheelExecutor.shutdown();
+         try
+         {
+            if (!wheelExecutor.awaitTermination(QUEUE_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS))
+            {
+               wheelExecutor.shutdownNow();
+            }
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            wheelExecutor.shutdownNow();
+         }
+      }
+      executor_.shutdown(QUEUE_SHUTDOWN_TIMEOUT);
    }
 
    public JobDetail getJob(JobInfo jobInfo) throws Exception
    {
       JobInfo innerJobInfo = getJobInfo(jobInfo);
+      TimerWheelJob wjob = wheelJobs_.get(JobKey.jobKey(innerJobInfo.getJobName(), innerJobInfo.getGroupName()));
+      if (wjob != null)
+      {
+         return wjob.getJobDetail();
+      }
       return scheduler_.getJobDetail(JobKey.jobKey(innerJobInfo.getJobName(), innerJobInfo.getGroupName()));
    }
 
@@ -21,6 +21,7 @@ package org.exoplatform.services.scheduler.impl;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.services.scheduler.BaseJob;
 import org.exoplatform.services.scheduler.JobContext;
+import org.exoplatform.services.scheduler.JobSchedulerService;
 import org.exoplatform.services.scheduler.QueueTasks;
 import org.exoplatform.services.scheduler.Task;
 import org.exoplatform.services.log.ExoLogger;
@@ -44,12 +45,22 @@ public class QueueTaskJob extends BaseJob
    {
       PortalContainer manager = PortalContainer.getInstance();
       QueueTasks qtasks = (QueueTasks)manager.getComponentInstanceOfType(QueueTasks.class);
+      JobSchedulerService service = (JobSchedulerService)manager.getComponentInstanceOfType(JobSchedulerService.class);
       Task task = qtasks.poll();
       while (task != null)
       {
          try
          {
-            task.execute();
+            if (service == null)
+            {
+               task.execute();
+            }
+            else
+            {
+               // The tasks pushed directly into the QueueTasks are moved to the task queue
+               // of the service to be executed by its workers
+               service.queueTask(task);
+            }
          }
          catch (Exception ex)
          {
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.scheduler.impl;
+
+import org.exoplatform.commons.utils.LatencyHistogram;
+import org.exoplatform.commons.utils.SecurityHelper;
+import org.exoplatform.commons.utils.StripedCounter;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.scheduler.Task;
+
+import java.security.PrivilegedAction;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The engine that executes the tasks queued thanks to the {@link JobSchedulerServiceImpl}.
+ * The tasks are executed by a pool of workers in the order of their priority, then in the
+ * order they have been queued. The delayed tasks are kept in a timer until their delay
+ * has elapsed and the same timer is used to interrupt the tasks that exceed their timeout.
+ *
+ * @version $Id$
+ */
+class TaskQueueExecutor
+{
+   /**
+    * The logger
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.common.TaskQueueExecutor");
+
+   /**
+    * The workers executing the tasks
+    */
+   private final ThreadPoolExecutor workers;
+
+   /**
+    * The timer used for the delayed tasks and the timeouts
+    */
+   private final ScheduledThreadPoolExecutor timer;
+
+   /**
+    * The default timeout in milliseconds, a value lower or equal to 0 means no timeout
+    */
+   private final long defaultTimeout;
+
+   /**
+    * The sequence used to keep the order of the tasks of same priority
+    */
+   private final AtomicLong sequence = new AtomicLong();
+
+   /**
+    * The total amount of tasks that are waiting for their delay to elapse
+    */
+   private final AtomicInteger delayed = new AtomicInteger();
+
+   /**
+    * The total amount of tasks that have been executed within their timeout
+    */
+   private final StripedCounter executed = new StripedCounter();
+
+   private final StripedCounter failed = new StripedCounter();
+
+   private final StripedCounter timedOut = new StripedCounter();
+
+   /**
+    * The time spent by the tasks in the queue before being executed
+    */
+   private final LatencyHistogram waitTimes = new LatencyHistogram();
+
+   /**
+    * The time spent to execute the tasks
+    */
+   private final LatencyHistogram executionTimes = new LatencyHistogram();
+
+   /**
+    * Indicates whether the workers have been started
+    */
+   private volatile boolean started;
+
+   TaskQueueExecutor(final String name, int poolSize, long defaultTimeout)
+   {
+      this.defaultTimeout = defaultTimeout;
+      this.workers =
+         new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+               private final AtomicInteger counter = new AtomicInteger();
+
+               public Thread newThread(Runnable r)
+               {
+                  Thread t = new Thread(r, name + "-QueueTaskThread-" + counter.incrementAndGet());
+                  t.setDaemon(true);
+                  return t;
+               }
+            });
+      this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+      {
+         public Thread newThread(Runnable r)
+         {
+            Thread t = new Thread(r, name + "-QueueTaskTimer");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+   }
+
+   /**
+    * Queues the given task that will be executed once the given delay in milliseconds
+    * has elapsed
+    */
+   void execute(Task task, long delay)
+   {
+      final QueuedTask qt = new QueuedTask(task, sequence.getAndIncrement());
+      if (delay > 0)
+      {
+         delayed.incrementAndGet();
+         timer.schedule(new Runnable()
+         {
+            public void run()
+            {
+               delayed.decrementAndGet();
+               enqueue(qt);
+            }
+         }, delay, TimeUnit.MILLISECONDS);
+      }
+      else
+      {
+         enqueue(qt);
+      }
+   }
+
+   private void enqueue(QueuedTask qt)
+   {
+      if (!started)
+      {
+         // All the workers are started at the first task to ensure that every task goes
+         // through the priority queue
+         synchronized (this)
+         {
+            if (!started)
+            {
+               workers.prestartAllCoreThreads();
+               started = true;
+            }
+         }
+      }
+      qt.enqueueTime = System.nanoTime();
+      workers.execute(qt);
+   }
+
+   /**
+    * Stops the engine, the tasks that are still queued are given the provided amount of
+    * time in milliseconds to complete
+    */
+   void shutdown(long timeout)
+   {
+      int pending = timer.shutdownNow().size();
+      workers.shutdown();
+      try
+      {
+         if (!workers.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+         {
+            pending += workers.shutdownNow().size();
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         pending += workers.shutdownNow().size();
+      }
+      if (pending > 0)
+      {
+         LOG.warn(pending + " queued task(s) have been discarded");
+      }
+   }
+
+   /**
+    * Gives the total amount of tasks waiting for a worker
+    */
+   int getQueueSize()
+   {
+      return workers.getQueue().size();
+   }
+
+   /**
+    * Gives the total amount of tasks waiting for their delay to elapse
+    */
+   int getDelayedTasks()
+   {
+      return delayed.get();
+   }
+
+   /**
+    * Gives the total amount of tasks being executed
+    */
+   int getActiveTasks()
+   {
+      return workers.getActiveCount();
+   }
+
+   int getPoolSize()
+   {
+      return workers.getCorePoolSize();
+   }
+
+   long getExecutedTasks()
+   {
+      return executed.get();
+   }
+
+   long getFailedTasks()
+   {
+      return failed.get();
+   }
+
+   long getTimedOutTasks()
+   {
+      return timedOut.get();
+   }
+
+   LatencyHistogram getWaitTimes()
+   {
+      return waitTimes;
+   }
+
+   LatencyHistogram getExecutionTimes()
+   {
+      return executionTimes;
+   }
+
+   void resetMetrics()
+   {
+      executed.reset();
+      failed.reset();
+      timedOut.reset();
+      waitTimes.reset();
+      executionTimes.reset();
+   }
+
+   private static void setCurrentContainer(final ExoContainer container)
+   {
+      SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+      {
+         public Void run()
+         {
+            ExoContainerContext.setCurrentContainer(container);
+            return null;
+         }
+      });
+   }
+
+   /**
+    * A queued task, it is executed within the container that was the current one
+    * when it has been queued.
+    */
+   private class QueuedTask implements Runnable, Comparable<QueuedTask>
+   {
+      private final Task task;
+
+      private final int priority;
+
+      private final long seq;
+
+      private final ExoContainer container;
+
+      private volatile long enqueueTime;
+
+      /**
+       * Indicates whether the task is being executed, it is used to prevent the watchdog
+       * from interrupting the worker once the task is over
+       */
+      private boolean running;
+
+      private boolean expired;
+
+      QueuedTask(Task task, long seq)
+      {
+         this.task = task;
+         this.priority = task.getPriority();
+         this.seq = seq;
+         this.container = ExoContainerContext.getCurrentContainerIfPresent();
+      }
+
+      public int compareTo(QueuedTask o)
+      {
+         if (priority != o.priority)
+         {
+            return priority > o.priority ? -1 : 1;
+         }
+         return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+      }
+
+      public void run()
+      {
+         waitTimes.recordSince(enqueueTime);
+         long timeout = task.getTimeout();
+         if (timeout == 0)
+         {
+            timeout = defaultTimeout;
+         }
+         final Thread worker = Thread.currentThread();
+         ScheduledFuture<?> watchdog = null;
+         ExoContainer previousContainer = ExoContainerContext.getCurrentContainerIfPresent();
+         long start = System.nanoTime();
+         try
+         {
+            synchronized (this)
+            {
+               running = true;
+            }
+            if (timeout > 0)
+            {
+               watchdog = timer.schedule(new Runnable()
+               {
+                  public void run()
+                  {
+                     synchronized (QueuedTask.this)
+                     {
+                        if (running)
+                        {
+                           expired = true;
+                           worker.interrupt();
+                        }
+                     }
+                  }
+               }, timeout, TimeUnit.MILLISECONDS);
+            }
+            if (container != null)
+            {
+               setCurrentContainer(container);
+            }
+            task.execute();
+         }
+         catch (Exception e)
+         {
+            if (!expired)
+            {
+               failed.increment();
+               LOG.error(e.getLocalizedMessage(), e);
+            }
+         }
+         finally
+         {
+            synchronized (this)
+            {
+               running = false;
+            }
+            if (watchdog != null && watchdog.cancel(false))
+            {
+               timer.remove((Runnable)watchdog);
+            }
+            // Clears the interrupted flag to prevent it from leaking into the next task
+            Thread.interrupted();
+            if (container != null)
+            {
+               setCurrentContainer(previousContainer);
+            }
+            executionTimes.recordSince(start);
+            if (expired)
+            {
+               timedOut.increment();
+               LOG.warn("The task " + task + " has exceeded its timeout of " + timeout
+                  + " ms so it has been interrupted");
+            }
+            else
+            {
+               executed.increment();
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.scheduler.impl;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel, the timeouts are spread over a fixed amount of buckets according
+ * to their deadline and a single thread moves from one bucket to the next one at each tick
+ * to fire all the expired timeouts of the bucket at once. Scheduling and cancelling
+ * a timeout are O(1) operations, the counterpart is that the timeouts are fired with an
+ * accuracy of one tick.
+ *
+ * @version $Id$
+ */
+class TimerWheel implements Runnable
+{
+   /**
+    * The logger
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.common.TimerWheel");
+
+   /**
+    * The duration of a tick in nanoseconds
+    */
+   private final long tickDuration;
+
+   /**
+    * The buckets of the wheel, they are only accessed by the thread of the wheel
+    */
+   private final List<Timeout>[] wheel;
+
+   private final int mask;
+
+   /**
+    * The timeouts that have been scheduled since the last tick
+    */
+   private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+
+   private final Thread thread;
+
+   /**
+    * The time at which the wheel has been started
+    */
+   private volatile long startTime;
+
+   private volatile boolean stopped;
+
+   /**
+    * The amount of ticks since the wheel has been started
+    */
+   private long tick;
+
+   @SuppressWarnings("unchecked")
+   TimerWheel(String name, long tickDuration, int ticksPerWheel)
+   {
+      if (tickDuration <= 0)
+      {
+         throw new IllegalArgumentException("The tick duration must be positive");
+      }
+      if (ticksPerWheel <= 0)
+      {
+         throw new IllegalArgumentException("The amount of ticks per wheel must be positive");
+      }
+      this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+      // Rounds the size of the wheel to the next power of 2 to be able to use a mask
+      int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+      size = Math.max(1, size);
+      this.wheel = new List[size];
+      for (int i = 0; i < size; i++)
+      {
+         wheel[i] = new LinkedList<Timeout>();
+      }
+      this.mask = size - 1;
+      this.thread = new Thread(this, name + "-TimerWheel");
+      thread.setDaemon(true);
+   }
+
+   void start()
+   {
+      startTime = System.nanoTime();
+      thread.start();
+   }
+
+   void stop()
+   {
+      stopped = true;
+      thread.interrupt();
+   }
+
+   /**
+    * Schedules the given task that will be fired by the thread of the wheel once the given
+    * delay in milliseconds has elapsed, so it is expected to be fast
+    */
+   Timeout schedule(Runnable task, long delay)
+   {
+      if (stopped)
+      {
+         throw new IllegalStateException("The timer wheel has been stopped");
+      }
+      Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)));
+      pending.add(timeout);
+      return timeout;
+   }
+
+   /**
+    * Gives the total amount of timeouts that have not been fired or cancelled yet
+    */
+   int size()
+   {
+      int size = pending.size();
+      for (List<Timeout> bucket : wheel)
+      {
+         size += bucket.size();
+      }
+      return size;
+   }
+
+   public void run()
+   {
+      List<Timeout> expired = new ArrayList<Timeout>();
+      while (!stopped)
+      {
+         long deadline = startTime + (tick + 1) * tickDuration;
+         long sleep = deadline - System.nanoTime();
+         if (sleep > 0)
+         {
+            try
+            {
+               TimeUnit.NANOSECONDS.sleep(sleep);
+            }
+            catch (InterruptedException e)
+            {
+               if (stopped)
+               {
+                  break;
+               }
+               continue;
+            }
+         }
+         transferPending();
+         List<Timeout> bucket = wheel[(int)(tick & mask)];
+         for (Iterator<Timeout> it = bucket.iterator(); it.hasNext();)
+         {
+            Timeout timeout = it.next();
+            if (timeout.cancelled)
+            {
+               it.remove();
+            }
+            else if (timeout.remainingRounds <= 0)
+            {
+               it.remove();
+               expired.add(timeout);
+            }
+            else
+            {
+               timeout.remainingRounds--;
+            }
+         }
+         tick++;
+         // All the timeouts of the tick are fired together
+         for (int i = 0, length = expired.size(); i < length; i++)
+         {
+            Timeout timeout = expired.get(i);
+            if (timeout.cancelled)
+            {
+               continue;
+            }
+            try
+            {
+               timeout.task.run();
+            }
+            catch (Throwable e)
+            {
+               LOG.error("Could not fire the task " + timeout.task, e);
+            }
+         }
+         expired.clear();
+      }
+   }
+
+   /**
+    * Moves the timeouts scheduled since the last tick into their bucket
+    */
+   private void transferPending()
+   {
+      Timeout timeout;
+      while ((timeout = pending.poll()) != null)
+      {
+         if (timeout.cancelled)
+         {
+            continue;
+         }
+         // The tick at which the timeout expires, it cannot be in the past
+         long expirationTick = Math.max(tick, (timeout.deadline - startTime) / tickDuration);
+         timeout.remainingRounds = (expirationTick - tick) / wheel.length;
+         wheel[(int)(expirationTick & mask)].add(timeout);
+      }
+   }
+
+   /**
+    * A task scheduled in the wheel
+    */
+   static class Timeout
+   {
+      private final Runnable task;
+
+      private final long deadline;
+
+      /**
+       * The amount of turns of the wheel before the timeout expires
+       */
+      private long remainingRounds;
+
+      private volatile boolean cancelled;
+
+      private Timeout(Runnable task, long deadline)
+      {
+         this.task = task;
+         this.deadline = deadline;
+      }
+
+      /**
+       * Cancels the timeout, it will be removed from the wheel lazily
+       */
+      void cancel()
+      {
+         cancelled = true;
+      }
+
+      boolean isCancelled()
+      {
+         return cancelled;
+      }
+   }
+}
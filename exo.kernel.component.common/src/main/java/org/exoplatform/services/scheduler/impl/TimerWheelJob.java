@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.scheduler.impl;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.quartz.Job;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.JobListener;
+import org.quartz.ListenerManager;
+import org.quartz.Matcher;
+import org.quartz.Scheduler;
+import org.quartz.impl.JobExecutionContextImpl;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.TriggerFiredBundle;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A period job that is fired by a {@link TimerWheel} instead of Quartz and executed by
+ * an executor dedicated to the jobs of the wheel, like Quartz does with its own thread
+ * pool, so that the jobs are neither delayed by the queued tasks nor subject to their
+ * timeout. The {@link JobListener} registered in the Quartz scheduler are notified as if
+ * the job were executed by Quartz. A fire is skipped if the previous execution is not
+ * over or if the job or the scheduler is paused, the skipped fires are not counted in
+ * the repeat count.
+ *
+ * @version $Id$
+ */
+class TimerWheelJob implements Runnable
+{
+   /**
+    * The logger
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.common.TimerWheelJob");
+
+   private final Scheduler scheduler;
+
+   private final JobDetail jobDetail;
+
+   private final OperableTrigger trigger;
+
+   private final TimerWheel wheel;
+
+   private final Executor executor;
+
+   /**
+    * The registry of the jobs from which the job removes itself once over
+    */
+   private final ConcurrentMap<JobKey, TimerWheelJob> jobs;
+
+   private final long period;
+
+   /**
+    * The total amount of times the job must be fired, a value lower or equal to 0
+    * means forever
+    */
+   private final int repeatCount;
+
+   private final Date endTime;
+
+   /**
+    * Indicates whether the job is being executed
+    */
+   private final AtomicBoolean running = new AtomicBoolean();
+
+   private volatile boolean paused;
+
+   private volatile boolean removed;
+
+   private volatile TimerWheel.Timeout timeout;
+
+   /**
+    * The context of the current execution of the job, <code>null</code> if it is not running
+    */
+   private volatile JobExecutionContext context;
+
+   /**
+    * The times at which the job is expected to be fired next and at which it has been
+    * executed previously and the total amount of executions, they are only modified by
+    * the thread of the wheel
+    */
+   private volatile long nextFireTime;
+
+   private long previousFireTime;
+
+   private int fired;
+
+   TimerWheelJob(Scheduler scheduler, JobDetail jobDetail, OperableTrigger trigger, TimerWheel wheel,
+      Executor executor, ConcurrentMap<JobKey, TimerWheelJob> jobs, long period, int repeatCount,
+      Date endTime)
+   {
+      if (period <= 0)
+      {
+         throw new IllegalArgumentException("The period of the job " + jobDetail.getKey() + " must be positive");
+      }
+      this.scheduler = scheduler;
+      this.jobDetail = jobDetail;
+      this.trigger = trigger;
+      this.wheel = wheel;
+      this.executor = executor;
+      this.jobs = jobs;
+      this.period = period;
+      this.repeatCount = repeatCount;
+      this.endTime = endTime;
+   }
+
+   JobDetail getJobDetail()
+   {
+      return jobDetail;
+   }
+
+   /**
+    * Schedules the first fire of the job at the given date
+    */
+   void start(Date startTime)
+   {
+      nextFireTime = startTime.getTime();
+      timeout = wheel.schedule(this, nextFireTime - System.currentTimeMillis());
+   }
+
+   /**
+    * Cancels all the next fires of the job
+    */
+   void remove()
+   {
+      removed = true;
+      TimerWheel.Timeout timeout = this.timeout;
+      if (timeout != null)
+      {
+         timeout.cancel();
+      }
+   }
+
+   void pause()
+   {
+      paused = true;
+   }
+
+   void resume()
+   {
+      paused = false;
+   }
+
+   boolean isPaused()
+   {
+      return paused;
+   }
+
+   /**
+    * Gives the context of the current execution of the job
+    * @return the context if the job is being executed, <code>null</code> otherwise
+    */
+   JobExecutionContext getExecutionContext()
+   {
+      return context;
+   }
+
+   /**
+    * Called by the thread of the wheel when the job must be fired
+    */
+   public void run()
+   {
+      if (removed)
+      {
+         return;
+      }
+      final long scheduledFireTime = nextFireTime;
+      final Date previous = previousFireTime == 0 ? null : new Date(previousFireTime);
+      boolean execute = !paused && !isInStandbyMode();
+      if (execute && !running.compareAndSet(false, true))
+      {
+         if (LOG.isDebugEnabled())
+         {
+            LOG.debug("The job " + jobDetail.getKey() + " is still running, the fire is skipped");
+         }
+         execute = false;
+      }
+      if (execute)
+      {
+         fired++;
+         previousFireTime = scheduledFireTime;
+      }
+      scheduleNext(scheduledFireTime);
+      if (!execute)
+      {
+         return;
+      }
+      final Date next = removed ? null : new Date(nextFireTime);
+      try
+      {
+         executor.execute(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  fire(new Date(scheduledFireTime), previous, next);
+               }
+               catch (Exception e)
+               {
+                  LOG.error("The job " + jobDetail.getKey() + " could not be executed", e);
+               }
+               finally
+               {
+                  context = null;
+                  running.set(false);
+               }
+            }
+         });
+      }
+      catch (RuntimeException e)
+      {
+         running.set(false);
+         LOG.warn("Could not execute the job " + jobDetail.getKey() + ": " + e.getMessage());
+      }
+   }
+
+   private void scheduleNext(long scheduledFireTime)
+   {
+      long next = scheduledFireTime + period;
+      if ((repeatCount > 0 && fired >= repeatCount) || (endTime != null && next > endTime.getTime()))
+      {
+         removed = true;
+         jobs.remove(jobDetail.getKey(), this);
+         return;
+      }
+      nextFireTime = next;
+      timeout = wheel.schedule(this, next - System.currentTimeMillis());
+   }
+
+   private boolean isInStandbyMode()
+   {
+      try
+      {
+         return scheduler.isInStandbyMode() || scheduler.isShutdown();
+      }
+      catch (Exception e)
+      {
+         return false;
+      }
+   }
+
+   private void fire(Date scheduledFireTime, Date previousFireTime, Date nextFireTime) throws Exception
+   {
+      Job job = (Job)jobDetail.getJobClass().newInstance();
+      TriggerFiredBundle bundle =
+         new TriggerFiredBundle(jobDetail, trigger, null, false, new Date(), scheduledFireTime, previousFireTime,
+            nextFireTime);
+      JobExecutionContextImpl context = new JobExecutionContextImpl(scheduler, bundle, job);
+      this.context = context;
+      List<JobListener> listeners = getListeners();
+      for (int i = 0, length = listeners.size(); i < length; i++)
+      {
+         try
+         {
+            listeners.get(i).jobToBeExecuted(context);
+         }
+         catch (Exception e)
+         {
+            LOG.error("The job listener " + listeners.get(i).getName() + " failed", e);
+         }
+      }
+      JobExecutionException exception = null;
+      long start = System.currentTimeMillis();
+      try
+      {
+         job.execute(context);
+      }
+      catch (JobExecutionException e)
+      {
+         exception = e;
+      }
+      catch (RuntimeException e)
+      {
+         exception = new JobExecutionException(e);
+      }
+      context.setJobRunTime(System.currentTimeMillis() - start);
+      for (int i = 0, length = listeners.size(); i < length; i++)
+      {
+         try
+         {
+            listeners.get(i).jobWasExecuted(context, exception);
+         }
+         catch (Exception e)
+         {
+            LOG.error("The job listener " + listeners.get(i).getName() + " failed", e);
+         }
+      }
+      if (exception != null)
+      {
+         LOG.error("The job " + jobDetail.getKey() + " failed", exception);
+      }
+   }
+
+   /**
+    * Gives the job listeners registered in the scheduler that match with the job
+    */
+   private List<JobListener> getListeners() throws Exception
+   {
+      List<JobListener> result = new ArrayList<JobListener>();
+      ListenerManager manager = scheduler.getListenerManager();
+      for (JobListener listener : manager.getJobListeners())
+      {
+         List<Matcher<JobKey>> matchers = manager.getJobListenerMatchers(listener.getName());
+         if (matchers == null)
+         {
+            continue;
+         }
+         for (Matcher<JobKey> matcher : matchers)
+         {
+            if (matcher.isMatch(jobDetail.getKey()))
+            {
+               result.add(listener);
+               break;
+            }
+         }
+      }
+      return result;
+   }
+}
@@ -20,11 +20,19 @@ package org.exoplatform.services.compress;
 
 import junit.framework.TestCase;
 
+import org.exoplatform.commons.utils.io.ZipUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * Created by The eXo Platform SAS Author : Chung Nguyen
@@ -96,4 +104,72 @@ public class TestCompressData extends TestCase
       outStream.close();
 
    }
+
+   /**
+    * Checks that the archives created from a directory can be extracted by {@link ZipUtil}
+    * @throws Exception 
+    */
+   public void testCompressDir() throws Exception
+   {
+      File dir = new File("target/compress-dir");
+      File subDir = new File(dir, "sub");
+      subDir.mkdirs();
+      Random random = new Random();
+      Map<String, byte[]> contents = new HashMap<String, byte[]>();
+      for (int i = 0; i < 20; i++)
+      {
+         // Some entries are stored as they are supposed to be already compressed
+         String name = (i % 2 == 0 ? "" : "sub/") + "file" + i + (i % 5 == 0 ? ".png" : ".txt");
+         byte[] content = new byte[random.nextInt(100000)];
+         for (int j = 0; j < content.length; j++)
+         {
+            content[j] = (byte)('a' + random.nextInt(26));
+         }
+         OutputStream os = new FileOutputStream(new File(dir, name));
+         os.write(content);
+         os.close();
+         contents.put(name, content);
+      }
+
+      for (boolean jar : new boolean[]{false, true})
+      {
+         CompressData compressData = new CompressData();
+         compressData.addDir(dir);
+         compressData.addInputStream("stream.txt", new ByteArrayInputStream("eXo".getBytes("UTF-8")));
+         File archive = new File("target/compress-dir." + (jar ? "jar" : "zip"));
+         if (jar)
+         {
+            compressData.createJar(new FileOutputStream(archive));
+         }
+         else
+         {
+            compressData.createZip(new FileOutputStream(archive));
+         }
+
+         File output = new File("target/compress-dir-" + (jar ? "jar" : "zip"));
+         new ZipUtil().extractFromArchive(archive, output.getPath() + "/");
+         for (Map.Entry<String, byte[]> entry : contents.entrySet())
+         {
+            File file = new File(output, "compress-dir/" + entry.getKey());
+            assertTrue(file.getPath(), file.isFile());
+            assertTrue(file.getPath(), Arrays.equals(entry.getValue(), readFully(file)));
+         }
+         assertEquals("eXo", new String(readFully(new File(output, "stream.txt")), "UTF-8"));
+      }
+   }
+
+   private static byte[] readFully(File file) throws Exception
+   {
+      DataInputStream is = new DataInputStream(new FileInputStream(file));
+      try
+      {
+         byte[] result = new byte[(int)file.length()];
+         is.readFully(result);
+         return result;
+      }
+      finally
+      {
+         is.close();
+      }
+   }
 }
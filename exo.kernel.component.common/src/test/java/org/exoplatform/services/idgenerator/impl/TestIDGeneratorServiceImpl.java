@@ -20,13 +20,22 @@ package org.exoplatform.services.idgenerator.impl;
 
 import org.databene.contiperf.PerfTest;
 import org.databene.contiperf.junit.ContiPerfRule;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.idgenerator.IDGeneratorService;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author <a href="mailto:nfilotto@exoplatform.com">Nicolas Filotto</a>
@@ -39,15 +48,36 @@ public class TestIDGeneratorServiceImpl
    public ContiPerfRule rule = new ContiPerfRule();
 
    private IDGeneratorServiceImpl generator;
+   private IDGeneratorServiceImpl sequenceGenerator;
    private AtomicInteger count;
    private ConcurrentMap<String, String> ids;
+   private ConcurrentMap<Long, Long> longIds;
 
    @Before
    public void setUp()
    {
       generator = new IDGeneratorServiceImpl();
+      sequenceGenerator = new IDGeneratorServiceImpl(createParams("sequence", "1"));
       count = new AtomicInteger();
       ids = new ConcurrentHashMap<String, String>();
+      longIds = new ConcurrentHashMap<Long, Long>();
+   }
+
+   private static InitParams createParams(String generator, String nodeId)
+   {
+      InitParams params = new InitParams();
+      ValueParam vp = new ValueParam();
+      vp.setName(IDGeneratorServiceImpl.GENERATOR);
+      vp.setValue(generator);
+      params.addParameter(vp);
+      if (nodeId != null)
+      {
+         vp = new ValueParam();
+         vp.setName(IDGeneratorServiceImpl.NODE_ID);
+         vp.setValue(nodeId);
+         params.addParameter(vp);
+      }
+      return params;
    }
 
    @Test
@@ -64,4 +94,102 @@ public class TestIDGeneratorServiceImpl
          throw new IllegalStateException("The id '" + id + "' already exists");
       }
    }
+
+   @Test
+   @PerfTest(invocations = 750000, threads = 50)
+   public void testConcurrentSequenceCreation() throws Exception
+   {
+      Long id = sequenceGenerator.generateLongID(null);
+      if (longIds.putIfAbsent(id, id) != null)
+      {
+         throw new IllegalStateException("The id '" + id + "' already exists");
+      }
+      String sid = sequenceGenerator.generateStringID(null);
+      if (ids.putIfAbsent(sid, sid) != null)
+      {
+         throw new IllegalStateException("The id '" + sid + "' already exists");
+      }
+   }
+
+   @Test
+   public void testSequence() throws Exception
+   {
+      final int threads = 10;
+      final int idsPerThread = 50000;
+      final long start = System.currentTimeMillis();
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(threads);
+      final AtomicReference<String> error = new AtomicReference<String>();
+      for (int i = 0; i < threads; i++)
+      {
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  long previous = -1;
+                  for (int j = 0; j < idsPerThread; j++)
+                  {
+                     long id = sequenceGenerator.generateLongID(null);
+                     if (id <= previous)
+                     {
+                        error.compareAndSet(null, "The id " + id + " is not greater than " + previous);
+                     }
+                     if (longIds.putIfAbsent(id, id) != null)
+                     {
+                        error.compareAndSet(null, "The id '" + id + "' already exists");
+                     }
+                     previous = id;
+                  }
+               }
+               catch (Exception e)
+               {
+                  error.compareAndSet(null, e.toString());
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      doneSignal.await();
+      assertNull(error.get(), error.get());
+      assertEquals(threads * idsPerThread, longIds.size());
+      for (Long id : longIds.keySet())
+      {
+         assertEquals("Wrong node id", 1, (id >>> SequenceIDGenerator.SEQUENCE_BITS) & SequenceIDGenerator.MAX_NODE_ID);
+         long time = (id >>> (SequenceIDGenerator.SEQUENCE_BITS + SequenceIDGenerator.NODE_BITS)) + SequenceIDGenerator.EPOCH;
+         assertTrue("Wrong timestamp " + time, time >= start - 1
+            && time <= System.currentTimeMillis() + SequenceIDGenerator.MAX_BORROWED_MILLIS);
+      }
+      String sid = sequenceGenerator.generateStringID(null);
+      assertEquals(IDGeneratorService.ID_LENGTH, sid.length());
+      assertTrue(sid.matches("[0-9a-f]+"));
+      assertTrue(sequenceGenerator.generatIntegerID(null) != sequenceGenerator.generatIntegerID(null));
+   }
+
+   @Test
+   public void testStringIDFormat() throws Exception
+   {
+      Object o = new Object();
+      String id = generator.generateStringID(o, 0x123456789abcdef0L, "c0a80001", -1);
+      assertEquals(IDGeneratorService.ID_LENGTH, id.length());
+      assertEquals("9abcdef0c0a80001", id.substring(0, 16));
+      assertEquals(Integer.toHexString(System.identityHashCode(o)), id.substring(16, 24).replaceFirst("^0+(?!$)", ""));
+      assertEquals("ffffffff", id.substring(24));
+      id = generator.generateStringID(o, 1, "c0a80001", 15);
+      assertEquals("00000001c0a80001", id.substring(0, 16));
+      assertEquals("0000000f", id.substring(24));
+      assertEquals(IDGeneratorService.ID_LENGTH, generator.generateStringID(o).length());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testWrongGenerator() throws Exception
+   {
+      new IDGeneratorServiceImpl(createParams("foo", null));
+   }
 }
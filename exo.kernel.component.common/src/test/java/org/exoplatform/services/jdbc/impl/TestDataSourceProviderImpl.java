@@ -27,6 +27,9 @@ import org.exoplatform.services.jdbc.DataSourceProvider;
 import org.exoplatform.services.transaction.TransactionService;
 
 import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.CallableStatement;
@@ -35,6 +38,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
@@ -224,6 +228,107 @@ public class TestDataSourceProviderImpl extends TestCase
       assertFalse(mds.con.committed);
    }
    
+   public void testInstrumentedDataSource() throws Exception
+   {
+      DataSourceProviderImpl dsp = new DataSourceProviderImpl(createInstrumentedParams(1));
+      assertTrue(dsp.isInstrumented(DS_NAME));
+      assertFalse(dsp.isInstrumented("ds-foo"));
+      assertNull(dsp.getDataSourceMetrics(DS_NAME));
+
+      DataSource ds = dsp.getDataSource(DS_NAME);
+      Connection con = ds.getConnection();
+      assertEquals("[" + DS_NAME + "]", dsp.getInstrumentedDataSources());
+      assertTrue(dsp.getDataSourceMetrics(DS_NAME).contains("held=1"));
+      PreparedStatement ps = con.prepareStatement("UPDATE T SET A = ?");
+      assertEquals(1, ps.executeUpdate());
+      ps.close();
+      try
+      {
+         ps.executeUpdate();
+         fail("A SQLException was expected");
+      }
+      catch (SQLException e)
+      {
+         // expected
+      }
+      // The statement is reused
+      ps = con.prepareStatement("UPDATE T SET A = ?");
+      assertEquals(1, ps.executeUpdate());
+      ps.close();
+      assertEquals(1, mds.con.prepared);
+      assertEquals(0, mds.con.closedStatements);
+      // The previous statement is evicted from the cache
+      ps = con.prepareStatement("UPDATE T SET B = ?");
+      ps.close();
+      assertEquals(2, mds.con.prepared);
+      assertEquals(1, mds.con.closedStatements);
+      String report = dsp.getStatementReport(DS_NAME, 10);
+      assertTrue(report.startsWith("UPDATE T SET A = ?: executionTimes=[count=2"));
+      assertTrue(dsp.getDataSourceMetrics(DS_NAME).contains("cacheHits=1, cacheMisses=2"));
+      assertTrue(dsp.getLeakedConnections(DS_NAME, 0).contains("testInstrumentedDataSource"));
+
+      con.close();
+      assertTrue(mds.con.closed);
+      assertEquals(2, mds.con.closedStatements);
+      assertTrue(dsp.getDataSourceMetrics(DS_NAME).contains("held=0"));
+      assertEquals("", dsp.getLeakedConnections(DS_NAME, 0));
+
+      dsp.resetDataSourceMetrics(DS_NAME);
+      assertEquals("", dsp.getStatementReport(DS_NAME, 10));
+   }
+
+   public void testInstrumentedDataSourceStatementReset() throws Exception
+   {
+      DataSourceProviderImpl dsp = new DataSourceProviderImpl(createInstrumentedParams(10));
+      Connection con = dsp.getDataSource(DS_NAME).getConnection();
+
+      // The batch and the result sets are cleared before caching the statement
+      PreparedStatement ps = con.prepareStatement("SELECT A FROM T WHERE B = ?");
+      ps.addBatch();
+      ps.executeQuery();
+      ps.close();
+      assertEquals(1, mds.con.clearedBatches);
+      assertEquals(1, mds.con.closedResultSets);
+      assertEquals(0, mds.con.closedStatements);
+
+      // A statement whose state has been changed is not cached
+      ps = con.prepareStatement("SELECT A FROM T WHERE B = ?");
+      assertEquals(1, mds.con.prepared);
+      ps.setMaxRows(10);
+      ps.getResultSet();
+      ps.close();
+      assertEquals(2, mds.con.closedResultSets);
+      assertEquals(1, mds.con.closedStatements);
+      ps = con.prepareStatement("SELECT A FROM T WHERE B = ?");
+      assertEquals(2, mds.con.prepared);
+      ps.close();
+      con.close();
+   }
+
+   /**
+    * Gives the parameters of an always managed and instrumented {@link #DS_NAME} with
+    * the given statement cache size
+    */
+   private static InitParams createInstrumentedParams(int statementCacheSize)
+   {
+      InitParams params = new InitParams();
+      ValuesParam paramsConf = new ValuesParam();
+      paramsConf.setName(DataSourceProviderImpl.PARAM_INSTRUMENTED_DS);
+      ArrayList<String> values = new ArrayList<String>();
+      values.add(DS_NAME);
+      paramsConf.setValues(values);
+      params.addParameter(paramsConf);
+      ValueParam paramConf = new ValueParam();
+      paramConf.setName(DataSourceProviderImpl.PARAM_STATEMENT_CACHE_SIZE);
+      paramConf.setValue(Integer.toString(statementCacheSize));
+      params.addParameter(paramConf);
+      paramConf = new ValueParam();
+      paramConf.setName(DataSourceProviderImpl.PARAM_ALWAYS_MANAGED);
+      paramConf.setValue("true");
+      params.addParameter(paramConf);
+      return params;
+   }
+
    private static class MyDataSource implements DataSource
    {
       public MyConnection con;
@@ -303,6 +408,16 @@ public class TestDataSourceProviderImpl extends TestCase
    {
 
       public boolean committed;
+
+      public boolean closed;
+
+      public int prepared;
+
+      public int closedStatements;
+
+      public int clearedBatches;
+
+      public int closedResultSets;
       
       /**
        * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
@@ -325,7 +440,42 @@ public class TestDataSourceProviderImpl extends TestCase
        */
       public PreparedStatement prepareStatement(String sql) throws SQLException
       {
-         return null;
+         prepared++;
+         return (PreparedStatement)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{PreparedStatement.class}, new InvocationHandler()
+            {
+               public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+               {
+                  if (method.getName().equals("close"))
+                  {
+                     closedStatements++;
+                  }
+                  else if (method.getName().equals("executeUpdate"))
+                  {
+                     return 1;
+                  }
+                  else if (method.getName().equals("clearBatch"))
+                  {
+                     clearedBatches++;
+                  }
+                  else if (method.getName().equals("executeQuery") || method.getName().equals("getResultSet"))
+                  {
+                     return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class},
+                        new InvocationHandler()
+                        {
+                           public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+                           {
+                              if (method.getName().equals("close"))
+                              {
+                                 closedResultSets++;
+                              }
+                              return null;
+                           }
+                        });
+                  }
+                  return null;
+               }
+            });
       }
 
       /**
@@ -371,6 +521,7 @@ public class TestDataSourceProviderImpl extends TestCase
        */
       public void close() throws SQLException
       {
+         closed = true;
       }
 
       /**
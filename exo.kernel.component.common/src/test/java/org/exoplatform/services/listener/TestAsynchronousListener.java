@@ -18,10 +18,19 @@ package org.exoplatform.services.listener;
 
 import junit.framework.TestCase;
 
+import org.exoplatform.container.ExoContainer;
 import org.exoplatform.container.PortalContainer;
+import org.exoplatform.container.component.ComponentRequestLifecycle;
 import org.exoplatform.container.component.ThreadContext;
 import org.exoplatform.container.component.ThreadContextHolder;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by The eXo Platform SAS.
  * 
@@ -81,7 +90,7 @@ public class TestAsynchronousListener extends TestCase
       final String resultString = "Value become changed";
 
       assertNotNull(service_);
-      Listener<Object, StrValue> listener = new AsynchListener();
+      AsynchListener listener = new AsynchListener();
       listener.setName(listenerName);
       listener.setDescription("Asynchronous listener");
 
@@ -100,6 +109,46 @@ public class TestAsynchronousListener extends TestCase
          assertEquals(resultString + "-suffix", testValue.getValue());
       }
       assertEquals("-suffix", TestHolder.tl.get());
+      assertEquals(Boolean.TRUE, listener.inRequest);
+   }
+
+   public void testAsynchronousListenerWithoutRequestLifeCycle() throws Exception
+   {
+      final String listenerName = "test_asynch_no_rlc";
+      final String baseString = "Value not changed";
+      final String resultString = "Value become changed";
+
+      AsynchListenerWithoutRequestLifeCycle listener = new AsynchListenerWithoutRequestLifeCycle();
+      listener.setName(listenerName);
+      service_.addListener(listener);
+
+      StrValue testValue = new StrValue(baseString);
+      synchronized (testValue)
+      {
+         service_.broadcast(listenerName, new Object(), testValue);
+         assertEquals(baseString, testValue.getValue());
+         testValue.wait();
+         // The context must be propagated even without request life cycle
+         assertEquals(resultString + "-suffix", testValue.getValue());
+      }
+      assertEquals(Boolean.FALSE, listener.inRequest);
+   }
+
+   public void testSharedContext() throws Exception
+   {
+      final String listenerName = "test_asynch_shared";
+      final List<String> values = Collections.synchronizedList(new ArrayList<String>());
+      final CountDownLatch done = new CountDownLatch(3);
+      for (int i = 0; i < 3; i++)
+      {
+         service_.addListener(listenerName, new ContextListener(values, done));
+      }
+      TestHolder.tl.set("-shared");
+      service_.broadcast(listenerName, null, null);
+      // The value changed after the broadcast must not be seen by the listeners
+      TestHolder.tl.set("-suffix");
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(Arrays.asList("-shared", "-shared", "-shared"), values);
    }
 
    public void testSynchronousListener() throws Exception
@@ -200,9 +249,15 @@ public class TestAsynchronousListener extends TestCase
    @Asynchronous
    class AsynchListener extends Listener<Object, StrValue>
    {
+      /**
+       * Indicates whether the listener has been executed within a request life cycle
+       */
+      volatile Boolean inRequest;
+
       @Override
       public void onEvent(Event<Object, StrValue> event) throws Exception
       {
+         inRequest = TestLifeCycle.inRequest.get() != null;
          StrValue value = event.getData();
          //wait
          synchronized (value)
@@ -214,6 +269,32 @@ public class TestAsynchronousListener extends TestCase
       }
    }
 
+   @Asynchronous(requestLifeCycle = false)
+   class AsynchListenerWithoutRequestLifeCycle extends AsynchListener
+   {
+   }
+
+   @Asynchronous(requestLifeCycle = false)
+   static class ContextListener extends Listener<Object, Object>
+   {
+      private final List<String> values;
+
+      private final CountDownLatch done;
+
+      ContextListener(List<String> values, CountDownLatch done)
+      {
+         this.values = values;
+         this.done = done;
+      }
+
+      @Override
+      public void onEvent(Event<Object, Object> event) throws Exception
+      {
+         values.add(TestHolder.tl.get());
+         done.countDown();
+      }
+   }
+
    class SynchListener extends Listener<Object, StrValue>
    {
       @Override
@@ -265,4 +346,19 @@ public class TestAsynchronousListener extends TestCase
          return new ThreadContext(tl);
       }
    }
+
+   public static class TestLifeCycle implements ComponentRequestLifecycle
+   {
+      public static ThreadLocal<Boolean> inRequest = new ThreadLocal<Boolean>();
+
+      public void startRequest(ExoContainer container)
+      {
+         inRequest.set(Boolean.TRUE);
+      }
+
+      public void endRequest(ExoContainer container)
+      {
+         inRequest.remove();
+      }
+   }
 }
@@ -20,7 +20,17 @@ package org.exoplatform.services.listener;
 
 import junit.framework.TestCase;
 
+import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.PortalContainer;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by The eXo Platform SAS Author : Chung Nguyen
@@ -31,6 +41,11 @@ public class TestListenerService extends TestCase
 
    private ListenerService service_;
 
+   /**
+    * The services created by the test, they are stopped once the test is over
+    */
+   private final List<ListenerService> services = new ArrayList<ListenerService>();
+
    public TestListenerService(String name)
    {
       super(name);
@@ -42,6 +57,16 @@ public class TestListenerService extends TestCase
       service_ = (ListenerService)manager.getComponentInstanceOfType(ListenerService.class);
    }
 
+   @Override
+   protected void tearDown() throws Exception
+   {
+      for (ListenerService service : services)
+      {
+         service.stop();
+      }
+      services.clear();
+   }
+
    public void testListener() throws Exception
    {
       assertTrue(service_ != null);
@@ -50,6 +75,257 @@ public class TestListenerService extends TestCase
       handler.setValue("thuan");
    }
 
+   public void testSharedEvent() throws Exception
+   {
+      ListenerService service = createService(1, Integer.MAX_VALUE, null);
+      final List<Event<Object, Object>> events = new ArrayList<Event<Object, Object>>();
+      for (int i = 0; i < 3; i++)
+      {
+         service.addListener("shared", new Listener<Object, Object>()
+         {
+            @Override
+            public void onEvent(Event<Object, Object> event) throws Exception
+            {
+               events.add(event);
+            }
+         });
+      }
+      service.broadcast("shared", "source", "data");
+      assertEquals(3, events.size());
+      assertSame(events.get(0), events.get(1));
+      assertSame(events.get(0), events.get(2));
+      assertEquals("data", events.get(0).getData());
+   }
+
+   public void testOrderingByKey() throws Exception
+   {
+      ListenerService service = createService(4, Integer.MAX_VALUE, null);
+      int sources = 5, eventsBySource = 100;
+      CountDownLatch done = new CountDownLatch(sources * eventsBySource);
+      OrderListener listener = new OrderListener(done, sources);
+      service.addListener("ordering", listener);
+      for (int i = 0; i < eventsBySource; i++)
+      {
+         for (int j = 0; j < sources; j++)
+         {
+            service.broadcast("ordering", Integer.valueOf(j), Integer.valueOf(i));
+         }
+      }
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      for (int j = 0; j < sources; j++)
+      {
+         List<Integer> values = listener.values.get(j);
+         assertEquals(eventsBySource, values.size());
+         for (int i = 0; i < eventsBySource; i++)
+         {
+            assertEquals(Integer.valueOf(i), values.get(i));
+         }
+      }
+   }
+
+   public void testDropPolicy() throws Exception
+   {
+      ListenerService service = createService(1, 1, "drop");
+      BlockingListener listener = new BlockingListener();
+      service.addListener("drop", listener);
+      service.broadcast("drop", null, null);
+      // Wait until the first event is being processed
+      assertTrue(listener.started.await(10, TimeUnit.SECONDS));
+      // The second one is queued and the others are dropped
+      for (int i = 0; i < 5; i++)
+      {
+         service.broadcast("drop", null, null);
+      }
+      listener.release.countDown();
+      Thread.sleep(500);
+      assertEquals(2, listener.executions.size());
+   }
+
+   public void testCallerRunsPolicy() throws Exception
+   {
+      ListenerService service = createService(1, 1, "caller-runs");
+      BlockingListener listener = new BlockingListener();
+      service.addListener("caller", listener);
+      service.broadcast("caller", null, null);
+      assertTrue(listener.started.await(10, TimeUnit.SECONDS));
+      service.broadcast("caller", null, null);
+      // The queue is full so the listener is executed by the current thread
+      service.broadcast("caller", null, null);
+      assertTrue(listener.executions.contains(Thread.currentThread()));
+      listener.release.countDown();
+      Thread.sleep(500);
+      assertEquals(3, listener.executions.size());
+   }
+
+   public void testStop() throws Exception
+   {
+      ListenerService service = createService(2, Integer.MAX_VALUE, null);
+      BlockingListener listener = new BlockingListener();
+      service.addListener("stop", listener);
+      service.broadcast("stop", null, null);
+      assertTrue(listener.started.await(10, TimeUnit.SECONDS));
+      service.broadcast("stop", null, null);
+      listener.release.countDown();
+      service.stop();
+      // The queued events have been processed and the threads of the executors are over
+      assertEquals(2, listener.executions.size());
+      for (Thread thread : listener.executions)
+      {
+         thread.join(1000);
+         assertFalse(thread.isAlive());
+      }
+   }
+
+   public void testMetrics() throws Exception
+   {
+      ListenerService service = createService(1, Integer.MAX_VALUE, null);
+      assertFalse(service.isMetricsEnabled());
+      service.addListener("metrics", new Listener<Object, Object>()
+      {
+         @Override
+         public void onEvent(Event<Object, Object> event) throws Exception
+         {
+            if (event.getData() != null)
+            {
+               throw new Exception("Expected exception");
+            }
+         }
+      });
+      ListenerMetrics lm = service.getListenerMetrics("metrics", 0);
+      assertNotNull(lm);
+      service.broadcast("metrics", null, null);
+      service.broadcast("metrics", null, "fail");
+      // Nothing is allocated while the metrics are disabled
+      assertNull(lm.statistics.get());
+      assertTrue(service.getMetrics().contains("metrics: broadcasts=0"));
+      service.enableMetrics();
+      service.broadcast("metrics", null, null);
+      service.broadcast("metrics", null, "fail");
+      ListenerMetrics.Statistics stats = lm.statistics.get();
+      assertNotNull(stats);
+      assertEquals(2, stats.count.get());
+      assertEquals(1, stats.errors.get());
+      assertEquals(2, stats.times.getCount());
+      assertTrue(service.getMetrics().contains("metrics: broadcasts=2"));
+      service.resetMetrics();
+      assertEquals(0, stats.count.get());
+      service.disableMetrics();
+      assertFalse(service.isMetricsEnabled());
+   }
+
+   public void testSlowListenerIsolation() throws Exception
+   {
+      InitParams params = new InitParams();
+      params.addParameter(createParam(ListenerService.SLOW_LISTENER_THRESHOLD, "1"));
+      ListenerService service = new ListenerService(new ExoContainerContext(PortalContainer.getInstance()), params);
+      services.add(service);
+      assertTrue(service.isMetricsEnabled());
+      final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+      service.addListener("slow", new Listener<Object, Object>()
+      {
+         @Override
+         public void onEvent(Event<Object, Object> event) throws Exception
+         {
+            threads.add(Thread.currentThread());
+            Thread.sleep(3);
+         }
+      });
+      ListenerMetrics lm = service.getListenerMetrics("slow", 0);
+      for (int i = 0; i < 128; i++)
+      {
+         service.broadcast("slow", null, null);
+      }
+      assertNotNull(lm.lane);
+      assertTrue(service.getIsolatedListeners().contains("slow"));
+      threads.clear();
+      service.broadcast("slow", null, null);
+      Thread.sleep(500);
+      assertEquals(1, threads.size());
+      assertNotSame(Thread.currentThread(), threads.get(0));
+      ThreadPoolExecutor lane = lm.lane;
+      service.stop();
+      assertTrue(lane.isShutdown());
+      assertNull(lm.lane);
+      assertEquals("", service.getIsolatedListeners());
+      threads.clear();
+      service.broadcast("slow", null, null);
+      assertEquals(1, threads.size());
+      assertSame(Thread.currentThread(), threads.get(0));
+   }
+
+   private ListenerService createService(int poolSize, int queueSize, String policy)
+   {
+      InitParams params = new InitParams();
+      params.addParameter(createParam(ListenerService.ASYNCH_POOL_SIZE, Integer.toString(poolSize)));
+      params.addParameter(createParam(ListenerService.ASYNCH_QUEUE_SIZE, Integer.toString(queueSize)));
+      if (policy != null)
+      {
+         params.addParameter(createParam(ListenerService.ASYNCH_REJECTION_POLICY, policy));
+      }
+      ListenerService service = new ListenerService(new ExoContainerContext(PortalContainer.getInstance()), params);
+      services.add(service);
+      return service;
+   }
+
+   private static ValueParam createParam(String name, String value)
+   {
+      ValueParam param = new ValueParam();
+      param.setName(name);
+      param.setValue(value);
+      return param;
+   }
+
+   @Asynchronous
+   static class OrderListener extends Listener<Integer, Integer>
+   {
+      private final CountDownLatch done;
+
+      private final List<List<Integer>> values = new ArrayList<List<Integer>>();
+
+      OrderListener(CountDownLatch done, int sources)
+      {
+         this.done = done;
+         for (int i = 0; i < sources; i++)
+         {
+            values.add(Collections.synchronizedList(new ArrayList<Integer>()));
+         }
+      }
+
+      @Override
+      public void onEvent(Event<Integer, Integer> event) throws Exception
+      {
+         values.get(event.getSource()).add(event.getData());
+         done.countDown();
+      }
+   }
+
+   @Asynchronous
+   static class BlockingListener extends Listener<Object, Object>
+   {
+      private final CountDownLatch started = new CountDownLatch(1);
+
+      private final CountDownLatch release = new CountDownLatch(1);
+
+      private final List<Thread> executions = Collections.synchronizedList(new ArrayList<Thread>());
+
+      @Override
+      public void onEvent(Event<Object, Object> event) throws Exception
+      {
+         boolean first;
+         synchronized (executions)
+         {
+            first = executions.isEmpty();
+            executions.add(Thread.currentThread());
+         }
+         if (first)
+         {
+            // Only the first execution is blocked until the release
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+         }
+      }
+   }
+
    public class BeanHandler
    {
 
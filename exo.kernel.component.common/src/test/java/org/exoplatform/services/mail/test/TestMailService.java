@@ -24,12 +24,15 @@ import org.exoplatform.container.PortalContainer;
 import org.exoplatform.services.mail.Attachment;
 import org.exoplatform.services.mail.MailService;
 import org.exoplatform.services.mail.Message;
+import org.exoplatform.services.mail.impl.MailServiceImpl;
 import org.subethamail.wiser.Wiser;
 import org.subethamail.wiser.WiserMessage;
 
 import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -37,6 +40,7 @@ import java.util.concurrent.FutureTask;
 
 import javax.mail.Flags;
 import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
@@ -378,6 +382,63 @@ public class TestMailService extends TestCase
          mailServer.getMessages().size());
    }
 
+   /**
+    * Here we test the sending of many messages at once, the messages that cannot
+    * be sent must not prevent the others from being sent.
+    */
+   public void testSendMessages() throws Exception
+   {
+      MailServiceImpl impl = (MailServiceImpl)service;
+      impl.resetMailMetrics();
+      List<MimeMessage> messages = new ArrayList<MimeMessage>();
+      for (int i = 0; i < 20; i++)
+      {
+         MimeMessage message = new MimeMessage(service.getMailSession());
+         message.setFrom(new InternetAddress(generateRandomEmailSender()));
+         message.setRecipients(javax.mail.Message.RecipientType.TO, generateRandomEmailRecipient());
+         message.setSubject(MAIL_SUBJECT + i);
+         message.setContent(MAIL_CONTENTS + i, TEXT_PLAIN);
+         messages.add(message);
+      }
+      // A message without recipient cannot be sent
+      MimeMessage invalid = new MimeMessage(service.getMailSession());
+      invalid.setFrom(new InternetAddress(generateRandomEmailSender()));
+      invalid.setSubject(MAIL_SUBJECT);
+      invalid.setContent(MAIL_CONTENTS, TEXT_PLAIN);
+      messages.add(10, invalid);
+
+      assertEquals("SMTP server should be now empty", 0, mailServer.getMessages().size());
+      Map<MimeMessage, Exception> errors = service.sendMessagesInFuture(messages).get();
+      assertEquals(1, errors.size());
+      assertTrue(errors.get(invalid) instanceof SendFailedException);
+      assertEquals("SMTP server should have 20 messages", 20, mailServer.getMessages().size());
+      for (int i = 0; i < 20; i++)
+      {
+         assertTrue(isEmailMessageSent(MAIL_SUBJECT + i));
+      }
+      assertTrue(impl.getMailMetrics(), impl.getMailMetrics().startsWith("sent=20, failed=1"));
+      // A connection cannot send more than 5 messages
+      assertTrue(impl.getMailMetrics(), impl.getMailMetrics().contains("createdConnections=4,"));
+   }
+
+   /**
+    * Here we test that the pooled connections that have been closed by the server
+    * are replaced transparently.
+    */
+   public void testSendMessageAfterServerRestart() throws Exception
+   {
+      service.sendMessage(generateRandomEmailSender(), generateRandomEmailRecipient(), MAIL_SUBJECT, MAIL_CONTENTS);
+      assertEquals("SMTP server should have one message", 1, mailServer.getMessages().size());
+      mailServer.stop();
+      mailServer = new Wiser();
+      mailServer.setPort(SMTP_PORT);
+      mailServer.start();
+      service.sendMessage(generateRandomEmailSender(), generateRandomEmailRecipient(), MAIL_SUBJECT + 1,
+         MAIL_CONTENTS + 1);
+      assertEquals("SMTP server should have one message", 1, mailServer.getMessages().size());
+      assertTrue(isEmailMessageSent(MAIL_SUBJECT + 1));
+   }
+
    /**
     * Utility method to check if you really sent message
     * to dummy mail server. Basically it simply checks if
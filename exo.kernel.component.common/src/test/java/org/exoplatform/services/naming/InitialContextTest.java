@@ -20,14 +20,23 @@ package org.exoplatform.services.naming;
 
 import junit.framework.TestCase;
 
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.PortalContainer;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.naming.CompositeName;
 import javax.naming.Context;
@@ -36,6 +45,8 @@ import javax.naming.Name;
 import javax.naming.NameAlreadyBoundException;
 import javax.naming.NameNotFoundException;
 import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.naming.spi.ObjectFactory;
 import javax.xml.stream.XMLStreamException;
 
 /**
@@ -232,4 +243,172 @@ public class InitialContextTest extends TestCase
       assertTrue(new File("target/store-path.xml").exists());
    }
 
+   public void testConcurrentReferenceLookup() throws Exception
+   {
+      final ExoContainer container = ExoContainerContext.getCurrentContainer();
+      Reference ref = new Reference(Object.class.getName(), CountingObjectFactory.class.getName(), null);
+      CountingObjectFactory.COUNT.set(0);
+      initializer.getInitialContext().bind("counting-ref", ref);
+      try
+      {
+         int threads = 10;
+         final CountDownLatch startSignal = new CountDownLatch(1);
+         final CountDownLatch doneSignal = new CountDownLatch(threads);
+         final Set<Object> results = Collections.synchronizedSet(new HashSet<Object>());
+         final AtomicReference<Exception> error = new AtomicReference<Exception>();
+         for (int i = 0; i < threads; i++)
+         {
+            new Thread()
+            {
+               public void run()
+               {
+                  ExoContainerContext.setCurrentContainer(container);
+                  try
+                  {
+                     startSignal.await();
+                     results.add(new InitialContext().lookup("counting-ref"));
+                  }
+                  catch (Exception e)
+                  {
+                     error.compareAndSet(null, e);
+                  }
+                  finally
+                  {
+                     doneSignal.countDown();
+                  }
+               }
+            }.start();
+         }
+         startSignal.countDown();
+         doneSignal.await();
+         assertNull(error.get());
+         assertEquals("The reference must be resolved only once", 1, CountingObjectFactory.COUNT.get());
+         assertEquals("All the lookups must give the same instance", 1, results.size());
+         assertSame(results.iterator().next(), new InitialContext().lookup("counting-ref"));
+      }
+      finally
+      {
+         initializer.getInitialContext().unbind("counting-ref");
+      }
+   }
+
+   public void testCircularReferenceLookup() throws Exception
+   {
+      Reference ref = new Reference(Object.class.getName(), CircularObjectFactory.class.getName(), null);
+      CircularObjectFactory.ERROR.set(null);
+      initializer.getInitialContext().bind(CircularObjectFactory.NAME, ref);
+      try
+      {
+         // The lookup done by the factory must fail instead of waiting for itself
+         assertNotNull(new InitialContext().lookup(CircularObjectFactory.NAME));
+         assertNotNull(CircularObjectFactory.ERROR.get());
+         assertTrue(CircularObjectFactory.ERROR.get().getMessage().contains(CircularObjectFactory.NAME));
+      }
+      finally
+      {
+         initializer.getInitialContext().unbind(CircularObjectFactory.NAME);
+      }
+   }
+
+   public void testBindNull() throws Exception
+   {
+      Context ctx = initializer.getInitialContext();
+      try
+      {
+         ctx.bind("null-object", null);
+         fail("A NamingException is expected here");
+      }
+      catch (NamingException e)
+      {
+         // expected exception
+      }
+      try
+      {
+         ctx.rebind("null-object", null);
+         fail("A NamingException is expected here");
+      }
+      catch (NamingException e)
+      {
+         // expected exception
+      }
+      try
+      {
+         ctx.lookup("null-object");
+         fail("A NameNotFoundException is expected here");
+      }
+      catch (NameNotFoundException e)
+      {
+         // expected exception
+      }
+   }
+
+   public void testNullReferenceLookup() throws Exception
+   {
+      Reference ref = new Reference(Object.class.getName(), NullObjectFactory.class.getName(), null);
+      initializer.getInitialContext().bind("null-ref", ref);
+      try
+      {
+         // The reference must be kept so that each lookup reports the error
+         for (int i = 0; i < 2; i++)
+         {
+            try
+            {
+               new InitialContext().lookup("null-ref");
+               fail("A NamingException is expected here");
+            }
+            catch (NamingException e)
+            {
+               assertTrue(e.getMessage().contains("null-ref"));
+            }
+         }
+      }
+      finally
+      {
+         initializer.getInitialContext().unbind("null-ref");
+      }
+   }
+
+   public static class CircularObjectFactory implements ObjectFactory
+   {
+      static final String NAME = "circular-ref";
+
+      static final AtomicReference<NamingException> ERROR = new AtomicReference<NamingException>();
+
+      public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment)
+         throws Exception
+      {
+         try
+         {
+            new InitialContext().lookup(NAME);
+         }
+         catch (NamingException e)
+         {
+            ERROR.set(e);
+         }
+         return new Object();
+      }
+   }
+
+   public static class NullObjectFactory implements ObjectFactory
+   {
+      public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment)
+         throws Exception
+      {
+         return null;
+      }
+   }
+
+   public static class CountingObjectFactory implements ObjectFactory
+   {
+      static final AtomicInteger COUNT = new AtomicInteger();
+
+      public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment)
+         throws Exception
+      {
+         COUNT.incrementAndGet();
+         // Slows down the creation to make the other lookups wait for it
+         Thread.sleep(100);
+         return new Object();
+      }
+   }
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc.impl;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.rpc.BatchableCommand;
+import org.exoplatform.services.rpc.RPCException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This is the unit test class for the {@link CommandBatcher}
+ * 
+ * @version $Id$
+ *
+ */
+public class TestCommandBatcher extends TestCase
+{
+
+   private ScheduledExecutorService scheduler;
+
+   private ExecutorService executor;
+
+   public void setUp() throws Exception
+   {
+      scheduler = Executors.newSingleThreadScheduledExecutor();
+      executor = Executors.newCachedThreadPool();
+   }
+
+   public void tearDown() throws Exception
+   {
+      scheduler.shutdownNow();
+      executor.shutdownNow();
+   }
+
+   public void testMaxBatchSize() throws Exception
+   {
+      final MyCommandBatcher batcher = new MyCommandBatcher(new MyBatchableCommand("a", 60000, 3));
+      int threads = 10;
+      final int invocations = 100;
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(threads);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      for (int i = 0; i < threads; i++)
+      {
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  for (int j = 0; j < invocations; j++)
+                  {
+                     batcher.execute(false, 0, new Serializable[]{j});
+                  }
+               }
+               catch (Throwable e)
+               {
+                  error.set(e);
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      doneSignal.await();
+      assertNull(error.get());
+      batcher.flush();
+      int total = 0;
+      for (Integer size : batcher.sizes)
+      {
+         assertTrue("A batch of " + size + " invocations has been sent", size <= 3);
+         total += size;
+      }
+      assertEquals(threads * invocations, total);
+   }
+
+   public void testTimeout() throws Exception
+   {
+      MyCommandBatcher batcher = new MyCommandBatcher(new MyBatchableCommand("a", 10, 100));
+      batcher.block = new CountDownLatch(1);
+      long time = System.currentTimeMillis();
+      try
+      {
+         batcher.execute(true, 200, new Serializable[]{"foo"});
+         fail("A timeout was expected");
+      }
+      catch (RPCException e)
+      {
+         // expected
+      }
+      finally
+      {
+         batcher.block.countDown();
+      }
+      time = System.currentTimeMillis() - time;
+      assertTrue("The invocation waited " + time + " ms", time >= 200 && time < 5000);
+   }
+
+   public void testStop() throws Exception
+   {
+      final MyCommandBatcher batcher = new MyCommandBatcher(new MyBatchableCommand("a", 60000, 100));
+      assertTrue(batcher.execute(false, 0, new Serializable[]{"foo"}).isEmpty());
+      final AtomicReference<Object> result = new AtomicReference<Object>();
+      final CountDownLatch doneSignal = new CountDownLatch(1);
+      Thread thread = new Thread()
+      {
+         public void run()
+         {
+            try
+            {
+               result.set(batcher.execute(true, 0, new Serializable[]{"bar"}));
+            }
+            catch (Throwable e)
+            {
+               result.set(e);
+            }
+            finally
+            {
+               doneSignal.countDown();
+            }
+         }
+      };
+      thread.start();
+      while (thread.getState() != Thread.State.WAITING)
+      {
+         Thread.sleep(10);
+      }
+      // The pending invocations are sent without waiting for the end of the window
+      batcher.stop();
+      assertTrue(doneSignal.await(5, TimeUnit.SECONDS));
+      assertEquals(Collections.singletonList("bar"), result.get());
+      assertEquals(Collections.singletonList(2), batcher.sizes);
+      try
+      {
+         batcher.execute(false, 0, new Serializable[]{"foo"});
+         fail("An RPCException was expected");
+      }
+      catch (RPCException e)
+      {
+         // expected
+      }
+   }
+
+   public void testIndependentWindows() throws Exception
+   {
+      MyCommandBatcher batcher1 = new MyCommandBatcher(new MyBatchableCommand("a", 10, 100));
+      MyCommandBatcher batcher2 = new MyCommandBatcher(new MyBatchableCommand("b", 10, 100));
+      batcher1.block = new CountDownLatch(1);
+      try
+      {
+         batcher1.execute(false, 0, new Serializable[]{"foo"});
+         batcher1.sent.await(5, TimeUnit.SECONDS);
+         // The batch of the first command is being sent, the second command is not blocked
+         assertEquals(Collections.singletonList("bar"), batcher2.execute(true, 5000, new Serializable[]{"bar"}));
+      }
+      finally
+      {
+         batcher1.block.countDown();
+      }
+   }
+
+   private class MyCommandBatcher extends CommandBatcher
+   {
+      private final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+      private final CountDownLatch sent = new CountDownLatch(1);
+
+      private volatile CountDownLatch block;
+
+      MyCommandBatcher(BatchableCommand command)
+      {
+         super(null, command, scheduler, executor);
+      }
+
+      @Override
+      List<Object> executeBatch(boolean synchronous, long timeout, Serializable[][] args) throws RPCException
+      {
+         sizes.add(args.length);
+         sent.countDown();
+         if (block != null)
+         {
+            try
+            {
+               block.await();
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+         Object[] results = new Object[args.length];
+         for (int i = 0; i < args.length; i++)
+         {
+            results[i] = args[i][0];
+         }
+         return Collections.<Object> singletonList(results);
+      }
+   }
+
+   private static class MyBatchableCommand implements BatchableCommand
+   {
+      private final String id;
+
+      private final long window;
+
+      private final int maxSize;
+
+      public MyBatchableCommand(String id, long window, int maxSize)
+      {
+         this.id = id;
+         this.window = window;
+         this.maxSize = maxSize;
+      }
+
+      public String getId()
+      {
+         return id;
+      }
+
+      public Serializable execute(Serializable[] args) throws Throwable
+      {
+         return args[0];
+      }
+
+      public long getBatchWindow()
+      {
+         return window;
+      }
+
+      public int getMaxBatchSize()
+      {
+         return maxSize;
+      }
+
+      public boolean isCoalescable()
+      {
+         return false;
+      }
+   }
+}
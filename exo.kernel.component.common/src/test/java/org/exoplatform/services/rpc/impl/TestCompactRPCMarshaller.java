@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc.impl;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.rpc.impl.AbstractRPCService.MessageBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * This is the unit test class for the {@link CompactRPCMarshaller}
+ * 
+ * @version $Id$
+ *
+ */
+public class TestCompactRPCMarshaller extends TestCase
+{
+
+   private CompactRPCMarshaller marshaller;
+
+   public void setUp() throws Exception
+   {
+      marshaller = new CompactRPCMarshaller();
+      marshaller.registerType(MyExternalizable.class);
+   }
+
+   public void testPrimitives() throws Exception
+   {
+      Serializable[] args =
+         {null, Boolean.TRUE, Boolean.FALSE, (byte)1, (short)2, 'c', 3, 4L, 5.5f, 6.6d, "foo", ""};
+      Serializable[] result = marshallAndUnmarshall(args);
+      assertEquals(args.length, result.length);
+      for (int i = 0; i < args.length; i++)
+      {
+         assertEquals(args[i], result[i]);
+      }
+   }
+
+   public void testStrings() throws Exception
+   {
+      char[] chars = new char[100000];
+      Arrays.fill(chars, '\u20AC');
+      String longString = new String(chars);
+      Serializable[] result = marshallAndUnmarshall(new Serializable[]{"\u00E9t\u00E9", longString});
+      assertEquals("\u00E9t\u00E9", result[0]);
+      assertEquals(longString, result[1]);
+   }
+
+   public void testArrays() throws Exception
+   {
+      Serializable[] args =
+         {new boolean[]{true, false}, new byte[]{1, 2}, new short[]{3, 4}, new char[]{'a', 'b'}, new int[]{5, 6},
+            new long[]{7, 8}, new float[]{9.1f}, new double[]{10.2d}, new String[]{"a", null, "b"},
+            new Integer[]{1, null}, new int[][]{{1}, {2, 3}}};
+      Serializable[] result = marshallAndUnmarshall(args);
+      assertTrue(Arrays.equals((boolean[])args[0], (boolean[])result[0]));
+      assertTrue(Arrays.equals((byte[])args[1], (byte[])result[1]));
+      assertTrue(Arrays.equals((short[])args[2], (short[])result[2]));
+      assertTrue(Arrays.equals((char[])args[3], (char[])result[3]));
+      assertTrue(Arrays.equals((int[])args[4], (int[])result[4]));
+      assertTrue(Arrays.equals((long[])args[5], (long[])result[5]));
+      assertTrue(Arrays.equals((float[])args[6], (float[])result[6]));
+      assertTrue(Arrays.equals((double[])args[7], (double[])result[7]));
+      assertTrue(Arrays.equals((String[])args[8], (String[])result[8]));
+      assertEquals(Integer[].class, result[9].getClass());
+      assertTrue(Arrays.equals((Integer[])args[9], (Integer[])result[9]));
+      assertEquals(int[][].class, result[10].getClass());
+      assertTrue(Arrays.deepEquals((int[][])args[10], (int[][])result[10]));
+   }
+
+   public void testObjects() throws Exception
+   {
+      List<String> list = new ArrayList<String>();
+      list.add("foo");
+      Date date = new Date();
+      MyExternalizable ext = new MyExternalizable("bar", date);
+      Serializable[] result = marshallAndUnmarshall(new Serializable[]{(Serializable)list, date, ext});
+      assertEquals(list, result[0]);
+      assertEquals(date, result[1]);
+      assertTrue(result[2] instanceof MyExternalizable);
+      assertEquals("bar", ((MyExternalizable)result[2]).name);
+      assertEquals(date, ((MyExternalizable)result[2]).date);
+
+      // The types that are not registered are written with the Java serialization
+      CompactRPCMarshaller defaultMarshaller = new CompactRPCMarshaller();
+      byte[] bytes = RPCObjectOutput.marshall(defaultMarshaller, new MessageBody(null, "command", new Serializable[]{ext}));
+      MessageBody body = new MessageBody();
+      body.readExternal(new RPCObjectInput(defaultMarshaller, bytes, 0, bytes.length));
+      assertEquals("bar", ((MyExternalizable)body.getArgs()[0]).name);
+      try
+      {
+         RPCObjectOutput.marshall(defaultMarshaller, new MessageBody(null, "command",
+            new Serializable[]{new NotSerializable()}));
+         fail("An exception was expected");
+      }
+      catch (IOException e)
+      {
+         // expected
+      }
+   }
+
+   public void testMessageBody() throws Exception
+   {
+      Serializable[] args = {"foo", 1};
+      byte[] bytes = RPCObjectOutput.marshall(marshaller, new MessageBody(null, "my.command", true, false, args));
+      MessageBody body = new MessageBody();
+      body.readExternal(new RPCObjectInput(marshaller, bytes, 0, bytes.length));
+      assertNull(body.getCommandId());
+      assertEquals("my.command".hashCode(), body.getCommandKey());
+
+      assertFalse(body.isCommandKeyDefinition());
+
+      byte[] bytesWithId =
+         RPCObjectOutput.marshall(marshaller, new MessageBody(null, "my.command", false, false, args));
+      body = new MessageBody();
+      body.readExternal(new RPCObjectInput(marshaller, bytesWithId, 0, bytesWithId.length));
+      assertEquals("my.command", body.getCommandId());
+      assertEquals("my.command".hashCode(), body.getCommandKey());
+      assertFalse(body.isCommandKeyDefinition());
+      assertTrue(bytes.length < bytesWithId.length);
+
+      // The key is announced with the id
+      byte[] bytesWithDefinition =
+         RPCObjectOutput.marshall(marshaller, new MessageBody(null, "my.command", false, true, args));
+      body = new MessageBody();
+      body.readExternal(new RPCObjectInput(marshaller, bytesWithDefinition, 0, bytesWithDefinition.length));
+      assertEquals("my.command", body.getCommandId());
+      assertEquals("my.command".hashCode(), body.getCommandKey());
+      assertTrue(body.isCommandKeyDefinition());
+
+      // Compare with the Java serialization
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(baos);
+      oos.writeObject(new MessageBody(null, "my.command", false, false, args));
+      oos.close();
+      assertTrue(bytesWithId.length < baos.size());
+   }
+
+   public void testTypeWithSameIdentifier() throws Exception
+   {
+      // The names of the types Aa and BB have the same hash code
+      assertEquals(Aa.class.getName().hashCode(), BB.class.getName().hashCode());
+      CompactRPCMarshaller marshaller = new CompactRPCMarshaller();
+      marshaller.registerType(Aa.class);
+      byte[] bytes = RPCObjectOutput.marshall(marshaller, new MessageBody(null, "command", new Serializable[]{new BB()}));
+      MessageBody body = new MessageBody();
+      body.readExternal(new RPCObjectInput(marshaller, bytes, 0, bytes.length));
+      assertTrue(body.getArgs()[0] instanceof BB);
+   }
+
+   private Serializable[] marshallAndUnmarshall(Serializable[] args) throws Exception
+   {
+      byte[] bytes = RPCObjectOutput.marshall(marshaller, new MessageBody(null, "command", args));
+      MessageBody body = new MessageBody();
+      body.readExternal(new RPCObjectInput(marshaller, bytes, 0, bytes.length));
+      return body.getArgs();
+   }
+
+   public static class Aa implements Externalizable
+   {
+      public void writeExternal(ObjectOutput out) throws IOException
+      {
+      }
+
+      public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+      {
+      }
+   }
+
+   public static class BB extends Aa
+   {
+   }
+
+   public static class MyExternalizable implements Externalizable
+   {
+      private String name;
+
+      private Date date;
+
+      public MyExternalizable()
+      {
+      }
+
+      public MyExternalizable(String name, Date date)
+      {
+         this.name = name;
+         this.date = date;
+      }
+
+      public void writeExternal(ObjectOutput out) throws IOException
+      {
+         out.writeUTF(name);
+         out.writeObject(date);
+      }
+
+      public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+      {
+         this.name = in.readUTF();
+         this.date = (Date)in.readObject();
+      }
+   }
+
+   private static class NotSerializable implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      @SuppressWarnings("unused")
+      private final Object value = new Object();
+   }
+}
@@ -24,20 +24,29 @@ import org.exoplatform.container.PortalContainer;
 import org.exoplatform.container.configuration.ConfigurationManager;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.rpc.BatchableCommand;
 import org.exoplatform.services.rpc.RPCException;
+import org.exoplatform.services.rpc.RPCService;
 import org.exoplatform.services.rpc.RemoteCommand;
+import org.exoplatform.services.rpc.ResponseListener;
 import org.exoplatform.services.rpc.SingleMethodCallCommand;
 import org.exoplatform.services.rpc.TopologyChangeEvent;
 import org.exoplatform.services.rpc.TopologyChangeListener;
 import org.exoplatform.services.rpc.impl.AbstractRPCService.MemberHasLeftException;
 import org.exoplatform.services.rpc.jgv3.RPCServiceImpl;
 import org.jgroups.Address;
+import org.jgroups.Message;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -1253,6 +1262,452 @@ public class TestRPCServiceImpl extends TestCase
       }
    }
    
+   public void testExecOnCoordinatorUnicast() throws Exception
+   {
+      InitParams params = new InitParams();
+      ValueParam paramConf = new ValueParam();
+      paramConf.setName(RPCServiceImpl.PARAM_JGROUPS_CONFIG);
+      paramConf.setValue("jar:/conf/portal/udp.xml");
+      params.addParameter(paramConf);
+
+      CountingRPCService service1 = null;
+      CountingRPCService service2 = null;
+      try
+      {
+         service1 = new CountingRPCService(params);
+         RemoteCommand service1Cmd = new RemoteCommand()
+         {
+            public String getId()
+            {
+               return "UnicastCommand";
+            }
+
+            public String execute(Serializable[] args) throws Throwable
+            {
+               return "service 1";
+            }
+         };
+         service1.registerCommand(service1Cmd);
+
+         service2 = new CountingRPCService(params);
+         RemoteCommand service2Cmd = new RemoteCommand()
+         {
+            public String getId()
+            {
+               return "UnicastCommand";
+            }
+
+            public String execute(Serializable[] args) throws Throwable
+            {
+               return "service 2";
+            }
+         };
+         service2.registerCommand(service2Cmd);
+         // starting services
+         service1.start();
+         service2.start();
+         assertTrue(service1.isCoordinator());
+
+         for (int i = 0; i < 10; i++)
+         {
+            assertEquals("service 1", service2.executeCommandOnCoordinator(service2Cmd, true));
+         }
+         // Only the coordinator should have received the messages
+         assertEquals(10, service1.handled.get());
+         assertEquals(0, service2.handled.get());
+
+         assertEquals("service 1", service1.executeCommandOnCoordinator(service1Cmd, 5000L));
+         assertEquals(11, service1.handled.get());
+         assertEquals(0, service2.handled.get());
+
+         // The commands executed on all the nodes are still received by all the nodes
+         List<Object> result = service1.executeCommandOnAllNodes(service1Cmd, true);
+         assertEquals(2, result.size());
+         assertEquals(12, service1.handled.get());
+         assertEquals(1, service2.handled.get());
+      }
+      finally
+      {
+         if (service1 != null)
+         {
+            service1.stop();
+         }
+         if (service2 != null)
+         {
+            service2.stop();
+         }
+      }
+   }
+
+   public void testExecuteCommandOnAllNodesAsync() throws Exception
+   {
+      InitParams params = new InitParams();
+      ValueParam paramConf = new ValueParam();
+      paramConf.setName(RPCServiceImpl.PARAM_JGROUPS_CONFIG);
+      paramConf.setValue("jar:/conf/portal/udp.xml");
+      params.addParameter(paramConf);
+
+      final CountDownLatch slowCommand = new CountDownLatch(1);
+      RPCServiceImpl service1 = null;
+      RPCServiceImpl service2 = null;
+      try
+      {
+         service1 = new RPCServiceImpl(container.getContext(), params, configManager);
+         RemoteCommand service1Cmd = new RemoteCommand()
+         {
+            public String getId()
+            {
+               return "AsyncCommand";
+            }
+
+            public String execute(Serializable[] args) throws Throwable
+            {
+               return "service 1";
+            }
+         };
+         service1.registerCommand(service1Cmd);
+
+         service2 = new RPCServiceImpl(container.getContext(), params, configManager);
+         RemoteCommand service2Cmd = new RemoteCommand()
+         {
+            public String getId()
+            {
+               return "AsyncCommand";
+            }
+
+            public String execute(Serializable[] args) throws Throwable
+            {
+               if (args != null && args.length > 0)
+               {
+                  slowCommand.await();
+               }
+               return "service 2";
+            }
+         };
+         service2.registerCommand(service2Cmd);
+         // starting services
+         service1.start();
+         service2.start();
+
+         final List<String> responses = Collections.synchronizedList(new ArrayList<String>());
+         ResponseListener listener = new ResponseListener()
+         {
+            public void onResponse(String member, Object response)
+            {
+               responses.add((String)response);
+            }
+         };
+         Future<List<Object>> future =
+            service1.executeCommandOnAllNodesAsync(service1Cmd, RPCService.ALL_RESPONSES, listener);
+         List<Object> result = future.get();
+         assertTrue(future.isDone());
+         assertEquals(2, result.size());
+         assertEquals("service 1", result.get(0));
+         assertEquals("service 2", result.get(1));
+         assertEquals(2, responses.size());
+         assertTrue(responses.contains("service 1"));
+         assertTrue(responses.contains("service 2"));
+
+         // The second node is blocked so only the first response can be received
+         responses.clear();
+         future = service1.executeCommandOnAllNodesAsync(service1Cmd, 1, listener, "slow");
+         result = future.get(10, TimeUnit.SECONDS);
+         assertEquals(1, result.size());
+         assertEquals("service 1", result.get(0));
+         assertEquals(1, responses.size());
+
+         // The quorum of a cluster of 2 nodes is 2 so once the timeout expires, the missing response
+         // is replaced with a replication timeout
+         future = service1.executeCommandOnAllNodesAsync(service1Cmd, 500L, RPCService.QUORUM, null, "slow");
+         result = future.get();
+         assertEquals(2, result.size());
+         assertEquals("service 1", result.get(0));
+         assertTrue(result.get(1) instanceof RPCException);
+
+         // A timeout given to the future does not affect the request
+         future = service1.executeCommandOnAllNodesAsync(service1Cmd, 0L, RPCService.ALL_RESPONSES, null, "slow");
+         try
+         {
+            future.get(500, TimeUnit.MILLISECONDS);
+            fail("A TimeoutException was expected");
+         }
+         catch (TimeoutException e)
+         {
+            // expected
+         }
+         assertFalse(future.isCancelled());
+         assertFalse(future.isDone());
+         future.cancel(false);
+         slowCommand.countDown();
+      }
+      finally
+      {
+         slowCommand.countDown();
+         if (service1 != null)
+         {
+            service1.stop();
+         }
+         if (service2 != null)
+         {
+            service2.stop();
+         }
+      }
+   }
+
+   public void testBatchableCommand() throws Exception
+   {
+      InitParams params = new InitParams();
+      ValueParam paramConf = new ValueParam();
+      paramConf.setName(RPCServiceImpl.PARAM_JGROUPS_CONFIG);
+      paramConf.setValue("jar:/conf/portal/udp.xml");
+      params.addParameter(paramConf);
+
+      CountingRPCService service1 = null;
+      CountingRPCService service2 = null;
+      try
+      {
+         service1 = new CountingRPCService(params);
+         MyBatchableCommand service1Cmd = new MyBatchableCommand("BatchedCommand", "service 1", 60000, 5, false);
+         service1.registerCommand(service1Cmd);
+         MyBatchableCommand service1CoalescedCmd =
+            new MyBatchableCommand("CoalescedCommand", "service 1", 200, 100, true);
+         service1.registerCommand(service1CoalescedCmd);
+
+         service2 = new CountingRPCService(params);
+         MyBatchableCommand service2Cmd = new MyBatchableCommand("BatchedCommand", "service 2", 60000, 5, false);
+         service2.registerCommand(service2Cmd);
+         MyBatchableCommand service2CoalescedCmd =
+            new MyBatchableCommand("CoalescedCommand", "service 2", 200, 100, true);
+         service2.registerCommand(service2CoalescedCmd);
+         // starting services
+         service1.start();
+         service2.start();
+
+         // The batch is sent as soon as it is full
+         for (int i = 0; i < 4; i++)
+         {
+            assertTrue(service1.executeCommandOnAllNodes(service1Cmd, false, i).isEmpty());
+         }
+         assertTrue(service1Cmd.executed.isEmpty());
+         assertTrue(service2Cmd.executed.isEmpty());
+         List<Object> result = service1.executeCommandOnAllNodes(service1Cmd, true, 4);
+         assertEquals(2, result.size());
+         assertEquals("service 1:4", result.get(0));
+         assertEquals("service 2:4", result.get(1));
+         List<Serializable> expected = new ArrayList<Serializable>();
+         for (int i = 0; i < 5; i++)
+         {
+            expected.add(i);
+         }
+         assertEquals(expected, service1Cmd.executed);
+         assertEquals(expected, service2Cmd.executed);
+         // All the invocations have been sent with one message
+         assertEquals(1, service1.handled.get());
+         assertEquals(1, service2.handled.get());
+
+         // The batch is sent once the window expires and the duplicate invocations are merged
+         service1.executeCommandOnAllNodes(service1CoalescedCmd, false, "a");
+         service1.executeCommandOnAllNodes(service1CoalescedCmd, false, "a");
+         service1.executeCommandOnAllNodes(service1CoalescedCmd, false, "b");
+         result = service1.executeCommandOnAllNodes(service1CoalescedCmd, true, "a");
+         assertEquals(2, result.size());
+         assertEquals("service 1:a", result.get(0));
+         assertEquals("service 2:a", result.get(1));
+         assertEquals(Arrays.asList("a", "b"), service1CoalescedCmd.executed);
+         assertEquals(Arrays.asList("a", "b"), service2CoalescedCmd.executed);
+         assertEquals(2, service1.handled.get());
+         assertEquals(2, service2.handled.get());
+
+         // The failure of an invocation doesn't affect the other invocations
+         service1.executeCommandOnAllNodes(service1CoalescedCmd, false, "c");
+         result = service1.executeCommandOnAllNodes(service1CoalescedCmd, true, "fail");
+         assertEquals(2, result.size());
+         assertTrue(result.get(0) instanceof RPCException);
+         assertTrue(result.get(1) instanceof RPCException);
+         assertEquals(Arrays.asList("a", "b", "c"), service1CoalescedCmd.executed);
+         assertEquals(Arrays.asList("a", "b", "c"), service2CoalescedCmd.executed);
+
+         // The pending invocations are sent when the service stops
+         service1.executeCommandOnAllNodes(service1Cmd, false, 5);
+         service1.stop();
+         service1 = null;
+         // The batch has been sent asynchronously
+         for (int i = 0; i < 100 && service2Cmd.executed.size() < 6; i++)
+         {
+            Thread.sleep(100);
+         }
+         assertEquals(6, service2Cmd.executed.size());
+      }
+      finally
+      {
+         if (service1 != null)
+         {
+            service1.stop();
+         }
+         if (service2 != null)
+         {
+            service2.stop();
+         }
+      }
+   }
+
+   public void testInJvmTransport() throws Exception
+   {
+      InitParams params = new InitParams();
+      ValueParam paramConf = new ValueParam();
+      paramConf.setName(RPCServiceImpl.PARAM_JGROUPS_CONFIG);
+      paramConf.setValue("jar:/conf/rpc/in-jvm.xml");
+      params.addParameter(paramConf);
+      paramConf = new ValueParam();
+      paramConf.setName(RPCServiceImpl.PARAM_CLUSTER_NAME);
+      paramConf.setValue("InJvmCluster");
+      params.addParameter(paramConf);
+
+      System.setProperty("exo.rpc.network.latency", "2");
+      System.setProperty("exo.rpc.network.loss_rate", "0.1");
+      RPCServiceImpl[] services = new RPCServiceImpl[3];
+      try
+      {
+         MyListener listener = null;
+         for (int i = 0; i < services.length; i++)
+         {
+            final String name = "service " + (i + 1);
+            services[i] = new RPCServiceImpl(container.getContext(), params, configManager);
+            services[i].registerCommand(new RemoteCommand()
+            {
+               public String getId()
+               {
+                  return "InJvmCommand";
+               }
+
+               public String execute(Serializable[] args) throws Throwable
+               {
+                  return name;
+               }
+            });
+            if (i == 1)
+            {
+               listener = new MyListener();
+               services[i].registerTopologyChangeListener(listener);
+            }
+            services[i].start();
+         }
+         // Wait until the last node joined the cluster
+         listener.waitTopologyChange();
+         assertTrue(services[0].isCoordinator());
+         for (int i = 0; i < 20; i++)
+         {
+            List<Object> result =
+               services[2].executeCommandOnAllNodes(services[2].getCommand("InJvmCommand"), 10000L);
+            assertEquals(Arrays.asList("service 1", "service 2", "service 3"), result);
+            assertEquals("service 1", services[2].executeCommandOnCoordinator(services[2].getCommand("InJvmCommand"),
+               10000L));
+         }
+
+         // The second node becomes the coordinator once the first one leaves
+         final CountDownLatch elected = new CountDownLatch(1);
+         services[1].registerTopologyChangeListener(new TopologyChangeListener()
+         {
+            public void onChange(TopologyChangeEvent event)
+            {
+               if (event.isCoordinatorHasChanged() && event.isCoordinator())
+               {
+                  elected.countDown();
+               }
+            }
+         });
+         services[0].stop();
+         services[0] = null;
+         assertTrue(elected.await(10, TimeUnit.SECONDS));
+         assertTrue(services[1].isCoordinator());
+         assertEquals("service 2", services[2].executeCommandOnCoordinator(services[2].getCommand("InJvmCommand"),
+            10000L));
+      }
+      finally
+      {
+         System.clearProperty("exo.rpc.network.latency");
+         System.clearProperty("exo.rpc.network.loss_rate");
+         for (RPCServiceImpl service : services)
+         {
+            if (service != null)
+            {
+               service.stop();
+            }
+         }
+      }
+   }
+
+   private static class MyBatchableCommand implements BatchableCommand
+   {
+      private final String id;
+
+      private final String name;
+
+      private final long window;
+
+      private final int maxSize;
+
+      private final boolean coalescable;
+
+      private final List<Serializable> executed = Collections.synchronizedList(new ArrayList<Serializable>());
+
+      public MyBatchableCommand(String id, String name, long window, int maxSize, boolean coalescable)
+      {
+         this.id = id;
+         this.name = name;
+         this.window = window;
+         this.maxSize = maxSize;
+         this.coalescable = coalescable;
+      }
+
+      public String getId()
+      {
+         return id;
+      }
+
+      public Serializable execute(Serializable[] args) throws Throwable
+      {
+         if ("fail".equals(args[0]))
+         {
+            throw new Exception("fail");
+         }
+         executed.add(args[0]);
+         return name + ":" + args[0];
+      }
+
+      public long getBatchWindow()
+      {
+         return window;
+      }
+
+      public int getMaxBatchSize()
+      {
+         return maxSize;
+      }
+
+      public boolean isCoalescable()
+      {
+         return coalescable;
+      }
+   }
+
+   private class CountingRPCService extends RPCServiceImpl
+   {
+      private final AtomicInteger handled = new AtomicInteger();
+
+      public CountingRPCService(InitParams params)
+      {
+         super(container.getContext(), params, configManager);
+      }
+
+      @Override
+      public Object handle(Message msg)
+      {
+         handled.incrementAndGet();
+         return super.handle(msg);
+      }
+   }
+
    private static class MyListener implements TopologyChangeListener
    {
 
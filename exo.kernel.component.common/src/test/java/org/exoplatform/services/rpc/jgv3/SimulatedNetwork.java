@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.rpc.jgv3;
+
+import org.jgroups.Address;
+import org.jgroups.Event;
+import org.jgroups.Message;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.Property;
+import org.jgroups.stack.Protocol;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A JGroups protocol that simulates the network of a node, it is meant to be put right above
+ * an in-JVM transport such as <code>SHARED_LOOPBACK</code> in order to load test the 
+ * {@link RPCServiceImpl} with several nodes in the same JVM. Each message sent is delayed by
+ * the latency plus its transmission time according to the bandwidth of the node, and a part 
+ * of the messages can be lost according to the loss rate, the lost messages are then retransmitted 
+ * by the reliability protocols of the stack. The messages to lose are chosen by a generator
+ * initialized with a configurable seed in order to get reproducible results. 
+ * See <code>conf/rpc/in-jvm.xml</code> for an example of configuration.
+ * 
+ * @version $Id$
+ *
+ */
+public class SimulatedNetwork extends Protocol
+{
+
+   @Property(description = "The latency in milliseconds added to each message")
+   protected long latency;
+
+   @Property(description = "The bandwidth of the node in bytes per second, 0 for an unlimited bandwidth")
+   protected long bandwidth;
+
+   @Property(description = "The rate of lost messages between 0 and 1")
+   protected double loss_rate;
+
+   @Property(description = "The seed of the generator used to choose the lost messages")
+   protected long seed = 1;
+
+   /**
+    * The total amount of messages lost
+    */
+   private final AtomicLong lostMessages = new AtomicLong();
+
+   /**
+    * The generator used to choose the lost messages, guarded by this
+    */
+   private Random random;
+
+   /**
+    * The time in nanoseconds at which the link of the node will be free, guarded by this
+    */
+   private long linkFreeAt;
+
+   /**
+    * The timer used to send the delayed messages
+    */
+   private ScheduledExecutorService timer;
+
+   /**
+    * The address of the node
+    */
+   private volatile Address localAddress;
+
+   @ManagedAttribute(description = "The total amount of messages lost")
+   public long getLostMessages()
+   {
+      return lostMessages.get();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void init() throws Exception
+   {
+      super.init();
+      if (loss_rate < 0 || loss_rate >= 1)
+      {
+         throw new IllegalArgumentException("The loss rate must be between 0 and 1, found " + loss_rate);
+      }
+      random = new Random(seed);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void start() throws Exception
+   {
+      super.start();
+      timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+      {
+         public Thread newThread(Runnable r)
+         {
+            Thread t = new Thread(r, "SimulatedNetwork-" + localAddress);
+            t.setDaemon(true);
+            return t;
+         }
+      });
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void stop()
+   {
+      timer.shutdownNow();
+      super.stop();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public Object down(final Event evt)
+   {
+      if (evt.getType() == Event.SET_LOCAL_ADDRESS)
+      {
+         localAddress = (Address)evt.getArg();
+      }
+      if (evt.getType() != Event.MSG)
+      {
+         return down_prot.down(evt);
+      }
+      Message msg = (Message)evt.getArg();
+      long delay;
+      synchronized (this)
+      {
+         if (loss_rate > 0 && random.nextDouble() < loss_rate)
+         {
+            lostMessages.incrementAndGet();
+            return null;
+         }
+         long now = System.nanoTime();
+         if (bandwidth > 0)
+         {
+            // The messages are sent one after the other on the link of the node
+            linkFreeAt = Math.max(now, linkFreeAt) + msg.size() * TimeUnit.SECONDS.toNanos(1) / bandwidth;
+            delay = linkFreeAt - now + TimeUnit.MILLISECONDS.toNanos(latency);
+         }
+         else
+         {
+            delay = TimeUnit.MILLISECONDS.toNanos(latency);
+         }
+      }
+      if (delay <= 0)
+      {
+         return down_prot.down(evt);
+      }
+      // The delays are increasing so the timer keeps the order of the messages
+      timer.schedule(new Runnable()
+      {
+         public void run()
+         {
+            down_prot.down(evt);
+         }
+      }, delay, TimeUnit.NANOSECONDS);
+      return null;
+   }
+}
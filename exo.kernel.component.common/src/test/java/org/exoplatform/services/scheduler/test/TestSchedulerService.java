@@ -24,9 +24,12 @@ import org.exoplatform.container.ExoContainer;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.container.RootContainer;
+import org.exoplatform.container.component.BaseComponentPlugin;
 import org.exoplatform.services.scheduler.JobInfo;
 import org.exoplatform.services.scheduler.JobSchedulerService;
 import org.exoplatform.services.scheduler.PeriodInfo;
+import org.exoplatform.services.scheduler.Task;
+import org.exoplatform.services.scheduler.impl.JobSchedulerServiceImpl;
 import org.quartz.Job;
 import org.quartz.JobDetail;
 import org.quartz.JobExecutionContext;
@@ -34,8 +37,10 @@ import org.quartz.JobExecutionException;
 import org.quartz.JobListener;
 import org.quartz.TriggerListener;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -73,6 +78,101 @@ public class TestSchedulerService extends SchedulerServiceTestBase
       assertTrue("expect Global Trigger Listener is removed", b);
    }
 
+   public void testQueueTaskPriorityDelayAndTimeout() throws Exception
+   {
+      JobSchedulerServiceImpl service = (JobSchedulerServiceImpl)service_;
+      // Keep both workers busy to be able to queue several tasks
+      final CountDownLatch started = new CountDownLatch(2);
+      final CountDownLatch release = new CountDownLatch(1);
+      for (int i = 0; i < 2; i++)
+      {
+         service.queueTask(new Task()
+         {
+            public void execute() throws Exception
+            {
+               started.countDown();
+               release.await();
+            }
+         });
+      }
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+      final CountDownLatch done = new CountDownLatch(3);
+      for (final int priority : new int[]{Task.MIN_PRIORITY, Task.MAX_PRIORITY, Task.NORM_PRIORITY})
+      {
+         service.queueTask(new Task()
+         {
+            public void execute() throws Exception
+            {
+               order.add(priority);
+               done.countDown();
+            }
+
+            public int getPriority()
+            {
+               return priority;
+            }
+         });
+      }
+      assertEquals(3, service.getQueueSize());
+      release.countDown();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(Arrays.asList(Task.MAX_PRIORITY, Task.NORM_PRIORITY, Task.MIN_PRIORITY), order);
+
+      // Delayed task
+      final CountDownLatch delayed = new CountDownLatch(1);
+      long start = System.currentTimeMillis();
+      service.queueTask(new Task()
+      {
+         public void execute() throws Exception
+         {
+            delayed.countDown();
+         }
+      }, 500, TimeUnit.MILLISECONDS);
+      assertEquals(1, service.getDelayedTasks());
+      assertTrue(delayed.await(10, TimeUnit.SECONDS));
+      assertTrue(System.currentTimeMillis() - start >= 500);
+      assertEquals(0, service.getDelayedTasks());
+
+      // Task exceeding its timeout
+      for (int i = 0; i < 100 && service.getActiveTasks() > 0; i++)
+      {
+         Thread.sleep(100);
+      }
+      service.resetQueueMetrics();
+      final CountDownLatch interrupted = new CountDownLatch(1);
+      start = System.currentTimeMillis();
+      service.queueTask(new Task()
+      {
+         public void execute() throws Exception
+         {
+            try
+            {
+               Thread.sleep(30000);
+            }
+            catch (InterruptedException e)
+            {
+               interrupted.countDown();
+               throw e;
+            }
+         }
+
+         public long getTimeout()
+         {
+            return 200;
+         }
+      });
+      assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+      assertTrue(System.currentTimeMillis() - start < 10000);
+      // The metrics are updated once the task is over
+      for (int i = 0; i < 100 && !service.getQueueMetrics().contains("timedOut=1"); i++)
+      {
+         Thread.sleep(100);
+      }
+      // A task that timed out is not counted as executed
+      assertTrue(service.getQueueMetrics().contains("executed=0, failed=0, timedOut=1"));
+   }
+
    public void testListener() throws Exception
    {
       // ---------getAllGlobalJobListener
@@ -365,6 +465,67 @@ public class TestSchedulerService extends SchedulerServiceTestBase
       assertTrue("expect Global Trigger Listener is removed", b);
    }
    
+   public void testLightweightPeriodJob() throws Exception
+   {
+      resetTestEnvironment();
+      CountingJobListener listener = new CountingJobListener(5);
+      service_.addGlobalJobListener(listener);
+      try
+      {
+         JobInfo jinfo = new JobInfo("LightweightPeriodJob", null/* default group */, AJob.class);
+         service_.addPeriodJob(jinfo, new PeriodInfo(null, null, 5/* repeatCount */, 50/* period */, true));
+         assertNotNull(service_.getJob(jinfo));
+         assertTrue("the job listener must be notified", listener.executed.await(10, TimeUnit.SECONDS));
+         assertEquals("task has been run exactly five times", 5, AJob.repeatCounter_);
+         Thread.sleep(200);
+         assertEquals("task has been run exactly five times", 5, AJob.repeatCounter_);
+         assertNull("the job must be removed once over", service_.getJob(jinfo));
+
+         resetTestEnvironment();
+         jinfo = new JobInfo("ForeverLightweightPeriodJob", null/* default group */, AJob.class);
+         service_.addPeriodJob(jinfo, new PeriodInfo(null, null, 0/* repeatCount */, 50/* period */, true));
+         Thread.sleep(500);
+         assertTrue("task has been run forever", AJob.repeatCounter_ > 1);
+         assertTrue("expect Job is removed", service_.removeJob(jinfo));
+         Thread.sleep(100);
+         int count = AJob.repeatCounter_;
+         Thread.sleep(300);
+         assertEquals("task must not be run anymore", count, AJob.repeatCounter_);
+      }
+      finally
+      {
+         service_.removeGlobalJobListener(listener.getName());
+      }
+   }
+
+   public static class CountingJobListener extends BaseComponentPlugin implements JobListener
+   {
+      private final CountDownLatch executed;
+
+      public CountingJobListener(int count)
+      {
+         this.executed = new CountDownLatch(count);
+      }
+
+      public String getName()
+      {
+         return "CountingJobListener";
+      }
+
+      public void jobToBeExecuted(JobExecutionContext context)
+      {
+      }
+
+      public void jobExecutionVetoed(JobExecutionContext context)
+      {
+      }
+
+      public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException)
+      {
+         executed.countDown();
+      }
+   }
+
    public void testgetAvailableJobs() throws Exception
    {
       List<JobDetail> availableJobs = service_.getAllJobs();
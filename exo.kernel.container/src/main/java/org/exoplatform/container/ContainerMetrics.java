@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.container;
+
+import org.exoplatform.commons.utils.LatencyHistogram;
+import org.exoplatform.commons.utils.PropertyManager;
+import org.exoplatform.commons.utils.StripedCounter;
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.annotations.ManagedName;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The metrics of the lookups and of the component creations of a given {@link ExoContainer}. They
+ * are collected by {@link MetricsContainer} and {@link MetricsMissContainer} which are always part of
+ * the interceptor chain. The metrics are disabled by default unless the system property
+ * <code>exo.container.metrics.enabled</code> is set to <code>true</code>, they can be enabled and
+ * disabled at runtime through JMX.
+ *
+ * @version $Id$
+ *
+ */
+@Managed
+@ManagedDescription("The metrics of the lookups and of the component creations of the container")
+@NameTemplate(@Property(key = "service", value = "containermetrics"))
+public class ContainerMetrics
+{
+
+   /**
+    * The name of the system property that indicates whether the metrics are enabled at startup
+    */
+   public static final String METRICS_ENABLED = "exo.container.metrics.enabled";
+
+   /**
+    * The amount of cells of the histogram of the lookups which is the only metric updated for each lookup,
+    * the other metrics use a single cell to limit the footprint per component
+    */
+   private static final int LOOKUP_STRIPES = 4;
+
+   /**
+    * The default amount of entries returned by the report
+    */
+   private static final int DEFAULT_REPORT_SIZE = 20;
+
+   /**
+    * Indicates whether the metrics are collected
+    */
+   private volatile boolean enabled = Boolean.valueOf(PropertyManager.getProperty(METRICS_ENABLED));
+
+   /**
+    * The metrics per component key or type
+    */
+   private final ConcurrentMap<Object, KeyMetrics> metrics = new ConcurrentHashMap<Object, KeyMetrics>(64, 0.75f,
+      64);
+
+   /**
+    * @return <code>true</code> if the metrics are collected, <code>false</code> otherwise
+    */
+   @Managed
+   @ManagedDescription("Indicates whether the metrics are enabled")
+   public boolean isEnabled()
+   {
+      return enabled;
+   }
+
+   /**
+    * Enables the metrics
+    */
+   @Managed
+   @ManagedDescription("Enables the metrics")
+   public void enable()
+   {
+      this.enabled = true;
+   }
+
+   /**
+    * Disables the metrics, the metrics collected so far are kept
+    */
+   @Managed
+   @ManagedDescription("Disables the metrics")
+   public void disable()
+   {
+      this.enabled = false;
+   }
+
+   /**
+    * Removes all the metrics collected so far
+    */
+   @Managed
+   @ManagedDescription("Removes all the metrics collected so far")
+   public void reset()
+   {
+      metrics.clear();
+   }
+
+   /**
+    * @return the total amount of lookups
+    */
+   @Managed
+   @ManagedDescription("The total amount of lookups")
+   public long getLookups()
+   {
+      long total = 0;
+      for (KeyMetrics km : metrics.values())
+      {
+         total += km.lookupTimes.getCount();
+      }
+      return total;
+   }
+
+   /**
+    * @return the total amount of lookups that could not be found in the cache
+    */
+   @Managed
+   @ManagedDescription("The total amount of lookups that could not be found in the cache")
+   public long getMisses()
+   {
+      long total = 0;
+      for (KeyMetrics km : metrics.values())
+      {
+         total += km.misses.get();
+      }
+      return total;
+   }
+
+   /**
+    * @return the total amount of component creations
+    */
+   @Managed
+   @ManagedDescription("The total amount of component creations")
+   public long getCreations()
+   {
+      long total = 0;
+      for (KeyMetrics km : metrics.values())
+      {
+         total += km.creationTimes.getCount();
+      }
+      return total;
+   }
+
+   /**
+    * Gives the metrics of the most used components
+    * @param size the max amount of components to include
+    */
+   @Managed
+   @ManagedDescription("Gives the metrics of the most used components")
+   public String getReport(@ManagedDescription("The max amount of components") @ManagedName("size") int size)
+   {
+      List<Map.Entry<Object, KeyMetrics>> entries = new ArrayList<Map.Entry<Object, KeyMetrics>>(metrics.entrySet());
+      Collections.sort(entries, new Comparator<Map.Entry<Object, KeyMetrics>>()
+      {
+         public int compare(Map.Entry<Object, KeyMetrics> e1, Map.Entry<Object, KeyMetrics> e2)
+         {
+            long l1 = e1.getValue().lookupTimes.getCount();
+            long l2 = e2.getValue().lookupTimes.getCount();
+            return l1 < l2 ? 1 : (l1 == l2 ? 0 : -1);
+         }
+      });
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0, length = Math.min(size <= 0 ? DEFAULT_REPORT_SIZE : size, entries.size()); i < length; i++)
+      {
+         Map.Entry<Object, KeyMetrics> entry = entries.get(i);
+         sb.append(toString(entry.getKey())).append(": ").append(entry.getValue()).append('\n');
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Gives the metrics of a given component
+    * @param key the key of the component, which is the FQN of the class for the components registered by type
+    */
+   @Managed
+   @ManagedDescription("Gives the metrics of a given component")
+   public String getMetrics(@ManagedDescription("The key of the component") @ManagedName("key") String key)
+   {
+      for (Map.Entry<Object, KeyMetrics> entry : metrics.entrySet())
+      {
+         if (key.equals(toString(entry.getKey())))
+         {
+            return entry.getValue().toString();
+         }
+      }
+      return null;
+   }
+
+   private static String toString(Object key)
+   {
+      return key instanceof Class ? ((Class<?>)key).getName() : String.valueOf(key);
+   }
+
+   /**
+    * Gives the metrics of the given component key or type
+    */
+   KeyMetrics getKeyMetrics(Object key)
+   {
+      KeyMetrics km = metrics.get(key);
+      if (km == null)
+      {
+         km = new KeyMetrics();
+         KeyMetrics existing = metrics.putIfAbsent(key, km);
+         if (existing != null)
+         {
+            km = existing;
+         }
+      }
+      return km;
+   }
+
+   /**
+    * The metrics of a given component key or type, the total amount of lookups and of creations
+    * are given by the histograms
+    */
+   static class KeyMetrics
+   {
+      /**
+       * The total amount of lookups that could not be found in the cache
+       */
+      final StripedCounter misses = new StripedCounter(1);
+
+      /**
+       * The total amount of lookups that could not be found in the cache and
+       * that have been delegated to the parent container
+       */
+      final StripedCounter parentLookups = new StripedCounter(1);
+
+      /**
+       * The total amount of lookups without result
+       */
+      final StripedCounter notFound = new StripedCounter(1);
+
+      /**
+       * The duration of the lookups
+       */
+      final LatencyHistogram lookupTimes = new LatencyHistogram(LOOKUP_STRIPES);
+
+      /**
+       * The duration of the component creations
+       */
+      final LatencyHistogram creationTimes = new LatencyHistogram(1);
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public String toString()
+      {
+         return "lookups=" + lookupTimes.getCount() + ", misses=" + misses + ", parentLookups=" + parentLookups + ", notFound="
+            + notFound + ", lookupTimes=[" + lookupTimes + "], creations=" + creationTimes.getCount() + ", creationTimes=["
+            + creationTimes + "]";
+      }
+   }
+}
@@ -127,7 +127,9 @@ public class DefaultInterceptorChainFactory implements InterceptorChainFactory
    }
 
    /**
-    * Gives the dynamic {@link Interceptor} from the last to the head
+    * Gives the dynamic {@link Interceptor} from the last to the head, the {@link MetricsContainer} and
+    * the {@link MetricsMissContainer} are only included if the system property
+    * {@link ContainerMetrics#METRICS_ENABLED} is set to <code>true</code>
     */
    protected List<Interceptor> getDynamicInterceptors(ExoContainer holder, ExoContainer parent)
    {
@@ -140,6 +142,15 @@ public class DefaultInterceptorChainFactory implements InterceptorChainFactory
          interceptor.setParent(parent);
          list.add(interceptor);
       }
+      // The metrics interceptors are always added so that the metrics can be enabled at runtime,
+      // they are simple pass-through as long as the metrics are disabled
+      Interceptor[] metrics = {new MetricsContainer(), new MetricsMissContainer()};
+      for (Interceptor interceptor : metrics)
+      {
+         interceptor.setHolder(holder);
+         interceptor.setParent(parent);
+         list.add(interceptor);
+      }
       return list;
    }
 
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.container;
+
+import org.exoplatform.container.spi.Before;
+import org.exoplatform.container.spi.ContainerException;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.management.ManagementContext;
+
+import java.util.List;
+
+/**
+ * An {@link AbstractInterceptor} located before the {@link org.exoplatform.container.management.ManageableContainer}
+ * that collects the amount and the duration of the lookups and of the component creations. It is always added
+ * by the {@link DefaultInterceptorChainFactory}, the metrics being enabled at startup only if the system property
+ * {@link ContainerMetrics#METRICS_ENABLED} is set to <code>true</code>. The collected metrics are exposed through
+ * {@link ContainerMetrics} which allows to enable and disable them at runtime, when they are disabled the overhead
+ * is limited to one volatile read per call.
+ * 
+ * @version $Id$
+ *
+ */
+@Before("Management")
+public class MetricsContainer extends AbstractInterceptor
+{
+
+   /**
+    * The serial version UID
+    */
+   private static final long serialVersionUID = -1874629108271604157L;
+
+   /**
+    * The metrics of the container
+    */
+   private final transient ContainerMetrics metrics = new ContainerMetrics();
+
+   /**
+    * @return the metrics of the container
+    */
+   public ContainerMetrics getMetrics()
+   {
+      return metrics;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public <T> T getComponentInstance(Object componentKey, Class<T> bindType) throws ContainerException
+   {
+      if (componentKey == null || !metrics.isEnabled())
+      {
+         return super.getComponentInstance(componentKey, bindType);
+      }
+      long start = System.nanoTime();
+      try
+      {
+         return super.getComponentInstance(componentKey, bindType);
+      }
+      finally
+      {
+         onLookup(componentKey, start);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public <T> T getComponentInstanceOfType(Class<T> componentType)
+   {
+      if (componentType == null || !metrics.isEnabled())
+      {
+         return super.getComponentInstanceOfType(componentType);
+      }
+      long start = System.nanoTime();
+      try
+      {
+         return super.getComponentInstanceOfType(componentType);
+      }
+      finally
+      {
+         onLookup(componentType, start);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public <T> List<T> getComponentInstancesOfType(Class<T> componentType) throws ContainerException
+   {
+      if (componentType == null || !metrics.isEnabled())
+      {
+         return super.getComponentInstancesOfType(componentType);
+      }
+      long start = System.nanoTime();
+      try
+      {
+         return super.getComponentInstancesOfType(componentType);
+      }
+      finally
+      {
+         onLookup(componentType, start);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public <T> T createComponent(Class<T> clazz, InitParams params) throws Exception
+   {
+      if (clazz == null || !metrics.isEnabled())
+      {
+         return super.createComponent(clazz, params);
+      }
+      long start = System.nanoTime();
+      try
+      {
+         return super.createComponent(clazz, params);
+      }
+      finally
+      {
+         metrics.getKeyMetrics(clazz).creationTimes.recordSince(start);
+      }
+   }
+
+   private void onLookup(Object key, long start)
+   {
+      metrics.getKeyMetrics(key).lookupTimes.recordSince(start);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void start()
+   {
+      super.start();
+      ManagementContext context = holder == null ? null : holder.getManagementContext();
+      if (context != null)
+      {
+         context.register(metrics);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public String getId()
+   {
+      return "Metrics";
+   }
+}
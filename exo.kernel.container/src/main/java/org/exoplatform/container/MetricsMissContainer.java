@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.container;
+
+import org.exoplatform.container.ContainerMetrics.KeyMetrics;
+import org.exoplatform.container.spi.After;
+import org.exoplatform.container.spi.ComponentAdapter;
+import org.exoplatform.container.spi.Container;
+import org.exoplatform.container.spi.ContainerException;
+
+import java.util.List;
+
+/**
+ * An {@link AbstractInterceptor} located after the {@link CachingContainer} that collects
+ * the lookups that could not be found in the cache and how they have been resolved. The
+ * metrics are stored into the {@link ContainerMetrics} of the {@link MetricsContainer} of
+ * the same chain.
+ * 
+ * @version $Id$
+ *
+ */
+@After("Cache")
+public class MetricsMissContainer extends AbstractInterceptor
+{
+
+   /**
+    * The serial version UID
+    */
+   private static final long serialVersionUID = 6201950367915783502L;
+
+   /**
+    * The metrics of the container
+    */
+   private transient volatile ContainerMetrics metrics;
+
+   /**
+    * Gives the metrics to update if they are enabled
+    * @return the {@link ContainerMetrics} of the chain if it exists and it is enabled,
+    * <code>null</code> otherwise
+    */
+   private ContainerMetrics getMetrics()
+   {
+      ContainerMetrics metrics = this.metrics;
+      if (metrics == null)
+      {
+         if (holder == null)
+         {
+            return null;
+         }
+         Container container = holder;
+         while ((container = container.getSuccessor()) != null)
+         {
+            if (container instanceof MetricsContainer)
+            {
+               this.metrics = metrics = ((MetricsContainer)container).getMetrics();
+               break;
+            }
+         }
+         if (metrics == null)
+         {
+            return null;
+         }
+      }
+      return metrics.isEnabled() ? metrics : null;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public <T> T getComponentInstance(Object componentKey, Class<T> bindType) throws ContainerException
+   {
+      T result = super.getComponentInstance(componentKey, bindType);
+      ContainerMetrics metrics;
+      if (componentKey != null && (metrics = getMetrics()) != null)
+      {
+         onMiss(metrics.getKeyMetrics(componentKey), result,
+            result == null ? null : super.getComponentAdapter(componentKey, bindType));
+      }
+      return result;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public <T> T getComponentInstanceOfType(Class<T> componentType)
+   {
+      T result = super.getComponentInstanceOfType(componentType);
+      ContainerMetrics metrics;
+      if (componentType != null && (metrics = getMetrics()) != null)
+      {
+         onMiss(metrics.getKeyMetrics(componentType), result,
+            result == null ? null : super.getComponentAdapterOfType(componentType));
+      }
+      return result;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public <T> List<T> getComponentInstancesOfType(Class<T> componentType) throws ContainerException
+   {
+      List<T> result = super.getComponentInstancesOfType(componentType);
+      ContainerMetrics metrics;
+      if (componentType != null && (metrics = getMetrics()) != null)
+      {
+         KeyMetrics km = metrics.getKeyMetrics(componentType);
+         km.misses.increment();
+         if (result == null || result.isEmpty())
+         {
+            km.notFound.increment();
+         }
+      }
+      return result;
+   }
+
+   private void onMiss(KeyMetrics km, Object result, ComponentAdapter<?> adapter)
+   {
+      km.misses.increment();
+      if (result == null)
+      {
+         km.notFound.increment();
+      }
+      else if (parent != null && adapter != null
+         && parent.getComponentAdapter(adapter.getComponentKey(), Object.class) == adapter)
+      {
+         // The adapter is the one of the parent so it has been found in the parent
+         km.parentLookups.increment();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public String getId()
+   {
+      return "MetricsMiss";
+   }
+}
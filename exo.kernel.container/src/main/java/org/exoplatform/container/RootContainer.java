@@ -118,6 +118,12 @@ public class RootContainer extends ExoContainer implements WebAppListener, Authe
    private final Thread hook = new ShutdownThread(this);
    
    private final AtomicBoolean reloading = new AtomicBoolean();
+
+   /**
+    * The name of the portal container that is currently reloaded, <code>null</code> if
+    * all the containers are reloaded
+    */
+   private volatile String portalContainerReloading;
    
    private final AtomicLong lastUpdateTime = new AtomicLong();
 
@@ -239,8 +245,14 @@ public class RootContainer extends ExoContainer implements WebAppListener, Authe
    {
       if (reloading.get())
       {
-         // To prevent any early access to the portal container
-         synchronized(RootContainer.class) {}
+         String name = portalContainerReloading;
+         if (name == null || name.equals(componentKey))
+         {
+            // To prevent any early access to the portal container, the accesses to
+            // the other components are not affected by the reloading of a given
+            // portal container
+            synchronized(RootContainer.class) {}
+         }
       }
       return super.getComponentInstance(componentKey);
    }
@@ -1084,8 +1096,9 @@ public class RootContainer extends ExoContainer implements WebAppListener, Authe
             boolean hasChanged = false;
             try
             {
+               portalContainerReloading = portalContainerName;
                reloading.set(true);
-               // Make early accesses to the root container to wait
+               // Make early accesses to the portal container to wait
                unregisterComponent(portalContainerName);
                LOG.info("Trying to restart the portal container '" + portalContainerName + "'");
                for (Iterator<WebAppInitContext> it = portalContexts.iterator();it.hasNext();)
@@ -1109,6 +1122,7 @@ public class RootContainer extends ExoContainer implements WebAppListener, Authe
                   Thread.currentThread().setContextClassLoader(currentClassLoader);
                }
                reloading.set(false);
+               portalContainerReloading = null;
             }
          }
          LOG.info("The portal container '" + portalContainerName + "' has been reloaded in "
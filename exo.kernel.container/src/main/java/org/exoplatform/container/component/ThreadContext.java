@@ -98,6 +98,15 @@ public class ThreadContext
       return new ThreadContext(contexts);
    }
 
+   /**
+    * Gives the Thread Local variables managed by this {@link ThreadContext}
+    * @return the Thread Local variables, it can be <code>null</code>
+    */
+   ThreadLocal<Object>[] getThreadLocals()
+   {
+      return threadLocals;
+   }
+
    /**
     * Stores into memory the current values of all the Thread Local variables
     */
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.container.component;
+
+import org.exoplatform.commons.utils.SecurityHelper;
+import org.exoplatform.container.ExoContainer;
+
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the values of the Thread Local variables of all the registered
+ * {@link ThreadContextHolder} of an {@link ExoContainer} and of its parents. Unlike the
+ * {@link ThreadContextHandler}, it is captured once and can then be pushed by as many threads
+ * as needed, even concurrently, since the previous values are given back to the caller
+ * instead of being kept in the snapshot.
+ * 
+ * @version $Id$
+ *
+ */
+public final class ThreadContextSnapshot
+{
+   /**
+    * The snapshot used when there is nothing to propagate
+    */
+   private static final ThreadContextSnapshot EMPTY = new ThreadContextSnapshot(new ThreadLocal[0], new Object[0]);
+
+   private final ThreadLocal<Object>[] threadLocals;
+
+   private final Object[] values;
+
+   private ThreadContextSnapshot(ThreadLocal<Object>[] threadLocals, Object[] values)
+   {
+      this.threadLocals = threadLocals;
+      this.values = values;
+   }
+
+   /**
+    * Captures the current values of all the Thread Local variables of all the registered
+    * {@link ThreadContextHolder} of the given {@link ExoContainer} and of its parents
+    * @param container the container from which we get the {@link ThreadContextHolder}
+    * @return the snapshot of the current values
+    */
+   @SuppressWarnings("unchecked")
+   public static ThreadContextSnapshot capture(ExoContainer container)
+   {
+      final List<ThreadContextHolder> components = new ArrayList<ThreadContextHolder>();
+      for (ExoContainer current = container; current != null; current = current.getParent())
+      {
+         components.addAll(current.getComponentInstancesOfType(ThreadContextHolder.class));
+      }
+      if (components.isEmpty())
+      {
+         return EMPTY;
+      }
+      final List<ThreadLocal<Object>> threadLocals = new ArrayList<ThreadLocal<Object>>();
+      SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+      {
+         public Void run()
+         {
+            for (int i = 0, length = components.size(); i < length; i++)
+            {
+               ThreadContext tc = components.get(i).getThreadContext();
+               if (tc == null || tc.getThreadLocals() == null)
+               {
+                  // This ThreadContextHolder has nothing valuable to share so we skip it
+                  continue;
+               }
+               ThreadLocal<Object>[] tls = tc.getThreadLocals();
+               for (int j = 0; j < tls.length; j++)
+               {
+                  if (tls[j] != null)
+                  {
+                     threadLocals.add(tls[j]);
+                  }
+               }
+            }
+            return null;
+         }
+      });
+      if (threadLocals.isEmpty())
+      {
+         return EMPTY;
+      }
+      Object[] values = new Object[threadLocals.size()];
+      for (int i = 0; i < values.length; i++)
+      {
+         values[i] = threadLocals.get(i).get();
+      }
+      return new ThreadContextSnapshot(threadLocals.toArray(new ThreadLocal[threadLocals.size()]), values);
+   }
+
+   /**
+    * Pushes the values of the snapshot into the Thread Local variables of the current thread
+    * @return the previous values that must be given to {@link #restore(Object[])}
+    */
+   public Object[] push()
+   {
+      Object[] previous = new Object[values.length];
+      for (int i = 0; i < values.length; i++)
+      {
+         ThreadLocal<Object> tl = threadLocals[i];
+         previous[i] = tl.get();
+         tl.set(values[i]);
+      }
+      return previous;
+   }
+
+   /**
+    * Restores the values of the Thread Local variables of the current thread, the Thread Local
+    * variables that had no value are removed to avoid keeping entries in the pooled threads
+    * @param previous the values returned by {@link #push()}
+    */
+   public void restore(Object[] previous)
+   {
+      // Restored in the reverse order in case a Thread Local variable is shared by several holders
+      for (int i = previous.length - 1; i >= 0; i--)
+      {
+         if (previous[i] == null)
+         {
+            threadLocals[i].remove();
+         }
+         else
+         {
+            threadLocals[i].set(previous[i]);
+         }
+      }
+   }
+}
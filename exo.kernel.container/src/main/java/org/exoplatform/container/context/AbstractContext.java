@@ -60,32 +60,45 @@ public abstract class AbstractContext<K> implements AdvancedContext<K>, ThreadCo
       {
          if (creationalContext == null)
             return null;
-         if (isSharable())
-         {
-            Lock lock = getLock(id);
-            try
-            {
-               lock.lock();
-               result = getInstance(storage, id);
-               if (result == null)
-               {
-                  result =
-                     storage.setInstance(id,
-                        new CreationContext<T>(contextual, creationalContext, contextual.create(creationalContext)));
-               }
-            }
-            finally
-            {
-               lock.unlock();
-            }
-         }
-         else
+         result = createInstance(storage, id, contextual, creationalContext);
+      }
+      return result;
+   }
+
+   /**
+    * Creates and stores an instance of the given {@link Contextual}. In case the context
+    * is sharable, the creation is done under the lock of the given id.
+    * @param storage the storage in which the instance must be stored
+    * @param id the id of the contextual for which we want to create an instance
+    * @param contextual the contextual to use to create the instance
+    * @param creationalContext the creational context to use to create the instance
+    * @return the instance that has been effectively stored
+    */
+   protected <T> T createInstance(CreationContextStorage storage, String id, Contextual<T> contextual,
+      CreationalContext<T> creationalContext)
+   {
+      if (!isSharable())
+      {
+         return storage.setInstance(id,
+            new CreationContext<T>(contextual, creationalContext, contextual.create(creationalContext)));
+      }
+      T result;
+      Lock lock = getLock(id);
+      try
+      {
+         lock.lock();
+         result = getInstance(storage, id);
+         if (result == null)
          {
             result =
                storage.setInstance(id,
                   new CreationContext<T>(contextual, creationalContext, contextual.create(creationalContext)));
          }
       }
+      finally
+      {
+         lock.unlock();
+      }
       return result;
    }
 
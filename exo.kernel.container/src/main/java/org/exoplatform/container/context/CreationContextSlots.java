@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.container.context;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.enterprise.context.spi.Contextual;
+import javax.enterprise.context.spi.CreationalContext;
+
+/**
+ * A dense array of {@link CreationContext} indexed by a slot that is assigned once
+ * per {@link Contextual} id for the whole JVM. A single instance of this class is
+ * stored per request or per session which allows to get a {@link CreationContext}
+ * without building any attribute name. The slots are not serialized, only the ids
+ * are so that the content can be restored on a JVM in which the slots differ.
+ *
+ * @version $Id$
+ *
+ */
+final class CreationContextSlots implements Serializable
+{
+
+   /**
+    * The serial version UID
+    */
+   private static final long serialVersionUID = -4389201632717528421L;
+
+   /**
+    * The initial amount of slots
+    */
+   private static final int INITIAL_CAPACITY = 16;
+
+   /**
+    * The slots that have already been assigned, the key is the contextual id
+    */
+   private static final ConcurrentMap<String, Integer> SLOTS = new ConcurrentHashMap<String, Integer>(64, 0.75f,
+      64);
+
+   /**
+    * The contextual ids indexed by slot
+    */
+   private static volatile String[] IDS = new String[INITIAL_CAPACITY];
+
+   /**
+    * The total amount of slots assigned so far
+    */
+   private static int SLOT_COUNT;
+
+   /**
+    * The amount of slots per chunk, the chunks are never replaced once created so that
+    * a slot can be updated atomically even while the amount of chunks is increased
+    */
+   private static final int CHUNK_SIZE = 16;
+
+   /**
+    * The mask used to get the index of a slot within its chunk
+    */
+   private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+   /**
+    * The shift used to get the chunk of a slot
+    */
+   private static final int CHUNK_SHIFT = 4;
+
+   /**
+    * The chunks of slots, a slot contains either a {@link CreationContext}, a {@link Placeholder}
+    * or <code>null</code>
+    */
+   private transient volatile AtomicReferenceArray<Object>[] chunks;
+
+   /**
+    * The value of the size once the slots have been removed
+    */
+   private static final int REMOVED = -1;
+
+   /**
+    * The total amount of slots that are not empty or {@link #REMOVED} once the slots are empty
+    * and have been removed from the underlying object, no content can then be added anymore
+    */
+   private transient AtomicInteger size;
+
+   CreationContextSlots()
+   {
+      init();
+   }
+
+   private void init()
+   {
+      this.chunks = newChunks(Math.max(1, (SLOT_COUNT + CHUNK_MASK) >>> CHUNK_SHIFT), null);
+      this.size = new AtomicInteger();
+   }
+
+   @SuppressWarnings("unchecked")
+   private static AtomicReferenceArray<Object>[] newChunks(int length, AtomicReferenceArray<Object>[] chunks)
+   {
+      AtomicReferenceArray<Object>[] result = new AtomicReferenceArray[length];
+      int i = 0;
+      if (chunks != null)
+      {
+         System.arraycopy(chunks, 0, result, 0, chunks.length);
+         i = chunks.length;
+      }
+      for (; i < length; i++)
+      {
+         result[i] = new AtomicReferenceArray<Object>(CHUNK_SIZE);
+      }
+      return result;
+   }
+
+   /**
+    * Gives the slot assigned to the given {@link Contextual} id, if no slot has been
+    * assigned yet a new one will be assigned
+    * @param id the id of the contextual for which we want the slot
+    * @return the slot corresponding to the given id
+    */
+   static int getSlot(String id)
+   {
+      Integer slot = SLOTS.get(id);
+      if (slot != null)
+      {
+         return slot.intValue();
+      }
+      synchronized (CreationContextSlots.class)
+      {
+         slot = SLOTS.get(id);
+         if (slot == null)
+         {
+            int newSlot = SLOT_COUNT++;
+            String[] ids = IDS;
+            if (newSlot >= ids.length)
+            {
+               ids = Arrays.copyOf(ids, ids.length << 1);
+            }
+            ids[newSlot] = id;
+            IDS = ids;
+            slot = Integer.valueOf(newSlot);
+            SLOTS.put(id, slot);
+         }
+      }
+      return slot.intValue();
+   }
+
+   /**
+    * Gives the slot assigned to the given {@link Contextual} id if any
+    * @param id the id of the contextual for which we want the slot
+    * @return the slot corresponding to the given id or <code>-1</code> if no slot
+    * has been assigned yet
+    */
+   static int findSlot(String id)
+   {
+      Integer slot = SLOTS.get(id);
+      return slot == null ? -1 : slot.intValue();
+   }
+
+   /**
+    * Gives the chunk that contains the given slot
+    * @param slot the slot for which we want the chunk
+    * @param create indicates whether the chunk should be created if it doesn't exist
+    * @return the corresponding chunk if it exists or could be created, <code>null</code> otherwise
+    */
+   private AtomicReferenceArray<Object> getChunk(int slot, boolean create)
+   {
+      if (slot < 0)
+      {
+         return null;
+      }
+      int index = slot >>> CHUNK_SHIFT;
+      AtomicReferenceArray<Object>[] chunks = this.chunks;
+      if (index < chunks.length)
+      {
+         return chunks[index];
+      }
+      else if (!create)
+      {
+         return null;
+      }
+      synchronized (this)
+      {
+         chunks = this.chunks;
+         if (index >= chunks.length)
+         {
+            this.chunks = chunks = newChunks(Math.max(index + 1, chunks.length << 1), chunks);
+         }
+         return chunks[index];
+      }
+   }
+
+   /**
+    * Reserves the room for a new content
+    * @throws RemovedSlotsException if the slots have been removed
+    */
+   private void reserve()
+   {
+      for (;;)
+      {
+         int current = size.get();
+         if (current == REMOVED)
+         {
+            throw RemovedSlotsException.INSTANCE;
+         }
+         if (size.compareAndSet(current, current + 1))
+         {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Indicates whether the slots have been removed from the underlying object, in which
+    * case new slots must be used
+    */
+   boolean isRemoved()
+   {
+      return size.get() == REMOVED;
+   }
+
+   /**
+    * Gives the {@link CreationContext} stored into the given slot
+    * @param slot the slot from which we want the content
+    * @return the corresponding {@link CreationContext} if it exists, <code>null</code> otherwise
+    */
+   CreationContext<?> get(int slot)
+   {
+      AtomicReferenceArray<Object> chunk = getChunk(slot, false);
+      if (chunk == null)
+      {
+         return null;
+      }
+      Object value = chunk.get(slot & CHUNK_MASK);
+      return value instanceof CreationContext ? (CreationContext<?>)value : null;
+   }
+
+   /**
+    * Stores the given {@link CreationContext} into the given slot unless an instance has
+    * already been stored into it
+    * @param slot the slot in which we want to store the content
+    * @param creationContext the {@link CreationContext} to store
+    * @return the instance that has been effectively set
+    * @throws RemovedSlotsException if the slots have been removed
+    */
+   <T> T set(int slot, CreationContext<T> creationContext)
+   {
+      AtomicReferenceArray<Object> chunk = getChunk(slot, true);
+      int index = slot & CHUNK_MASK;
+      for (;;)
+      {
+         Object value = chunk.get(index);
+         if (value instanceof Placeholder)
+         {
+            // An instance is being created so we simply replace the placeholder
+            // the creator will then get our instance
+            if (chunk.compareAndSet(index, value, creationContext))
+            {
+               return creationContext.getInstance();
+            }
+            continue;
+         }
+         @SuppressWarnings("unchecked")
+         CreationContext<T> currentValue = (CreationContext<T>)value;
+         if (currentValue != null && currentValue.getInstance() != null)
+         {
+            return currentValue.getInstance();
+         }
+         if (currentValue == null)
+         {
+            reserve();
+         }
+         if (chunk.compareAndSet(index, currentValue, creationContext))
+         {
+            return creationContext.getInstance();
+         }
+         if (currentValue == null)
+         {
+            size.decrementAndGet();
+         }
+      }
+   }
+
+   /**
+    * Gives the instance stored into the given slot and creates it if it doesn't exist yet. In case
+    * of concurrent accesses, only one thread will create the instance thanks to a {@link Placeholder}
+    * set atomically into the slot, the other threads will wait until the instance is created.
+    * @param slot the slot from which we want the instance
+    * @param contextual the contextual to use to create the instance
+    * @param creationalContext the creational context to use to create the instance
+    * @return the instance stored into the given slot
+    * @throws RemovedSlotsException if the slots have been removed
+    */
+   <T> T getOrCreate(int slot, Contextual<T> contextual, CreationalContext<T> creationalContext)
+   {
+      AtomicReferenceArray<Object> chunk = getChunk(slot, true);
+      int index = slot & CHUNK_MASK;
+      for (;;)
+      {
+         Object value = chunk.get(index);
+         if (value instanceof Placeholder)
+         {
+            Placeholder placeholder = (Placeholder)value;
+            if (placeholder.owner != Thread.currentThread())
+            {
+               placeholder.await();
+               continue;
+            }
+            // Re-entrant call, the instance is created and stored directly
+            return set(slot, new CreationContext<T>(contextual, creationalContext, contextual.create(creationalContext)));
+         }
+         @SuppressWarnings("unchecked")
+         CreationContext<T> currentValue = (CreationContext<T>)value;
+         if (currentValue != null && currentValue.getInstance() != null)
+         {
+            return currentValue.getInstance();
+         }
+         if (currentValue == null)
+         {
+            // The placeholder takes the room of the future instance
+            reserve();
+         }
+         Placeholder placeholder = new Placeholder();
+         if (!chunk.compareAndSet(index, currentValue, placeholder))
+         {
+            if (currentValue == null)
+            {
+               size.decrementAndGet();
+            }
+            continue;
+         }
+         boolean created = false;
+         try
+         {
+            CreationContext<T> creationContext =
+               new CreationContext<T>(contextual, creationalContext, contextual.create(creationalContext));
+            created = true;
+            if (chunk.compareAndSet(index, placeholder, creationContext))
+            {
+               return creationContext.getInstance();
+            }
+            // The placeholder has been replaced in the meantime, typically by a re-entrant
+            // call, so the instance that has been stored wins and ours must be destroyed
+            T result = set(slot, creationContext);
+            if (result != creationContext.getInstance())
+            {
+               contextual.destroy(creationContext.getInstance(), creationalContext);
+            }
+            return result;
+         }
+         finally
+         {
+            if (!created)
+            {
+               // Restore the previous value to allow another thread to try again
+               if (chunk.compareAndSet(index, placeholder, currentValue) && currentValue == null)
+               {
+                  size.decrementAndGet();
+               }
+            }
+            placeholder.release();
+         }
+      }
+   }
+
+   /**
+    * Removes the content of the given slot, if no more slot is used the slots are marked
+    * as removed atomically so that no content can be added anymore
+    * @param slot the slot to clear
+    * @return <code>true</code> if no more slot is used and the slots must be removed from
+    * the underlying object, <code>false</code> otherwise
+    */
+   boolean remove(int slot)
+   {
+      AtomicReferenceArray<Object> chunk = getChunk(slot, false);
+      if (chunk != null)
+      {
+         int index = slot & CHUNK_MASK;
+         Object value = chunk.get(index);
+         if (value instanceof CreationContext && chunk.compareAndSet(index, value, null))
+         {
+            size.decrementAndGet();
+         }
+      }
+      return size.compareAndSet(0, REMOVED);
+   }
+
+   /**
+    * Gives the ids of all the {@link Contextual} for which a {@link CreationContext} has
+    * been stored
+    */
+   Set<String> getIds()
+   {
+      Set<String> result = new HashSet<String>();
+      String[] ids = IDS;
+      AtomicReferenceArray<Object>[] chunks = this.chunks;
+      for (int i = 0; i < chunks.length; i++)
+      {
+         AtomicReferenceArray<Object> chunk = chunks[i];
+         for (int j = 0; j < CHUNK_SIZE; j++)
+         {
+            int slot = (i << CHUNK_SHIFT) + j;
+            if (slot < ids.length && chunk.get(j) instanceof CreationContext)
+            {
+               result.add(ids[slot]);
+            }
+         }
+      }
+      return result;
+   }
+
+   private void writeObject(ObjectOutputStream out) throws IOException
+   {
+      out.defaultWriteObject();
+      Set<String> ids = getIds();
+      Map<String, CreationContext<?>> values = new HashMap<String, CreationContext<?>>(ids.size() * 2);
+      for (String id : ids)
+      {
+         CreationContext<?> creationContext = get(findSlot(id));
+         if (creationContext != null)
+         {
+            values.put(id, creationContext);
+         }
+      }
+      out.writeInt(values.size());
+      for (Map.Entry<String, CreationContext<?>> entry : values.entrySet())
+      {
+         out.writeUTF(entry.getKey());
+         out.writeObject(entry.getValue());
+      }
+   }
+
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      init();
+      int size = in.readInt();
+      for (int i = 0; i < size; i++)
+      {
+         String id = in.readUTF();
+         set(getSlot(id), (CreationContext<?>)in.readObject());
+      }
+   }
+
+   /**
+    * Thrown when some content is added to slots that have been removed from the underlying
+    * object, the operation must then be done again with new slots
+    */
+   static final class RemovedSlotsException extends RuntimeException
+   {
+      /**
+       * The serial version UID
+       */
+      private static final long serialVersionUID = 4236829405473924381L;
+
+      /**
+       * The unique instance, it has no stack trace as it is only used internally
+       */
+      static final RemovedSlotsException INSTANCE = new RemovedSlotsException();
+
+      private RemovedSlotsException()
+      {
+         super("The slots have been removed");
+      }
+
+      @Override
+      public synchronized Throwable fillInStackTrace()
+      {
+         return this;
+      }
+   }
+
+   /**
+    * The value stored into a slot while its instance is being created
+    */
+   private static final class Placeholder
+   {
+      /**
+       * The thread creating the instance
+       */
+      private final Thread owner = Thread.currentThread();
+
+      /**
+       * Used to release the threads waiting for the instance
+       */
+      private final CountDownLatch latch = new CountDownLatch(1);
+
+      private void await()
+      {
+         boolean interrupted = false;
+         for (;;)
+         {
+            try
+            {
+               latch.await();
+               break;
+            }
+            catch (InterruptedException e)
+            {
+               interrupted = true;
+            }
+         }
+         if (interrupted)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+
+      private void release()
+      {
+         latch.countDown();
+      }
+   }
+}
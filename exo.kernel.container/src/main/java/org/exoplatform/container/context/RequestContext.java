@@ -19,9 +19,6 @@
 package org.exoplatform.container.context;
 
 import java.lang.annotation.Annotation;
-import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.Set;
 
 import javax.enterprise.context.RequestScoped;
 import javax.servlet.ServletRequest;
@@ -52,14 +49,9 @@ public class RequestContext extends UnSharedContext<ServletRequest>
       return new RequestContextStorage(key);
    }
 
-   private static final class RequestContextStorage implements CreationContextStorage
+   private static final class RequestContextStorage extends SlotCreationContextStorage
    {
 
-      /**
-       * The prefix of all the attributes stored into the request
-       */
-      private static final String PREFIX = RequestContextStorage.class.getPackage().getName();
-
       /**
        * The request in which we will store the content
        */
@@ -70,14 +62,6 @@ public class RequestContext extends UnSharedContext<ServletRequest>
          this.request = request;
       }
 
-      private String getFullId(String id)
-      {
-         StringBuilder sb = new StringBuilder(PREFIX);
-         sb.append('#');
-         sb.append(id);
-         return sb.toString();
-      }
-
       /**
       * {@inheritDoc}
        */
@@ -89,55 +73,25 @@ public class RequestContext extends UnSharedContext<ServletRequest>
       /**
        * {@inheritDoc}
        */
-      public <T> T setInstance(String id, CreationContext<T> creationContext)
-      {
-         String fullId = getFullId(id);
-         @SuppressWarnings("unchecked")
-         CreationContext<T> currentValue = (CreationContext<T>)request.getAttribute(fullId);
-         if (currentValue != null && currentValue.getInstance() != null)
-         {
-            return currentValue.getInstance();
-         }
-         request.setAttribute(fullId, creationContext);
-         return creationContext.getInstance();
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      @SuppressWarnings("unchecked")
-      public <T> CreationContext<T> getCreationContext(String id)
+      protected Object getAttribute(String name)
       {
-         String fullId = getFullId(id);
-         return (CreationContext<T>)request.getAttribute(fullId);
+         return request.getAttribute(name);
       }
 
       /**
        * {@inheritDoc}
        */
-      public void removeInstance(String id)
+      protected void setAttribute(String name, Object value)
       {
-         String fullId = getFullId(id);
-         request.removeAttribute(fullId);
+         request.setAttribute(name, value);
       }
 
       /**
        * {@inheritDoc}
        */
-      public Set<String> getAllIds()
+      protected void removeAttribute(String name)
       {
-         Enumeration<String> enumeration = request.getAttributeNames();
-         Set<String> ids = new HashSet<String>();
-         while (enumeration.hasMoreElements())
-         {
-            String id = enumeration.nextElement();
-            if (id.startsWith(PREFIX))
-            {
-               // Remove the prefix
-               ids.add(id.substring(PREFIX.length() + 1));
-            }
-         }
-         return ids;
+         request.removeAttribute(name);
       }
    }
 }
@@ -19,9 +19,8 @@
 package org.exoplatform.container.context;
 
 import java.lang.annotation.Annotation;
-import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.enterprise.context.SessionScoped;
 import javax.servlet.http.HttpSession;
@@ -37,6 +36,14 @@ import javax.servlet.http.HttpSession;
 public class SessionContext extends SharedContext<HttpSession>
 {
 
+   /**
+    * The {@link CreationContextSlots} published for each session, the key is the id of the
+    * session. It allows to publish the slots atomically since a session cannot be modified
+    * atomically, an entry is removed once its slots are empty.
+    */
+   private final ConcurrentMap<String, CreationContextSlots> publishedSlots =
+      new ConcurrentHashMap<String, CreationContextSlots>(64, 0.75f, 64);
+
    /**
     * {@inheritDoc}
     */
@@ -45,6 +52,16 @@ public class SessionContext extends SharedContext<HttpSession>
       return SessionScoped.class;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void unregister(HttpSession key)
+   {
+      super.unregister(key);
+      publishedSlots.remove(key.getId());
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -53,14 +70,9 @@ public class SessionContext extends SharedContext<HttpSession>
       return new SessionContextStorage(key);
    }
 
-   private static final class SessionContextStorage implements CreationContextStorage
+   private final class SessionContextStorage extends SlotCreationContextStorage
    {
 
-      /**
-       * The prefix of all the attributes stored into the request
-       */
-      private static final String PREFIX = SessionContextStorage.class.getPackage().getName();
-
       /**
        * The session in which we will store the content
        */
@@ -71,74 +83,136 @@ public class SessionContext extends SharedContext<HttpSession>
          this.session = session;
       }
 
-      private String getFullId(String id)
+      /**
+       * {@inheritDoc}
+       */
+      public String getId()
       {
-         StringBuilder sb = new StringBuilder(PREFIX);
-         sb.append('#');
-         sb.append(id);
-         return sb.toString();
+         return session.getId();
       }
 
       /**
        * {@inheritDoc}
        */
-      public String getId()
+      protected Object getAttribute(String name)
       {
-         return session.getId();
+         return session.getAttribute(name);
       }
 
       /**
        * {@inheritDoc}
        */
-      public <T> T setInstance(String id, CreationContext<T> creationContext)
+      protected void setAttribute(String name, Object value)
       {
-         String fullId = getFullId(id);
-         @SuppressWarnings("unchecked")
-         CreationContext<T> currentValue = (CreationContext<T>)session.getAttribute(fullId);
-         if (currentValue != null && currentValue.getInstance() != null)
-         {
-            return currentValue.getInstance();
-         }
-         session.setAttribute(fullId, creationContext);
-         return creationContext.getInstance();
+         session.setAttribute(name, value);
       }
 
       /**
        * {@inheritDoc}
        */
-      @SuppressWarnings("unchecked")
-      public <T> CreationContext<T> getCreationContext(String id)
+      protected void removeAttribute(String name)
       {
-         String fullId = getFullId(id);
-         return (CreationContext<T>)session.getAttribute(fullId);
+         session.removeAttribute(name);
       }
 
       /**
        * {@inheritDoc}
+       * 
+       * The session can be accessed concurrently by several requests so the slots
+       * are first published atomically into the map of the published slots, then
+       * into the session
        */
-      public void removeInstance(String id)
+      @Override
+      protected CreationContextSlots createSlots()
       {
-         String fullId = getFullId(id);
-         session.removeAttribute(fullId);
+         String id = session.getId();
+         CreationContextSlots slots = new CreationContextSlots();
+         for (;;)
+         {
+            CreationContextSlots current = publishedSlots.putIfAbsent(id, slots);
+            if (current == null)
+            {
+               break;
+            }
+            else if (!current.isRemoved())
+            {
+               // Slots have been created concurrently
+               slots = current;
+               break;
+            }
+            else if (publishedSlots.replace(id, current, slots))
+            {
+               break;
+            }
+         }
+         publish(slots);
+         return slots;
       }
 
       /**
        * {@inheritDoc}
+       * 
+       * It is done only if the given slots are the published ones to prevent replacing slots
+       * created concurrently
        */
-      public Set<String> getAllIds()
+      @Override
+      protected void updateSlots(CreationContextSlots slots)
       {
-         Enumeration<String> enumeration = session.getAttributeNames();
-         Set<String> ids = new HashSet<String>();
-         while (enumeration.hasMoreElements())
+         String id = session.getId();
+         CreationContextSlots current = publishedSlots.get(id);
+         if (current == null)
          {
-            String id = enumeration.nextElement();
-            if (id.startsWith(PREFIX))
+            // The slots have been restored from the session, typically after a failover
+            current = publishedSlots.putIfAbsent(id, slots);
+            if (current == null)
             {
-               // Remove the prefix
-               ids.add(id.substring(PREFIX.length() + 1));
+               current = slots;
             }
          }
-         return ids;
+         if (current == slots)
+         {
+            publish(slots);
+         }
+      }
+
+      /**
+       * {@inheritDoc}
+       * 
+       * The slots are first unpublished atomically, then removed from the session unless
+       * they have been replaced in the meantime
+       */
+      @Override
+      protected void removeSlots(CreationContextSlots slots)
+      {
+         publishedSlots.remove(session.getId(), slots);
+         if (getAttribute(ATTRIBUTE_NAME) == slots)
+         {
+            removeAttribute(ATTRIBUTE_NAME);
+         }
+         checkPublishedSlots(slots);
+      }
+
+      /**
+       * Stores the given slots into the session
+       */
+      private void publish(CreationContextSlots slots)
+      {
+         setAttribute(ATTRIBUTE_NAME, slots);
+         checkPublishedSlots(slots);
+      }
+
+      /**
+       * Stores again the published slots into the session if they have been replaced
+       * while the session was modified with the given slots, since the session could then
+       * have overwritten them
+       */
+      private void checkPublishedSlots(CreationContextSlots slots)
+      {
+         CreationContextSlots current = publishedSlots.get(session.getId());
+         if (current != null && current != slots && !current.isRemoved())
+         {
+            setAttribute(ATTRIBUTE_NAME, current);
+         }
       }
    }
 }
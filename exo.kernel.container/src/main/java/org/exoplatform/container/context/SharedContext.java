@@ -23,6 +23,9 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.enterprise.context.spi.Contextual;
+import javax.enterprise.context.spi.CreationalContext;
+
 /**
  * This is the root class of all the shared contexts, it relies on a {@link ConcurrentMap}
  * 
@@ -46,6 +49,24 @@ public abstract class SharedContext<K> extends AbstractContext<K>
       return true;
    }
 
+   /**
+    * {@inheritDoc}
+    * 
+    * In case the storage is based on slots, the instance is created without any lock
+    * thanks to a placeholder set atomically into the slot of the contextual, otherwise
+    * it relies on the lock of the contextual.
+    */
+   @Override
+   protected <T> T createInstance(CreationContextStorage storage, String id, Contextual<T> contextual,
+      CreationalContext<T> creationalContext)
+   {
+      if (storage instanceof SlotCreationContextStorage)
+      {
+         return ((SlotCreationContextStorage)storage).getOrCreateInstance(id, contextual, creationalContext);
+      }
+      return super.createInstance(storage, id, contextual, creationalContext);
+   }
+
    /**
     * {@inheritDoc}
     */
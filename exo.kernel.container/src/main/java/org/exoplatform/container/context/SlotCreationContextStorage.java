@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.container.context;
+
+import java.util.Collections;
+import java.util.Set;
+
+import javax.enterprise.context.spi.Contextual;
+import javax.enterprise.context.spi.CreationalContext;
+
+/**
+ * A {@link CreationContextStorage} that stores all its {@link CreationContext} into
+ * one single {@link CreationContextSlots} kept as an attribute of the underlying
+ * object such as a request or a session.
+ *
+ * @version $Id$
+ *
+ */
+abstract class SlotCreationContextStorage implements CreationContextStorage
+{
+
+   /**
+    * The name of the attribute in which we store the {@link CreationContextSlots}
+    */
+   static final String ATTRIBUTE_NAME = CreationContextSlots.class.getName();
+
+   /**
+    * The slots that have been found or created for the current storage
+    */
+   private CreationContextSlots slots;
+
+   /**
+    * Gives the value of the given attribute from the underlying object
+    */
+   protected abstract Object getAttribute(String name);
+
+   /**
+    * Sets the value of the given attribute into the underlying object
+    */
+   protected abstract void setAttribute(String name, Object value);
+
+   /**
+    * Removes the given attribute from the underlying object
+    */
+   protected abstract void removeAttribute(String name);
+
+   /**
+    * Creates the {@link CreationContextSlots} and stores it into the underlying object.
+    * By default there is no concurrent access so the slots are simply created, sub classes
+    * need to override it if the underlying object can be accessed concurrently.
+    * @return the {@link CreationContextSlots} that is effectively stored
+    */
+   protected CreationContextSlots createSlots()
+   {
+      CreationContextSlots slots = new CreationContextSlots();
+      setAttribute(ATTRIBUTE_NAME, slots);
+      return slots;
+   }
+
+   /**
+    * Stores again the given {@link CreationContextSlots} into the underlying object once its content
+    * has changed, so that the underlying object knows that its attribute has been modified, which is
+    * needed for example by the session managers that replicate the sessions. Nothing is done if the
+    * attribute has been replaced in the meantime. Sub classes need to override it if the underlying
+    * object can be accessed concurrently.
+    * @param slots the {@link CreationContextSlots} that have been modified
+    */
+   protected void updateSlots(CreationContextSlots slots)
+   {
+      if (getAttribute(ATTRIBUTE_NAME) == slots)
+      {
+         setAttribute(ATTRIBUTE_NAME, slots);
+      }
+   }
+
+   /**
+    * Removes the given {@link CreationContextSlots} from the underlying object unless the attribute
+    * has been replaced in the meantime. Sub classes need to override it if the underlying object can
+    * be accessed concurrently.
+    * @param slots the {@link CreationContextSlots} to remove
+    */
+   protected void removeSlots(CreationContextSlots slots)
+   {
+      if (getAttribute(ATTRIBUTE_NAME) == slots)
+      {
+         removeAttribute(ATTRIBUTE_NAME);
+      }
+   }
+
+   /**
+    * Gives the {@link CreationContextSlots} of the underlying object, the slots that have
+    * been removed are ignored
+    * @param create indicates whether it should be created if it doesn't exist yet
+    * @return the {@link CreationContextSlots} if it exists or has been created, <code>null</code>
+    * otherwise
+    */
+   protected CreationContextSlots getSlots(boolean create)
+   {
+      CreationContextSlots slots = this.slots;
+      if (slots == null || slots.isRemoved())
+      {
+         slots = (CreationContextSlots)getAttribute(ATTRIBUTE_NAME);
+         if (slots != null && slots.isRemoved())
+         {
+            slots = null;
+         }
+         if (slots == null && create)
+         {
+            slots = createSlots();
+         }
+         this.slots = slots;
+      }
+      return slots;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public <T> T setInstance(String id, CreationContext<T> creationContext)
+   {
+      int slot = CreationContextSlots.getSlot(id);
+      for (;;)
+      {
+         CreationContextSlots slots = getSlots(true);
+         try
+         {
+            T instance = slots.set(slot, creationContext);
+            updateSlots(slots);
+            return instance;
+         }
+         catch (CreationContextSlots.RemovedSlotsException e)
+         {
+            // The slots have been emptied and removed concurrently, we retry with new slots
+            continue;
+         }
+      }
+   }
+
+   /**
+    * Gives the instance stored for the given {@link Contextual} id and creates it if needed.
+    * The creation is done without any lock, only one thread can create the instance, the
+    * others will wait for it.
+    * @param id the id of the contextual for which we want the instance
+    * @param contextual the contextual to use to create the instance
+    * @param creationalContext the creational context to use to create the instance
+    * @return the instance that has been effectively stored
+    */
+   public <T> T getOrCreateInstance(String id, Contextual<T> contextual, CreationalContext<T> creationalContext)
+   {
+      int slot = CreationContextSlots.getSlot(id);
+      for (;;)
+      {
+         CreationContextSlots slots = getSlots(true);
+         CreationContext<?> creationContext = slots.get(slot);
+         if (creationContext != null && creationContext.getInstance() != null)
+         {
+            @SuppressWarnings("unchecked")
+            T instance = (T)creationContext.getInstance();
+            return instance;
+         }
+         try
+         {
+            T instance = slots.getOrCreate(slot, contextual, creationalContext);
+            updateSlots(slots);
+            return instance;
+         }
+         catch (CreationContextSlots.RemovedSlotsException e)
+         {
+            // The slots have been emptied and removed concurrently, we retry with new slots
+            continue;
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @SuppressWarnings("unchecked")
+   public <T> CreationContext<T> getCreationContext(String id)
+   {
+      CreationContextSlots slots = getSlots(false);
+      return slots == null ? null : (CreationContext<T>)slots.get(CreationContextSlots.findSlot(id));
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void removeInstance(String id)
+   {
+      CreationContextSlots slots = getSlots(false);
+      if (slots == null)
+      {
+         return;
+      }
+      if (slots.remove(CreationContextSlots.findSlot(id)))
+      {
+         // No more content, the slots have been marked as removed so no content can be added
+         // anymore, we can then remove them safely
+         removeSlots(slots);
+         this.slots = null;
+      }
+      else
+      {
+         updateSlots(slots);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Set<String> getAllIds()
+   {
+      CreationContextSlots slots = getSlots(false);
+      if (slots == null)
+      {
+         return Collections.emptySet();
+      }
+      return slots.getIds();
+   }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.container;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.commons.utils.PropertyManager;
+import org.exoplatform.container.spi.Container;
+
+/**
+ * @version $Id$
+ *
+ */
+public class TestContainerMetrics extends TestCase
+{
+
+   public void testMetricsDisabledByDefault() throws Exception
+   {
+      ContainerMetrics metrics = getMetrics(new ExoContainer());
+      assertNotNull(metrics);
+      assertFalse(metrics.isEnabled());
+   }
+
+   public void testMetricsEnabledAtStartup() throws Exception
+   {
+      PropertyManager.setProperty(ContainerMetrics.METRICS_ENABLED, "true");
+      try
+      {
+         assertTrue(getMetrics(new ExoContainer()).isEnabled());
+      }
+      finally
+      {
+         System.clearProperty(ContainerMetrics.METRICS_ENABLED);
+         PropertyManager.refresh();
+      }
+   }
+
+   public void testMetrics() throws Exception
+   {
+      ExoContainer parent = new ExoContainer();
+      ExoContainer container = new ExoContainer(parent);
+      ContainerMetrics metrics = getMetrics(container);
+      assertNotNull(metrics);
+      assertFalse(metrics.isEnabled());
+      container.registerComponentInstance(A.class, new A());
+      parent.registerComponentInstance(B.class, new B());
+      parent.registerComponentInstance(D.class, new D());
+      assertNotNull(container.getComponentInstanceOfType(B.class));
+      assertEquals(0, metrics.getLookups());
+      // The metrics are enabled at runtime without rebuilding the container
+      metrics.enable();
+      try
+      {
+         metrics.reset();
+         // Cache miss then cache hit
+         assertNotNull(container.getComponentInstanceOfType(A.class));
+         assertNotNull(container.getComponentInstanceOfType(A.class));
+         ContainerMetrics.KeyMetrics km = metrics.getKeyMetrics(A.class);
+         assertEquals(1, km.misses.get());
+         assertEquals(0, km.parentLookups.get());
+         assertEquals(0, km.notFound.get());
+         assertEquals(2, km.lookupTimes.getCount());
+
+         // Found in the parent
+         assertNotNull(container.getComponentInstanceOfType(D.class));
+         km = metrics.getKeyMetrics(D.class);
+         assertEquals(1, km.lookupTimes.getCount());
+         assertEquals(1, km.misses.get());
+         assertEquals(1, km.parentLookups.get());
+
+         // Not found so never cached
+         assertNull(container.getComponentInstanceOfType(C.class));
+         assertNull(container.getComponentInstanceOfType(C.class));
+         km = metrics.getKeyMetrics(C.class);
+         assertEquals(2, km.lookupTimes.getCount());
+         assertEquals(2, km.misses.get());
+         assertEquals(2, km.notFound.get());
+
+         assertNotNull(container.createComponent(C.class));
+         assertEquals(1, km.creationTimes.getCount());
+
+         assertEquals(5, metrics.getLookups());
+         assertEquals(4, metrics.getMisses());
+         assertEquals(1, metrics.getCreations());
+         assertTrue(metrics.getReport(10).contains(A.class.getName()));
+         assertNotNull(metrics.getMetrics(D.class.getName()));
+         assertNull(metrics.getMetrics(B.class.getName()));
+      }
+      finally
+      {
+         metrics.disable();
+      }
+      container.getComponentInstanceOfType(C.class);
+      assertEquals(2, metrics.getKeyMetrics(C.class).lookupTimes.getCount());
+   }
+
+   private static ContainerMetrics getMetrics(ExoContainer holder)
+   {
+      Container container = holder;
+      while ((container = container.getSuccessor()) != null)
+      {
+         if (container instanceof MetricsContainer)
+         {
+            return ((MetricsContainer)container).getMetrics();
+         }
+      }
+      return null;
+   }
+
+   public static class A
+   {
+   }
+
+   public static class B
+   {
+   }
+
+   public static class C
+   {
+   }
+
+   public static class D
+   {
+   }
+}
@@ -57,6 +57,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
@@ -68,8 +69,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -395,6 +399,70 @@ public class TestExoContainer
       assertEquals("empty_portal", t2.dep.value);
    }
 
+   @Test
+   public void testLookupsWhileReloadingPortalContainer() throws Exception
+   {
+      final RootContainer container = createRootContainer("test-exo-container.xml");
+      container.registerComponentInstance("portal1", "portal1");
+      container.registerComponentInstance("portal2", "portal2");
+      Field reloadingField = RootContainer.class.getDeclaredField("reloading");
+      reloadingField.setAccessible(true);
+      AtomicBoolean reloading = (AtomicBoolean)reloadingField.get(container);
+      Field portalContainerReloading = RootContainer.class.getDeclaredField("portalContainerReloading");
+      portalContainerReloading.setAccessible(true);
+      ConcurrentMap<String, Object> results = new ConcurrentHashMap<String, Object>();
+      Thread reloadedLookup = null;
+      // Puts the root container in the same state as while the portal container portal1 is reloaded
+      synchronized (RootContainer.class)
+      {
+         portalContainerReloading.set(container, "portal1");
+         reloading.set(true);
+         try
+         {
+            Thread otherLookup = new LookupThread(container, "portal2", results);
+            otherLookup.start();
+            otherLookup.join(5000);
+            assertFalse("The lookups of the other portal containers should not wait", otherLookup.isAlive());
+            assertEquals("portal2", results.get("portal2"));
+
+            reloadedLookup = new LookupThread(container, "portal1", results);
+            reloadedLookup.start();
+            reloadedLookup.join(500);
+            assertTrue("The lookups of the reloaded portal container should wait", reloadedLookup.isAlive());
+            assertNull(results.get("portal1"));
+         }
+         finally
+         {
+            reloading.set(false);
+            portalContainerReloading.set(container, null);
+         }
+      }
+      reloadedLookup.join(5000);
+      assertEquals("portal1", results.get("portal1"));
+   }
+
+   private static class LookupThread extends Thread
+   {
+      private final RootContainer container;
+
+      private final String key;
+
+      private final ConcurrentMap<String, Object> results;
+
+      LookupThread(RootContainer container, String key, ConcurrentMap<String, Object> results)
+      {
+         this.container = container;
+         this.key = key;
+         this.results = results;
+      }
+
+      @Override
+      public void run()
+      {
+         results.put(key, container.getComponentInstance(key));
+      }
+   }
+
    public static class TCNS implements Startable
    {
       public String value;
@@ -3326,7 +3394,8 @@ public class TestExoContainer
       manager.<ServletRequest> getContext(RequestScoped.class).activate(req1);
       S1 s1 = container.getComponentInstanceOfType(S1.class);
       int s1Id = s1.getId();
-      assertEquals(2, mapReq1.size());
+      // All the request scoped components are stored into one single attribute
+      assertEquals(1, mapReq1.size());
       assertNotNull(s1);
       assertSame(s1, container.getComponentInstanceOfType(S1.class));
       assertEquals(s1Id, container.getComponentInstanceOfType(S1.class).getId());
@@ -21,6 +21,7 @@ package org.exoplatform.container;
 import org.exoplatform.container.component.ThreadContext;
 import org.exoplatform.container.component.ThreadContextHandler;
 import org.exoplatform.container.component.ThreadContextHolder;
+import org.exoplatform.container.component.ThreadContextSnapshot;
 import org.exoplatform.container.jmx.AbstractTestContainer;
 
 import java.util.Arrays;
@@ -33,6 +34,8 @@ import java.util.Arrays;
 public class TestThreadContextHandler extends AbstractTestContainer
 {
 
+   private ExoContainer container;
+
    private ThreadContextHandler handler;
 
    private TestHolder holder;
@@ -41,7 +44,7 @@ public class TestThreadContextHandler extends AbstractTestContainer
    @Override
    protected void setUp() throws Exception
    {
-      ExoContainer container = createRootContainer("thread-context-handler-configuration.xml");
+      this.container = createRootContainer("thread-context-handler-configuration.xml");
       this.handler = new ThreadContextHandler(container);
       this.holder = container.getComponentInstanceOfType(TestHolder.class);
       this.holder6 = container.getComponentInstanceOfType(TestHolder6.class);
@@ -97,6 +100,49 @@ public class TestThreadContextHandler extends AbstractTestContainer
       assertEquals("foo2", holder6.tl3.get());
    }
 
+   public void testSnapshot() throws Exception
+   {
+      holder.tl.set("foo");
+      holder6.tl.set("foo");
+      holder6.tl2.set("foo");
+      holder6.tl3.set(null);
+      final ThreadContextSnapshot snapshot = ThreadContextSnapshot.capture(container);
+      holder.tl.set("foo2");
+      holder6.tl.set("foo2");
+      holder6.tl2.set("foo2");
+      holder6.tl3.set("foo2");
+      // The snapshot can be pushed several times and by several threads
+      final String[] values = new String[4];
+      Thread t = new Thread()
+      {
+         public void run()
+         {
+            Object[] previous = snapshot.push();
+            values[0] = holder.tl.get();
+            values[1] = holder6.tl.get();
+            values[2] = holder6.tl2.get();
+            values[3] = holder6.tl3.get();
+            snapshot.restore(previous);
+         }
+      };
+      t.start();
+      t.join();
+      assertEquals(Arrays.asList("foo", "foo", "foo", null), Arrays.asList(values));
+      for (int i = 0; i < 2; i++)
+      {
+         Object[] previous = snapshot.push();
+         assertEquals("foo", holder.tl.get());
+         assertEquals("foo", holder6.tl.get());
+         assertEquals("foo", holder6.tl2.get());
+         assertNull(holder6.tl3.get());
+         snapshot.restore(previous);
+         assertEquals("foo2", holder.tl.get());
+         assertEquals("foo2", holder6.tl.get());
+         assertEquals("foo2", holder6.tl2.get());
+         assertEquals("foo2", holder6.tl3.get());
+      }
+   }
+
    public static class TestHolder implements ThreadContextHolder
    {
       public ThreadLocal<String> tl = new ThreadLocal<String>();
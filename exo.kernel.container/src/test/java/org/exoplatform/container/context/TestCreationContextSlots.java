@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.container.context;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.enterprise.context.spi.Contextual;
+import javax.enterprise.context.spi.CreationalContext;
+
+/**
+ * @version $Id$
+ *
+ */
+public class TestCreationContextSlots extends TestCase
+{
+
+   public void testReentrantCreation()
+   {
+      final CreationContextSlots slots = new CreationContextSlots();
+      final int slot = CreationContextSlots.getSlot("reentrant");
+      MyContextual contextual = new MyContextual()
+      {
+         @Override
+         public Object create(CreationalContext<Object> creationalContext)
+         {
+            Object instance = super.create(creationalContext);
+            if (creations.get() == 1)
+            {
+               // The instance is requested again while it is being created
+               slots.getOrCreate(slot, this, creationalContext);
+            }
+            return instance;
+         }
+      };
+      Object instance = slots.getOrCreate(slot, contextual, null);
+      assertEquals(2, contextual.creations.get());
+      assertEquals(2, contextual.instances.size());
+      // The instance created by the re-entrant call wins and the other one is destroyed
+      assertSame(contextual.instances.get(1), instance);
+      assertSame(instance, slots.get(slot).getInstance());
+      assertEquals(1, contextual.destroyed.size());
+      assertSame(contextual.instances.get(0), contextual.destroyed.get(0));
+      assertSame(instance, slots.getOrCreate(slot, contextual, null));
+      assertEquals(2, contextual.creations.get());
+   }
+
+   public void testConcurrentCreation() throws Exception
+   {
+      final CreationContextSlots slots = new CreationContextSlots();
+      final int slot = CreationContextSlots.getSlot("concurrent");
+      final MyContextual contextual = new MyContextual()
+      {
+         @Override
+         public Object create(CreationalContext<Object> creationalContext)
+         {
+            try
+            {
+               // Gives the other threads the time to wait for the instance
+               Thread.sleep(50);
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+            return super.create(creationalContext);
+         }
+      };
+      final int threads = 10;
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(threads);
+      final Object[] results = new Object[threads];
+      final Throwable[] errors = new Throwable[1];
+      for (int i = 0; i < threads; i++)
+      {
+         final int index = i;
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  results[index] = slots.getOrCreate(slot, contextual, null);
+               }
+               catch (Throwable e)
+               {
+                  synchronized (errors)
+                  {
+                     errors[0] = e;
+                  }
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      doneSignal.await();
+      if (errors[0] != null)
+      {
+         throw new AssertionError(errors[0]);
+      }
+      assertEquals(1, contextual.creations.get());
+      assertTrue(contextual.destroyed.isEmpty());
+      for (int i = 0; i < threads; i++)
+      {
+         assertSame(contextual.instances.get(0), results[i]);
+      }
+      assertTrue(slots.remove(slot));
+   }
+
+   private static class MyContextual implements Contextual<Object>
+   {
+      protected final AtomicInteger creations = new AtomicInteger();
+
+      protected final List<Object> instances = Collections.synchronizedList(new ArrayList<Object>());
+
+      protected final List<Object> destroyed = Collections.synchronizedList(new ArrayList<Object>());
+
+      public Object create(CreationalContext<Object> creationalContext)
+      {
+         creations.incrementAndGet();
+         Object instance = new Object();
+         instances.add(instance);
+         return instance;
+      }
+
+      public void destroy(Object instance, CreationalContext<Object> creationalContext)
+      {
+         destroyed.add(instance);
+      }
+   }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2013 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.container.context;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.enterprise.context.spi.Contextual;
+import javax.enterprise.context.spi.CreationalContext;
+
+/**
+ * @version $Id$
+ *
+ */
+public class TestSlotCreationContextStorage extends TestCase
+{
+
+   public void testAttributeUpdatedOnChange()
+   {
+      MapStorage storage = new MapStorage(new HashMap<String, Object>());
+      MyContextual contextual = new MyContextual();
+      Object instance = storage.getOrCreateInstance("id1", contextual, null);
+      assertNotNull(instance);
+      int updates = storage.updates;
+      assertTrue(updates > 0);
+
+      // The attribute is not set again if nothing has changed
+      assertSame(instance, storage.getOrCreateInstance("id1", contextual, null));
+      assertEquals(updates, storage.updates);
+
+      // The attribute is set again for each change
+      storage.setInstance("id2", new CreationContext<Object>(contextual, null, new Object()));
+      assertEquals(updates + 1, storage.updates);
+      storage.getOrCreateInstance("id3", contextual, null);
+      assertEquals(updates + 2, storage.updates);
+      storage.removeInstance("id3");
+      assertEquals(updates + 3, storage.updates);
+      assertTrue(storage.attributes.containsKey(SlotCreationContextStorage.ATTRIBUTE_NAME));
+
+      storage.removeInstance("id2");
+      storage.removeInstance("id1");
+      assertFalse(storage.attributes.containsKey(SlotCreationContextStorage.ATTRIBUTE_NAME));
+   }
+
+   public void testAddAfterConcurrentRemoval()
+   {
+      Map<String, Object> attributes = new HashMap<String, Object>();
+      MyContextual contextual = new MyContextual();
+      // Two storages accessing the same underlying object like two requests of the same session
+      MapStorage storage1 = new MapStorage(attributes);
+      MapStorage storage2 = new MapStorage(attributes);
+      Object instance1 = storage1.getOrCreateInstance("id1", contextual, null);
+      assertSame(instance1, storage2.getCreationContext("id1").getInstance());
+      CreationContextSlots slots = (CreationContextSlots)attributes.get(SlotCreationContextStorage.ATTRIBUTE_NAME);
+
+      // The slots are emptied and removed by the first storage while the second one still refers to them
+      storage1.removeInstance("id1");
+      assertTrue(slots.isRemoved());
+      assertFalse(attributes.containsKey(SlotCreationContextStorage.ATTRIBUTE_NAME));
+
+      // The new instances must not be lost into the removed slots
+      Object instance2 = storage2.getOrCreateInstance("id2", contextual, null);
+      Object instance3 = new Object();
+      assertSame(instance3, storage2.setInstance("id3", new CreationContext<Object>(contextual, null, instance3)));
+      CreationContextSlots newSlots =
+         (CreationContextSlots)attributes.get(SlotCreationContextStorage.ATTRIBUTE_NAME);
+      assertNotNull(newSlots);
+      assertNotSame(slots, newSlots);
+      assertSame(instance2, storage1.getCreationContext("id2").getInstance());
+      assertSame(instance3, storage1.getCreationContext("id3").getInstance());
+      assertEquals(2, storage1.getAllIds().size());
+      assertTrue(storage2.getAllIds().contains("id2"));
+
+      // The removed slots cannot be used anymore
+      try
+      {
+         slots.set(CreationContextSlots.getSlot("id4"), new CreationContext<Object>(contextual, null, new Object()));
+         fail("A RemovedSlotsException was expected");
+      }
+      catch (CreationContextSlots.RemovedSlotsException e)
+      {
+         // expected
+      }
+      assertTrue(slots.getIds().isEmpty());
+   }
+
+   public void testConcurrentAddAndRemove() throws Exception
+   {
+      final Map<String, Object> attributes = new HashMap<String, Object>();
+      final MyContextual contextual = new MyContextual();
+      final int threads = 4;
+      final int iterations = 2000;
+      final Throwable[] errors = new Throwable[1];
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; t++)
+      {
+         final String id = "id" + t;
+         workers[t] = new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  MapStorage storage = new MapStorage(attributes);
+                  for (int i = 0; i < iterations; i++)
+                  {
+                     Object instance = storage.getOrCreateInstance(id, contextual, null);
+                     // The instance must still be reachable from the underlying object
+                     assertSame(instance, new MapStorage(attributes).getCreationContext(id).getInstance());
+                     storage.removeInstance(id);
+                  }
+               }
+               catch (Throwable e)
+               {
+                  synchronized (errors)
+                  {
+                     errors[0] = e;
+                  }
+               }
+            }
+         };
+         workers[t].start();
+      }
+      for (Thread worker : workers)
+      {
+         worker.join();
+      }
+      if (errors[0] != null)
+      {
+         throw new AssertionError(errors[0]);
+      }
+      assertFalse(attributes.containsKey(SlotCreationContextStorage.ATTRIBUTE_NAME));
+   }
+
+   /**
+    * A storage backed by a map that is accessed under the lock of the map like a session
+    */
+   private static class MapStorage extends SlotCreationContextStorage
+   {
+      private final Map<String, Object> attributes;
+
+      private int updates;
+
+      private MapStorage(Map<String, Object> attributes)
+      {
+         this.attributes = attributes;
+      }
+
+      public String getId()
+      {
+         return "MapStorage";
+      }
+
+      protected Object getAttribute(String name)
+      {
+         synchronized (attributes)
+         {
+            return attributes.get(name);
+         }
+      }
+
+      protected void setAttribute(String name, Object value)
+      {
+         synchronized (attributes)
+         {
+            updates++;
+            attributes.put(name, value);
+         }
+      }
+
+      protected void removeAttribute(String name)
+      {
+         synchronized (attributes)
+         {
+            attributes.remove(name);
+         }
+      }
+
+      @Override
+      protected CreationContextSlots createSlots()
+      {
+         synchronized (attributes)
+         {
+            CreationContextSlots slots = (CreationContextSlots)getAttribute(ATTRIBUTE_NAME);
+            return slots == null || slots.isRemoved() ? super.createSlots() : slots;
+         }
+      }
+
+      @Override
+      protected void updateSlots(CreationContextSlots slots)
+      {
+         synchronized (attributes)
+         {
+            super.updateSlots(slots);
+         }
+      }
+
+      @Override
+      protected void removeSlots(CreationContextSlots slots)
+      {
+         synchronized (attributes)
+         {
+            super.removeSlots(slots);
+         }
+      }
+   }
+
+   private static class MyContextual implements Contextual<Object>
+   {
+      public Object create(CreationalContext<Object> creationalContext)
+      {
+         return new Object();
+      }
+
+      public void destroy(Object instance, CreationalContext<Object> creationalContext)
+      {
+      }
+   }
+}